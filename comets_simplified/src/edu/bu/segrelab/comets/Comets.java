@@ -140,6 +140,9 @@ public class Comets implements CometsConstants,
 	private CyclicBarrier runBarrier;
 	
 	protected String scriptFileName = null;
+	private String resumeFileName = null;		// checkpoint to continue the next simulation from
+	private byte[] startState = null;			// world state to start the next simulation from
+	private Map<String, Object> sharedData;		// shared by the simulations of a parameter sweep
 	
 	// UI Widgets
 	private JFrame 				cFrame;					// main Frame for the program
@@ -184,6 +187,8 @@ public class Comets implements CometsConstants,
 	 * loaded from a separate parameters file. See documentation for format.
 	 * <li><code>-pkgparams "param file"</code>: as above, but loads a set of package-specific
 	 * parameters. See specific package documentation for format details.
+	 * <li><code>-resume "checkpoint file"</code>: continues the simulation set up by the
+	 * script from a checkpoint written by an earlier run of it.
 	 * </ul>
 	 * Invalid arguments are ignored.
 	 */
@@ -198,25 +203,7 @@ public class Comets implements CometsConstants,
 		 *    b. one of those is not -loader -> fail.
 		 */
 		
-		runBarrier = new CyclicBarrier(2);
-
-		models = new Model[0];
-
-		mode = SETUP_MODE;
-		cParams = new CometsParameters();
-		
-		worldUndoDeque = new ArrayDeque<World2D>();
-		worldRedoStack = new Stack<World2D>();
-		
-		cellUndoDeque = new ArrayDeque<List<Cell>>();
-		cellRedoStack = new Stack<List<Cell>>();
-		
-		modelUndoDeque = new ArrayDeque<Model[]>();
-		modelRedoStack = new Stack<Model[]>();
-		
-		cometsChangeListeners = new ArrayList<CometsChangeListener>();
-		cometsLoadListeners = new ArrayList<CometsLoadListener>();
-		simStateChangeListeners = new ArrayList<SimulationStateChangeListener>();
+		initState();
 		
 		try
 		{
@@ -254,6 +241,56 @@ public class Comets implements CometsConstants,
 		}
 	}
 
+	/**
+	 * Creates a <code>Comets</code> for one simulation of a parameter sweep. It has no
+	 * GUI, uses the same package loader as the parent, and starts with default
+	 * parameters; the sweep loads its parameter and layout files.
+	 * @param parent the <code>Comets</code> running the sweep
+	 * @param sharedData objects shared read-only by the sweep's simulations
+	 */
+	protected Comets(Comets parent, Map<String, Object> sharedData)
+	{
+		initState();
+		this.sharedData = sharedData;
+		loaderClassName = parent.loaderClassName;
+		initCometsPackage(loaderClassName);
+		cParams.setCommandLineOnly(true);
+		cParams.showGraphics(false);
+	}
+
+	private void initState()
+	{
+		runBarrier = new CyclicBarrier(2);
+
+		models = new Model[0];
+
+		mode = SETUP_MODE;
+		cParams = new CometsParameters();
+		
+		worldUndoDeque = new ArrayDeque<World2D>();
+		worldRedoStack = new Stack<World2D>();
+		
+		cellUndoDeque = new ArrayDeque<List<Cell>>();
+		cellRedoStack = new Stack<List<Cell>>();
+		
+		modelUndoDeque = new ArrayDeque<Model[]>();
+		modelRedoStack = new Stack<Model[]>();
+		
+		cometsChangeListeners = new ArrayList<CometsChangeListener>();
+		cometsLoadListeners = new ArrayList<CometsLoadListener>();
+		simStateChangeListeners = new ArrayList<SimulationStateChangeListener>();
+	}
+
+	/**
+	 * @return the objects shared by the simulations of the parameter sweep this
+	 * <code>Comets</code> is part of (e.g. parsed model files), or null if it isn't
+	 * part of one
+	 */
+	public Map<String, Object> getSharedData()
+	{
+		return sharedData;
+	}
+
 	public void addCometsChangeListener(CometsChangeListener listener)
 	{
 		cometsChangeListeners.add(listener);
@@ -361,6 +398,10 @@ public class Comets implements CometsConstants,
 			{
 				loadParametersFile(argsMap.get(arg));
 			}
+			else if (arg.equalsIgnoreCase("-resume"))
+			{
+				resumeFileName = argsMap.get(arg);
+			}
 			else
 			{
 				throw new CometsArgumentException("Unknown argument: " + arg);
@@ -385,10 +426,50 @@ public class Comets implements CometsConstants,
 				           "-script \"script file name\" -- the path to an automated comets script file\n" +
 				           "-params \"comets parameters file name\" -- the path to a comets parameters file\n" +
 				           "-pkgparams \"comets package parameters file name\" -- the path to a comets\n" +
-				           "           package parameters file, format unique to each package");
+				           "           package parameters file, format unique to each package\n" +
+				           "-resume \"checkpoint file name\" -- continue the script's simulation from a\n" +
+				           "        checkpoint");
 		System.exit(1);
 	}
 	
+	/**
+	 * @return the checkpoint the next simulation should continue from, or null to start
+	 * from the beginning
+	 */
+	public String getResumeFileName()
+	{
+		return resumeFileName;
+	}
+
+	/**
+	 * Sets the checkpoint the next simulation continues from. The world clears it once
+	 * the checkpoint is loaded, so later simulations start from the beginning.
+	 * @param name the checkpoint file, or null
+	 */
+	public void setResumeFileName(String name)
+	{
+		resumeFileName = name;
+	}
+
+	/**
+	 * @return the world state, as taken by <code>FBAWorld.snapshotState()</code>, the next
+	 * simulation should start from, or null to start from the layout
+	 */
+	public byte[] getStartState()
+	{
+		return startState;
+	}
+
+	/**
+	 * Sets the world state the next simulation starts from. Unlike resuming from a
+	 * checkpoint, the logs are started afresh. The world clears it once it's loaded.
+	 * @param state the state, or null
+	 */
+	public void setStartState(byte[] state)
+	{
+		startState = state;
+	}
+
 	public CyclicBarrier getRunBarrier()
 	{
 		return runBarrier;
@@ -529,6 +610,7 @@ public class Comets implements CometsConstants,
 			cParams.showGraphics(false);
 			
 			Set<String[]> parameterSet = new HashSet<String[]>();
+			List<String[]> loadCommands = new ArrayList<String[]>();
 			String batchListFile = "";
 			while((line = reader.readLine()) != null)
 			{
@@ -540,15 +622,15 @@ public class Comets implements CometsConstants,
 				String targetFile = line.substring(line.indexOf(parsed[1]));
 			if (command.equalsIgnoreCase("load_comets_parameters") || line.startsWith("load_package_parameters"))
 			{
-				loadParametersFile(targetFile);
-				cParams.setCommandLineOnly(true);
-				cParams.showGraphics(false);
+				runLoadCommand("load_parameters", targetFile);
+				loadCommands.add(new String[] {"load_parameters", targetFile});
 				System.out.println("MAX CYCLES = " + cParams.getMaxCycles());
 			}
 			else if (command.equalsIgnoreCase("load_layout"))
 			{
 				// load a layout file
-				loadLayoutFile(targetFile);
+				runLoadCommand("load_layout", targetFile);
+				loadCommands.add(new String[] {"load_layout", targetFile});
 			}
 			else if (command.equalsIgnoreCase("batch_list_file"))
 				batchListFile = targetFile;
@@ -573,14 +655,24 @@ public class Comets implements CometsConstants,
 			if (batchListFile.length() == 0)
 				throw new IOException("A batch of trials requires a batch_list_file parameter to store the parameter set");
 				batchSet.saveList(batchListFile);
-				for (int i=0; i<batchSet.size(); i++)
+				if (cParams.getSweepThreads() > 1 || cParams.getBranchCycle() > 0)
 				{
-					batchSet.applyParameterSet(i);
-					doCommandLineRun();
-					batchSet.resetParameters();
+					new ParameterSweep(this, loadCommands, batchSet, batchListFile).run(cParams.getSweepThreads());
+				}
+				else
+				{
+					for (int i=0; i<batchSet.size(); i++)
+					{
+						batchSet.applyParameterSet(i);
+						doCommandLineRun();
+						batchSet.resetParameters();
+					}
 				}
 			}
-			
+			else if (cParams.getReplicates() > 1)
+			{
+				new ReplicateEnsemble(this, loadCommands, filename).run(cParams.getSweepThreads());
+			}
 			else
 				doCommandLineRun();
 		}
@@ -592,8 +684,39 @@ public class Comets implements CometsConstants,
 		{
 			System.out.println("Error in loading parameter batch: " + e.getMessage() + "\n -- halting execution");
 		}
+		catch (InterruptedException e)
+		{
+			System.out.println("Parallel simulations interrupted -- halting execution");
+		}
     }
 
+	/**
+	 * @return the number of cycles the last command line run got to, or 0 if there
+	 * hasn't been one
+	 */
+	public int getCyclesRun()
+	{
+		// the runner counts the cycle it stopped at, which isn't run
+		return runner == null ? 0 : Math.max(0, runner.getCurrentCycle() - 1);
+	}
+
+	/**
+	 * Runs one of a script's file loading commands.
+	 * @param command "load_parameters" or "load_layout"
+	 * @param targetFile the file to load
+	 */
+	void runLoadCommand(String command, String targetFile)
+	{
+		if (command.equals("load_layout"))
+			loadLayoutFile(targetFile);
+		else
+		{
+			loadParametersFile(targetFile);
+			cParams.setCommandLineOnly(true);
+			cParams.showGraphics(false);
+		}
+	}
+
 	protected void doCommandLineRun()
 	{
 		cParams.pause(false);
@@ -604,18 +727,21 @@ public class Comets implements CometsConstants,
 		runner = new CometsSimRunner(this);
 		runner.start();
 		
-		// The runner spins as a separate thread, so check it once a second.
+		// The runner spins as a separate thread, so wait for it to finish.
+		boolean interrupted = false;
 		while(runner.isAlive())
 		{
 			try
 			{
-				Thread.sleep(1000);
+				runner.join();
 			}
 			catch(InterruptedException e)
 			{
-				
+				interrupted = true;
 			}
 		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
 	}
 	
 	/**
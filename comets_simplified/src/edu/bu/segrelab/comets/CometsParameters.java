@@ -102,14 +102,20 @@ public class CometsParameters implements CometsConstants
 				mediaRespawnRate = 1,			//not used (CHECK)
 				slideshowRate = 1,
 				slideshowLayer = 0,
+				sweepThreads = 1,				// parameter sets or replicates run at the same time
+				replicates = 1,					// stochastic replicates of the layout
+				branchCycle = 0,				// cycles shared by every parameter set of a batch
 				barrierColor = 0xff7D7D7D,
 				backgroundColor = 0xff000000;
 	
 	//private long seed=0; /*Random class (in utils) seed */
+	private long replicateSeed = 0;		// the replicates' seeds are derived from this
 	
 	private String slideshowExt = "png",
 				   slideshowName = "slideshow",
-				   lastDirectory = ".";
+				   lastDirectory = ".",
+				   logNameTag = "",				// not a file parameter; set per simulation
+				   logDirectory = "";			// not a file parameter; set per simulation
 
 	private Map<String, Object> paramValues;
 	private Map<String, ParameterType> paramTypes;
@@ -198,6 +204,10 @@ public class CometsParameters implements CometsConstants
 		setBackgroundColor(((Integer)paramValues.get("backgroundcolor")).intValue());
 		setDisplayLayer(((Integer)paramValues.get("displaylayer")).intValue());
 		setSlideshowLayer(((Integer)paramValues.get("slideshowlayer")).intValue());	
+		setSweepThreads(((Integer)paramValues.get("sweepthreads")).intValue());
+		setReplicates(((Integer)paramValues.get("replicates")).intValue());
+		setBranchCycle(((Integer)paramValues.get("branchcycle")).intValue());
+		setReplicateSeed(((Long)paramValues.get("replicateseed")).longValue());
 		
 		//setSeed(((Long)paramValues.get("seed")).longValue());
 
@@ -280,6 +290,18 @@ public class CometsParameters implements CometsConstants
 		paramValues.put("slideshowrate", new Integer(slideshowRate));
 		paramTypes.put("slideshowrate", ParameterType.INT);
 		
+		paramValues.put("sweepthreads", new Integer(sweepThreads));
+		paramTypes.put("sweepthreads", ParameterType.INT);
+		
+		paramValues.put("replicates", new Integer(replicates));
+		paramTypes.put("replicates", ParameterType.INT);
+		
+		paramValues.put("branchcycle", new Integer(branchCycle));
+		paramTypes.put("branchcycle", ParameterType.INT);
+		
+		paramValues.put("replicateseed", new Long(replicateSeed));
+		paramTypes.put("replicateseed", ParameterType.LONG);
+		
 		paramValues.put("barriercolor", new Integer(barrierColor));
 		paramTypes.put("barriercolor", ParameterType.COLOR);
 		
@@ -622,6 +644,34 @@ public class CometsParameters implements CometsConstants
 	{
 		return lastDirectory;
 	}
+
+	/**
+	 * @return the text added before the extension of every log file name, which keeps
+	 * apart the logs of simulations run side by side; empty unless set
+	 */
+	public String getLogNameTag()
+	{
+		return logNameTag;
+	}
+
+	public void setLogNameTag(String tag)
+	{
+		logNameTag = tag == null ? "" : tag;
+	}
+
+	/**
+	 * @return the directory log files with relative names are written to, or empty for
+	 * the working directory
+	 */
+	public String getLogDirectory()
+	{
+		return logDirectory;
+	}
+
+	public void setLogDirectory(String dir)
+	{
+		logDirectory = dir == null ? "" : dir;
+	}
 	
 	public boolean getColorRelative()
 	{
@@ -916,6 +966,90 @@ public class CometsParameters implements CometsConstants
 		slideshowRate = rate;
 	}
 
+	/**
+	 * Returns how many parameter sets of a batch, or replicates, are simulated at the
+	 * same time, each on its own thread.
+	 * @see ParameterSweep
+	 * @see ReplicateEnsemble
+	 * @return the number of sweep threads
+	 */
+	public int getSweepThreads()
+	{
+		return sweepThreads;
+	}
+
+	/**
+	 * Sets how many parameter sets of a batch are simulated at the same time. Values
+	 * less than 1 are adjusted up to 1, which runs the sets one after another.
+	 * @param n the number of sweep threads
+	 */
+	public void setSweepThreads(int n)
+	{
+		if (n < 1)
+			n = 1;
+		sweepThreads = n;
+	}
+
+	/**
+	 * Returns how many replicates of the layout a script runs. Each replicate gets its
+	 * own random seed, derived from the replicate seed.
+	 * @see ReplicateEnsemble
+	 * @return the number of replicates
+	 */
+	public int getReplicates()
+	{
+		return replicates;
+	}
+
+	/**
+	 * Sets how many replicates of the layout a script runs. Values less than 1 are
+	 * adjusted up to 1, which runs the layout once, as usual.
+	 * @param n the number of replicates
+	 */
+	public void setReplicates(int n)
+	{
+		if (n < 1)
+			n = 1;
+		replicates = n;
+	}
+
+	/**
+	 * Returns the cycle a batch's parameter sets branch off at. The cycles up to it are
+	 * simulated once, with the script's parameters, and every set carries on from there
+	 * with its own. 0 means the sets share nothing.
+	 * @see ParameterSweep
+	 * @return the branch cycle
+	 */
+	public int getBranchCycle()
+	{
+		return branchCycle;
+	}
+
+	/**
+	 * Sets the cycle a batch's parameter sets branch off at. Values less than 0 are
+	 * adjusted up to 0, which runs every set from the start.
+	 * @param cycle the branch cycle
+	 */
+	public void setBranchCycle(int cycle)
+	{
+		if (cycle < 0)
+			cycle = 0;
+		branchCycle = cycle;
+	}
+
+	/**
+	 * @return the master seed the replicates' random seeds are derived from
+	 */
+	public long getReplicateSeed()
+	{
+		return replicateSeed;
+	}
+
+	public void setReplicateSeed(long seed)
+	{
+		replicateSeed = seed;
+	}
+
 	public void setSlideshowColorRelative(boolean b)
 	{
 		slideshowColorRelative = b;
@@ -1365,6 +1499,10 @@ public class CometsParameters implements CometsConstants
 
 		s += "diffusionsPerStep = " + diffusionsPerStep + "\n";
 		s += "mediaRespawnRate = " + mediaRespawnRate + "\n";
+		s += "sweepThreads = " + sweepThreads + "\n";
+		s += "replicates = " + replicates + "\n";
+		s += "branchCycle = " + branchCycle + "\n";
+		s += "replicateSeed = " + replicateSeed + "\n";
 		
 		s += "barrierColor = " + barrierColor + "\n";
 		s += "backgroundColor = " + backgroundColor + "\n";
@@ -20,6 +20,7 @@ public class CometsSimRunner extends Thread
 	private int curCycle;
 	private long totalTime;
 	private boolean finished = true;
+	private String stopReason;
 	
 	/**
 	 * The constructor for the class. This just needs access to a <code>Comets</code>.
@@ -41,6 +42,14 @@ public class CometsSimRunner extends Thread
 		return finished;
 	}
 	
+	/**
+	 * @return the number of the cycle being run, or the last one run once finished
+	 */
+	public synchronized int getCurrentCycle()
+	{
+		return curCycle;
+	}
+
 	/**
 	 * This tells the <code>CometsSimRunner</code> to finish up at the end of the next cycle.
 	 */
@@ -69,6 +78,9 @@ public class CometsSimRunner extends Thread
 			c.getWorld().initSimulation();
 		else if (c.getParameters().getNumLayers()>1)
 			c.getWorld3D().initSimulation();
+		// a world resumed from a checkpoint carries on from the checkpoint's cycle
+		if (c.getParameters().getNumLayers()==1 && c.getWorld() instanceof FBAWorld)
+			curCycle = (int) ((FBAWorld) c.getWorld()).getCurrentTimePoint();
 		while (!finished)
 		{
 			if (!c.getParameters().isPaused())
@@ -157,15 +169,39 @@ public class CometsSimRunner extends Thread
 	//*asynchronous* check of if we should start a new cycle 
 	public boolean checkCompletion(){
 		boolean complete = false;
+		String reason = null;
 		
-		if (c.getCells().size() == 0 && !IWorld.reactionModel.isSetUp()) {
+		if (c.getCells().size() == 0 && !IWorld.getReactionModel().isSetUp()) {
 			complete = true; //there's nothing left to run
+			reason = "no cells left";
 		}
 		
 		if (curCycle > c.getParameters().getMaxCycles() && c.getParameters().getMaxCycles() != UNLIMITED_CYCLES){
 			complete = true; //time's up
+			reason = "maximum cycles reached";
+		}
+		
+		// the world's own criteria (steady state, extinction), taken from the last cycle
+		if (!complete && c.getParameters().getNumLayers()==1 && c.getWorld() instanceof FBAWorld
+				&& ((FBAWorld) c.getWorld()).getStopReason() != null){
+			complete = true;
+			reason = ((FBAWorld) c.getWorld()).getStopReason();
 		}
 		
+		if (complete){
+			stopReason = reason;
+			System.out.println("Stopping after cycle " + (curCycle - 1) + ": " + reason);
+			if (c.getParameters().getNumLayers()==1 && c.getWorld() instanceof FBAWorld)
+				((FBAWorld) c.getWorld()).recordStopReason(reason);
+		}
 		return complete;
 	}
+	
+	/**
+	 * @return why the last simulation ended, or null if it hasn't
+	 */
+	public String getStopReason()
+	{
+		return stopReason;
+	}
 }
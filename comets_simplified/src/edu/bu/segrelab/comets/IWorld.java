@@ -15,7 +15,10 @@ import edu.bu.segrelab.comets.reaction.ReactionModel;
  */
 public interface IWorld {	
 	
-	static ReactionModel reactionModel = new ReactionModel(); //static. We only need one.
+	static ReactionModel reactionModel = new ReactionModel(); //static. We only need one, unless a thread has its own
+	/**The calling thread's own ReactionModel, if it has one. Threads it starts inherit it, so a
+	 * simulation run on its own thread (e.g. in a parameter sweep) keeps its reactions to itself */
+	static InheritableThreadLocal<ReactionModel> localReactionModel = new InheritableThreadLocal<ReactionModel>();
 	//List<String> initialMediaNames = new ArrayList<String>();
 	
 	abstract double[] getMediaAt(int x, int y, int z);
@@ -51,7 +54,8 @@ public interface IWorld {
 	abstract String[] getInitialMediaNames();
 
 	public static ReactionModel getReactionModel() {
-		return reactionModel;
+		ReactionModel local = localReactionModel.get();
+		return local != null ? local : reactionModel;
 	}
 	
 	abstract void setParameters(CometsParameters cParams);
@@ -0,0 +1,216 @@
+package edu.bu.segrelab.comets;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.bu.segrelab.comets.reaction.ReactionModel;
+import edu.bu.segrelab.comets.util.ThreadOutputCapture;
+import edu.bu.segrelab.comets.util.Utility;
+
+/**
+ * ParallelSimulations
+ * -------------------
+ * Runs a number of simulations of the same script side by side in this JVM.
+ * <p>
+ * Each simulation gets its own <code>Comets</code>, set up by loading the script's
+ * parameter and layout files again, so it has its own parameters, world, cells and
+ * models. Its threads also get their own <code>ReactionModel</code> and random number
+ * generator, which are otherwise shared by the whole program. Model files are only
+ * parsed once; the simulations build their models (and solvers) from the shared result.
+ * What a simulation prints goes to its own output file.
+ * <p>
+ * Subclasses say how many simulations there are, where their output goes, and how
+ * each differs from the script.
+ */
+public abstract class ParallelSimulations
+{
+	private Comets parent;
+	private List<String[]> loadCommands;
+	private Map<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * @param parent the <code>Comets</code> running the script
+	 * @param loadCommands the script's file loading commands, in order, as passed to
+	 * <code>Comets.runLoadCommand()</code>
+	 */
+	protected ParallelSimulations(Comets parent, List<String[]> loadCommands)
+	{
+		this.parent = parent;
+		this.loadCommands = new ArrayList<String[]>(loadCommands);
+	}
+
+	/**
+	 * @return the number of simulations
+	 */
+	public abstract int size();
+
+	/**
+	 * @param n
+	 * @return the name of simulation n for messages, e.g. "Parameter set 3"
+	 */
+	protected abstract String describe(int n);
+
+	/**
+	 * @param n
+	 * @return the file what simulation n prints is written to
+	 * @throws IOException if the place for it can't be made
+	 */
+	protected abstract File outputFile(int n) throws IOException;
+
+	/**
+	 * Makes simulation n differ from the script, once its files are loaded.
+	 * @param n
+	 * @param member the simulation's <code>Comets</code>
+	 */
+	protected abstract void configure(int n, Comets member);
+
+	/**
+	 * @param n
+	 * @return the random number generator simulation n starts with, which is also used
+	 * while its files are loaded
+	 */
+	protected Random newRandom(int n)
+	{
+		return new Random();
+	}
+
+	/**
+	 * Called when simulation n has finished, before its world is destroyed.
+	 * @param n
+	 * @param member the simulation's <code>Comets</code>
+	 * @param millis how long it took
+	 */
+	protected void finished(int n, Comets member, long millis)
+	{
+	}
+
+	/**
+	 * Runs every simulation, and returns once they've all finished.
+	 * @param numThreads how many simulations to run at the same time
+	 * @throws InterruptedException if interrupted while waiting; the running
+	 * simulations are interrupted too
+	 */
+	public void run(int numThreads) throws InterruptedException
+	{
+		int num = size();
+		final ThreadOutputCapture capture = ThreadOutputCapture.install();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, num)));
+		try
+		{
+			List<Future<?>> members = new ArrayList<Future<?>>(num);
+			for (int i = 0; i < num; i++)
+			{
+				final int n = i;
+				members.add(pool.submit(new Runnable() {
+					public void run()
+					{
+						runMember(n, capture);
+					}
+				}));
+			}
+			for (int i = 0; i < num; i++)
+			{
+				try
+				{
+					members.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					System.out.println("Error in " + describe(i) + ": " + e.getCause());
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+			capture.uninstall();
+		}
+	}
+
+	/**
+	 * Runs simulation n on the calling thread, on its own.
+	 * @param n
+	 */
+	protected void runAlone(int n)
+	{
+		ThreadOutputCapture capture = ThreadOutputCapture.install();
+		try
+		{
+			runMember(n, capture);
+		}
+		catch (RuntimeException e)
+		{
+			System.out.println("Error in " + describe(n) + ": " + e);
+		}
+		finally
+		{
+			capture.uninstall();
+		}
+	}
+
+	/**
+	 * Sets up and runs simulation n on the calling thread.
+	 */
+	private void runMember(int n, ThreadOutputCapture capture)
+	{
+		OutputStream out;
+		File outFile = null;
+		try
+		{
+			outFile = outputFile(n);
+			out = new BufferedOutputStream(new FileOutputStream(outFile));
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write '" + (outFile == null ? "" : outFile.getPath()) + "': " + e.getMessage() + "\n -- skipping " + describe(n));
+			return;
+		}
+		System.out.println(describe(n) + " started, output in " + outFile.getPath());
+		long start = System.currentTimeMillis();
+
+		Comets member = null;
+		capture.redirect(out);
+		IWorld.localReactionModel.set(new ReactionModel());
+		Utility.useLocalRandom(newRandom(n));
+		try
+		{
+			member = new Comets(parent, sharedData);
+			for (String[] load : loadCommands)
+				member.runLoadCommand(load[0], load[1]);
+			configure(n, member);
+			member.doCommandLineRun();
+			finished(n, member, System.currentTimeMillis() - start);
+		}
+		finally
+		{
+			if (member != null && member.getWorld() != null)
+				member.getWorld().destroy();
+			if (member != null && member.getWorld3D() != null)
+				member.getWorld3D().destroy();
+			capture.redirect(null);
+			IWorld.localReactionModel.remove();
+			Utility.useLocalRandom(null);
+			try
+			{
+				out.close();
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to finish '" + outFile.getPath() + "': " + e.getMessage());
+			}
+		}
+		System.out.println(describe(n) + " finished in " + (System.currentTimeMillis() - start) / 1000.0 + "s");
+	}
+}
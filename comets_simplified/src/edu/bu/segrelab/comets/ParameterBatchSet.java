@@ -93,6 +93,49 @@ public class ParameterBatchSet
 	}
 	
 	public void applyParameterSet(int n)
+	{
+		selectParameterSet(n);
+		applyCurrentParameterSet();
+	}
+
+	/**
+	 * Applies set n to the given parameters instead of the ones this batch was made from,
+	 * so that each simulation of a <code>ParameterSweep</code> gets its own.
+	 * @param n the set
+	 * @param cp the simulation's parameters
+	 * @param pp the simulation's package parameters
+	 */
+	public synchronized void applyParameterSet(int n, CometsParameters cp, PackageParameters pp)
+	{
+		selectParameterSet(n);
+		cp.saveParameterState();
+		pp.saveParameterState();
+		for (ParameterBatch batch : parameterList)
+		{
+			String name = batch.getName().toLowerCase();
+			double step = batch.getCurrentStep();
+			ParameterType type = cp.hasParameter(name) ? cp.getType(name) : pp.getType(name);
+			String value;
+			if (type == ParameterType.BOOLEAN)
+				value = step == 0 ? "false" : "true";
+			else if (type == ParameterType.INT)
+				value = String.valueOf((int) Math.round(step));
+			else
+				value = String.valueOf(step);
+			if (cp.hasParameter(name))
+				cp.setParameter(name, value);
+			else
+				pp.setParameter(name, value);
+		}
+		cp.loadParameterState();
+		pp.loadParameterState();
+	}
+
+	/**
+	 * Moves each batch parameter to its value in set n.
+	 * @param n
+	 */
+	private void selectParameterSet(int n)
 	{
 		if (n >= numSets) 
 			throw new IllegalArgumentException("Set " + n + " beyond range of " + numSets);
@@ -114,8 +157,6 @@ public class ParameterBatchSet
 			}
 			setPtr = 0;
 		}
-		
-		applyCurrentParameterSet();
 	}
 	
 	public void applyCurrentParameterSet()
@@ -0,0 +1,125 @@
+package edu.bu.segrelab.comets;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import edu.bu.segrelab.comets.fba.FBAWorld;
+
+/**
+ * ParameterSweep
+ * --------------
+ * Runs the parameter sets of a <code>ParameterBatchSet</code> side by side in this JVM,
+ * instead of one after another. See <code>ParallelSimulations</code> for how the
+ * simulations are kept apart.
+ * <p>
+ * The logs of set n get "_set&lt;n&gt;" before their extension, and what it prints goes to
+ * "&lt;batch list file&gt;_set&lt;n&gt;.out", so the sets don't write over each other.
+ * <p>
+ * If the branchcycle parameter is set, the cycles up to it are only simulated once,
+ * with the script's own parameters, as the "_prefix" simulation. The world is then
+ * taken in memory, and every set starts from it with its own parameters, so its logs
+ * begin at the branch cycle. Parameters that change the layout itself can't be swept
+ * this way. Only 2D FBA worlds can branch.
+ */
+public class ParameterSweep extends ParallelSimulations
+{
+	private static final int PREFIX = -1;
+
+	private ParameterBatchSet batchSet;
+	private String outputBase;
+	private int branchCycle;
+	private byte[] branchState;			// the world at the branch cycle
+
+	/**
+	 * @param parent the <code>Comets</code> running the script
+	 * @param loadCommands the script's file loading commands, in order, as passed to
+	 * <code>Comets.runLoadCommand()</code>
+	 * @param batchSet the parameter sets
+	 * @param batchListFile the batch list file, which the output files are named after
+	 */
+	public ParameterSweep(Comets parent, List<String[]> loadCommands, ParameterBatchSet batchSet, String batchListFile)
+	{
+		super(parent, loadCommands);
+		this.batchSet = batchSet;
+		int idx = batchListFile.lastIndexOf('.');
+		outputBase = idx > batchListFile.lastIndexOf(File.separatorChar) ? batchListFile.substring(0, idx) : batchListFile;
+
+		CometsParameters cParams = parent.getParameters();
+		branchCycle = cParams.getBranchCycle();
+		if (branchCycle > 0 && (cParams.getNumLayers() != 1 || !(parent.getWorld() instanceof FBAWorld)))
+		{
+			System.out.println("Only 2D FBA worlds can branch -- running every parameter set from the start");
+			branchCycle = 0;
+		}
+		else if (branchCycle >= cParams.getMaxCycles())
+			branchCycle = 0;
+	}
+
+	@Override
+	public void run(int numThreads) throws InterruptedException
+	{
+		if (branchCycle > 0)
+		{
+			System.out.println("Simulating the first " + branchCycle + " cycles once, for every parameter set");
+			runAlone(PREFIX);
+			if (branchState == null)
+				System.out.println("Unable to take the world at cycle " + branchCycle + " -- running every parameter set from the start");
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+		System.out.println("Running " + size() + " parameter sets, " + Math.min(numThreads, size()) + " at a time");
+		super.run(numThreads);
+	}
+
+	@Override
+	public int size()
+	{
+		return batchSet.size();
+	}
+
+	@Override
+	protected String describe(int n)
+	{
+		return n == PREFIX ? "Shared prefix" : "Parameter set " + (n + 1);
+	}
+
+	@Override
+	protected File outputFile(int n)
+	{
+		return new File(outputBase + tag(n) + ".out");
+	}
+
+	@Override
+	protected void configure(int n, Comets member)
+	{
+		if (n == PREFIX)
+			member.getParameters().setMaxCycles(branchCycle);
+		else
+		{
+			batchSet.applyParameterSet(n, member.getParameters(), member.getPackageParameters());
+			member.setStartState(branchState);
+		}
+		member.getParameters().setLogNameTag(tag(n));
+	}
+
+	@Override
+	protected void finished(int n, Comets member, long millis)
+	{
+		if (n != PREFIX)
+			return;
+		try
+		{
+			branchState = ((FBAWorld) member.getWorld()).snapshotState();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to take the world at cycle " + branchCycle + ": " + e.getMessage());
+		}
+	}
+
+	private static String tag(int n)
+	{
+		return n == PREFIX ? "_prefix" : "_set" + (n + 1);
+	}
+}
@@ -0,0 +1,262 @@
+package edu.bu.segrelab.comets;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import edu.bu.segrelab.comets.fba.FBAModel;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+
+/**
+ * ReplicateEnsemble
+ * -----------------
+ * Runs a number of stochastic replicates of a script's layout side by side in this
+ * JVM. See <code>ParallelSimulations</code> for how the simulations are kept apart.
+ * <p>
+ * Replicate k (counting from 1) gets its own random seed, derived from the
+ * replicateseed parameter and k, so an ensemble can be run again with the same
+ * results, and any one replicate can be rerun on its own. The seed is used from the
+ * start of the replicate, so random cell placement in the layout differs between
+ * replicates too, and is passed to the package as its randomseed parameter, if it
+ * has one.
+ * <p>
+ * The logs and printed output of replicate k go in the directory
+ * "&lt;script&gt;_rep&lt;k&gt;", and "&lt;script&gt;_summary.txt" lists each replicate's seed,
+ * cycles, run time and final total biomass of each of the layout's models, followed by
+ * their means and standard deviations. The models are named as in the .mat logs, by
+ * model ID, with "_2", "_3", ... added to repeated IDs. Mutants differ between
+ * replicates, so the last column holds the total biomass of all of them.
+ */
+public class ReplicateEnsemble extends ParallelSimulations
+{
+	private int numReplicates;
+	private long masterSeed;
+	private String outputBase;
+	private String[] modelNames;
+	private Model[][] layoutModels;		// per replicate: the models its layout loaded
+	private double[][] results;			// per replicate: cycles, seconds, biomass per layout model, then of the mutants
+
+	/**
+	 * @param parent the <code>Comets</code> running the script
+	 * @param loadCommands the script's file loading commands, in order, as passed to
+	 * <code>Comets.runLoadCommand()</code>
+	 * @param scriptFile the script, which the output is named after
+	 */
+	public ReplicateEnsemble(Comets parent, List<String[]> loadCommands, String scriptFile)
+	{
+		super(parent, loadCommands);
+		numReplicates = parent.getParameters().getReplicates();
+		masterSeed = parent.getParameters().getReplicateSeed();
+		int idx = scriptFile.lastIndexOf('.');
+		outputBase = idx > scriptFile.lastIndexOf(File.separatorChar) ? scriptFile.substring(0, idx) : scriptFile;
+		modelNames = seriesNames(parent.getModels());
+		layoutModels = new Model[numReplicates][];
+		results = new double[numReplicates][];
+	}
+
+	/**
+	 * Derives the seed of a replicate from the master seed, with the SplitMix64 mixing
+	 * function, so that nearby master seeds and replicate numbers give unrelated seeds.
+	 * @param masterSeed
+	 * @param replicate the replicate number, counting from 1
+	 * @return the seed, never 0
+	 */
+	public static long replicateSeed(long masterSeed, int replicate)
+	{
+		long z = masterSeed + replicate * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return z == 0 ? 1 : z;
+	}
+
+	/**
+	 * Runs every replicate, then writes the summary.
+	 */
+	@Override
+	public void run(int numThreads) throws InterruptedException
+	{
+		System.out.println("Running " + numReplicates + " replicates, " + Math.min(numThreads, numReplicates) + " at a time, with master seed " + masterSeed);
+		super.run(numThreads);
+		writeSummary(outputBase + "_summary.txt");
+	}
+
+	@Override
+	public int size()
+	{
+		return numReplicates;
+	}
+
+	@Override
+	protected String describe(int n)
+	{
+		return "Replicate " + (n + 1);
+	}
+
+	@Override
+	protected File outputFile(int n) throws IOException
+	{
+		File dir = directory(n);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("unable to make directory " + dir.getPath());
+		return new File(dir, "output.out");
+	}
+
+	@Override
+	protected Random newRandom(int n)
+	{
+		return new Random(replicateSeed(masterSeed, n + 1));
+	}
+
+	@Override
+	protected void configure(int n, Comets member)
+	{
+		long seed = replicateSeed(masterSeed, n + 1);
+		System.out.println("Replicate " + (n + 1) + " of " + numReplicates + ", seed " + seed);
+		PackageParameters pp = member.getPackageParameters();
+		if (pp.hasParameter("randomseed"))
+		{
+			pp.saveParameterState();
+			pp.setParameter("randomseed", String.valueOf(seed));
+			pp.loadParameterState();
+		}
+		member.getParameters().setLogDirectory(directory(n).getPath());
+		synchronized (results)
+		{
+			layoutModels[n] = member.getModels().clone();
+		}
+	}
+
+	/**
+	 * Records the replicate's final biomass by layout model. With evolution on, the
+	 * world's model array has mutants added and extinct models taken out, so the
+	 * totals are matched to the models themselves, not to their places.
+	 */
+	@Override
+	protected void finished(int n, Comets member, long millis)
+	{
+		double[] biomass;
+		Model[] models;
+		if (member.getParameters().getNumLayers() > 1)
+		{
+			biomass = member.getWorld3D().calculateTotalBiomass();
+			models = member.getModels();	// a 3D world doesn't add or remove models
+		}
+		else
+		{
+			biomass = member.getWorld().calculateTotalBiomass();
+			models = member.getWorld() instanceof FBAWorld ? ((FBAWorld) member.getWorld()).getModels() : member.getModels();
+		}
+		synchronized (results)
+		{
+			Model[] layout = layoutModels[n];
+			double[] row = new double[3 + layout.length];
+			row[0] = member.getCyclesRun();
+			row[1] = millis / 1000.0;
+			for (int k = 0; k < biomass.length && k < models.length; k++)
+			{
+				int col = layout.length;
+				for (int i = 0; i < layout.length; i++)
+				{
+					if (layout[i] == models[k])
+						col = i;
+				}
+				row[2 + col] += biomass[k];
+			}
+			results[n] = row;
+		}
+	}
+
+	/**
+	 * @param models
+	 * @return the name of each model in the summary: its ID, or for a repeated ID, the
+	 * first free "ID_2", "ID_3", ...
+	 */
+	private static String[] seriesNames(Model[] models)
+	{
+		String[] names = new String[models.length];
+		Set<String> used = new HashSet<String>();
+		for (int i = 0; i < models.length; i++)
+		{
+			String id = models[i] instanceof FBAModel ? ((FBAModel) models[i]).getModelID() : models[i].getModelName();
+			String name = id;
+			for (int k = 2; used.contains(name); k++)
+				name = id + "_" + k;
+			used.add(name);
+			names[i] = name;
+		}
+		return names;
+	}
+
+	private File directory(int n)
+	{
+		return new File(outputBase + "_rep" + (n + 1));
+	}
+
+	/**
+	 * Writes a line per replicate, then the mean and standard deviation of each column
+	 * over the replicates that finished.
+	 */
+	private void writeSummary(String fileName)
+	{
+		try
+		{
+			PrintWriter writer = new PrintWriter(new FileWriter(fileName));
+			writer.print("replicate\tseed\tcycles\ttime_s");
+			for (String name : modelNames)
+				writer.print("\t" + name);
+			writer.println("\tmutants");
+
+			int numCols = 3 + modelNames.length;
+			double[] sum = new double[numCols],
+					 sumSq = new double[numCols];
+			int numFinished = 0;
+			synchronized (results)
+			{
+				for (int n = 0; n < numReplicates; n++)
+				{
+					writer.print((n + 1) + "\t" + replicateSeed(masterSeed, n + 1));
+					if (results[n] == null)
+					{
+						writer.println("\tfailed");
+						continue;
+					}
+					numFinished++;
+					for (int i = 0; i < numCols; i++)
+					{
+						writer.print("\t" + results[n][i]);
+						sum[i] += results[n][i];
+						sumSq[i] += results[n][i] * results[n][i];
+					}
+					writer.println();
+				}
+			}
+			if (numFinished > 0)
+			{
+				writer.print("mean\t");
+				for (int i = 0; i < numCols; i++)
+					writer.print("\t" + sum[i] / numFinished);
+				writer.println();
+				writer.print("sd\t");
+				for (int i = 0; i < numCols; i++)
+				{
+					double mean = sum[i] / numFinished;
+					double var = numFinished > 1 ? (sumSq[i] - numFinished * mean * mean) / (numFinished - 1) : 0;
+					writer.print("\t" + Math.sqrt(Math.max(0, var)));
+				}
+				writer.println();
+			}
+			writer.close();
+			System.out.println("Replicate summary written to '" + fileName + "'");
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write replicate summary '" + fileName + "': " + e.getMessage());
+		}
+	}
+}
@@ -13,6 +13,7 @@ import cern.jet.random.engine.*;
 import cern.jet.random.*;
 import edu.bu.segrelab.comets.fba.FBAParameters;
 import edu.bu.segrelab.comets.util.Utility;
+import edu.bu.segrelab.comets.util.UtilityRandomEngine;
 
 /**
  * The <code>World2D</code> is, along with the <code>Model</code> and <code>Cell</code> 
@@ -60,7 +61,7 @@ public abstract class World2D implements CometsConstants, IWorld
 	protected double[] modelsFriction;        // Block with convective multi model propagation parameters
 	protected double[][] interModelPairsFriction;
 	
-	protected DRand randomGenerator; //djordje
+	protected RandomEngine randomGenerator; //djordje, draws from Utility's generator
 
 	/**
 	 * The main constructor for the World2D. Every extending class should call this
@@ -82,7 +83,7 @@ public abstract class World2D implements CometsConstants, IWorld
 		sink = new boolean[numCols][numRows];
 		models = c.getModels();
 		mediaNames = new String[numMedia];
-		reactionModel.setWorld(this);
+		IWorld.getReactionModel().setWorld(this);
 
 		mediaRefresh = new double[numMedia];
 		staticMedia = new double[numMedia];
@@ -90,7 +91,7 @@ public abstract class World2D implements CometsConstants, IWorld
 		
 		refreshPoints = new RefreshPoint[numCols][numRows];
 		staticPoints = new StaticPoint[numCols][numRows];
-		randomGenerator = new DRand(new java.util.Date()); // djordje
+		randomGenerator = new UtilityRandomEngine(); // djordje
 	}
 
 	public boolean isOnGrid(int x, int y)
@@ -1228,8 +1229,8 @@ public abstract class World2D implements CometsConstants, IWorld
 	
 	public void runExternalReactions(){
 		//if there's nothing to do, just return
-		if (reactionModel.getNrxns() < 1) return;
-		else reactionModel.run(); //the ReactionModel handles updating this world's media
+		if (IWorld.getReactionModel().getNrxns() < 1) return;
+		else IWorld.getReactionModel().run(); //the ReactionModel handles updating this world's media
 	}
 
 	/*
@@ -56,7 +56,7 @@ public abstract class World3D implements CometsConstants, IWorld
 		barrier = new boolean[numCols][numRows][numLayers];
 		models = c.getModels();
 		mediaNames = new String[numMedia];
-		reactionModel.setWorld(this);
+		IWorld.getReactionModel().setWorld(this);
 
 		mediaRefresh = new double[numMedia];
 		staticMedia = new double[numMedia];
@@ -1124,8 +1124,8 @@ public abstract class World3D implements CometsConstants, IWorld
 
 	public void runExternalReactions(){
 		//if there's nothing to do, just return
-		if (reactionModel.getNrxns() < 1) return;
-		else reactionModel.run(); //the ReactionModel handles updating this world's media
+		if (IWorld.getReactionModel().getNrxns() < 1) return;
+		else IWorld.getReactionModel().run(); //the ReactionModel handles updating this world's media
 	}
 	
 	public void setInitialMediaNames(String[] arr){initialMediaNames = arr;}
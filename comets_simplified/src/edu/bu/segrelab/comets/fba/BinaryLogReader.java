@@ -0,0 +1,334 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.bu.segrelab.comets.util.TextLogBuffer;
+
+/**
+ * BinaryLogReader
+ * ---------------
+ * Reads the logs written by <code>BinaryLogWriter</code> (see there for the file layout),
+ * one cycle at a time, and converts them back to the COMETS text formats.
+ * <p>
+ * From the command line:
+ * <pre>
+ * java edu.bu.segrelab.comets.fba.BinaryLogReader binaryLog [textLog]
+ * </pre>
+ * writes the text version of binaryLog to textLog, or to standard output.
+ */
+public class BinaryLogReader
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The values of one series in one chunk.
+	 */
+	public static class SeriesData
+	{
+		public final int series;
+		/** the locations with values, or null if every location has them */
+		public final BitSet present;
+		/** width values per present location, in location order */
+		public final double[] values;
+
+		private SeriesData(int series, BitSet present, double[] values)
+		{
+			this.series = series;
+			this.present = present;
+			this.values = values;
+		}
+	}
+
+	private DataInputStream in;
+	private byte kind;
+	private int valueBytes;
+	private int[] dims;
+	private int numLocations;
+	private double timeStep;
+	private double spaceWidth;
+
+	private List<String> names = new ArrayList<String>();
+	private List<String> units = new ArrayList<String>();
+	private List<String[]> labels = new ArrayList<String[]>();
+
+	private int cycle;
+	private List<SeriesData> data = new ArrayList<SeriesData>();
+
+	/**
+	 * Opens a binary log and reads its header.
+	 * @param file
+	 * @throws IOException if the file isn't a binary COMETS log
+	 */
+	public BinaryLogReader(File file) throws IOException
+	{
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		byte[] magic = new byte[BinaryLogWriter.MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, BinaryLogWriter.MAGIC))
+		{
+			in.close();
+			throw new IOException("'" + file + "' is not a binary COMETS log");
+		}
+		int version = readInt();
+		if (version != BinaryLogWriter.VERSION)
+		{
+			in.close();
+			throw new IOException("Unsupported binary log version " + version + " in '" + file + "'");
+		}
+		kind = in.readByte();
+		valueBytes = in.readByte();
+		dims = new int[] { readInt(), readInt(), readInt() };
+		numLocations = dims[0] * dims[1] * dims[2];
+		timeStep = readDouble();
+		spaceWidth = readDouble();
+	}
+
+	/**
+	 * Reads the next cycle's chunk.
+	 * @return false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean nextChunk() throws IOException
+	{
+		try
+		{
+			cycle = readInt();
+		}
+		catch (EOFException e)
+		{
+			return false;
+		}
+		data.clear();
+		while (true)
+		{
+			byte tag = in.readByte();
+			if (tag == BinaryLogWriter.TAG_END)
+				return true;
+			int series = readInt();
+			if (tag == BinaryLogWriter.TAG_DEFINE)
+			{
+				names.add(readString());
+				units.add(readString());
+				String[] seriesLabels = new String[readInt()];
+				for (int i = 0; i < seriesLabels.length; i++)
+					seriesLabels[i] = readString();
+				labels.add(seriesLabels);
+			}
+			else if (tag == BinaryLogWriter.TAG_DATA)
+				data.add(readData(series));
+			else
+				throw new IOException("Unknown record " + tag + " in cycle " + cycle);
+		}
+	}
+
+	private SeriesData readData(int series) throws IOException
+	{
+		int width = labels.get(series).length;
+		byte encoding = in.readByte();
+		BitSet present = null;
+		int count = numLocations;
+		if (encoding == BinaryLogWriter.ENCODING_EMPTY)
+			return new SeriesData(series, new BitSet(), new double[0]);
+		if (encoding == BinaryLogWriter.ENCODING_MASKED)
+		{
+			byte[] mask = new byte[(numLocations + 7) / 8];
+			in.readFully(mask);
+			present = new BitSet(numLocations);
+			for (int i = 0; i < numLocations; i++)
+			{
+				if ((mask[i >> 3] & (1 << (i & 7))) != 0)
+					present.set(i);
+			}
+			count = present.cardinality();
+		}
+		double[] values = new double[count * width];
+		for (int i = 0; i < values.length; i++)
+			values[i] = valueBytes == 4 ? Float.intBitsToFloat(readInt()) : readDouble();
+		return new SeriesData(series, present, values);
+	}
+
+	/**
+	 * Writes the current chunk in the COMETS text format of this log's kind.
+	 * @param out
+	 */
+	public void writeText(final PrintWriter out)
+	{
+		final TextLogBuffer line = new TextLogBuffer();
+		switch (kind)
+		{
+			case BinaryLogWriter.KIND_MEDIA:
+				// name cycle x y value, with x and y from 1
+				for (SeriesData d : data)
+				{
+					int v = 0;
+					for (int loc = nextLocation(d, 0); loc >= 0; loc = nextLocation(d, loc + 1))
+					{
+						int[] xyz = coordinates(loc);
+						line.append(names.get(d.series)).append(' ').append(cycle).append(' ').append(xyz[0] + 1).append(' ').append(xyz[1] + 1);
+						if (dims[2] > 1)
+							line.append(' ').append(xyz[2] + 1);
+						line.append(' ').appendScientific(d.values[v++]).endLine().writeTo(out);
+					}
+				}
+				break;
+
+			case BinaryLogWriter.KIND_BIOMASS:
+				// cycle x y modelID biomass, with x and y from 0
+				forEachLocation(new LocationPrinter() {
+					public void print(int[] xyz, int k, SeriesData d, int offset, int width)
+					{
+						line.append(cycle).append(' ').append(xyz[0]).append(' ').append(xyz[1]);
+						if (dims[2] > 1)
+							line.append(' ').append(xyz[2]);
+						line.append(' ').append(names.get(d.series)).append(' ').appendScientific(d.values[offset]).append('\n').writeTo(out);
+					}
+				});
+				break;
+
+			case BinaryLogWriter.KIND_FLUX:
+				// cycle x y model flux1 ... fluxn, with x, y and model from 1
+				forEachLocation(new LocationPrinter() {
+					public void print(int[] xyz, int k, SeriesData d, int offset, int width)
+					{
+						line.append(cycle).append(' ').append(xyz[0] + 1).append(' ').append(xyz[1] + 1);
+						if (dims[2] > 1)
+							line.append(' ').append(xyz[2] + 1);
+						line.append(' ').append(k + 1);
+						for (int j = 0; j < width; j++)
+							line.append(' ').appendScientific(d.values[offset + j]);
+						line.append('\n').writeTo(out);
+					}
+				});
+				break;
+		}
+	}
+
+	private interface LocationPrinter
+	{
+		void print(int[] xyz, int k, SeriesData d, int offset, int width);
+	}
+
+	/**
+	 * Walks the locations in order, and at each one the series that have values there.
+	 */
+	private void forEachLocation(LocationPrinter printer)
+	{
+		int[] cursor = new int[data.size()];
+		for (int loc = 0; loc < numLocations; loc++)
+		{
+			int[] xyz = null;
+			for (int k = 0; k < data.size(); k++)
+			{
+				SeriesData d = data.get(k);
+				if (d.present == null ? d.values.length == 0 : !d.present.get(loc))
+					continue;
+				if (xyz == null)
+					xyz = coordinates(loc);
+				int width = labels.get(d.series).length;
+				printer.print(xyz, k, d, cursor[k], width);
+				cursor[k] += width;
+			}
+		}
+	}
+
+	private int nextLocation(SeriesData d, int from)
+	{
+		if (d.present != null)
+			return d.present.nextSetBit(from);
+		return from < numLocations && d.values.length > 0 ? from : -1;
+	}
+
+	private int[] coordinates(int loc)
+	{
+		return new int[] { loc / (dims[1] * dims[2]), (loc / dims[2]) % dims[1], loc % dims[2] };
+	}
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/** @return one of the BinaryLogWriter.KIND_ constants */
+	public byte getKind() { return kind; }
+
+	/** @return true if the values are stored as float32 */
+	public boolean isSinglePrecision() { return valueBytes == 4; }
+
+	/** @return the grid dimensions {nx, ny, nz} */
+	public int[] getDims() { return dims; }
+
+	/** @return hours per cycle */
+	public double getTimeStep() { return timeStep; }
+
+	/** @return cm per grid space */
+	public double getSpaceWidth() { return spaceWidth; }
+
+	/** @return the cycle of the current chunk */
+	public int getCycle() { return cycle; }
+
+	/** @return the series with values in the current chunk, in the order they were written */
+	public List<SeriesData> getData() { return data; }
+
+	/** @return the number of series defined in the chunks read so far */
+	public int getNumSeries() { return names.size(); }
+
+	public String getSeriesName(int series) { return names.get(series); }
+
+	public String getSeriesUnit(int series) { return units.get(series); }
+
+	public String[] getSeriesLabels(int series) { return labels.get(series); }
+
+	private int readInt() throws IOException
+	{
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private double readDouble() throws IOException
+	{
+		return Double.longBitsToDouble(Long.reverseBytes(in.readLong()));
+	}
+
+	private String readString() throws IOException
+	{
+		byte[] bytes = new byte[readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage: java edu.bu.segrelab.comets.fba.BinaryLogReader binaryLog [textLog]");
+			return;
+		}
+		try
+		{
+			BinaryLogReader reader = new BinaryLogReader(new File(args[0]));
+			PrintWriter out = args.length > 1 ? new PrintWriter(new FileWriter(new File(args[1])))
+					: new PrintWriter(System.out);
+			while (reader.nextChunk())
+				reader.writeText(out);
+			out.flush();
+			if (args.length > 1)
+				out.close();
+			reader.close();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to convert binary log '" + args[0] + "': " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BinaryLogWriter
+ * ---------------
+ * Writes biomass, media or flux logs in the compact binary format selected by
+ * <code>LogFormat.BINARY</code>. All numbers are little-endian.
+ * <pre>
+ * header
+ *   magic       8 bytes    "COMETSBL"
+ *   version     int32      1
+ *   kind        int8       0 = biomass, 1 = media, 2 = flux
+ *   valueBytes  int8       8 = float64 values, 4 = float32 values
+ *   nx ny nz    3 x int32  grid dimensions (nz = 1 in 2D)
+ *   timeStep    float64    hours per cycle
+ *   spaceWidth  float64    cm per grid space
+ *
+ * then one chunk per logged cycle
+ *   cycle       int32
+ *   records, each starting with an int8 tag:
+ *     1 = series definition
+ *         series  int32    index, counting from 0 in order of definition
+ *         name    string   medium name, model ID or model number
+ *         unit    string
+ *         width   int32    values per location (1, or the number of reactions)
+ *         labels  width x string
+ *     2 = series data
+ *         series   int32
+ *         encoding int8    0 = dense: width values for every location
+ *                          1 = masked: ceil(nx*ny*nz/8) mask bytes, then width
+ *                              values for each location whose bit is set
+ *                          2 = empty: no values
+ *         values   float64 or float32, as given by valueBytes
+ *     0 = end of chunk
+ * </pre>
+ * A string is an int32 byte count followed by that many bytes of UTF-8.
+ * Locations are numbered <code>(x*ny + y)*nz + z</code>, and bit i of the mask is
+ * bit (i % 8) of mask byte i / 8. A series is defined once, in the first chunk that
+ * uses it. Flux data records appear in model order, once per model, so the record's
+ * position in the chunk is the model number used by the text logs.
+ * <p>
+ * Use <code>BinaryLogReader</code> to read the files or convert them back to the
+ * COMETS text formats.
+ * <p>
+ * A checkpoint keeps the log's <code>mark()</code>, and <code>resume()</code> cuts the
+ * file back to it and appends from there.
+ */
+public class BinaryLogWriter
+{
+	public static final byte[] MAGIC = "COMETSBL".getBytes(Charset.forName("US-ASCII"));
+	public static final int VERSION = 1;
+
+	public static final byte KIND_BIOMASS = 0;
+	public static final byte KIND_MEDIA = 1;
+	public static final byte KIND_FLUX = 2;
+
+	public static final byte TAG_END = 0;
+	public static final byte TAG_DEFINE = 1;
+	public static final byte TAG_DATA = 2;
+
+	public static final byte ENCODING_DENSE = 0;
+	public static final byte ENCODING_MASKED = 1;
+	public static final byte ENCODING_EMPTY = 2;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File file;
+	private FileOutputStream out;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean singlePrecision;
+	private int numLocations;
+	private Map<String, Integer> seriesIndex;
+	private int[] seriesWidth;
+
+	/**
+	 * Creates the file and writes the header.
+	 * @param file
+	 * @param kind one of KIND_BIOMASS, KIND_MEDIA, KIND_FLUX
+	 * @param singlePrecision if true, values are stored as float32
+	 * @param dims the grid dimensions {nx, ny, nz}
+	 * @param timeStep hours per cycle
+	 * @param spaceWidth cm per grid space
+	 * @throws IOException
+	 */
+	public BinaryLogWriter(File file, byte kind, boolean singlePrecision, int[] dims,
+			double timeStep, double spaceWidth) throws IOException
+	{
+		this.file = file;
+		out = new FileOutputStream(file);
+		channel = out.getChannel();
+		buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.singlePrecision = singlePrecision;
+		numLocations = dims[0] * dims[1] * dims[2];
+		seriesIndex = new HashMap<String, Integer>();
+		seriesWidth = new int[8];
+
+		buffer.put(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.put(kind);
+		buffer.put((byte) (singlePrecision ? 4 : 8));
+		buffer.putInt(dims[0]);
+		buffer.putInt(dims[1]);
+		buffer.putInt(dims[2]);
+		buffer.putDouble(timeStep);
+		buffer.putDouble(spaceWidth);
+	}
+
+	/**
+	 * Opens a log for appending after its last chunk.
+	 */
+	private BinaryLogWriter(File file, BinaryLogReader log) throws IOException
+	{
+		this.file = file;
+		out = new FileOutputStream(file, true);
+		channel = out.getChannel();
+		buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		singlePrecision = log.isSinglePrecision();
+		int[] dims = log.getDims();
+		numLocations = dims[0] * dims[1] * dims[2];
+		seriesIndex = new HashMap<String, Integer>();
+		seriesWidth = new int[Math.max(8, log.getNumSeries())];
+		for (int i = 0; i < log.getNumSeries(); i++)
+		{
+			seriesIndex.put(log.getSeriesName(i), i);
+			seriesWidth[i] = log.getSeriesLabels(i).length;
+		}
+	}
+
+	/**
+	 * Cuts a log back to a checkpoint's mark and opens it for appending. The series
+	 * defined before the mark are read back, so they aren't defined again.
+	 * @param mark the log's mark from the checkpoint
+	 * @return the writer
+	 * @throws IOException if the log is shorter than the mark or can't be read
+	 */
+	public static BinaryLogWriter resume(FBACheckpoint.LogMark mark) throws IOException
+	{
+		File file = new File(mark.file);
+		LogFile.truncate(file, mark.offset);
+		BinaryLogReader log = new BinaryLogReader(file);
+		try
+		{
+			while (log.nextChunk())
+				;
+		}
+		finally
+		{
+			log.close();
+		}
+		return new BinaryLogWriter(file, log);
+	}
+
+	/**
+	 * Hands everything written so far to the file.
+	 * @return the position reached, which <code>resume()</code> can cut the log back to
+	 * @throws IOException
+	 */
+	public FBACheckpoint.LogMark mark() throws IOException
+	{
+		drain();
+		return new FBACheckpoint.LogMark(file.getPath(), file.getPath(), 0, channel.position());
+	}
+
+	/**
+	 * Starts the chunk for a cycle. Every chunk must be finished with <code>endChunk()</code>.
+	 * @param cycle
+	 * @throws IOException
+	 */
+	public void beginChunk(int cycle) throws IOException
+	{
+		ensure(4);
+		buffer.putInt(cycle);
+	}
+
+	/**
+	 * Returns the index of the series with the given name, defining it in the current
+	 * chunk if it hasn't been seen before.
+	 * @param name
+	 * @param unit
+	 * @param labels one label per value at each location
+	 * @return the series index to pass to <code>writeSeries()</code>
+	 * @throws IOException
+	 */
+	public int series(String name, String unit, String[] labels) throws IOException
+	{
+		Integer idx = seriesIndex.get(name);
+		if (idx != null)
+			return idx.intValue();
+
+		int series = seriesIndex.size();
+		seriesIndex.put(name, series);
+		if (series == seriesWidth.length)
+		{
+			int[] widths = new int[series * 2];
+			System.arraycopy(seriesWidth, 0, widths, 0, series);
+			seriesWidth = widths;
+		}
+		seriesWidth[series] = labels.length;
+
+		ensure(9);
+		buffer.put(TAG_DEFINE);
+		buffer.putInt(series);
+		putString(name);
+		putString(unit);
+		ensure(4);
+		buffer.putInt(labels.length);
+		for (String label : labels)
+			putString(label);
+		return series;
+	}
+
+	/**
+	 * Writes one series' values for the current chunk.
+	 * @param series an index returned by <code>series()</code>
+	 * @param present the locations that have values, or null if all of them do
+	 * @param values the series' width values for each present location, in location order
+	 * @throws IOException
+	 */
+	public void writeSeries(int series, BitSet present, double[] values) throws IOException
+	{
+		int width = seriesWidth[series];
+		int count = present == null ? numLocations : present.cardinality();
+		if (values.length < count * width)
+			throw new IllegalArgumentException("Expected " + count * width + " values for series " + series
+					+ " but got " + values.length);
+
+		ensure(6);
+		buffer.put(TAG_DATA);
+		buffer.putInt(series);
+		if (count == 0)
+		{
+			buffer.put(ENCODING_EMPTY);
+			return;
+		}
+		if (count == numLocations)
+			buffer.put(ENCODING_DENSE);
+		else
+		{
+			buffer.put(ENCODING_MASKED);
+			byte[] mask = new byte[(numLocations + 7) / 8];
+			for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1))
+				mask[i >> 3] |= (byte) (1 << (i & 7));
+			putBytes(mask);
+		}
+
+		int n = count * width;
+		int valueBytes = singlePrecision ? 4 : 8;
+		for (int i = 0; i < n; i++)
+		{
+			ensure(valueBytes);
+			if (singlePrecision)
+				buffer.putFloat((float) values[i]);
+			else
+				buffer.putDouble(values[i]);
+		}
+	}
+
+	/**
+	 * Finishes the current chunk and hands it to the file.
+	 * @throws IOException
+	 */
+	public void endChunk() throws IOException
+	{
+		ensure(1);
+		buffer.put(TAG_END);
+		drain();
+	}
+
+	public void close() throws IOException
+	{
+		drain();
+		channel.force(false);
+		out.close();
+	}
+
+	private void putString(String s) throws IOException
+	{
+		byte[] bytes = s == null ? new byte[0] : s.getBytes(UTF8);
+		ensure(4);
+		buffer.putInt(bytes.length);
+		putBytes(bytes);
+	}
+
+	private void putBytes(byte[] bytes) throws IOException
+	{
+		int offset = 0;
+		while (offset < bytes.length)
+		{
+			if (!buffer.hasRemaining())
+				drain();
+			int len = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, len);
+			offset += len;
+		}
+	}
+
+	private void ensure(int bytes) throws IOException
+	{
+		if (buffer.remaining() < bytes)
+			drain();
+	}
+
+	private void drain() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,399 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * CycleProfiler
+ * -------------
+ * Times the phases of a world's cycle: wall time, CPU time and bytes allocated, and
+ * the number of FBA solves, dormant cells and extracellular reaction steps. The
+ * numbers are summed over a window of cycles, then written to the metrics log as one
+ * line per phase, and summarized on the console.
+ * <p>
+ * A phase is timed between <code>begin()</code> and <code>end()</code> on the
+ * simulation thread; phases don't nest. CPU time and allocation are measured for the
+ * simulation thread, plus any worker threads passed to <code>begin()</code>, so that
+ * threaded FBA is counted. Allocation is only measured on JVMs that support it, and
+ * is otherwise written as -1. A disabled profiler does nothing.
+ */
+public class CycleProfiler
+{
+	/**
+	 * The phases of a cycle, in the order they're written.
+	 */
+	public enum Phase
+	{
+		MUTATION("mutation"),
+		FBA("fba"),
+		REACTIONS("reactions"),
+		MEDIA_DIFFUSION("media_diffusion"),
+		BIOMASS_MOTION("biomass_motion"),
+		BOUNDARY("boundary"),
+		LOG_FLUX("log_flux"),
+		LOG_MEDIA("log_media"),
+		LOG_BIOMASS("log_biomass"),
+		LOG_VELOCITY("log_velocity"),
+		LOG_TOTAL_BIOMASS("log_total_biomass"),
+		LOG_SPECIFIC_MEDIA("log_specific_media"),
+		LOG_MAT("log_mat"),
+		CHECKPOINT("checkpoint"),
+		UI("ui");
+
+		private String name;
+
+		private Phase(String name)
+		{
+			this.name = name;
+		}
+
+		public String toString()
+		{
+			return name;
+		}
+	}
+
+	public static final String HEADER = "cycle\tcycles\tphase\tcalls\twall_ms\tcpu_ms\talloc_bytes\tsolves"
+			+ "\trxn_points\trxn_steps\trxn_rejected\trxn_stiff\trxn_failed\tdormant\twoken";
+
+	private boolean enabled;
+	private int rate;
+	private PrintWriter writer;
+	private ThreadMXBean threads;
+	private com.sun.management.ThreadMXBean allocations;	// null if the JVM can't count allocation
+
+	// sums over the current window, indexed by phase
+	private int[] calls;
+	private long[] wallNanos;
+	private long[] cpuNanos;
+	private long[] allocBytes;
+	private long solves;
+	private long dormant, woken;
+	private long[] reactionCounts = new long[5];	// points, steps, rejected, stiff, failed
+	private int windowCycles;
+	private String status;			// the world after the last cycle, for the summary
+
+	// the phase being timed
+	private Phase current;
+	private Thread[] currentHelpers;
+	private long startWall, startCpu, startAlloc;
+
+	/**
+	 * @param enabled false to make a profiler that does nothing
+	 * @param rate the number of cycles summed in each window
+	 * @param writer the metrics log, or null to only print the summary
+	 */
+	public CycleProfiler(boolean enabled, int rate, PrintWriter writer)
+	{
+		this.enabled = enabled;
+		this.rate = Math.max(1, rate);
+		this.writer = writer;
+		int n = Phase.values().length;
+		calls = new int[n];
+		wallNanos = new long[n];
+		cpuNanos = new long[n];
+		allocBytes = new long[n];
+		if (!enabled)
+			return;
+		threads = ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadCpuTimeSupported())
+			threads = null;
+		else if (!threads.isThreadCpuTimeEnabled())
+			threads.setThreadCpuTimeEnabled(true);
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+		{
+			allocations = (com.sun.management.ThreadMXBean) bean;
+			allocations.setThreadAllocatedMemoryEnabled(true);
+		}
+		if (writer != null)
+		{
+			writer.println(HEADER);
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Makes the profiler the package parameters ask for, opening the metrics log and
+	 * adding it to the manifest. If the log can't be opened, the phases are still timed
+	 * and summarized on the console.
+	 * @param pParams
+	 * @param fileName the metrics log's name, as adjusted by the world
+	 * @return the profiler, disabled if writeMetricsLog isn't set
+	 */
+	public static CycleProfiler open(FBAParameters pParams, String fileName)
+	{
+		if (!pParams.writeMetricsLog())
+			return new CycleProfiler(false, 1, null);
+		PrintWriter writer = null;
+		try
+		{
+			writer = new PrintWriter(new FileWriter(new File(fileName)));
+			try
+			{
+				FileWriter manifestWriter = new FileWriter(new File(pParams.getManifestFileName()), true);
+				manifestWriter.write("MetricsFileName: " + fileName + System.getProperty("line.separator"));
+				manifestWriter.close();
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to initialize manifest file. \nContinuing without writing manifest file.");
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to initialize metrics log file '" + fileName + "'\nContinuing without saving log.");
+		}
+		return new CycleProfiler(true, pParams.getMetricsLogRate(), writer);
+	}
+
+	/**
+	 * @return true if phases are being timed
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Starts timing a phase on the calling thread.
+	 * @param phase
+	 */
+	public void begin(Phase phase)
+	{
+		begin(phase, null);
+	}
+
+	/**
+	 * Starts timing a phase that also runs on other threads.
+	 * @param phase
+	 * @param helpers the other threads, whose CPU time and allocation also count
+	 */
+	public void begin(Phase phase, Thread[] helpers)
+	{
+		if (!enabled)
+			return;
+		current = phase;
+		currentHelpers = helpers;
+		startCpu = cpuTime(helpers);
+		startAlloc = allocated(helpers);
+		startWall = System.nanoTime();
+	}
+
+	/**
+	 * Stops timing the phase begun last, and adds it to the window.
+	 */
+	public void end()
+	{
+		if (!enabled || current == null)
+			return;
+		long wall = System.nanoTime() - startWall;
+		int p = current.ordinal();
+		calls[p]++;
+		wallNanos[p] += wall;
+		cpuNanos[p] += cpuTime(currentHelpers) - startCpu;
+		if (allocations != null)
+			allocBytes[p] += allocated(currentHelpers) - startAlloc;
+		current = null;
+		currentHelpers = null;
+	}
+
+	/**
+	 * @param n the number of FBA problems solved this cycle
+	 */
+	public void addSolves(long n)
+	{
+		if (enabled)
+			solves += n;
+	}
+
+	/**
+	 * @param dormantCells the number of cells skipped this cycle because they were dormant
+	 * @param wokenCells the number of cells solved again after being dormant
+	 */
+	public void addDormantCells(int dormantCells, int wokenCells)
+	{
+		if (!enabled)
+			return;
+		dormant += dormantCells;
+		woken += wokenCells;
+	}
+
+	/**
+	 * @param status one line about the world after this cycle, e.g. its total biomass,
+	 * which ends the summary if this is the last cycle of the window
+	 */
+	public void setStatus(String status)
+	{
+		if (enabled)
+			this.status = status;
+	}
+
+	/**
+	 * Adds the work the extracellular reactions did this cycle.
+	 * @param points the grid points integrated
+	 * @param steps the accepted steps of the adaptive integrator
+	 * @param rejected its rejected steps
+	 * @param stiff the points it integrated with its implicit method
+	 * @param failed the points it failed to integrate to the end of the timestep
+	 */
+	public void addReactionSteps(int points, int steps, int rejected, int stiff, int failed)
+	{
+		if (!enabled)
+			return;
+		reactionCounts[0] += points;
+		reactionCounts[1] += steps;
+		reactionCounts[2] += rejected;
+		reactionCounts[3] += stiff;
+		reactionCounts[4] += failed;
+	}
+
+	/**
+	 * Ends a cycle. At the end of each window, writes the window's sums to the metrics
+	 * log, prints the summary and starts the next window.
+	 * @param cycle the cycle just finished
+	 */
+	public void endCycle(long cycle)
+	{
+		if (!enabled)
+			return;
+		windowCycles++;
+		if (cycle % rate == 0)
+			flush(cycle);
+	}
+
+	/**
+	 * Writes what has been timed since the last window, if anything.
+	 * @param cycle the cycle just finished
+	 */
+	public void flush(long cycle)
+	{
+		if (!enabled || windowCycles == 0)
+			return;
+		if (writer != null)
+		{
+			for (Phase phase : Phase.values())
+			{
+				int p = phase.ordinal();
+				if (calls[p] == 0)
+					continue;
+				writer.println(cycle + "\t" + windowCycles + "\t" + phase + "\t" + calls[p] + "\t"
+						+ millis(wallNanos[p]) + "\t" + millis(cpuNanos[p]) + "\t"
+						+ (allocations != null ? allocBytes[p] : -1) + "\t" + (phase == Phase.FBA ? solves : 0)
+						+ reactionColumns(phase)
+						+ "\t" + (phase == Phase.FBA ? dormant : 0) + "\t" + (phase == Phase.FBA ? woken : 0));
+			}
+			writer.flush();
+		}
+		System.out.println(summary(cycle));
+		windowCycles = 0;
+		status = null;
+		solves = 0;
+		dormant = 0;
+		woken = 0;
+		Arrays.fill(reactionCounts, 0);
+		for (int p = 0; p < calls.length; p++)
+		{
+			calls[p] = 0;
+			wallNanos[p] = 0;
+			cpuNanos[p] = 0;
+			allocBytes[p] = 0;
+		}
+	}
+
+	/**
+	 * @return one line with the wall time of each phase that ran in the window
+	 */
+	private String summary(long cycle)
+	{
+		StringBuilder line = new StringBuilder("Cycle " + cycle + " (" + windowCycles + (windowCycles == 1 ? " cycle):" : " cycles):"));
+		long total = 0;
+		String separator = " ";
+		for (Phase phase : Phase.values())
+		{
+			int p = phase.ordinal();
+			if (calls[p] == 0)
+				continue;
+			line.append(separator).append(phase).append(' ').append(millis(wallNanos[p])).append("ms");
+			if (phase == Phase.FBA)
+			{
+				line.append(" (").append(solves).append(" solves");
+				if (dormant > 0 || woken > 0)
+					line.append(", ").append(dormant).append(" dormant, ").append(woken).append(" woken up");
+				line.append(')');
+			}
+			if (phase == Phase.REACTIONS && reactionCounts[0] > 0)
+			{
+				line.append(" (").append(reactionCounts[0]).append(" points, ").append(reactionCounts[1]).append(" steps, ")
+						.append(reactionCounts[2]).append(" rejected, ").append(reactionCounts[3]).append(" stiff");
+				if (reactionCounts[4] > 0)
+					line.append(", ").append(reactionCounts[4]).append(" failed");
+				line.append(')');
+			}
+			total += wallNanos[p];
+			separator = ", ";
+		}
+		line.append(", total ").append(millis(total)).append("ms");
+		if (status != null)
+			line.append(". ").append(status);
+		return line.toString();
+	}
+
+	/**
+	 * Stops profiling, and writes what's left of the last window.
+	 * @param cycle the last cycle
+	 */
+	public void close(long cycle)
+	{
+		flush(cycle);
+		if (writer != null)
+			writer.close();
+		writer = null;
+		enabled = false;
+	}
+
+	private String reactionColumns(Phase phase)
+	{
+		StringBuilder columns = new StringBuilder();
+		for (long count : reactionCounts)
+			columns.append('\t').append(phase == Phase.REACTIONS ? count : 0);
+		return columns.toString();
+	}
+
+	private long cpuTime(Thread[] helpers)
+	{
+		if (threads == null)
+			return 0;
+		long t = threads.getCurrentThreadCpuTime();
+		if (helpers != null)
+		{
+			for (Thread thread : helpers)
+				t += Math.max(0, threads.getThreadCpuTime(thread.getId()));
+		}
+		return t;
+	}
+
+	private long allocated(Thread[] helpers)
+	{
+		if (allocations == null)
+			return 0;
+		long b = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+		if (helpers != null)
+		{
+			for (Thread thread : helpers)
+				b += Math.max(0, allocations.getThreadAllocatedBytes(thread.getId()));
+		}
+		return b;
+	}
+
+	private static double millis(long nanos)
+	{
+		return Math.round(nanos / 1e4) / 100.0;
+	}
+}
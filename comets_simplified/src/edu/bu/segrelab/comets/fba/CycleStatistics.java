@@ -0,0 +1,337 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CycleStatistics
+ * ---------------
+ * Collects the summary numbers of a single <code>FBAWorld</code> cycle: total and
+ * newly grown biomass per model, the biomass-weighted growth rate per model, a
+ * histogram of FBA solver statuses per model, and the total amount of each medium
+ * component.
+ * <p>
+ * During the FBA pass each worker (the main thread, or one <code>FBARunThread</code>)
+ * only adds into its own accumulator, so no locking is needed. The accumulators are
+ * combined once all cells have run. Totals of biomass and media are taken by streaming
+ * over the world's fields after the biomass and media have been moved. Loggers and
+ * console output then read from here instead of walking the cells again.
+ */
+public class CycleStatistics
+{
+	/*
+	 * Solver statuses that FBACell treats as a usable solution (GLPK's GLP_OPT,
+	 * and the code used by the other optimizers).
+	 */
+	private static final int STATUS_OPTIMAL = 5;
+	private static final int STATUS_OPTIMAL_ALT = 180;
+
+	private int numModels;
+
+	// per-worker accumulators, indexed [worker][model]
+	private double[][] workerDeltaBiomass;
+	private double[][] workerWeightedGrowth;
+	private double[][] workerGrowthBiomass;
+	private int[] workerCellsRun;
+	private int[] workerDormant;
+	private int[] workerWoken;
+	private int[] workerSolves;
+	private Map<Integer, int[]>[] workerStatusCounts;
+
+	// combined values
+	private double[] totalBiomass;
+	private double[] deltaBiomass;
+	private double[] meanGrowthRate;
+	private TreeMap<Integer, int[]> statusCounts;
+	private double[] totalMedia;
+	private int cellsRun;
+	private int dormantCells;
+	private int wokenCells;
+	private int solves;
+
+	public CycleStatistics()
+	{
+		reset(1, 0);
+		totalBiomass = new double[0];
+		totalMedia = new double[0];
+	}
+
+	/**
+	 * Clears the per-worker accumulators before an FBA pass.
+	 * @param numWorkers the number of threads that will call <code>addCell()</code>
+	 * @param numModels the number of models currently in the world
+	 */
+	@SuppressWarnings("unchecked")
+	public void reset(int numWorkers, int numModels)
+	{
+		if (numWorkers < 1)
+			numWorkers = 1;
+		this.numModels = numModels;
+		workerDeltaBiomass = new double[numWorkers][numModels];
+		workerWeightedGrowth = new double[numWorkers][numModels];
+		workerGrowthBiomass = new double[numWorkers][numModels];
+		workerCellsRun = new int[numWorkers];
+		workerDormant = new int[numWorkers];
+		workerWoken = new int[numWorkers];
+		workerSolves = new int[numWorkers];
+		workerStatusCounts = new Map[numWorkers];
+		for (int w = 0; w < numWorkers; w++)
+			workerStatusCounts[w] = new HashMap<Integer, int[]>();
+		deltaBiomass = new double[numModels];
+		meanGrowthRate = new double[numModels];
+		statusCounts = new TreeMap<Integer, int[]>();
+		cellsRun = 0;
+		dormantCells = 0;
+		wokenCells = 0;
+		solves = 0;
+	}
+
+	/**
+	 * Adds the results of one cell's FBA run to a worker's accumulator. Each worker
+	 * must use its own index.
+	 * @param worker the index of the calling worker
+	 * @param cell the cell that just ran
+	 * @param keepsDelta false if the cell is about to be removed, so its growth
+	 * should not count towards this cycle's new biomass
+	 */
+	public void addCell(int worker, FBACell cell, boolean keepsDelta)
+	{
+		addRun(worker, cell.getDeltaBiomass(), cell.getGrowthRates(), cell.getBiomass(),
+				cell.getFBAstatus(), cell.wasDormant(), cell.wokeUp(), keepsDelta);
+	}
+
+	/**
+	 * Adds the results of one cell's FBA run, given as the cell's arrays, to a worker's
+	 * accumulator.
+	 * @param worker the index of the calling worker
+	 * @param delta the biomass each model grew
+	 * @param rates each model's growth rate, or null
+	 * @param biomass each model's biomass
+	 * @param status each model's solver status, FBACell.FBA_NOT_RUN if it wasn't run
+	 * @param dormant true if the cell kept its last solution without solving
+	 * @param woken true if the cell was solved again after being dormant
+	 * @param keepsDelta false if the cell is about to be removed
+	 */
+	public void addRun(int worker, double[] delta, double[] rates, double[] biomass, int[] status,
+			boolean dormant, boolean woken, boolean keepsDelta)
+	{
+		int n = Math.min(numModels, delta.length);
+		for (int k = 0; k < n; k++)
+		{
+			if (keepsDelta)
+				workerDeltaBiomass[worker][k] += delta[k];
+			if (rates != null && k < rates.length)
+			{
+				workerWeightedGrowth[worker][k] += rates[k] * biomass[k];
+				workerGrowthBiomass[worker][k] += biomass[k];
+			}
+			if (status != null && k < status.length && status[k] != FBACell.FBA_NOT_RUN)
+			{
+				int[] counts = workerStatusCounts[worker].get(status[k]);
+				if (counts == null)
+				{
+					counts = new int[numModels];
+					workerStatusCounts[worker].put(status[k], counts);
+				}
+				counts[k]++;
+				if (!dormant)
+					workerSolves[worker]++;
+			}
+		}
+		workerCellsRun[worker]++;
+		if (dormant)
+			workerDormant[worker]++;
+		if (woken)
+			workerWoken[worker]++;
+	}
+
+	/**
+	 * Combines the per-worker accumulators. Call this once every worker has finished
+	 * its share of the FBA pass.
+	 */
+	public void combine()
+	{
+		double[] growthBiomass = new double[numModels];
+		for (int w = 0; w < workerDeltaBiomass.length; w++)
+		{
+			for (int k = 0; k < numModels; k++)
+			{
+				deltaBiomass[k] += workerDeltaBiomass[w][k];
+				meanGrowthRate[k] += workerWeightedGrowth[w][k];
+				growthBiomass[k] += workerGrowthBiomass[w][k];
+			}
+			for (Map.Entry<Integer, int[]> entry : workerStatusCounts[w].entrySet())
+			{
+				int[] counts = statusCounts.get(entry.getKey());
+				if (counts == null)
+				{
+					counts = new int[numModels];
+					statusCounts.put(entry.getKey(), counts);
+				}
+				for (int k = 0; k < numModels; k++)
+					counts[k] += entry.getValue()[k];
+			}
+			cellsRun += workerCellsRun[w];
+			dormantCells += workerDormant[w];
+			wokenCells += workerWoken[w];
+			solves += workerSolves[w];
+		}
+		for (int k = 0; k < numModels; k++)
+		{
+			if (growthBiomass[k] > 0)
+				meanGrowthRate[k] /= growthBiomass[k];
+		}
+	}
+
+	/**
+	 * Sums each model's layer of a biomass field, indexed [model][x][y].
+	 * @param field
+	 */
+	public void collectBiomass(double[][][] field)
+	{
+		double[] totals = new double[field.length];
+		for (int k = 0; k < field.length; k++)
+		{
+			double sum = 0;
+			for (double[] column : field[k])
+			{
+				for (double value : column)
+					sum += value;
+			}
+			totals[k] = sum;
+		}
+		totalBiomass = totals;
+	}
+
+	/**
+	 * Sums each medium component over a media grid, indexed [x][y][medium].
+	 * @param media
+	 */
+	public void collectMedia(double[][][] media)
+	{
+		int numMedia = (media.length > 0 && media[0].length > 0) ? media[0][0].length : 0;
+		double[] totals = new double[numMedia];
+		for (double[][] column : media)
+		{
+			for (double[] space : column)
+			{
+				for (int k = 0; k < numMedia; k++)
+					totals[k] += space[k];
+			}
+		}
+		totalMedia = totals;
+	}
+
+	/**
+	 * @return the total biomass of each model at the end of the cycle
+	 */
+	public double[] getTotalBiomass()
+	{
+		return totalBiomass;
+	}
+
+	/**
+	 * @return the biomass grown by each model during the FBA pass, counting only
+	 * cells that were kept
+	 */
+	public double[] getDeltaBiomass()
+	{
+		return deltaBiomass;
+	}
+
+	/**
+	 * @return the biomass-weighted mean growth rate (1/hr) of each model
+	 */
+	public double[] getMeanGrowthRate()
+	{
+		return meanGrowthRate;
+	}
+
+	/**
+	 * @return for each solver status seen this cycle, the number of FBA runs of each
+	 * model that ended with it
+	 */
+	public Map<Integer, int[]> getStatusCounts()
+	{
+		return statusCounts;
+	}
+
+	/**
+	 * @param model the model index
+	 * @return how many of the model's FBA runs this cycle did not give a usable solution
+	 */
+	public int getNumFailedRuns(int model)
+	{
+		int failed = 0;
+		for (Map.Entry<Integer, int[]> entry : statusCounts.entrySet())
+		{
+			int status = entry.getKey();
+			if (status != STATUS_OPTIMAL && status != STATUS_OPTIMAL_ALT && model < entry.getValue().length)
+				failed += entry.getValue()[model];
+		}
+		return failed;
+	}
+
+	/**
+	 * @return true if FBA was run this cycle and none of the runs, of any model, gave a
+	 * usable solution
+	 */
+	public boolean allRunsFailed()
+	{
+		boolean anyRuns = false;
+		for (Map.Entry<Integer, int[]> entry : statusCounts.entrySet())
+		{
+			int status = entry.getKey();
+			for (int count : entry.getValue())
+			{
+				if (count == 0)
+					continue;
+				if (status == STATUS_OPTIMAL || status == STATUS_OPTIMAL_ALT)
+					return false;
+				anyRuns = true;
+			}
+		}
+		return anyRuns;
+	}
+
+	/**
+	 * @return the total amount of each medium component at the end of the cycle
+	 */
+	public double[] getTotalMedia()
+	{
+		return totalMedia;
+	}
+
+	/**
+	 * @return the number of cells that ran FBA this cycle
+	 */
+	public int getNumCellsRun()
+	{
+		return cellsRun;
+	}
+
+	/**
+	 * @return the number of those cells that were dormant, so FBA wasn't solved again
+	 */
+	public int getNumDormantCells()
+	{
+		return dormantCells;
+	}
+
+	/**
+	 * @return the number of those cells that were solved again after being dormant
+	 */
+	public int getNumWokenCells()
+	{
+		return wokenCells;
+	}
+
+	/**
+	 * @return the number of FBA problems solved this cycle, over all cells and models
+	 */
+	public int getNumSolves()
+	{
+		return solves;
+	}
+}
@@ -47,9 +47,11 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	private FBAWorld world;
 	private FBAWorld3D world3D;
 	
+	public static final int FBA_NOT_RUN = -1;	// FBAstatus of a species that wasn't run this step
+
 	private final int id;
 	private int cellColor;
-	private double[] biomass;
+	private double[] biomass;			// only used by 3D cells; 2D cells are views on the FBAWorld fields
 	private double[] old_biomass;
 	private double[] convectionRHS1;
 	private double[] convectionRHS2;
@@ -63,7 +65,15 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	private double[] allModelsGrowthRates;
 
 	private double[][] deltaMedia; // DJORDJE
+	private double[][] runLowerBounds, runUpperBounds, runExchFluxes;	// scratch for run()
 	private boolean stationaryStatus = false; //Jean
+	
+	// dormancy (skipDormantCells): after a solve with no growth and no exchange, the cell
+	// isn't solved again until its media change
+	private double[] dormantMedia;		// the local media at that solve, or null if awake
+	private int[] dormantPresent;		// the models present then
+	private int[] dormantStatus;		// and their FBA statuses
+	private boolean skippedRun, wokeUp;	// what the last run() did
   
 	private double[][] fluxes;
 	private int[] FBAstatus;
@@ -98,9 +108,9 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 			 fbaModels,
 			 cParams,
 			 pParams);
-		for (int i=0; i<biomass.length; i++)
+		for (int i=0; i<fbaModels.length; i++)
 		{
-			biomass[i] = Utility.randomDouble(); 
+			setBiomassAt(i, Utility.randomDouble());
 		}
 	}
 
@@ -132,10 +142,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		this.world = world;
 		this.cParams = cParams;
 		this.pParams = pParams;
-		this.biomass = new double[fbaModels.length];
-		setBiomass(biomass);
-		this.convectionRHS1=new double[biomass.length];
-		this.convectionRHS2=new double[biomass.length];
+		setBiomass(biomass); // written into the world's biomass field
 		this.convectionMultiRHS1=new double[biomass.length];
 		this.convectionMultiRHS2=new double[biomass.length];
 
@@ -289,6 +296,13 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 */
 	public void setConvectionRHS1(double[] values)
 	{
+		if (world != null)
+		{
+			double[][][] field = world.getConvectionRHS1Field();
+			for (int i = 0; i < fbaModels.length; i++)
+				field[i][x][y] = values[i];
+			return;
+		}
 		for (int i = 0; i < convectionRHS1.length; i++)
 		{
 				convectionRHS1[i] = values[i];
@@ -301,6 +315,13 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 */
 	public void setConvectionRHS2(double[] values)
 	{
+		if (world != null)
+		{
+			double[][][] field = world.getConvectionRHS2Field();
+			for (int i = 0; i < fbaModels.length; i++)
+				field[i][x][y] = values[i];
+			return;
+		}
 		for (int i = 0; i < convectionRHS2.length; i++)
 		{
 				convectionRHS2[i] = values[i];
@@ -364,24 +385,24 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	private int setBiomass(double[] values, boolean delta)
 	{
 		int numLost = 0;
-		for (int i = 0; i < biomass.length; i++)
+		for (int i = 0; i < fbaModels.length; i++)
 		{
 			if (delta)
-				biomass[i] += values[i];
+				setBiomassAt(i, biomassAt(i) + values[i]);
 			else
 			{
 				if (values[i] < 0)
-					biomass[i] = 0;
+					setBiomassAt(i, 0);
 				else
-					biomass[i] = values[i];
+					setBiomassAt(i, values[i]);
 			}
-			if (biomass[i] < cParams.getMinSpaceBiomass())
+			if (biomassAt(i) < cParams.getMinSpaceBiomass())
 			{
-				biomass[i] = 0;
+				setBiomassAt(i, 0);
 				numLost++;
 			}
 		}
-		if (numLost == biomass.length)
+		if (numLost == fbaModels.length)
 			return die();
 		if (cParams.showGraphics())
 		{
@@ -406,24 +427,24 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	private int setBiomass3D(double[] values, boolean delta)
 	{
 		int numLost = 0;
-		for (int i = 0; i < biomass.length; i++)
+		for (int i = 0; i < fbaModels.length; i++)
 		{
 			if (delta)
-				biomass[i] += values[i];
+				setBiomassAt(i, biomassAt(i) + values[i]);
 			else
 			{
 				if (values[i] < 0)
-					biomass[i] = 0;
+					setBiomassAt(i, 0);
 				else
-					biomass[i] = values[i];
+					setBiomassAt(i, values[i]);
 			}
-			if (biomass[i] < cParams.getMinSpaceBiomass())
+			if (biomassAt(i) < cParams.getMinSpaceBiomass())
 			{
-				biomass[i] = 0;
+				setBiomassAt(i, 0);
 				numLost++;
 			}
 		}
-		if (numLost == biomass.length)
+		if (numLost == fbaModels.length)
 			return die();
 		if (cParams.showGraphics())
 		{
@@ -453,10 +474,10 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		// e.g. if we don't allow overlap, set in-diffusion to only
 		// the currently assigned biomass
 		// otherwise, everything's welcome in.
-		for (int i=0; i<biomass.length; i++)
+		for (int i=0; i<fbaModels.length; i++)
 		{
 			world.setDiffuseBiomassIn(x, y, i, true);
-			if (biomass[i] == 0 && !cParams.allowCellOverlap())
+			if (biomassAt(i) == 0 && !cParams.allowCellOverlap())
 			{
 				world.setDiffuseBiomassIn(x, y, i, false);
 				world.setDiffuseBiomassOut(x, y, i, false);
@@ -464,8 +485,8 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		}
 
 		// next, set diffusability based on how much biomass is present.
-		if (Utility.sum(biomass) >= cParams.getMaxSpaceBiomass())
-			for (int i=0; i<biomass.length; i++)
+		if (totalBiomass() >= cParams.getMaxSpaceBiomass())
+			for (int i=0; i<fbaModels.length; i++)
 				world.setDiffuseBiomassIn(x, y, i, false);
 	}
 	/**
@@ -487,10 +508,10 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		// e.g. if we don't allow overlap, set in-diffusion to only
 		// the currently assigned biomass
 		// otherwise, everything's welcome in.
-		for (int i=0; i<biomass.length; i++)
+		for (int i=0; i<fbaModels.length; i++)
 		{
 			world3D.setDiffuseBiomassIn(x, y, z, i, true);
-			if (biomass[i] == 0 && !cParams.allowCellOverlap())
+			if (biomassAt(i) == 0 && !cParams.allowCellOverlap())
 			{
 				world3D.setDiffuseBiomassIn(x, y, z, i, false);
 				world3D.setDiffuseBiomassOut(x, y, z, i, false);
@@ -498,8 +519,8 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		}
 
 		// next, set diffusability based on how much biomass is present.
-		if (Utility.sum(biomass) >= cParams.getMaxSpaceBiomass())
-			for (int i=0; i<biomass.length; i++)
+		if (totalBiomass() >= cParams.getMaxSpaceBiomass())
+			for (int i=0; i<fbaModels.length; i++)
 				world3D.setDiffuseBiomassIn(x, y, z, i, false);
 	}
 
@@ -523,11 +544,11 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 */
 	private int calculateColor()
 	{
-		if (biomass.length == 2)
-			return Utility.pColor((int)biomass[1]*(255/10), (int)biomass[0]*255/10, 55);
-		if (biomass.length == 3)
-			return Utility.pColor((int)biomass[1]*(255/10), (int)biomass[0]*255/10, 55 + (int)biomass[2]*255/10);
-		return Utility.pColor(0, (int)biomass[0]*(255/10), 55);
+		if (fbaModels.length == 2)
+			return Utility.pColor((int)biomassAt(1)*(255/10), (int)biomassAt(0)*255/10, 55);
+		if (fbaModels.length == 3)
+			return Utility.pColor((int)biomassAt(1)*(255/10), (int)biomassAt(0)*255/10, 55 + (int)biomassAt(2)*255/10);
+		return Utility.pColor(0, (int)biomassAt(0)*(255/10), 55);
     }
 	
 	/* (non-Javadoc)
@@ -563,13 +584,63 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	}
 
 	/**
-	 * Returns the current biomass present in the <code>FBACell</code>
+	 * Returns the current biomass present in the <code>FBACell</code>. For a cell in a 
+	 * 2D <code>FBAWorld</code> this is a snapshot of the world's biomass field at the
+	 * cell's location.
 	 * @return a double[] containing the current total biomass in the <code>FBACell</code>.
 	 */
 	public synchronized double[] getBiomass()
 	{
+		if (world != null)
+			return fieldValues(world.getBiomassField());
 		return biomass;
 	}
+
+	/**
+	 * Re-applies the minimum biomass threshold and the diffusibility rules after the
+	 * world has moved biomass directly in its biomass field.
+	 * @return <code>Cell.CELL_OK</code> if there remains a positive amount 
+	 * of biomass, or <code>Cell.CELL_DEAD</code> if not.
+	 */
+	public int refreshBiomass()
+	{
+		return setBiomass(new double[fbaModels.length], true);
+	}
+
+	/*
+	 * The biomass of a 2D cell lives in the FBAWorld's per-model field, so these
+	 * accessors index into it at (x, y). 3D cells keep their own array.
+	 */
+	private double biomassAt(int k)
+	{
+		if (world != null)
+			return world.getBiomassField()[k][x][y];
+		return biomass[k];
+	}
+
+	private void setBiomassAt(int k, double value)
+	{
+		if (world != null)
+			world.getBiomassField()[k][x][y] = value;
+		else
+			biomass[k] = value;
+	}
+
+	private double totalBiomass()
+	{
+		double total = 0;
+		for (int k = 0; k < fbaModels.length; k++)
+			total += biomassAt(k);
+		return total;
+	}
+
+	private double[] fieldValues(double[][][] field)
+	{
+		double[] values = new double[fbaModels.length];
+		for (int k = 0; k < values.length; k++)
+			values[k] = field[k][x][y];
+		return values;
+	}
 	
 	public synchronized String[] getCellModelIDs()
 	{
@@ -588,6 +659,8 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 */
 	public synchronized double[] getConvectionRHS1()
 	{
+		if (world != null)
+			return fieldValues(world.getConvectionRHS1Field());
 		return convectionRHS1;
 	}
 	
@@ -597,6 +670,8 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 */
 	public synchronized double[] getConvectionRHS2()
 	{
+		if (world != null)
+			return fieldValues(world.getConvectionRHS2Field());
 		return convectionRHS2;
 	}
 	
@@ -668,7 +743,17 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	}
 	
 	/**
-	 * @return the status of FBA (feasible or infeasible).
+	 * @return the most recent growth rate (1/hr) of each species in the cell, or null
+	 * if the cell hasn't run yet.
+	 */
+	public double[] getGrowthRates()
+	{
+		return allModelsGrowthRates;
+	}
+	
+	/**
+	 * @return the solver status of the most recent FBA run of each species in the cell,
+	 * or <code>FBA_NOT_RUN</code> for species that were skipped.
 	 */
 	public int[] getFBAstatus()
 	{
@@ -699,6 +784,51 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		return fluxes; 
 	}
 	
+	/**
+	 * Writes what the cell carries from one cycle to the next for a checkpoint. The
+	 * biomass isn't included, since 2D cells keep it in the world's biomass field.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeState(DataOutputStream out) throws IOException
+	{
+		FBACheckpoint.writeArray(out, old_biomass);
+		FBACheckpoint.writeArray(out, convectionMultiRHS1);
+		FBACheckpoint.writeArray(out, convectionMultiRHS2);
+		out.writeDouble(jointRHS1);
+		out.writeDouble(jointRHS2);
+		FBACheckpoint.writeArray(out, deltaBiomass);
+		FBACheckpoint.writeArray(out, dyingBiomass);
+		FBACheckpoint.writeArray(out, allModelsGrowthRates);
+		FBACheckpoint.writeArray(out, deltaMedia);
+		out.writeBoolean(stationaryStatus);
+		FBACheckpoint.writeArray(out, fluxes);
+		FBACheckpoint.writeArray(out, FBAstatus);
+		FBACheckpoint.writeArray(out, convModelFluxes);
+	}
+
+	/**
+	 * Restores the state written by <code>writeState()</code>.
+	 * @param in
+	 * @throws IOException
+	 */
+	public void readState(DataInputStream in) throws IOException
+	{
+		old_biomass = FBACheckpoint.readDoubles(in);
+		convectionMultiRHS1 = FBACheckpoint.readDoubles(in);
+		convectionMultiRHS2 = FBACheckpoint.readDoubles(in);
+		jointRHS1 = in.readDouble();
+		jointRHS2 = in.readDouble();
+		deltaBiomass = FBACheckpoint.readDoubles(in);
+		dyingBiomass = FBACheckpoint.readDoubles(in);
+		allModelsGrowthRates = FBACheckpoint.readDoubles(in);
+		deltaMedia = FBACheckpoint.readDoubles2D(in);
+		stationaryStatus = in.readBoolean();
+		fluxes = FBACheckpoint.readDoubles2D(in);
+		FBAstatus = FBACheckpoint.readInts(in);
+		convModelFluxes = FBACheckpoint.readDoubles2D(in);
+	}
+
 	/* (non-Javadoc)
 	 * @see edu.bu.segrelab.comets.Cell#getID()
 	 */
@@ -747,36 +877,49 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	{
 //		if (Comets.DIFFUSION_TEST_MODE)
 //			return CELL_OK;
-		deltaBiomass = new double[models.length];
-		dyingBiomass = new double[biomass.length];
-
-		allModelsGrowthRates = new double[models.length];
-    
-		deltaMedia = new double[models.length][]; //DJORDJE
-		old_biomass = new double[models.length];
-		
-		FBAstatus = new int[models.length];
+		resetRunArrays(models.length);
 		
 		double biomassGrowthRate = 0.0;
 		double rho = 1.0;
 
 		// exchange fluxes, needed for equitative distribution of resources among models 		
-		double[][] allExchFluxes = new double[models.length][];		
+		double[][] allExchFluxes = runExchFluxes;
 		
 		/* 
 		 * First optimization in the media sharing algorithm
 		 */
 		//
-		double[][] lb = new double[models.length][];
-		double[][] ub = new double[models.length][];		
+		double[][] lb = runLowerBounds;
+		double[][] ub = runUpperBounds;
 
-		for (int a=0; a<models.length; a++)
+		// only the species with biomass in this space take part in this step, so the
+		// work here grows with the local number of species rather than the global one
+		int[] present = presentModels(models.length);
+
+		// a dormant cell keeps its last solution, which had no growth and no exchange,
+		// until its media or species change
+		skippedRun = false;
+		wokeUp = false;
+		if (dormantMedia != null)
+		{
+			if (dormantStatus.length == models.length && Arrays.equals(present, dormantPresent)
+					&& !mediaChangedSince(dormantMedia))
+			{
+				skippedRun = true;
+				System.arraycopy(dormantStatus, 0, FBAstatus, 0, FBAstatus.length);
+				return updateCellData(deltaBiomass, fluxes, allModelsGrowthRates);
+			}
+			dormantMedia = null;
+			wokeUp = true;
+		}
+
+		for (int a=0; a<present.length; a++)
 		{
 			// i = the current model index to run.
-			int i = a;
+			int i = present[a];
 			
-			// if no biomass, or the total biomass has overflowed, skip to the next.
-			if (biomass[i] == 0 || Utility.sum(biomass) >= cParams.getMaxSpaceBiomass())
+			// if the total biomass has overflowed, skip to the next.
+			if (totalBiomass() >= cParams.getMaxSpaceBiomass())
 			{
 				deltaBiomass[i] = 0;
 				dyingBiomass[i] = 0;
@@ -837,22 +980,22 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 							continue;
 						}
 
-						double km = FBAParameters.getDefaultKm();
+						double km = pParams.getDefaultKm();
 						if (kmArr != null && kmArr.length > j && kmArr[j] > 0)
 							km = kmArr[j];
-						double vMax = FBAParameters.getDefaultVmax();
+						double vMax = pParams.getDefaultVmax();
 						if (vMaxArr != null && vMaxArr.length > j && vMaxArr[j] > 0)
 							vMax = vMaxArr[j];
-						double hill = FBAParameters.getDefaultHill();
+						double hill = pParams.getDefaultHill();
 						if (hillCoeffArr != null && hillCoeffArr.length > j && hillCoeffArr[j] > 0)
 							hill = hillCoeffArr[j];
 						
 						// Start of modified code corrected lb 9/19/13 Ilija D. updated by DJORDJE 
 						
 						// If mm is bigger than the (met_conc / biomass*timestep), rate = min(abs(lb), met_conc / biomass*timestep)
-						if(media[j]/(cParams.getTimeStep()*biomass[i])<calcMichaelisMentenRate(media[j]/(cParams.getSpaceVolume()), km, vMax, hill))
+						if(media[j]/(cParams.getTimeStep()*biomassAt(i))<calcMichaelisMentenRate(media[j]/(cParams.getSpaceVolume()), km, vMax, hill))
 						{
-							rates[j] = Math.min(Math.abs(lb[i][j]),Math.abs(media[j]/(cParams.getTimeStep()*biomass[i])));
+							rates[j] = Math.min(Math.abs(lb[i][j]),Math.abs(media[j]/(cParams.getTimeStep()*biomassAt(i))));
 						}
 						else
 							rates[j] = Math.min(Math.abs(lb[i][j]),
@@ -879,11 +1022,11 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 							continue;
 						}
 
-						double alpha = FBAParameters.getDefaultAlpha();
+						double alpha = pParams.getDefaultAlpha();
 						if (alphaArr != null && alphaArr.length > j && alphaArr[j] > 0)
 							alpha = alphaArr[j];
 						
-						double w = FBAParameters.getDefaultW();
+						double w = pParams.getDefaultW();
 						if (wArr != null && wArr.length > j && wArr[j] > 0)
 							w = wArr[j];
 											
@@ -919,7 +1062,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 			{
 				if (lightAbsorption[j][0]+lightAbsorption[j][1] > 0) {
 					// Note: This function needs to be changed in order to account for multiple light-absorbing species
-					rates[j] = Math.min(Math.abs(lb[i][j]), calcMaxLightUptake(media[j], biomass[i], cParams.getSpaceWidth(), lightAbsorption[j], cParams.getSpaceVolume()));
+					rates[j] = Math.min(Math.abs(lb[i][j]), calcMaxLightUptake(media[j], biomassAt(i), cParams.getSpaceWidth(), lightAbsorption[j], cParams.getSpaceVolume()));
 				}
 			}
 
@@ -939,7 +1082,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 			
 			/************************* SET MAX BIOMASS *****************************/
 		    //only set if the upper bound due to space constraints is lower than the default UB
-		    double bioub = (cParams.getMaxSpaceBiomass() - (Utility.sum(biomass) + Utility.sum(deltaBiomass))) / (biomass[i] * cParams.getTimeStep());
+		    double bioub = (cParams.getMaxSpaceBiomass() - (totalBiomass() + Utility.sum(deltaBiomass))) / (biomassAt(i) * cParams.getTimeStep());
 			double currentbioub = ((FBAModel)models[i]).getUpperBounds()[((FBAModel)models[i]).getBiomassReaction() - 1];
 		    
 			((FBAModel)models[i]).setBiomassUpperBound(Math.min(currentbioub, bioub));
@@ -958,6 +1101,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 			//System.out.println("Debug1");
 			int stat = models[i].run();
 			//System.out.println("Debug2");
+			FBAstatus[i] = stat;
 			fluxes[i] = ((FBAModel)models[i]).getFluxes();
 			//for(int j=0;j<fluxes[i].length;j++) System.out.println(i+" "+j+" "+fluxes[i][j]);
 
@@ -976,7 +1120,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 				// create empty mediaDelta, because model is not growing
 				Arrays.fill(mediaDelta, 0);
 				deltaMedia[i] = mediaDelta;
-				old_biomass[i]=biomass[i];
+				old_biomass[i]=biomassAt(i);
 				
 			} else {
 				
@@ -993,20 +1137,20 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 				/*
 				for (int j=0; j<mediaDelta.length; j++)
 				{
-						mediaDelta[j] = (double)exchFlux[j] * biomass[i] * cParams.getTimeStep();
+						mediaDelta[j] = (double)exchFlux[j] * biomassAt(i) * cParams.getTimeStep();
 				}
 				deltaMedia[i] = mediaDelta;				
 				*/
 				/***************** GET BIOMASS CONCENTRATION CHANGE ****************/
 				// biomass is in grams
 				biomassGrowthRate = (double)(((FBAModel)models[i]).getBiomassFluxSolution());
-				deltaBiomass[i] = (double)(((FBAModel)models[i]).getBiomassFluxSolution()) * cParams.getTimeStep() * biomass[i];
+				deltaBiomass[i] = (double)(((FBAModel)models[i]).getBiomassFluxSolution()) * cParams.getTimeStep() * biomassAt(i);
 				allModelsGrowthRates[i] = biomassGrowthRate;
 				deltaBiomass[i] *= (1-(double)(((FBAModel)models[i]).getGenomeCost()));
 				
-				old_biomass[i]=biomass[i];
-				biomass[i]+=deltaBiomass[i];
-				double oldBiomass=biomass[i];
+				old_biomass[i]=biomassAt(i);
+				setBiomassAt(i, biomassAt(i) + deltaBiomass[i]);
+				double oldBiomass=biomassAt(i);
 				
 				for (int j=0; j<mediaDelta.length; j++)
 				{
@@ -1019,9 +1163,9 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 				//System.out.println(BiomassMotionStyle.CONV_MULTIMODELS_2D);
 				//System.out.println(models[i].getPressureKappa()*Math.pow((biomass[i]-models[i].getPackBiomass()),models[i].getPressureExponent())+" "+models[i].getMaxPressure());
 				
-				if(pParams.getBiomassMotionStyle()==BiomassMotionStyle.CONV_MULTIMODELS_2D && models[i].getPressureKappa()*Math.pow((biomass[i]-models[i].getPackBiomass()),models[i].getPressureExponent())>models[i].getMaxPressure())
+				if(pParams.getBiomassMotionStyle()==BiomassMotionStyle.CONV_MULTIMODELS_2D && models[i].getPressureKappa()*Math.pow((biomassAt(i)-models[i].getPackBiomass()),models[i].getPressureExponent())>models[i].getMaxPressure())
 				{
-					biomass[i]=old_biomass[i];
+					setBiomassAt(i, old_biomass[i]);
 					for (int j=0; j<mediaDelta.length; j++)
 					{
 							mediaDelta[j] = 0.0;
@@ -1037,16 +1181,16 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 					double newBiomass=0.0;
 					while(newBiomass<old_biomass[i])
 					{
-						newBiomass=addDemographicNoise(biomass[i], allModelsGrowthRates[i], fbaModels[i].getNeutralDriftSigma());
+						newBiomass=addDemographicNoise(biomassAt(i), allModelsGrowthRates[i], fbaModels[i].getNeutralDriftSigma());
 					}
-					biomass[i]=newBiomass;
+					setBiomassAt(i, newBiomass);
 					//if(oldBiomass>biomass[i])
 					//biomass[i]=oldBiomass;
-					if(biomass[i]>old_biomass[i]){
+					if(biomassAt(i)>old_biomass[i]){
 						for (int j=0; j<lb[i].length; j++)
 						{
 							//lb[i][j] = -1 * rates[j]/rho;
-							lb[i][j]=lb[i][j]*(biomass[i]-old_biomass[i])/(oldBiomass-old_biomass[i]);
+							lb[i][j]=lb[i][j]*(biomassAt(i)-old_biomass[i])/(oldBiomass-old_biomass[i]);
 							//System.out.println("rates "+i+" "+j+" "+lb[i][j]);
 						}
 					
@@ -1054,6 +1198,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 						
 						/*************************** RUN THE FBA! ****************************/
 						stat = models[i].run();
+						FBAstatus[i] = stat;
 						fluxes[i] = ((FBAModel)models[i]).getFluxes();
 						//for(int j=0;j<fluxes[i].length;j++) System.out.println(i+" "+j+" "+fluxes[i][j]);
 	
@@ -1063,7 +1208,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 						if (stat != 5 && stat != 180)
 						{
 							deltaBiomass[i] = 0.0;
-							biomass[i]=old_biomass[i];
+							setBiomassAt(i, old_biomass[i]);
 							// create empty mediaDelta, because model is not growing
 							Arrays.fill(mediaDelta, 0);
 							deltaMedia[i] = mediaDelta;
@@ -1078,7 +1223,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 				
 							
 							//old_biomass[i]=biomass[i];
-							biomass[i]=old_biomass[i]+deltaBiomass[i];
+							setBiomassAt(i, old_biomass[i]+deltaBiomass[i]);
 							//oldBiomass=biomass[i];
 							
 							
@@ -1095,7 +1240,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 							
 							//if(exchFlux[j]<0.0 && biomass[i]>oldBiomass)mediaDelta[j] = (double)exchFlux[j] * biomass[i] * cParams.getTimeStep();
 							//if(exchFlux[j]>0.0 && biomass[i]<oldBiomass)
-							mediaDelta[j] = (double)exchFlux[j] * biomass[i] * cParams.getTimeStep();
+							mediaDelta[j] = (double)exchFlux[j] * biomassAt(i) * cParams.getTimeStep();
 							
 						}
 						deltaMedia[i] = mediaDelta;
@@ -1103,7 +1248,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 					}
 					else
 					{
-						biomass[i]=old_biomass[i];
+						setBiomassAt(i, old_biomass[i]);
 						for (int j=0; j<mediaDelta.length; j++)
 						{
 								mediaDelta[j] = 0.0;
@@ -1114,10 +1259,10 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 					//System.out.println(pParams.getBiomassMotionStyle());
 					//System.out.println(BiomassMotionStyle.CONV_MULTIMODELS_2D);
 					
-					if(pParams.getBiomassMotionStyle()==BiomassMotionStyle.CONV_MULTIMODELS_2D && models[i].getPressureKappa()*Math.pow((biomass[i]-models[i].getPackBiomass()),models[i].getPressureExponent())>models[i].getMaxPressure())
+					if(pParams.getBiomassMotionStyle()==BiomassMotionStyle.CONV_MULTIMODELS_2D && models[i].getPressureKappa()*Math.pow((biomassAt(i)-models[i].getPackBiomass()),models[i].getPressureExponent())>models[i].getMaxPressure())
 					{
 						//System.out.println("here");
-						biomass[i]=old_biomass[i];
+						setBiomassAt(i, old_biomass[i]);
 						for (int j=0; j<mediaDelta.length; j++)
 						{
 								mediaDelta[j] = 0.0;
@@ -1130,7 +1275,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 					{
 						for (int j=0; j<mediaDelta.length; j++)
 						{
-								mediaDelta[j] = (double)exchFlux[j] * biomass[i] * cParams.getTimeStep();
+								mediaDelta[j] = (double)exchFlux[j] * biomassAt(i) * cParams.getTimeStep();
 						}
 						deltaMedia[i] = mediaDelta;	
 					}
@@ -1185,7 +1330,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 					// what models are uptaking it? 
 					ArrayList<Integer> uptakingModels = new ArrayList<Integer>(); 
 		
-					for (int l=0; l<models.length; l++)
+					for (int l : present)
 					{
 	//					totUptake += uptakeMat[l][k];
 	//					if (uptakeMat[l][k] < 0)
@@ -1237,10 +1382,10 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 				{
 	//System.out.println("Here");
 					
-					for (int a=0; a<models.length; a++)
+					for (int a=0; a<present.length; a++)
 					{
 						
-						int i = a;
+						int i = present[a];
 	//					biomass[i]=old_biomass[i];
 	//					double[] exchFlux = ((FBAModel)models[i]).getExchangeFluxes();
 	//					allExchFluxes[i] = exchFlux;
@@ -1252,7 +1397,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	//					break;
 						
 						// if no biomass, or the total biomass has overflowed, skip to the next.
-						if (biomass[i] == 0 || Utility.sum(biomass) >= cParams.getMaxSpaceBiomass())
+						if (biomassAt(i) == 0 || totalBiomass() >= cParams.getMaxSpaceBiomass())
 						{
 							continue;
 						}
@@ -1293,6 +1438,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 						
 						/*************************** RUN THE FBA! ****************************/
 						int stat = models[i].run();
+						FBAstatus[i] = stat;
 						fluxes[i] = ((FBAModel)models[i]).getFluxes();
 						
 						if (stat != 5 && stat != 180)
@@ -1301,7 +1447,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 						    System.out.println("FBA failure status: " + stat);
 							//error check for JEAN (again may be redundant in later versions).
 							deltaBiomass[i]=0.0;
-							biomass[i]=old_biomass[i];
+							setBiomassAt(i, old_biomass[i]);
 							double[] exchFlux = ((FBAModel)models[i]).getExchangeFluxes();
 							double[] mediaDelta = new double[exchFlux.length];
 							Arrays.fill(mediaDelta, 0);
@@ -1345,11 +1491,11 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 							deltaBiomass[i] = (double)(((FBAModel)models[i]).getBiomassFluxSolution()) * cParams.getTimeStep() * old_biomass[i];
 							allModelsGrowthRates[i]=biomassGrowthRate;
 							deltaBiomass[i] *= (1-(double)(((FBAModel)models[i]).getGenomeCost()));
-							biomass[i]=old_biomass[i]+deltaBiomass[i];
+							setBiomassAt(i, old_biomass[i]+deltaBiomass[i]);
 							
-							if(pParams.getBiomassMotionStyle()==BiomassMotionStyle.CONV_MULTIMODELS_2D && models[i].getPressureKappa()*Math.pow((biomass[i]-models[i].getPackBiomass()),models[i].getPressureExponent())>models[i].getMaxPressure())
+							if(pParams.getBiomassMotionStyle()==BiomassMotionStyle.CONV_MULTIMODELS_2D && models[i].getPressureKappa()*Math.pow((biomassAt(i)-models[i].getPackBiomass()),models[i].getPressureExponent())>models[i].getMaxPressure())
 							{
-								biomass[i]=old_biomass[i];
+								setBiomassAt(i, old_biomass[i]);
 								for (int j=0; j<mediaDelta.length; j++)
 								{
 										mediaDelta[j] = 0.0;
@@ -1403,7 +1549,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 	
 	
 		// Now update media 
-		for (int a=0; a<deltaMedia.length; a++)
+		for (int a : present)
 		{	
 			// JMC: removed '|| deltaBiomass[a]==0.0' part of if statement so toxins can degrade. 
 			//if (biomass[a] == 0 || Utility.sum(biomass) >= cParams.getMaxSpaceBiomass())
@@ -1418,11 +1564,140 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		
 
 		
+		if (pParams.getSkipDormantCells())
+			checkDormancy(present);
+		
 		if (cParams.showGraphics())
 			cellColor = calculateColor();
 		
 		return updateCellData(deltaBiomass, fluxes, allModelsGrowthRates);
 	}
+
+	/**
+	 * Makes the cell dormant if every model present was solved, and none of them grew
+	 * or exchanged anything.
+	 * @param present the models present
+	 */
+	private void checkDormancy(int[] present)
+	{
+		if (present.length == 0)
+			return;
+		for (int i : present)
+		{
+			if (FBAstatus[i] == FBA_NOT_RUN || deltaBiomass[i] != 0)
+				return;
+			if (deltaMedia[i] != null)
+			{
+				for (double d : deltaMedia[i])
+				{
+					if (d != 0)
+						return;
+				}
+			}
+		}
+		dormantMedia = localMedia().clone();
+		dormantPresent = present;
+		dormantStatus = FBAstatus.clone();
+	}
+
+	/**
+	 * @param before
+	 * @return true if any medium component here has changed from before by more than
+	 * dormancyTolerance, relative to its amount before. A component that was absent
+	 * changes by appearing at all.
+	 */
+	private boolean mediaChangedSince(double[] before)
+	{
+		double[] now = localMedia();
+		if (now.length != before.length)
+			return true;
+		double tol = pParams.getDormancyTolerance();
+		for (int j = 0; j < now.length; j++)
+		{
+			if (Math.abs(now[j] - before[j]) > tol * Math.abs(before[j]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the media of this cell's space, as held by the world
+	 */
+	private double[] localMedia()
+	{
+		if (cParams.getNumLayers() > 1)
+			return world3D.getMediaAt(x, y, z);
+		return world.getMediaAt(x, y);
+	}
+
+	/**
+	 * @return true if the last run skipped FBA because the cell was dormant
+	 */
+	public boolean wasDormant()
+	{
+		return skippedRun;
+	}
+
+	/**
+	 * @return true if the last run solved the cell again after it had been dormant
+	 */
+	public boolean wokeUp()
+	{
+		return wokeUp;
+	}
+	
+	/**
+	 * Clears the arrays that run() fills in for each model. They're kept from one run
+	 * to the next and only reallocated when the number of models changes, so a cycle
+	 * doesn't allocate arrays of the world's model count in every cell.
+	 * @param numModels the number of models being run
+	 */
+	private void resetRunArrays(int numModels)
+	{
+		deltaBiomass = cleared(deltaBiomass, numModels);
+		dyingBiomass = cleared(dyingBiomass, fbaModels.length);
+		allModelsGrowthRates = cleared(allModelsGrowthRates, numModels);
+		old_biomass = cleared(old_biomass, numModels);
+		deltaMedia = cleared(deltaMedia, numModels);
+		runLowerBounds = cleared(runLowerBounds, numModels);
+		runUpperBounds = cleared(runUpperBounds, numModels);
+		runExchFluxes = cleared(runExchFluxes, numModels);
+		if (FBAstatus == null || FBAstatus.length != numModels)
+			FBAstatus = new int[numModels];
+		Arrays.fill(FBAstatus, FBA_NOT_RUN);
+	}
+
+	private static double[] cleared(double[] arr, int n)
+	{
+		if (arr == null || arr.length != n)
+			return new double[n];
+		Arrays.fill(arr, 0);
+		return arr;
+	}
+
+	private static double[][] cleared(double[][] arr, int n)
+	{
+		if (arr == null || arr.length != n)
+			return new double[n][];
+		Arrays.fill(arr, null);
+		return arr;
+	}
+
+	/**
+	 * @param numModels the number of models being run
+	 * @return the indices of the models that have biomass in this cell
+	 */
+	private int[] presentModels(int numModels)
+	{
+		int[] present = new int[numModels];
+		int n = 0;
+		for (int k = 0; k < numModels; k++)
+		{
+			if (biomassAt(k) != 0)
+				present[n++] = k;
+		}
+		return Arrays.copyOf(present, n);
+	}
 	
 	private double calcMichaelisMentenRate(double mediaConc, double km, double vMax, double hill)
 	{
@@ -1492,9 +1767,9 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 *  //DJORDJE, get fraction of biomass of each model. 
 		private double[] getBiomassFraction()
 	{
-		double[] biomassShare = new double[biomass.length];
-		for (int i=0; i<biomass.length; i++)
-			biomassShare[i] = biomass[i]/Utility.sum(biomass); 
+		double[] biomassShare = new double[fbaModels.length];
+		for (int i=0; i<fbaModels.length; i++)
+			biomassShare[i] = biomassAt(i)/totalBiomass(); 
 		return biomassShare;		
 	}
 	*/
@@ -1619,21 +1894,27 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 
 		this.deltaBiomass = deltaBiomass;
 		this.fluxes = fluxes;
+		if (world != null)
+		{
+			double[][][] deltaField = world.getDeltaBiomassField();
+			for (int i = 0; i < deltaBiomass.length; i++)
+				deltaField[i][x][y] = deltaBiomass[i];
+		}
 		
 		// apply BASELINE biomass death rate, regardless of whether growth is feasible.
 		int numDead = 0;
-		for (int i=0; i<biomass.length; i++)
+		for (int i=0; i<fbaModels.length; i++)
 		{
-			dyingBiomass[i] += cParams.getDeathRate() * biomass[i] * cParams.getTimeStep();
+			dyingBiomass[i] += cParams.getDeathRate() * biomassAt(i) * cParams.getTimeStep();
 			//biomass[i] += deltaBiomass[i];
-			biomass[i] -= dyingBiomass[i];
+			setBiomassAt(i, biomassAt(i) - dyingBiomass[i]);
 			
 			/*
 			//Neutral drift block. Only if the death rate is zero. Get the sigmas from the model and 
 			// calculate biomass=(sigma^2*timestep/2)*Gamm(Poiss(2*biomass/sigma^2*timesteo))
 			if(fbaModels[i].getNeutralDrift() && deltaBiomass[i]>0.0 && cParams.getDeathRate()==0.0)
 			{   
-				biomass[i]=addDemographicNoise(biomass[i], biomassGrowthRates[i], fbaModels[i].getNeutralDriftSigma());
+				setBiomassAt(i, addDemographicNoise(biomassAt(i), biomassGrowthRates[i], fbaModels[i].getNeutralDriftSigma()));
 			}
 			else if(fbaModels[i].getNeutralDrift() && cParams.getDeathRate()!=0.0)
 			{
@@ -1642,9 +1923,9 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 			}
 			*/
 
-			if (biomass[i] < cParams.getMinSpaceBiomass())
-				biomass[i] = 0;
-			if (biomass[i] == 0)
+			if (biomassAt(i) < cParams.getMinSpaceBiomass())
+				setBiomassAt(i, 0);
+			if (biomassAt(i) == 0)
 				numDead++;
 		}
 		
@@ -1652,7 +1933,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 		if (cParams.showGraphics())
 			cellColor = calculateColor();
 		
-		if (numDead == biomass.length)
+		if (numDead == fbaModels.length)
 			return die();
 		if(cParams.getNumLayers()==1)
 			updateDiffusibility();
@@ -1677,10 +1958,10 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	@Override
 	public String toString()
 	{
-		String str = ("FBA Cell\nPos: (" + x + ", " + y + ")\nBiomass: " + biomass[0]);
-		for (int i = 1; i < biomass.length; i++)
+		String str = ("FBA Cell\nPos: (" + x + ", " + y + ")\nBiomass: " + biomassAt(0));
+		for (int i = 1; i < fbaModels.length; i++)
 		{
-			str += (", " + biomass[i]);
+			str += (", " + biomassAt(i));
 		}
 		str += ("\n");
 		if (fluxes != null)
@@ -1711,7 +1992,7 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 	 */
 	public Cell backup(World2D backupWorld)
 	{
-		FBACell bak = new FBACell(x, y, biomass.clone(), (FBAWorld)backupWorld, fbaModels, cParams, pParams);
+		FBACell bak = new FBACell(x, y, getBiomass(), (FBAWorld)backupWorld, fbaModels, cParams, pParams);
 		
 		return bak;
 	}
@@ -1773,14 +2054,17 @@ public class FBACell extends edu.bu.segrelab.comets.Cell
 			// move the appropriate information into the new location.
 			if (idx[i] != -1)
 			{
-				newBiomass[idx[i]] = biomass[i];
+				if (world == null)
+					newBiomass[idx[i]] = biomass[i];
 				newDeltaBiomass[idx[i]] = deltaBiomass[i];
 				newFluxes[idx[i]] = fluxes[i];
 			}
 		}
 
-		// Clean up and save the new stuff
-		biomass = newBiomass;
+		// Clean up and save the new stuff. A 2D cell's biomass is remapped
+		// along with the world's biomass field in FBAWorld.changeModelsInWorld()
+		if (world == null)
+			biomass = newBiomass;
 		deltaBiomass = newDeltaBiomass;
 		fluxes = newFluxes;
 		fbaModels = new FBAModel[newModels.length];
@@ -0,0 +1,329 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FBACheckpoint
+ * -------------
+ * A snapshot of a running <code>FBAWorld</code>, written every checkpointRate cycles
+ * and read back by the -resume command line option. The file holds
+ * <pre>
+ *   magic    8 bytes    "COMETSCK"
+ *   version  int32      2
+ *   cycle    int64      the cycle the checkpoint was taken after
+ *   state    int32 byte count, then the bytes written by FBAWorld.writeCheckpointState()
+ *   marks    int32 count, then for each log
+ *              log        string   the log's name, e.g. "flux"
+ *              name       string   the log's file name, before it was split into parts
+ *              file       string   the file it was writing
+ *              partStart  int64    the first cycle in that file
+ *              offset     int64    the length of the file at the checkpoint
+ * </pre>
+ * All numbers are big-endian, and strings are as written by
+ * <code>DataOutputStream.writeUTF()</code>.
+ * <p>
+ * The state is serialized on the simulation thread, while the logs written by the log
+ * writer threads add their marks as those threads get to the checkpoint. The file is
+ * written to a temporary name and renamed once complete, so an interrupted write never
+ * replaces the last good checkpoint.
+ */
+public class FBACheckpoint
+{
+	public static final byte[] MAGIC = "COMETSCK".getBytes(Charset.forName("US-ASCII"));
+	public static final int VERSION = 2;
+
+	/**
+	 * Where a log had got to when the checkpoint was taken.
+	 */
+	public static class LogMark
+	{
+		public final String name;
+		public final String file;
+		public final long partStart;
+		public final long offset;
+
+		public LogMark(String name, String file, long partStart, long offset)
+		{
+			this.name = name;
+			this.file = file;
+			this.partStart = partStart;
+			this.offset = offset;
+		}
+	}
+
+	private long cycle;
+	private byte[] state;
+	private Map<String, LogMark> marks = new LinkedHashMap<String, LogMark>();
+
+	/**
+	 * @param cycle the cycle the checkpoint is taken after
+	 * @param state the serialized world
+	 */
+	public FBACheckpoint(long cycle, byte[] state)
+	{
+		this.cycle = cycle;
+		this.state = state;
+	}
+
+	/**
+	 * Records a log's position. Logs that aren't being written have no mark.
+	 * @param log the log's name
+	 * @param mark the mark, or null to skip it
+	 */
+	public synchronized void putMark(String log, LogMark mark)
+	{
+		if (mark != null)
+			marks.put(log, mark);
+	}
+
+	/**
+	 * @param log
+	 * @return the log's mark, or null if it has none
+	 */
+	public synchronized LogMark getMark(String log)
+	{
+		return marks.get(log);
+	}
+
+	public long getCycle()
+	{
+		return cycle;
+	}
+
+	public byte[] getState()
+	{
+		return state;
+	}
+
+	/**
+	 * Writes the checkpoint, replacing file only once the new one is complete.
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void write(File file) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		try
+		{
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(cycle);
+			out.writeInt(state.length);
+			out.write(state);
+			out.writeInt(marks.size());
+			for (Map.Entry<String, LogMark> entry : marks.entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue().name);
+				out.writeUTF(entry.getValue().file);
+				out.writeLong(entry.getValue().partStart);
+				out.writeLong(entry.getValue().offset);
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a checkpoint file.
+	 * @param file
+	 * @return the checkpoint
+	 * @throws IOException if the file isn't a COMETS checkpoint
+	 */
+	public static FBACheckpoint read(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try
+		{
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("'" + file + "' is not a COMETS checkpoint");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + " in '" + file + "'");
+			long cycle = in.readLong();
+			byte[] state = new byte[in.readInt()];
+			in.readFully(state);
+			FBACheckpoint checkpoint = new FBACheckpoint(cycle, state);
+			int numMarks = in.readInt();
+			for (int i = 0; i < numMarks; i++)
+			{
+				String log = in.readUTF();
+				checkpoint.putMark(log, new LogMark(in.readUTF(), in.readUTF(), in.readLong(), in.readLong()));
+			}
+			return checkpoint;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/*
+	 * Helpers for the state. Arrays are written as a length, or -1 for null, then
+	 * their elements.
+	 */
+
+	public static void writeArray(DataOutputStream out, double[] values) throws IOException
+	{
+		if (values == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (double v : values)
+			out.writeDouble(v);
+	}
+
+	public static void writeArray(DataOutputStream out, double[][] values) throws IOException
+	{
+		if (values == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (double[] v : values)
+			writeArray(out, v);
+	}
+
+	public static void writeArray(DataOutputStream out, double[][][] values) throws IOException
+	{
+		if (values == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (double[][] v : values)
+			writeArray(out, v);
+	}
+
+	public static void writeArray(DataOutputStream out, int[] values) throws IOException
+	{
+		if (values == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (int v : values)
+			out.writeInt(v);
+	}
+
+	public static double[] readDoubles(DataInputStream in) throws IOException
+	{
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++)
+			values[i] = in.readDouble();
+		return values;
+	}
+
+	public static double[][] readDoubles2D(DataInputStream in) throws IOException
+	{
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		double[][] values = new double[n][];
+		for (int i = 0; i < n; i++)
+			values[i] = readDoubles(in);
+		return values;
+	}
+
+	public static double[][][] readDoubles3D(DataInputStream in) throws IOException
+	{
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		double[][][] values = new double[n][][];
+		for (int i = 0; i < n; i++)
+			values[i] = readDoubles2D(in);
+		return values;
+	}
+
+	public static void writeArray(DataOutputStream out, boolean[][][] values) throws IOException
+	{
+		out.writeInt(values == null ? -1 : values.length);
+		for (int i = 0; values != null && i < values.length; i++)
+		{
+			out.writeInt(values[i].length);
+			for (boolean[] v : values[i])
+			{
+				out.writeInt(v.length);
+				for (boolean b : v)
+					out.writeBoolean(b);
+			}
+		}
+	}
+
+	public static boolean[][][] readBooleans3D(DataInputStream in) throws IOException
+	{
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		boolean[][][] values = new boolean[n][][];
+		for (int i = 0; i < n; i++)
+		{
+			values[i] = new boolean[in.readInt()][];
+			for (int j = 0; j < values[i].length; j++)
+			{
+				values[i][j] = new boolean[in.readInt()];
+				for (int k = 0; k < values[i][j].length; k++)
+					values[i][j][k] = in.readBoolean();
+			}
+		}
+		return values;
+	}
+
+	public static int[] readInts(DataInputStream in) throws IOException
+	{
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++)
+			values[i] = in.readInt();
+		return values;
+	}
+
+	/**
+	 * Writes a string that may be null.
+	 */
+	public static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	public static String readString(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -26,6 +26,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -54,6 +58,7 @@ import edu.bu.segrelab.comets.reaction.ReactionModel;
 import edu.bu.segrelab.comets.util.Circle;
 import edu.bu.segrelab.comets.util.Utility;
 import edu.bu.segrelab.comets.util.Point3d;
+import edu.bu.segrelab.comets.util.ThreadOutputCapture;
 //import edu.bu.segrelab.comets.fba.FBAPeriodicMedia;
 
 public class FBACometsLoader implements CometsLoader, CometsConstants
@@ -574,7 +579,7 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 							List<String> lines = collectLayoutFileBlock(reader);
 							int numRows = c.getParameters().getNumRows();
 							int numCols = c.getParameters().getNumCols();
-							String [] mediaNames = IWorld.reactionModel.getInitialMetNames();
+							String [] mediaNames = IWorld.getReactionModel().getInitialMetNames();
 							System.out.println("Num media"+mediaNames.length);
 							this.periodicMedia.setSize(numRows, numCols, mediaNames);
 							//FBAPeriodicMedia periodicMedia = new FBAPeriodicMedia(numRows,numCols, numMedia);
@@ -871,7 +876,7 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 						}
 						
 						
-						IWorld.reactionModel.setWorld(world);
+						IWorld.getReactionModel().setWorld(world);
 						
 						System.out.println("Done!");
 					}
@@ -1155,6 +1160,7 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 	ModelFileException
 	{
 		System.out.println("Found " + (tokens.length-1) + " model files!");
+		String[] files = new String[tokens.length-1];
 		for (int i=0; i<tokens.length-1; i++)
 		{
 			String modelFileName = tokens[i+1];
@@ -1232,11 +1238,12 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 			System.out.println("objective solution = " + models[i].getObjectiveSolutions());
 			System.out.flush();
 			*/
-			models[i] = loadModelFromFile(c,f.getPath());
+			files[i] = f.getPath();
 			
 		}
 
-		return LoaderState.OK;
+		// the models are independent, so they're loaded in parallel
+		return loadModels(files, models);
 	}
 
 	private LoaderState parseModelWorldLine(String path, String[] tokens, Map<String, Point2D.Double> media) throws LayoutFileException,
@@ -1367,7 +1374,7 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 		
 		initialMediaNames = new String[mediaCount];
 		for (int i = 0; i < mediaCount; i++) initialMediaNames[i] = mediaNames.get(i);
-		IWorld.reactionModel.setInitialMetNames(initialMediaNames);
+		IWorld.getReactionModel().setInitialMetNames(initialMediaNames);
 		
 		return LoaderState.OK;
 	}
@@ -1834,18 +1841,18 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 		
 		//set global External Reactions
 		if (world == null) {
-			IWorld.reactionModel.setWorld(world3D);
+			IWorld.getReactionModel().setWorld(world3D);
 		}
 		else {
-			IWorld.reactionModel.setWorld((IWorld) world);
-		}
-		IWorld.reactionModel.setMediaNames(initialMediaNames);
-		IWorld.reactionModel.setExRxnEnzymes(exRxnEnzymes);
-		IWorld.reactionModel.setExRxnParams(exRxnParams);
-		IWorld.reactionModel.setExRxnRateConstants(exRxnRateConstants);
-		IWorld.reactionModel.setExRxnStoich(exRxnStoich);
-		IWorld.reactionModel.saveState();
-		IWorld.reactionModel.setup();
+			IWorld.getReactionModel().setWorld((IWorld) world);
+		}
+		IWorld.getReactionModel().setMediaNames(initialMediaNames);
+		IWorld.getReactionModel().setExRxnEnzymes(exRxnEnzymes);
+		IWorld.getReactionModel().setExRxnParams(exRxnParams);
+		IWorld.getReactionModel().setExRxnRateConstants(exRxnRateConstants);
+		IWorld.getReactionModel().setExRxnStoich(exRxnStoich);
+		IWorld.getReactionModel().saveState();
+		IWorld.getReactionModel().setup();
 		
 		return LoaderState.OK;
 	}
@@ -3065,6 +3072,19 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 		if (pParams == null)
 			getPackageParameters(c);
 		
+		ModelImage image = readModelFile(path);
+		if (image != null)
+			model = buildModel(path, image);
+		return model;
+	}
+
+	/**
+	 * Reads a model file, through its cache if pParams.getUseModelCache() is set.
+	 * @param path
+	 * @return the parsed model, or null if it couldn't be read
+	 */
+	private ModelImage readModelFile(String path)
+	{
 		System.out.println("Loading '" + path + "' ...");
 		//2-level testing.
 		// first, check to see if the file, as given, is real.
@@ -3076,46 +3096,178 @@ public class FBACometsLoader implements CometsLoader, CometsConstants
 			return null;
 		}
 
-		try
+		// models parsed by another run sharing this JVM (see ParameterSweep) are reused
+		Map<String, Object> shared = c == null ? null : c.getSharedData();
+		String key = null;
+		if (shared != null)
 		{
-			model = FBAModel.loadModelFromFile(f.getPath());
-			model.setFlowDiffusionConstant(pParams.getFlowDiffRate());
-			model.setGrowthDiffusionConstant(pParams.getGrowthDiffRate());
-
-			Path p = Paths.get(path);
-			
-			// set model ID, ancestor and mutation fields
-			model.setAncestor("NO_ANCESTOR");
-			model.setModelID(p.getFileName().toString());
-			model.setMutation("NO_MUT");
+			try
+			{
+				key = "model:" + f.getCanonicalPath();
+			}
+			catch (IOException e)
+			{
+				key = "model:" + f.getAbsolutePath();
+			}
+			synchronized (shared)
+			{
+				Object image = shared.get(key);
+				if (image instanceof ModelImage)
+					return ((ModelImage)image).copy();
+			}
+		}
 
-			// System.out.println("Ancestor " + model.getAncestor());
-			
-			// genome size costs are set when new models are created. That is,
-			// either here at loading. or when mutant models appear.
-			if  (pParams.getCostlyGenome())
-				model.setGenomeCost(pParams.getGeneFractionalCost());
-			else
-				model.setGenomeCost(0);
-			
-			System.out.println("Done!\n Testing default parameters...");
-			int result = model.run();
-			System.out.print("Done!\nOptimizer status code = " + result + " ");
-			if (result == 180 || result == 5)
-				System.out.println("(looks ok!)");
+		try
+		{
+			ModelImage image;
+			if (pParams.getUseModelCache())
+				image = ModelImage.readCached(f.getPath());
 			else
-				System.out.println("(might be an error?)");
-			
-			System.out.println("objective solution = " + model.getObjectiveSolutions()[0]);
-			System.out.flush();
+				image = FBAModel.parseModelFile(f.getPath());
+			if (shared != null && image != null)
+			{
+				synchronized (shared)
+				{
+					shared.put(key, image);
+				}
+				return image.copy();
+			}
+			return image;
 		}
 		catch (ModelFileException e)
 		{
 			System.out.println("Error in model file '" + path + "': " + e.toString());
 		}
+		return null;
+	}
+
+	/**
+	 * Builds a parsed model, sets it up with the package parameters and tests it.
+	 * @param path
+	 * @param image
+	 * @return the model
+	 */
+	private FBAModel buildModel(String path, ModelImage image)
+	{
+		FBAModel model = image.build(new File(path).getPath());
+		model.setFlowDiffusionConstant(pParams.getFlowDiffRate());
+		model.setGrowthDiffusionConstant(pParams.getGrowthDiffRate());
+
+		Path p = Paths.get(path);
+		
+		// set model ID, ancestor and mutation fields
+		model.setAncestor("NO_ANCESTOR");
+		model.setModelID(p.getFileName().toString());
+		model.setMutation("NO_MUT");
+
+		// System.out.println("Ancestor " + model.getAncestor());
+		
+		// genome size costs are set when new models are created. That is,
+		// either here at loading. or when mutant models appear.
+		if  (pParams.getCostlyGenome())
+			model.setGenomeCost(pParams.getGeneFractionalCost());
+		else
+			model.setGenomeCost(0);
+		
+		if (pParams.getLazyOptimizers())
+		{
+			System.out.println("Done!\n Solver setup deferred until the model has biomass.");
+			return model;
+		}
+		System.out.println("Done!\n Testing default parameters...");
+		int result = model.run();
+		System.out.print("Done!\nOptimizer status code = " + result + " ");
+		if (result == 180 || result == 5)
+			System.out.println("(looks ok!)");
+		else
+			System.out.println("(might be an error?)");
+		
+		System.out.println("objective solution = " + model.getObjectiveSolutions()[0]);
+		System.out.flush();
 		return model;
 	}
 
+	/**
+	 * Loads a layout's models on a pool of up to one thread per processor. What each
+	 * load prints is held back and printed in file order, so errors and messages read
+	 * as if the models were loaded one at a time.
+	 * <p>
+	 * GLPK keeps its state per thread, so models that use it are only parsed on the
+	 * pool, and built here on the loader thread.
+	 * @param files the model files
+	 * @param models filled with the models, or null where a model couldn't be loaded
+	 * @return CANCELED if the loader thread was interrupted, otherwise OK
+	 */
+	private LoaderState loadModels(final String[] files, final FBAModel[] models)
+	{
+		if (pParams == null)
+			getPackageParameters(c);
+		if (files.length == 1)
+		{
+			models[0] = loadModelFromFile(c, files[0]);
+			return LoaderState.OK;
+		}
+
+		final ModelImage[] images = new ModelImage[files.length];
+		final String[] output = new String[files.length];
+		final ThreadOutputCapture capture = ThreadOutputCapture.install();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			List<Future<?>> loads = new ArrayList<Future<?>>(files.length);
+			for (int i=0; i<files.length; i++)
+			{
+				final int n = i;
+				loads.add(pool.submit(new Runnable() {
+					public void run()
+					{
+						capture.begin();
+						try
+						{
+							images[n] = readModelFile(files[n]);
+							if (images[n] != null && images[n].getOptimizer() != FBAModel.GLPK)
+								models[n] = buildModel(files[n], images[n]);
+						}
+						finally
+						{
+							output[n] = capture.end();
+						}
+					}
+				}));
+			}
+			for (int i=0; i<files.length; i++)
+			{
+				try
+				{
+					loads.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					System.out.print(output[i]);
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					if (e.getCause() instanceof Error)
+						throw (Error) e.getCause();
+					throw new RuntimeException("Error while loading model file '" + files[i] + "'", e.getCause());
+				}
+				System.out.print(output[i]);
+				if (images[i] != null && models[i] == null)
+					models[i] = buildModel(files[i], images[i]);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return LoaderState.CANCELED;
+		}
+		finally
+		{
+			pool.shutdownNow();
+			capture.uninstall();
+		}
+		return LoaderState.OK;
+	}
+
 	public World2D createNewWorld(Comets c, Model[] models)
 	{
 		if (models.length == 0 || c == null)
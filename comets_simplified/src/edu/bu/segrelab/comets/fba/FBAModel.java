@@ -2,7 +2,6 @@ package edu.bu.segrelab.comets.fba;
 
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -13,7 +12,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.Random;
 import java.lang.Double;
 
 import javax.swing.Box;
@@ -28,6 +26,7 @@ import org.apache.commons.lang3.ArrayUtils;
 
 import edu.bu.segrelab.comets.exception.ModelFileException;
 import edu.bu.segrelab.comets.ui.DoubleField;
+import edu.bu.segrelab.comets.util.Utility;
 import edu.bu.segrelab.comets.fba.Signal;
 
 // import org.apache.commons.math3.distribution.*;
@@ -165,8 +164,10 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	public static final int MIN_OBJECTIVE_MIN_TOTAL = 6;
 	public static final int MIN_OBJECTIVE_MAX_TOTAL = 7;
 	
-	private FBAOptimizer fbaOptimizer;
-	//private int optimizer;
+	private FBAOptimizer fbaOptimizer;	// built on first use; see getOptimizer()
+	private FBAModel optimizerSource;	// model whose optimizer a lazily built copy clones
+	private double[][] stoichMatrix;	// kept to build the optimizer, shared with copies
+	private int optimizer;
 	
 	public static final int GUROBI =0;
 	public static final int GLOP   =1;
@@ -229,19 +230,9 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		//System.out.println("here2 "+GLOP);
 		//System.out.println("here3 "+GLPK);
 		
-		switch(optim){
-		case GUROBI:
-			fbaOptimizer=new FBAOptimizerGurobi(m, l, u, objs, objsMax);
-			break;
-		case GLOP:
-			fbaOptimizer=new FBAOptimizerGlop(m, l, u, objs, objsMax);
-			break;
-		case GLPK:
-			fbaOptimizer=new FBAOptimizerGLPK(m,l,u,objs);
-			break;
-		default:
-			break;
-		}
+		// the optimizer itself isn't built until it's first needed
+		stoichMatrix = m;
+		optimizer = optim;
 		
 		Double mtb = m[m.length-1][0];
 		numMetabs = mtb.intValue();
@@ -493,13 +484,14 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 * Replaces negative values in the KM vector with the appropriate
 	 * default value, first checking the FBAModel's default then the
 	 * FBAParamters's default
+	 * @param pParams the package parameters, whose defaults are used last
 	 * @return The Michaelis constants for each exchange reaction
 	 */
-	public double[] getExchangeKmWithDefaults()
+	public double[] getExchangeKmWithDefaults(FBAParameters pParams)
 	{
 		double[] res = new double[exchKm.length];
 		for (int i = 0; i < exchKm.length; i++) {
-			res[i] = getExchangeKm(i);
+			res[i] = getExchangeKm(i, pParams);
 		}
 		return res;
 	}
@@ -507,14 +499,15 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	/**
 	 * 
 	 * @param i index of the exchange reaction
+	 * @param pParams the package parameters, whose default is used last
 	 * @return the Michaelis constant for the specified reaction
 	 */
-	public double getExchangeKm(int i) {
+	public double getExchangeKm(int i, FBAParameters pParams) {
 		double d = exchKm[i];
 		if (d < 0) { //use Model's default
 			d = defaultKm;
 			if (d < 0) { //use Package default
-				d = FBAParameters.getDefaultKm();
+				d = pParams.getDefaultKm();
 			}
 		}
 		return d;
@@ -538,13 +531,14 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 * Replaces negative values in the Vmax vector with the appropriate
 	 * default value, first checking the FBAModel's default then the
 	 * FBAParamters's default
+	 * @param pParams the package parameters, whose defaults are used last
 	 * @return The Vmax for each exchange reaction
 	 */
-	public double[] getExchangeVmaxWithDefaults()
+	public double[] getExchangeVmaxWithDefaults(FBAParameters pParams)
 	{
 		double[] res = new double[exchVmax.length];
 		for (int i = 0; i < exchVmax.length; i++) {
-			res[i] = getExchangeVmax(i);
+			res[i] = getExchangeVmax(i, pParams);
 		}
 		return res;
 	}
@@ -552,14 +546,15 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	/**
 	 * 
 	 * @param i index of the exchange reaction
+	 * @param pParams the package parameters, whose default is used last
 	 * @return the Michaelis-Menten Vmax for the specified reaction
 	 */
-	public double getExchangeVmax(int i) {
+	public double getExchangeVmax(int i, FBAParameters pParams) {
 		double d = exchVmax[i];
 		if (d < 0) { //use Model's default
 			d = defaultVmax;
 			if (d < 0) { //use Package default
-				d = FBAParameters.getDefaultVmax();
+				d = pParams.getDefaultVmax();
 			}
 		}
 		return d;
@@ -584,13 +579,14 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 * Replaces negative values in the Hill vector with the appropriate
 	 * default value, first checking the FBAModel's default then the
 	 * FBAParamters's default
+	 * @param pParams the package parameters, whose defaults are used last
 	 * @return The Hill Coefficient for each exchange reaction
 	 */
-	public double[] getExchangeHillCoefficientsWithDefaults()
+	public double[] getExchangeHillCoefficientsWithDefaults(FBAParameters pParams)
 	{
 		double[] res = new double[exchHillCoeff.length];
 		for (int i = 0; i < exchHillCoeff.length; i++) {
-			res[i] = getExchangeHillCoefficient(i);
+			res[i] = getExchangeHillCoefficient(i, pParams);
 		}
 		return res;
 	}
@@ -598,14 +594,15 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	/**
 	 * 
 	 * @param i index of the exchange reaction
+	 * @param pParams the package parameters, whose default is used last
 	 * @return the Hill coefficient for the specified reaction
 	 */
-	public double getExchangeHillCoefficient(int i) {
+	public double getExchangeHillCoefficient(int i, FBAParameters pParams) {
 		double d = exchHillCoeff[i];
 		if (d < 0) { //use Model's default
 			d = defaultHill;
 			if (d < 0) { //use Package default
-				d = FBAParameters.getDefaultHill();
+				d = pParams.getDefaultHill();
 			}
 		}
 		return d;
@@ -627,13 +624,14 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 * Replaces negative values in the Alpha vector with the appropriate
 	 * default value, first checking the FBAModel's default then the
 	 * FBAParamters's default
+	 * @param pParams the package parameters, whose defaults are used last
 	 * @return The Michaelis constants for each exchange reaction
 	 */
-	public double[] getExchangeAlphaCoefficientsWithDefaults()
+	public double[] getExchangeAlphaCoefficientsWithDefaults(FBAParameters pParams)
 	{
 		double[] res = new double[exchAlpha.length];
 		for (int i = 0; i < exchAlpha.length; i++) {
-			res[i] = getExchangeAlphaCoefficient(i);
+			res[i] = getExchangeAlphaCoefficient(i, pParams);
 		}
 		return res;
 	}
@@ -641,14 +639,15 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	/**
 	 * 
 	 * @param i index of the exchange reaction
+	 * @param pParams the package parameters, whose default is used last
 	 * @return the Alpha coefficient for the specified reaction
 	 */
-	public double getExchangeAlphaCoefficient(int i) {
+	public double getExchangeAlphaCoefficient(int i, FBAParameters pParams) {
 		double d = exchAlpha[i];
 		if (d < 0) { //use Model's default
 			d = defaultAlpha;
 			if (d < 0) { //use Package default
-				d = FBAParameters.getDefaultAlpha();
+				d = pParams.getDefaultAlpha();
 			}
 		}
 		return d;
@@ -669,13 +668,14 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 * Replaces negative values in the W vector with the appropriate
 	 * default value, first checking the FBAModel's default then the
 	 * FBAParamters's default
+	 * @param pParams the package parameters, whose defaults are used last
 	 * @return The W coefficients for each exchange reaction
 	 */
-	public double[] getExchangeWCoefficientsWithDefaults()
+	public double[] getExchangeWCoefficientsWithDefaults(FBAParameters pParams)
 	{
 		double[] res = new double[exchW.length];
 		for (int i = 0; i < exchW.length; i++) {
-			res[i] = getExchangeWCoefficient(i);
+			res[i] = getExchangeWCoefficient(i, pParams);
 		}
 		return res;
 	}
@@ -683,14 +683,15 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	/**
 	 * 
 	 * @param i index of the exchange reaction
+	 * @param pParams the package parameters, whose default is used last
 	 * @return the W coefficient for the specified reaction
 	 */
-	public double getExchangeWCoefficient(int i) {
+	public double getExchangeWCoefficient(int i, FBAParameters pParams) {
 		double d = exchW[i];
 		if (d < 0) { //use Model's default
 			d = defaultW;
 			if (d < 0) { //use Package default
-				d = FBAParameters.getDefaultW();
+				d = pParams.getDefaultW();
 			}
 		}
 		return d;
@@ -899,7 +900,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		if (lb.length != numExch)
 			return PARAMS_ERROR;
 		
-		fbaOptimizer.setExchLowerBounds(exch, lb);	
+		getOptimizer().setExchLowerBounds(exch, lb);	
 				
 		return PARAMS_OK;
 	}
@@ -920,7 +921,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		if (ub.length != numExch)
 			return PARAMS_ERROR;
 		
-		fbaOptimizer.setExchUpperBounds(exch, ub);
+		getOptimizer().setExchUpperBounds(exch, ub);
 
 		return PARAMS_OK;
 	}
@@ -933,7 +934,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	{   
 
 		double[] l = new double[numRxns];
-		l=fbaOptimizer.getLowerBounds(numRxns);
+		l=getOptimizer().getLowerBounds(numRxns);
 
 		return l;
 	}
@@ -952,7 +953,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		{
 			return MODEL_NOT_INITIALIZED;
 		}
-		fbaOptimizer.setUpperBounds(numRxns, ub);
+		getOptimizer().setUpperBounds(numRxns, ub);
 
 		return PARAMS_OK;
 	}
@@ -963,7 +964,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		{
 			return MODEL_NOT_INITIALIZED;
 		}
-		fbaOptimizer.setLowerBounds(numRxns, lb);
+		getOptimizer().setLowerBounds(numRxns, lb);
 		return PARAMS_OK;
 	}
 
@@ -974,7 +975,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	public double[] getUpperBounds()
 	{
 		double[] u = new double[numRxns];
-		u=fbaOptimizer.getUpperBounds(numRxns);
+		u=getOptimizer().getUpperBounds(numRxns);
 		
 		return u;
 	}
@@ -1060,19 +1061,24 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		{
 			return MODEL_NOT_INITIALIZED;
 		}
-		fbaOptimizer.setObjectiveReaction(numRxns, r);
 		objReactions = new int[] {r};
+		if (fbaOptimizer != null)
+			fbaOptimizer.setObjectiveReaction(numRxns, r);
 		
 		return PARAMS_OK;
 	}
 	
 	public int setObjectiveReactions(int[] objs) {
 		objReactions = objs;
+		if (fbaOptimizer == null)
+			return PARAMS_OK;	// applied when the optimizer is built
 		return fbaOptimizer.setObjectiveReaction(numRxns, objs);
 	}
 
 	public int setObjectiveMaximize(boolean[] objMax) {
 		objMaximize = objMax;
+		if (fbaOptimizer == null)
+			return PARAMS_OK;
 		return fbaOptimizer.setObjectiveMaximize(objMax);
 	}
 	
@@ -1102,7 +1108,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 
 		// an internal status checker. If this = 0 after a run, everything is peachy.
 		int ret = -1;
-		ret=fbaOptimizer.run(objStyle);
+		ret=getOptimizer().run(objStyle);
 
 		if (ret == 5)
 		{   
@@ -1152,7 +1158,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		double[] v = new double[numRxns];
 		if (runSuccess)
 		{
-			v=fbaOptimizer.getFluxes();
+			v=getOptimizer().getFluxes();
 
 		}
 		return v;
@@ -1191,7 +1197,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		double[] v = new double[numExch];
 		if (runSuccess)
 		{
-			v=fbaOptimizer.getExchangeFluxes(exch);
+			v=getOptimizer().getExchangeFluxes(exch);
 		}
 		return v;
 	}
@@ -1243,7 +1249,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 */
 	public double[] getObjectiveSolutions()
 	{
-		return fbaOptimizer.getObjectiveSolutions(objReactions);
+		return getOptimizer().getObjectiveSolutions(objReactions);
 	}
 	
 	/**
@@ -1255,7 +1261,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 */
 	public double[] getObjectiveFluxSolution()
 	{
-		return fbaOptimizer.getObjectiveSolutions(objReactions);
+		return getOptimizer().getObjectiveSolutions(objReactions);
 	}
 	
 	public double getBiomassFluxSolution()
@@ -1265,7 +1271,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		 * not the case, or rename the function to getFluxSolution if I've got it right
 		 * -MQuintin 12/1/2016
 		 */
-		return fbaOptimizer.getObjectiveSolution(biomassReaction);
+		return getOptimizer().getObjectiveSolution(biomassReaction);
 	}
 	
 	/**
@@ -1274,7 +1280,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 */
 	public int getFBAstatus()
 	{
-		return fbaOptimizer.getFBAstatus();
+		return getOptimizer().getFBAstatus();
 	}
 
 	/**
@@ -1283,13 +1289,24 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 * 
 	 */
 	public static FBAModel loadModelFromFile(String filename) throws ModelFileException
+	{
+		return parseModelFile(filename).build(filename);
+	}
+
+	/**
+	 * Reads a model file into a ModelImage, which holds everything needed to build
+	 * the model. See loadModelFromFile().
+	 * @param filename
+	 * @return the parsed model
+	 * @throws ModelFileException
+	 */
+	public static ModelImage parseModelFile(String filename) throws ModelFileException
 	{
 		try
 		{
 			int lineNum = 0;
-			BufferedReader reader = new BufferedReader(new FileReader(filename));
-			int lines_sparse_s = 0;
-			BufferedReader reader_2 = new BufferedReader(new FileReader(filename));
+			long startTime = System.currentTimeMillis();
+			ModelFileTokenizer reader = new ModelFileTokenizer(new FileReader(filename));
 			int numMets = 0;  // number of rows in S-matrix
 			int numRxns = 0;  // number of cols in S-matrix
 			double[][] S = null;
@@ -1341,36 +1358,17 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 
 			boolean neutralDrift = false;
 
-			// First, identify lines where S matrix starts and ends, to code it as a sparse matrix 			
-			String line_2 = null;
-			while ((line_2 = reader_2.readLine()) != null)
-			{
-				if (line_2.contains("SMATRIX"))
-				{
-					while ((line_2 = reader_2.readLine()) != null)
-					{
-						lines_sparse_s++;
-						if (line_2.contains("//"))
-						{
-							break;
-						}
-					}
-					break;
-				}
-			}
-			lines_sparse_s = lines_sparse_s-1;
-			reader_2.close();
-			
 			// first thing we need is the S-matrix. That **has** to be the first
 			// data block, since it sets the scale for every other array here.	
 			String line = null;
-			while ((line = reader.readLine()) != null)
+			while (reader.next())
 			{
-				line = line.trim();
 				lineNum++;
+				if (reader.numTokens() == 0)
+					continue;
 				
 				// read the file. do necessary stuff
-				String[] tokens = line.split("\\s+");  // split the line based on whitespace
+				String[] tokens = reader.tokens();  // split the line based on whitespace
         				
 				// now we have a tokenized block-header. should be one of the following
 				if (tokens[0].equalsIgnoreCase("SMATRIX"))
@@ -1403,13 +1401,13 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 						throw new ModelFileException("There must be at least one column (reaction) in the Stoichiometric matrix.");
 					}
 					
-					// initialize the S-matrix
-					S = new double[lines_sparse_s][3];
-					
-					String matLine = null;
+					// the entries are collected in growing arrays, then copied into the S-matrix
+					int[] sRows = new int[numRxns * 4];
+					int[] sCols = new int[sRows.length];
+					double[] sValues = new double[sRows.length];
 					
 					/* gonna see the next block A LOT.
-					 * the 'while' line loads the next line, trimmed, into matLine.
+					 * the 'while' line loads the next line into the reader.
 					 * if it's equal to '//' (i.e.: only has '//' on a line), then
 					 * the block is done.
 					 * 
@@ -1418,33 +1416,38 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 					
 					blockOpen = true;
 
-					while (!(matLine = reader.readLine().trim()).equalsIgnoreCase("//"))
+					while (reader.nextInBlock())
 					{
-						if (matLine.length() == 0)
+						if (reader.numTokens() == 0)
 							continue;
 						
-						String[] parsed = matLine.split("\\s+");
-						if (parsed.length != 3) {
+						if (reader.numTokens() != 3) {
 							reader.close();
 							throw new ModelFileException("Each line of the SMATRIX block should contain three elements - a row, column, and stoichiometric value for that element on line " + lineNum);
 						}
-						int x = Integer.parseInt(parsed[0]);
+						int x = reader.parseInt(0);
 						if (x < 1 || x > numMets) {
 							reader.close();
 							throw new ModelFileException("The first element of the SMATRIX block at line " + lineNum + " corresponds to the row, and should be between 1 and the number of rows specified.");
 						}
 
-						int y = Integer.parseInt(parsed[1]);
+						int y = reader.parseInt(1);
 						if (y < 1 || y > numRxns) {
 							reader.close();
 							throw new ModelFileException("The second element of the SMATRIX block at line " + lineNum + " corresponds to the column, and should be between 1 and the number of columns specified.");
 						}
 						
-						double stoic = Double.parseDouble(parsed[2]);
+						double stoic = reader.parseDouble(2);
 						
-						S[sMatrixLineNum][0] = x;
-						S[sMatrixLineNum][1] = y;
-						S[sMatrixLineNum][2] = stoic;
+						if (sMatrixLineNum == sRows.length)
+						{
+							sRows = Arrays.copyOf(sRows, sMatrixLineNum * 2);
+							sCols = Arrays.copyOf(sCols, sMatrixLineNum * 2);
+							sValues = Arrays.copyOf(sValues, sMatrixLineNum * 2);
+						}
+						sRows[sMatrixLineNum] = x;
+						sCols[sMatrixLineNum] = y;
+						sValues[sMatrixLineNum] = stoic;
 
 						sMatrixLineNum++;
 						lineNum++;
@@ -1452,6 +1455,14 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 					}
 					lineNum++;
 					
+					S = new double[sMatrixLineNum][3];
+					for (int i=0; i<sMatrixLineNum; i++)
+					{
+						S[i][0] = sRows[i];
+						S[i][1] = sCols[i];
+						S[i][2] = sValues[i];
+					}
+					
 					blockOpen = false;
 					// done!
 					// System.out.println("number of rows of S is " + S.length);
@@ -1490,29 +1501,27 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 						ub[i] = defaultUB;
 					}
 					
-					String boundLine = null;
 					blockOpen = true;
 
-					while (!(boundLine = reader.readLine().trim()).equalsIgnoreCase("//"))
+					while (reader.nextInBlock())
 					{
 						lineNum++;
-						if (boundLine.length() == 0)
+						if (reader.numTokens() == 0)
 							continue;
 
-						String[] parsed = boundLine.split("\\s+");
-						if (parsed.length != 3) {
+						if (reader.numTokens() != 3) {
 							reader.close();
 							throw new ModelFileException("There should be 3 elements on the BOUNDS line at file line " + lineNum + ": the reaction index (from 1 to N), the lower bound, and the upper bound.");
 						}
 						
-						int rxn = Integer.parseInt(parsed[0]);
+						int rxn = reader.parseInt(0);
 						if (rxn < 1 || rxn > numRxns) {
 							reader.close();
 							throw new ModelFileException("The reaction index in BOUNDS block line " + lineNum + " should be between 1 and " + numRxns);
 						}
 						
-						double l = Double.parseDouble(parsed[1]);
-						double u = Double.parseDouble(parsed[2]);
+						double l = reader.parseDouble(1);
+						double u = reader.parseDouble(2);
 						if (l > u) {
 							reader.close();
 							throw new ModelFileException("The lower bound should be less than the upper bound on line " + lineNum);
@@ -2084,22 +2093,21 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 					/* do it this way for consistency - everything else is a block of data
 					 */
 					
-					String exchLine = null;
 					blockOpen = true;
 
-					while (!(exchLine = reader.readLine().trim()).equalsIgnoreCase("//"))
+					while (reader.nextInBlock())
 					{
 						lineNum++;
-						if (exchLine.length() == 0)
+						if (reader.numTokens() == 0)
 							continue;
 
-						String[] parsed = exchLine.split("\\s+");
-						if (parsed.length > numRxns)
+						int numParsed = reader.numTokens();
+						if (numParsed > numRxns)
 						{
 							reader.close();
-							throw new ModelFileException("There should be, at most, " + numRxns + " values in the EXCHANGE_REACTIONS block. Looks like there's " + parsed.length + " instead");
+							throw new ModelFileException("There should be, at most, " + numRxns + " values in the EXCHANGE_REACTIONS block. Looks like there's " + numParsed + " instead");
 						}
-						if (parsed.length == 0)
+						if (numParsed == 0)
 						{
 							exchRxns = new int[0];
 						}
@@ -2107,9 +2115,9 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 						{
 							// 1. Dump everything into a unique hash set
 							Set<Integer> exchSet = new HashSet<Integer>();
-							for (int i=0; i<parsed.length; i++)
+							for (int i=0; i<numParsed; i++)
 							{
-								int exch = Integer.parseInt(parsed[i]);
+								int exch = reader.parseInt(i);
 								if (exch < 1 || exch > numRxns)
 								{
 									reader.close();
@@ -2770,36 +2778,54 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 			if (bio == 0){ //if the Biomass reaction wasn't specified, use the primary Objective reaction
 				bio = objs[0];
 			}
-			System.out.println("optim= "+optim);
-			FBAModel model = new FBAModel(S, lb, ub, objs, objMax, bio, exchRxns, diffConsts, exchKm, exchVmax, exchHillCoeff, exchAlpha, exchW, lightAbsorption, metNames, rxnNames, objSt, optim);
-			model.setDefaultAlpha(defaultAlpha);
-			model.setDefaultW(defaultW);
-			model.setDefaultHill(defaultHill);
-			model.setDefaultKm(defaultKm);
-			model.setDefaultVmax(defaultVmax);
-			model.setDefaultLB(defaultLB);
-			model.setDefaultUB(defaultUB);
-			model.setDefaultMetabDiffConst(defaultDiff);
-			model.setElasticModulusConstant(elasticModulusConst);
-			model.setFrictionConstant(frictionConst);
-			model.setConvDiffConstant(convDiffConst);
-			model.setConvNonlinDiffZero(convNonlinDiffZero);
-			model.setConvNonlinDiffN(convNonlinDiffN);
-			model.setConvNonlinDiffHillK(convNonlinDiffHillK);
-			model.setConvNonlinDiffHillN(convNonlinDiffHillN);
-			model.setConvNonlinDiffExponent(convNonlinDiffExponent);
-			model.setPackedDensity(packDensity);
-			model.setNoiseVariance(noiseVariance);
-			model.setSignals(signals);
-			model.setNeutralDrift(neutralDrift);
-			model.setNeutralDriftSigma(neutralDriftSigma);
-			model.setPressureKappa(pressureKappa);
-			model.setPressureExponent(pressureExponent);
-			model.setPackBiomass(packBiomass);
-			model.setMaxPressure(maxPressure);
-			
-			model.setFileName(filename);
-			return model;
+			long parseTime = Math.max(1, System.currentTimeMillis() - startTime);
+			System.out.println("Parsed " + reader.getNumLines() + " lines (" + reader.getNumChars() / 1024 + " kB) of '" + filename + "' in " + parseTime + " ms, " 
+					+ reader.getNumChars() / parseTime + " kB/s");
+			ModelImage image = new ModelImage();
+			image.S = S;
+			image.lb = lb;
+			image.ub = ub;
+			image.objs = objs;
+			image.objMax = objMax;
+			image.bio = bio;
+			image.exchRxns = exchRxns;
+			image.diffConsts = diffConsts;
+			image.exchKm = exchKm;
+			image.exchVmax = exchVmax;
+			image.exchHillCoeff = exchHillCoeff;
+			image.exchAlpha = exchAlpha;
+			image.exchW = exchW;
+			image.lightAbsorption = lightAbsorption;
+			image.metNames = metNames;
+			image.rxnNames = rxnNames;
+			image.objSt = objSt;
+			image.optim = optim;
+			image.defaultAlpha = defaultAlpha;
+			image.defaultW = defaultW;
+			image.defaultHill = defaultHill;
+			image.defaultKm = defaultKm;
+			image.defaultVmax = defaultVmax;
+			image.defaultLB = defaultLB;
+			image.defaultUB = defaultUB;
+			image.defaultDiff = defaultDiff;
+			image.elasticModulusConst = elasticModulusConst;
+			image.frictionConst = frictionConst;
+			image.convDiffConst = convDiffConst;
+			image.convNonlinDiffZero = convNonlinDiffZero;
+			image.convNonlinDiffN = convNonlinDiffN;
+			image.convNonlinDiffHillK = convNonlinDiffHillK;
+			image.convNonlinDiffHillN = convNonlinDiffHillN;
+			image.convNonlinDiffExponent = convNonlinDiffExponent;
+			image.packDensity = packDensity;
+			image.noiseVariance = noiseVariance;
+			image.signals = signals;
+			image.neutralDrift = neutralDrift;
+			image.neutralDriftSigma = neutralDriftSigma;
+			image.pressureKappa = pressureKappa;
+			image.pressureExponent = pressureExponent;
+			image.packBiomass = packBiomass;
+			image.maxPressure = maxPressure;
+			return image;
 			
 		}
 		catch (FileNotFoundException e)
@@ -3126,7 +3152,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	{
 		int res = PARAMS_OK;
 		for (int objReaction : objReactions) {
-			int t = fbaOptimizer.setObjectiveUpperBound(objReaction, ub);
+			int t = getOptimizer().setObjectiveUpperBound(objReaction, ub);
 			if (t != PARAMS_OK) res = PARAMS_ERROR;
 		}
 		return res;
@@ -3141,7 +3167,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	public int setObjectiveUpperBounds(double[] ub) {
 		int res = PARAMS_OK;
 		for (int i = 0; i < ub.length; i++){
-			int t = fbaOptimizer.setObjectiveUpperBound(objReactions[i], ub[i]);
+			int t = getOptimizer().setObjectiveUpperBound(objReactions[i], ub[i]);
 			if (t != PARAMS_OK) res = PARAMS_ERROR;
 		}
 		return res;
@@ -3154,7 +3180,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	 */
 	public int setBiomassUpperBound(double ub)
 	{
-		return fbaOptimizer.setObjectiveUpperBound(biomassReaction, ub);
+		return getOptimizer().setObjectiveUpperBound(biomassReaction, ub);
 	}
 	
 	/**
@@ -3167,7 +3193,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	{
 		int res = PARAMS_OK;
 		for (int objReaction : objReactions) {
-			int t = fbaOptimizer.setObjectiveLowerBound(objReaction, lb);
+			int t = getOptimizer().setObjectiveLowerBound(objReaction, lb);
 			if (t != PARAMS_OK) res = PARAMS_ERROR;
 		}
 		return res;
@@ -3182,7 +3208,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	public int setObjectiveLowerBounds(double[] lb) {
 		int res = PARAMS_OK;
 		for (int i = 0; i < lb.length; i++){
-			int t = fbaOptimizer.setObjectiveLowerBound(objReactions[i], lb[i]);
+			int t = getOptimizer().setObjectiveLowerBound(objReactions[i], lb[i]);
 			if (t != PARAMS_OK) res = PARAMS_ERROR;
 		}
 		return res;
@@ -3213,16 +3239,46 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	}
 	
 	/**
-	 * Produces a clone of this <code>FBAModel</code> with all parameters intact.
+	 * Produces a clone of this <code>FBAModel</code> with all parameters intact. The
+	 * clone's optimizer isn't built until it's first needed, on the thread that uses it.
 	 */
 	
 	public FBAModel clone()
 	{
 		FBAModel modelCopy=new FBAModel();
 		modelCopy.setNums(numMetabs, numRxns, numExch);
-		modelCopy.fbaOptimizer=fbaOptimizer.clone();
+		modelCopy.optimizerSource=this;
 		
 		modelCopy.setBaseBounds(getBaseLowerBounds(), getBaseUpperBounds());
+		copyModelData(modelCopy);
+		return modelCopy;
+	}
+
+	/**
+	 * Produces a lightweight copy of this <code>FBAModel</code> to be mutated. The copy
+	 * shares this model's base bounds, names and kinetic arrays; mutateModel() and
+	 * addReactionToModel() replace the bounds arrays instead of writing into them, so
+	 * the ancestor is never changed. The copy's optimizer isn't built until it's first
+	 * needed, so mutants that never run cost no solver setup.
+	 * @return the new, not yet mutated, model
+	 */
+	public FBAModel createMutant()
+	{
+		FBAModel mutant=new FBAModel();
+		mutant.setNums(numMetabs, numRxns, numExch);
+		mutant.optimizerSource=this;
+		mutant.baseLB=baseLB;
+		mutant.baseUB=baseUB;
+		copyModelData(mutant);
+		return mutant;
+	}
+
+	/**
+	 * Copies everything but the optimizer and the base bounds into modelCopy.
+	 * @param modelCopy
+	 */
+	private void copyModelData(FBAModel modelCopy)
+	{
 		modelCopy.setBaseExchLowerBounds(getBaseExchLowerBounds());
 		modelCopy.setBaseExchUpperBounds(getBaseExchUpperBounds());
 		modelCopy.setObjectiveReactions(getObjectiveIndexes());
@@ -3256,9 +3312,82 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		modelCopy.setNoiseVariance(getNoiseVariance());
 		modelCopy.setLightAbsorption(getLightAbsorption());
 		modelCopy.setSignals(getSignals());
+		modelCopy.stoichMatrix=stoichMatrix;
+		modelCopy.optimizer=optimizer;
 		//modelCopy.setParameters();
-		
-		return modelCopy;
+	}
+
+	/**
+	 * Returns the optimizer, building it if this model hasn't needed it until now. A
+	 * copy made with clone() or createMutant() clones its source's optimizer if that's
+	 * been built; otherwise the optimizer is made from the stoichiometric matrix.
+	 * Synchronized with <code>releaseOptimizer()</code>, so a solver is never built
+	 * and freed at the same time.
+	 */
+	private synchronized FBAOptimizer getOptimizer()
+	{
+		if (fbaOptimizer != null)
+			return fbaOptimizer;
+		FBAOptimizer source = null;
+		if (optimizerSource != null)
+		{
+			synchronized (optimizerSource)
+			{
+				if (optimizerSource.fbaOptimizer != null)
+					source = optimizerSource.fbaOptimizer.clone();
+			}
+			optimizerSource = null;
+		}
+		if (source != null)
+		{
+			fbaOptimizer = source;
+			fbaOptimizer.setLowerBounds(numRxns, baseLB);
+			fbaOptimizer.setUpperBounds(numRxns, baseUB);
+			return fbaOptimizer;
+		}
+
+		switch(optimizer){
+		case GUROBI:
+			fbaOptimizer=new FBAOptimizerGurobi(stoichMatrix, baseLB, baseUB, objReactions, objMaximize);
+			break;
+		case GLOP:
+			fbaOptimizer=new FBAOptimizerGlop(stoichMatrix, baseLB, baseUB, objReactions, objMaximize);
+			break;
+		case GLPK:
+			fbaOptimizer=new FBAOptimizerGLPK(stoichMatrix, baseLB, baseUB, objReactions);
+			break;
+		default:
+			break;
+		}
+		if (fbaOptimizer != null)
+		{
+			fbaOptimizer.setObjectiveReaction(numRxns, objReactions);
+			fbaOptimizer.setObjectiveMaximize(objMaximize);
+		}
+		return fbaOptimizer;
+	}
+
+	/**
+	 * @return true if this model's optimizer has been built and not released
+	 */
+	public synchronized boolean hasOptimizer()
+	{
+		return fbaOptimizer != null;
+	}
+
+	/**
+	 * Frees this model's optimizer, e.g. once the model has gone extinct. It's built
+	 * again from the stoichiometric matrix and base bounds if the model runs again.
+	 * This must be called from the thread that runs the model.
+	 */
+	public synchronized void releaseOptimizer()
+	{
+		if (fbaOptimizer == null)
+			return;
+		fbaOptimizer.release();
+		fbaOptimizer = null;
+		optimizerSource = null;
+		runSuccess = false;
 	}
 
 	/**
@@ -3546,8 +3675,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 	{
 		if(active!=true)
 		{
-			Random random = new Random();
-		    double r = random.nextDouble();
+		    double r = Utility.randomDouble();
 		    if(r<activationRate)
 		    {
 		    	active=true;
@@ -3641,7 +3769,7 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		}
 		
 		// select randomly one of these reactions
-		int mutReaction = nonzeroRxns.get(new Random().nextInt(nonzeroRxns.size()));
+		int mutReaction = nonzeroRxns.get(Utility.randomInt(nonzeroRxns.size()));
 		setMutation("del_" + Integer.toString(mutReaction));
 		//System.out.println("mutated reaction: " + mutReaction);
 
@@ -3651,9 +3779,12 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		setBaseLowerBounds(lBounds);
 		setBaseUpperBounds(uBounds);
 		
-		// make sure newbounds apply to the optimizer
-		fbaOptimizer.setLowerBounds(lBounds.length, lBounds);
-		fbaOptimizer.setUpperBounds(uBounds.length, uBounds);
+		// make sure newbounds apply to the optimizer (a lazily built one gets them when it's made)
+		if (fbaOptimizer != null)
+		{
+			fbaOptimizer.setLowerBounds(lBounds.length, lBounds);
+			fbaOptimizer.setUpperBounds(uBounds.length, uBounds);
+		}
 
 	}
 	
@@ -3677,15 +3808,18 @@ public class FBAModel extends edu.bu.segrelab.comets.Model
 		// select one of these reactions at random
 		if (nonzeroRxns.size()>0)
 		{	
-			int mutReaction = nonzeroRxns.get(new Random().nextInt(nonzeroRxns.size()));
+			int mutReaction = nonzeroRxns.get(Utility.randomInt(nonzeroRxns.size()));
 			setMutation("add_" + Integer.toString(mutReaction));
 			
 			// and update the mutModel model bounds
 			uBounds[mutReaction] = 1000;
 			setBaseUpperBounds(uBounds);
 			//JEAN make sure new bounds apply to the optimizer
-			fbaOptimizer.setLowerBounds(lBounds.length, lBounds);
-			fbaOptimizer.setUpperBounds(uBounds.length, uBounds);
+			if (fbaOptimizer != null)
+			{
+				fbaOptimizer.setLowerBounds(lBounds.length, lBounds);
+				fbaOptimizer.setUpperBounds(uBounds.length, uBounds);
+			}
 		}
 	}
 	
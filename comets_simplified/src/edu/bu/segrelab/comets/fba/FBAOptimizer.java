@@ -47,4 +47,12 @@ public abstract class FBAOptimizer  implements edu.bu.segrelab.comets.CometsCons
 	public abstract double[] getObjectiveSolutions(int[] objReactions);
 
 	public abstract int setObjectiveMaximize(boolean[] objMax);
+
+	/**
+	 * Frees any memory the solver holds outside of Java. The optimizer can't be used
+	 * afterwards.
+	 */
+	public void release()
+	{
+	}
 }
\ No newline at end of file
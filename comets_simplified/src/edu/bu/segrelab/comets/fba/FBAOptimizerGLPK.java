@@ -635,6 +635,12 @@ public class FBAOptimizerGLPK extends edu.bu.segrelab.comets.fba.FBAOptimizer
 		GLPK.glp_delete_prob(lpMSA);
 	}
 
+	@Override
+	public void release()
+	{
+		delete();
+	}
+
 	/**
 	 * Internally initializes and resets the parameters used by GLPK. If you want to 
 	 * set specific GLPK parameters, you'll need to call a specialized function.
@@ -330,6 +330,16 @@ implements edu.bu.segrelab.comets.CometsConstants
 			return 0; // not feasible
 	}
 	
+	/**
+	 * Frees the native GLOP solvers.
+	 */
+	@Override
+	public void release()
+	{
+		solver.delete();
+		solverMinSumAbs.delete();
+	}
+
 	/**
 	 * Produces a clone of this <code>FBAOptimizerGlop</code> with all parameters intact.
 	 */
@@ -1253,6 +1253,30 @@ implements edu.bu.segrelab.comets.CometsConstants
 		return PARAMS_OK;
 	}
 
+	/**
+	 * Frees the Gurobi models and environments.
+	 */
+	@Override
+	public void release()
+	{
+		try
+		{
+			if (modelMin != null)
+			{
+				modelMin.dispose();
+				envMin.dispose();
+			}
+			model.dispose();
+			env.dispose();
+		}
+		catch (GRBException e)
+		{
+			System.out.println("Error in FBAOptimizerGurobi.release");
+			System.out.println("Error code: " + e.getErrorCode() + ". " +
+					e.getMessage());
+		}
+	}
+
 	/**
 	 * Produces a clone of this <code>FBAOptimizerGurobi</code> with all parameters intact.
 	 */
@@ -30,7 +30,9 @@ public class FBAParameters implements PackageParameters
 	public enum LogFormat
 	{
 		MATLAB("Matlab"),
-		COMETS("COMETS");
+		COMETS("COMETS"),
+		BINARY("Binary"),
+		SPARSE("Sparse"); //flux log only
 
 		private String name;
 		private LogFormat(String name)
@@ -132,6 +134,39 @@ public class FBAParameters implements PackageParameters
 		}
 	}
 
+	public enum ExRxnIntegrator 
+	{
+		RK4("RK4"),
+		ADAPTIVE("Adaptive"),
+		CELL_RK4("CellRK4");
+
+		private String name;
+		private ExRxnIntegrator(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public String toString()
+		{
+			return getName();
+		}
+
+		public static ExRxnIntegrator findByName(String name)
+		{
+			for (ExRxnIntegrator integrator : ExRxnIntegrator.values())
+			{
+				if (integrator.toString().equalsIgnoreCase(name))
+					return integrator;
+			}
+			return null;
+		}
+	}
+
 	/*---------------------- some constants ----------------------*/
 	public static final int MATLAB_FORMAT = 0;				// Matlab log file format
 	public static final int COMETS_FORMAT = 1;				// "COMETS" log file format (something I whipped up)
@@ -148,12 +183,19 @@ public class FBAParameters implements PackageParameters
 	writeTotalBiomassLog,
 	writeSpecificMediaLog,
 	writeMatFile,
+	writeMetricsLog, //time the phases of each cycle, and write them to the metrics log
 	useLogNameTimeStamp,
 	randomOrder = true, //shuffle the order each model in a cell is run
 	monodOverride,
 	pseudoOverride, 
 	costlyGenome = false,
-	allowFluxWithoutGrowth = true; //if false, an FBACell will prevent models from updating media when they don't grow  
+	allowFluxWithoutGrowth = true, //if false, an FBACell will prevent models from updating media when they don't grow  
+	binaryLogSinglePrecision = false, //store binary log values as floats instead of doubles
+	streamMatFile = false, //write the .mat log as arrays that grow each cycle instead of a variable per cycle
+	useModelCache = false, //load models from binary caches next to the model files, making them if needed
+	lazyOptimizers = false, //build each model's solver when it first has biomass, and free it when it goes extinct
+	stopWhenInfeasible = false, //end the simulation once no model has had a usable FBA solution for steadyStateCycles cycles
+	skipDormantCells = false; //don't solve cells again after a solve with no growth and no exchange, until their media change
 
 	private String fluxLogName,
 	mediaLogName,
@@ -163,12 +205,22 @@ public class FBAParameters implements PackageParameters
 	totalBiomassLogName,
 	specificMediaLogName,
 	specificMedia, // different fron specificMediaLogName.  This string stores the names of the extracelluar mets t log
-	matFileName;
+	matFileName,
+	metricsLogName,
+	checkpointName;
 
 	private String manifestFileName = "COMETS_manifest.txt";
 	private final String nopathManifestFileName="COMETS_manifest.txt";
 
 	private int numRunThreads = 1,
+			numLogWriterThreads = 0, //0 writes logs on the simulation thread
+			logQueueSize = 8, //log writes each writer thread can have waiting
+			logCompressionLevel = 6, //for logs named *.gz
+			logCompressionBlockSize = 256, //kB of text in each gzip block
+			logSplitCycles = 0, //if > 0, start a new file for each log every logSplitCycles cycles
+			fluxLogKeyframeRate = 100, //cycles between full lines in a sparse flux log
+			checkpointRate = 0, //if > 0, write a checkpoint every checkpointRate cycles
+			steadyStateCycles = 10, //cycles a stopping criterion must hold for before the simulation ends
 			numDiffPerStep = 10,
 			fluxLogRate = 1,
 			mediaLogRate = 1,
@@ -177,6 +229,7 @@ public class FBAParameters implements PackageParameters
             velocityMultiConvLogRate = 1,
 			totalBiomassLogRate = 1,
 			specificMediaLogRate = 1,
+			metricsLogRate = 1, //cycles summed in each line of the metrics log
 			numExRxnSubsteps = 12, //12 chosen as default so if timestep is 1h, minimum substep is < 1sec
 			matFileRate = 1;
 
@@ -184,6 +237,14 @@ public class FBAParameters implements PackageParameters
 
 	private ExchangeStyle exchangeStyle = ExchangeStyle.STANDARD;
 
+	private ExRxnIntegrator exRxnIntegrator = ExRxnIntegrator.RK4;
+	private double exRxnRelTol = 1e-5,
+			exRxnAbsTol = 1e-11;
+	private double fluxLogDeltaThreshold = -1; //if >= 0, sparse flux logs only write fluxes that changed by more than this
+	private double stopBiomassChange = 0, //if > 0, end the simulation once each model's relative biomass change per cycle stays below this
+			stopMediaChange = 0, //if > 0, end the simulation once the relative change of the media per cycle stays below this
+			dormancyTolerance = 1e-6; //relative change of a dormant cell's media that wakes it
+
 	private BiomassMotionStyle biomassMotionStyle = BiomassMotionStyle.DIFFUSION_CN;
 
 	private LogFormat biomassLogFormat = LogFormat.MATLAB,
@@ -192,7 +253,7 @@ public class FBAParameters implements PackageParameters
 			velocityMultiConvLogFormat = LogFormat.MATLAB,
 			velocityLogFormat = LogFormat.MATLAB;
 
-	private static double growthDiffRate = 1e-7,
+	private double growthDiffRate = 1e-7,
 			flowDiffRate = 1e-7,
 			defaultVmax = 10,
 			defaultKm = 5,
@@ -228,6 +289,7 @@ public class FBAParameters implements PackageParameters
 		writeTotalBiomassLog = false;
 		writeSpecificMediaLog = false;
 		writeMatFile = false;
+		writeMetricsLog = false;
 		useLogNameTimeStamp = true;
 
 		fluxLogName = "flux_log.txt";
@@ -238,7 +300,9 @@ public class FBAParameters implements PackageParameters
 		matFileName = "comets_log.mat";
 		totalBiomassLogName = "total_biomass_log.txt";
 		specificMediaLogName = "specific_media_log.txt";
+		metricsLogName = "metrics_log.txt";
 		specificMedia = "";
+		checkpointName = "comets_checkpoint.bin";
 
 		paramValues = new HashMap<String, Object>();
 		paramTypes = new HashMap<String, ParameterType>();
@@ -282,6 +346,9 @@ public class FBAParameters implements PackageParameters
 		paramValues.put("writematfile", new Boolean(writeMatFile));
 		paramTypes.put("writematfile", ParameterType.BOOLEAN);
 
+		paramValues.put("writemetricslog", new Boolean(writeMetricsLog));
+		paramTypes.put("writemetricslog", ParameterType.BOOLEAN);
+
 		paramValues.put("uselognametimestamp", new Boolean(useLogNameTimeStamp));
 		paramTypes.put("uselognametimestamp", ParameterType.BOOLEAN);
 		
@@ -305,6 +372,9 @@ public class FBAParameters implements PackageParameters
 
 		paramValues.put("specificmedialogname", specificMediaLogName); 
 		paramTypes.put("specificmedialogname", ParameterType.STRING);
+
+		paramValues.put("metricslogname", metricsLogName);
+		paramTypes.put("metricslogname", ParameterType.STRING);
 		
 		paramValues.put("specificmedia", specificMedia); 
 		paramTypes.put("specificmedia", ParameterType.STRING);
@@ -312,6 +382,14 @@ public class FBAParameters implements PackageParameters
 		paramValues.put("matfilename", matFileName);
 		paramTypes.put("matfilename", ParameterType.STRING);
 
+		paramValues.put("streammatfile", new Boolean(streamMatFile));
+		paramTypes.put("streammatfile", ParameterType.BOOLEAN);
+
+		paramValues.put("usemodelcache", new Boolean(useModelCache));
+		paramTypes.put("usemodelcache", ParameterType.BOOLEAN);
+		paramValues.put("lazyoptimizers", new Boolean(lazyOptimizers));
+		paramTypes.put("lazyoptimizers", ParameterType.BOOLEAN);
+
 		paramValues.put("fluxlogformat", fluxLogFormat);
 		paramTypes.put("fluxlogformat", ParameterType.STRING);
 
@@ -324,12 +402,63 @@ public class FBAParameters implements PackageParameters
 		paramValues.put("velocitylogformat", velocityLogFormat);
 		paramTypes.put("velocitylogformat", ParameterType.STRING);
 
+		paramValues.put("binarylogsingleprecision", new Boolean(binaryLogSinglePrecision));
+		paramTypes.put("binarylogsingleprecision", ParameterType.BOOLEAN);
+
 		paramValues.put("numrunthreads", new Integer(numRunThreads));
 		paramTypes.put("numrunthreads", ParameterType.INT);
 
+		paramValues.put("numlogwriterthreads", new Integer(numLogWriterThreads));
+		paramTypes.put("numlogwriterthreads", ParameterType.INT);
+
+		paramValues.put("logqueuesize", new Integer(logQueueSize));
+		paramTypes.put("logqueuesize", ParameterType.INT);
+
+		paramValues.put("logcompressionlevel", new Integer(logCompressionLevel));
+		paramTypes.put("logcompressionlevel", ParameterType.INT);
+
+		paramValues.put("logcompressionblocksize", new Integer(logCompressionBlockSize));
+		paramTypes.put("logcompressionblocksize", ParameterType.INT);
+
+		paramValues.put("logsplitcycles", new Integer(logSplitCycles));
+		paramTypes.put("logsplitcycles", ParameterType.INT);
+
+		paramValues.put("fluxlogdeltathreshold", new Double(fluxLogDeltaThreshold));
+		paramTypes.put("fluxlogdeltathreshold", ParameterType.DOUBLE);
+
+		paramValues.put("fluxlogkeyframerate", new Integer(fluxLogKeyframeRate));
+		paramTypes.put("fluxlogkeyframerate", ParameterType.INT);
+
+		paramValues.put("checkpointrate", new Integer(checkpointRate));
+		paramTypes.put("checkpointrate", ParameterType.INT);
+
+		paramValues.put("steadystatecycles", new Integer(steadyStateCycles));
+		paramTypes.put("steadystatecycles", ParameterType.INT);
+
+		paramValues.put("stopbiomasschange", new Double(stopBiomassChange));
+		paramTypes.put("stopbiomasschange", ParameterType.DOUBLE);
+
+		paramValues.put("stopmediachange", new Double(stopMediaChange));
+		paramTypes.put("stopmediachange", ParameterType.DOUBLE);
+
+		paramValues.put("stopwheninfeasible", new Boolean(stopWhenInfeasible));
+		paramTypes.put("stopwheninfeasible", ParameterType.BOOLEAN);
+
+		paramValues.put("skipdormantcells", new Boolean(skipDormantCells));
+		paramTypes.put("skipdormantcells", ParameterType.BOOLEAN);
+
+		paramValues.put("dormancytolerance", new Double(dormancyTolerance));
+		paramTypes.put("dormancytolerance", ParameterType.DOUBLE);
+
+		paramValues.put("checkpointname", checkpointName);
+		paramTypes.put("checkpointname", ParameterType.STRING);
+
 		paramValues.put("specificmedialograte", new Integer(specificMediaLogRate)); 
 		paramTypes.put("specificmedialograte", ParameterType.INT);
 
+		paramValues.put("metricslograte", new Integer(metricsLogRate));
+		paramTypes.put("metricslograte", ParameterType.INT);
+
 		paramValues.put("growthdiffrate", new Double(growthDiffRate));
 		paramTypes.put("growthdiffrate", ParameterType.DOUBLE);
 
@@ -393,6 +522,15 @@ public class FBAParameters implements PackageParameters
 		paramValues.put("numexrxnsubsteps", new Integer(numExRxnSubsteps));
 		paramTypes.put("numexrxnsubsteps", ParameterType.INT);
 
+		paramValues.put("exrxnintegrator", exRxnIntegrator);
+		paramTypes.put("exrxnintegrator", ParameterType.STRING);
+
+		paramValues.put("exrxnreltol", new Double(exRxnRelTol));
+		paramTypes.put("exrxnreltol", ParameterType.DOUBLE);
+
+		paramValues.put("exrxnabstol", new Double(exRxnAbsTol));
+		paramTypes.put("exrxnabstol", ParameterType.DOUBLE);
+
 		paramValues.put("randomseed", new Long(randomSeed));
 		paramTypes.put("randomseed", ParameterType.LONG);
 
@@ -417,6 +555,7 @@ public class FBAParameters implements PackageParameters
 		writeTotalBiomassLog(((Boolean)paramValues.get("writetotalbiomasslog")).booleanValue());
 		writeSpecificMediaLog(((Boolean)paramValues.get("writespecificmedialog")).booleanValue());
 		writeMatFile(((Boolean)paramValues.get("writematfile")).booleanValue());
+		writeMetricsLog(((Boolean)paramValues.get("writemetricslog")).booleanValue());
 		useLogNameTimeStamp(((Boolean)paramValues.get("uselognametimestamp")).booleanValue());
 		setFluxLogName((String)paramValues.get("fluxlogname"));
 		setMediaLogName((String)paramValues.get("medialogname"));
@@ -424,10 +563,20 @@ public class FBAParameters implements PackageParameters
 		setVelocityLogName((String)paramValues.get("velocitylogname"));
 		setTotalBiomassLogName((String)paramValues.get("totalbiomasslogname"));
 		setSpecificMediaLogName((String)paramValues.get("specificmedialogname"));
+		setMetricsLogName((String)paramValues.get("metricslogname"));
 		setSpecificMedia((String)paramValues.get("specificmedia"));
 		setMatFileName((String)paramValues.get("matfilename"));
+		setStreamMatFile(((Boolean)paramValues.get("streammatfile")).booleanValue());
+		setUseModelCache(((Boolean)paramValues.get("usemodelcache")).booleanValue());
+		setLazyOptimizers(((Boolean)paramValues.get("lazyoptimizers")).booleanValue());
 		setRandomOrder(((Boolean)paramValues.get("randomorder")).booleanValue());
 		setNumExRxnSubsteps((Integer)paramValues.get("numexrxnsubsteps"));
+		if(paramValues.get("exrxnintegrator") instanceof String)
+			setExRxnIntegrator(ExRxnIntegrator.findByName((String)paramValues.get("exrxnintegrator")));
+		else
+			setExRxnIntegrator((ExRxnIntegrator)paramValues.get("exrxnintegrator"));
+		setExRxnRelTol(((Double)paramValues.get("exrxnreltol")).doubleValue());
+		setExRxnAbsTol(((Double)paramValues.get("exrxnabstol")).doubleValue());
 		setCostlyGenome(((Boolean)paramValues.get("costlygenome")).booleanValue());
 		setAllowFluxWithoutGrowth(((Boolean)paramValues.get("allowfluxwithoutgrowth")).booleanValue());
 		setGeneFractionalCost(((Double)paramValues.get("genefractionalcost")).doubleValue());
@@ -456,8 +605,24 @@ public class FBAParameters implements PackageParameters
 			setVelocityLogFormat(LogFormat.findByName((String)paramValues.get("velocitylogformat")));
 		else
 			setVelocityLogFormat((LogFormat)paramValues.get("velocitylogformat"));
+		setBinaryLogSinglePrecision(((Boolean)paramValues.get("binarylogsingleprecision")).booleanValue());
 		
 		setNumRunThreads(((Integer)paramValues.get("numrunthreads")).intValue());
+		setNumLogWriterThreads(((Integer)paramValues.get("numlogwriterthreads")).intValue());
+		setLogQueueSize(((Integer)paramValues.get("logqueuesize")).intValue());
+		setLogCompressionLevel(((Integer)paramValues.get("logcompressionlevel")).intValue());
+		setLogCompressionBlockSize(((Integer)paramValues.get("logcompressionblocksize")).intValue());
+		setLogSplitCycles(((Integer)paramValues.get("logsplitcycles")).intValue());
+		setFluxLogDeltaThreshold(((Double)paramValues.get("fluxlogdeltathreshold")).doubleValue());
+		setFluxLogKeyframeRate(((Integer)paramValues.get("fluxlogkeyframerate")).intValue());
+		setCheckpointRate(((Integer)paramValues.get("checkpointrate")).intValue());
+		setSteadyStateCycles(((Integer)paramValues.get("steadystatecycles")).intValue());
+		setStopBiomassChange(((Double)paramValues.get("stopbiomasschange")).doubleValue());
+		setStopMediaChange(((Double)paramValues.get("stopmediachange")).doubleValue());
+		setStopWhenInfeasible(((Boolean)paramValues.get("stopwheninfeasible")).booleanValue());
+		setSkipDormantCells(((Boolean)paramValues.get("skipdormantcells")).booleanValue());
+		setDormancyTolerance(((Double)paramValues.get("dormancytolerance")).doubleValue());
+		setCheckpointName((String)paramValues.get("checkpointname"));
 		setGrowthDiffRate(((Double)paramValues.get("growthdiffrate")).doubleValue());
 		setFlowDiffRate(((Double)paramValues.get("flowdiffrate")).doubleValue());
 		//setExchangeStyle(((ExchangeStyle)paramValues.get("exchangestyle")));
@@ -485,6 +650,7 @@ public class FBAParameters implements PackageParameters
 		setVelocityLogRate(((Integer)paramValues.get("velocitylograte")).intValue());
 		setTotalBiomassLogRate(((Integer)paramValues.get("totalbiomasslograte")).intValue());
 		setSpecificMediaLogRate(((Integer)paramValues.get("specificmedialograte")).intValue());
+		setMetricsLogRate(((Integer)paramValues.get("metricslograte")).intValue());
 		setMatFileRate(((Integer)paramValues.get("matfilerate")).intValue());
 		setNumDiffusionsPerStep(((Integer)paramValues.get("numdiffperstep")).intValue());
 		setDefaultDiffusionConstant(((Double)paramValues.get("defaultdiffconst")).doubleValue());
@@ -616,6 +782,53 @@ public class FBAParameters implements PackageParameters
 		else numExRxnSubsteps = 1;
 	}
 
+	/**
+	 * @return the method used to integrate extracellular reactions: fixed RK4 steps of
+	 * timestep/numExRxnSubsteps, adaptive steps controlled by exRxnRelTol and exRxnAbsTol,
+	 * or a single RK4 step per timestep taken only where there are cells
+	 */
+	public ExRxnIntegrator getExRxnIntegrator()
+	{
+		return exRxnIntegrator;
+	}
+
+	/**
+	 * @param integrator if null, nothing is changed
+	 */
+	public void setExRxnIntegrator(ExRxnIntegrator integrator)
+	{
+		if (integrator != null)
+			exRxnIntegrator = integrator;
+	}
+
+	/**
+	 * @return the relative error allowed per step by the adaptive extracellular reaction integrator
+	 */
+	public double getExRxnRelTol()
+	{
+		return exRxnRelTol;
+	}
+
+	public void setExRxnRelTol(double tol)
+	{
+		if (tol > 0)
+			exRxnRelTol = tol;
+	}
+
+	/**
+	 * @return the absolute error (mmol) allowed per step by the adaptive extracellular reaction integrator
+	 */
+	public double getExRxnAbsTol()
+	{
+		return exRxnAbsTol;
+	}
+
+	public void setExRxnAbsTol(double tol)
+	{
+		if (tol > 0)
+			exRxnAbsTol = tol;
+	}
+
 	/**
 	 * @return the number of simulation steps that occur between every flux log write
 	 */
@@ -740,6 +953,62 @@ public class FBAParameters implements PackageParameters
 		return specificMediaLogRate; 
 	}	
 
+	/**
+	 * @return true if the phases of each cycle are timed, and written to the metrics log
+	 */
+	public boolean writeMetricsLog()
+	{
+		return writeMetricsLog;
+	}
+
+	/**
+	 * Tells COMETS to time the phases of each cycle (FBA, diffusion, logs, ...) or not.
+	 * The times are written to the metrics log, and summarized on the console.
+	 * @param b
+	 */
+	public void writeMetricsLog(boolean b)
+	{
+		writeMetricsLog = b;
+	}
+
+	/**
+	 * @return the file name of the metrics log
+	 */
+	public String getMetricsLogName()
+	{
+		return metricsLogName;
+	}
+
+	/**
+	 * Sets the file name of the metrics log. If there is no string (or an empty
+	 * string), nothing is changed.
+	 * @param s
+	 */
+	public void setMetricsLogName(String s)
+	{
+		if (s.length() > 0)
+			metricsLogName = s;
+	}
+
+	/**
+	 * @return the number of cycles summed in each line of the metrics log
+	 */
+	public int getMetricsLogRate()
+	{
+		return metricsLogRate;
+	}
+
+	/**
+	 * Sets the number of cycles summed in each line of the metrics log. If <code>i</code>
+	 * is less than 1, nothing is changed.
+	 * @param i
+	 */
+	public void setMetricsLogRate(int i)
+	{
+		if (i > 0)
+			metricsLogRate = i;
+	}
+
 	/**
 	 * @return the number of simulation steps that occur between every .mat file log write
 	 */
@@ -762,7 +1031,7 @@ public class FBAParameters implements PackageParameters
 	/**
 	 * @return the default Vmax for the Michaelis-Menten style media uptake
 	 */
-	public static double getDefaultVmax() 
+	public double getDefaultVmax() 
 	{ 
 		return defaultVmax; 
 	}
@@ -771,7 +1040,7 @@ public class FBAParameters implements PackageParameters
 	 * Sets the default Vmax for the Michaelis-Mented style media uptake
 	 * @param d if less than or equal to zero, nothing is changed
 	 */
-	public static void setDefaultVmax(double d)
+	public void setDefaultVmax(double d)
 	{
 		if (d <= 0)
 			return;
@@ -801,7 +1070,7 @@ public class FBAParameters implements PackageParameters
 	/**
 	 * @return the default Km for the Michaelis-Menten style media uptake
 	 */
-	public static double getDefaultKm() 
+	public double getDefaultKm() 
 	{ 
 		return defaultKm; 
 	}
@@ -811,7 +1080,7 @@ public class FBAParameters implements PackageParameters
 	 * Sets the default Km for the Michaelis-Menten style media uptake
 	 * @param d if less than zero, nothing is changed
 	 */
-	public static void setDefaultKm(double d)
+	public void setDefaultKm(double d)
 	{
 		if (d < 0)
 			return;
@@ -841,7 +1110,7 @@ public class FBAParameters implements PackageParameters
 	/**
 	 * @return the default Hill parameter for the Monod style media uptake
 	 */
-	public static double getDefaultHill() 
+	public double getDefaultHill() 
 	{ 
 		return defaultHill; 
 	}
@@ -850,7 +1119,7 @@ public class FBAParameters implements PackageParameters
 	 * Sets the default Hill parameter for the Monod style media uptake
 	 * @param d if less than or equal to zero, nothing is changed
 	 */
-	public static void setDefaultHill(double d)
+	public void setDefaultHill(double d)
 	{
 		if (d <= 0)
 			return;
@@ -876,12 +1145,12 @@ public class FBAParameters implements PackageParameters
 		}
 	}
 
-	public static double getDefaultAlpha()
+	public double getDefaultAlpha()
 	{
 		return defaultAlpha;
 	}
 
-	public static void setDefaultAlpha(double d)
+	public void setDefaultAlpha(double d)
 	{
 		if (d <= 0)
 			return;
@@ -903,12 +1172,12 @@ public class FBAParameters implements PackageParameters
 		}
 	}
 
-	public static double getDefaultW()
+	public double getDefaultW()
 	{
 		return defaultW;
 	}
 
-	public static void setDefaultW(double d)
+	public void setDefaultW(double d)
 	{
 		if (d <= 0)
 			return;
@@ -934,7 +1203,7 @@ public class FBAParameters implements PackageParameters
 		return geneFractionalCost;
 	}
 
-	public static void setGeneFractionalCost(double d)
+	public void setGeneFractionalCost(double d)
 	{
 		if (d <= 0)
 			return;
@@ -1297,6 +1566,19 @@ public class FBAParameters implements PackageParameters
 		return specificMedia; 
 	}
 	
+	/**
+	 * @return true if logs in the binary format store float32 values instead of float64
+	 */
+	public boolean getBinaryLogSinglePrecision()
+	{
+		return binaryLogSinglePrecision;
+	}
+
+	public void setBinaryLogSinglePrecision(boolean b)
+	{
+		binaryLogSinglePrecision = b;
+	}
+
 	/**
 	 * Sets the format of the media log file. Currently only supports either
 	 * MATLAB_FORMAT or COMETS_FORMAT, others are ignored.
@@ -1435,6 +1717,49 @@ public class FBAParameters implements PackageParameters
 			matFileName = s;
 	}
 
+	/**
+	 * @return true if the .mat file log holds one array per quantity, with time as the
+	 * last dimension, instead of one variable per quantity and time point
+	 */
+	public boolean getStreamMatFile()
+	{
+		return streamMatFile;
+	}
+
+	public void setStreamMatFile(boolean b)
+	{
+		streamMatFile = b;
+	}
+
+	/**
+	 * @return true if models are loaded through binary caches saved next to the model
+	 * files (see ModelImage), instead of parsing the text every time
+	 */
+	public boolean getUseModelCache()
+	{
+		return useModelCache;
+	}
+
+	public void setUseModelCache(boolean b)
+	{
+		useModelCache = b;
+	}
+
+	/**
+	 * @return true if models skip the test run at loading, so each model's solver is
+	 * only built once it has biomass somewhere, and solvers are freed when their model
+	 * goes extinct
+	 */
+	public boolean getLazyOptimizers()
+	{
+		return lazyOptimizers;
+	}
+
+	public void setLazyOptimizers(boolean b)
+	{
+		lazyOptimizers = b;
+	}
+
 
 	/**
 	 * @return the number of FBA run threads to be used in simulation
@@ -1461,6 +1786,239 @@ public class FBAParameters implements PackageParameters
 		numRunThreads = n;
 	}
 
+	/**
+	 * @return the number of threads that format and write the logs. With 0, the default,
+	 * logs are written on the simulation thread at the end of each cycle
+	 */
+	public int getNumLogWriterThreads()
+	{
+		return numLogWriterThreads;
+	}
+
+	/**
+	 * Sets the number of log writer threads. Each log file is always written by the same
+	 * thread, so more than one only helps when several logs are on.
+	 * @param n
+	 */
+	public void setNumLogWriterThreads(int n)
+	{
+		if (n < 0)
+			n = 0;
+		numLogWriterThreads = n;
+	}
+
+	/**
+	 * @return how many log writes each writer thread can have waiting before the
+	 * simulation waits for it to catch up
+	 */
+	public int getLogQueueSize()
+	{
+		return logQueueSize;
+	}
+
+	public void setLogQueueSize(int n)
+	{
+		if (n < 1)
+			n = 1;
+		logQueueSize = n;
+	}
+
+	/**
+	 * @return the gzip level, 1 (fastest) to 9 (smallest), used for logs whose names end in ".gz"
+	 */
+	public int getLogCompressionLevel()
+	{
+		return logCompressionLevel;
+	}
+
+	public void setLogCompressionLevel(int level)
+	{
+		logCompressionLevel = Math.max(1, Math.min(9, level));
+	}
+
+	/**
+	 * @return the kB of log text in each compressed block. A log from a job that is
+	 * killed can be read up to its last finished block
+	 */
+	public int getLogCompressionBlockSize()
+	{
+		return logCompressionBlockSize;
+	}
+
+	public void setLogCompressionBlockSize(int kb)
+	{
+		if (kb < 1)
+			kb = 1;
+		logCompressionBlockSize = kb;
+	}
+
+	/**
+	 * @return the number of cycles in each file of a text log, or 0 if logs aren't split
+	 */
+	public int getLogSplitCycles()
+	{
+		return logSplitCycles;
+	}
+
+	public void setLogSplitCycles(int n)
+	{
+		if (n < 0)
+			n = 0;
+		logSplitCycles = n;
+	}
+
+	/**
+	 * @return the smallest change in a flux that a sparse flux log writes between full
+	 * lines, or a negative number if every line is written in full
+	 */
+	public double getFluxLogDeltaThreshold()
+	{
+		return fluxLogDeltaThreshold;
+	}
+
+	public void setFluxLogDeltaThreshold(double threshold)
+	{
+		fluxLogDeltaThreshold = threshold;
+	}
+
+	/**
+	 * @return the number of cycles between full lines in a sparse flux log that writes changes
+	 */
+	public int getFluxLogKeyframeRate()
+	{
+		return fluxLogKeyframeRate;
+	}
+
+	public void setFluxLogKeyframeRate(int n)
+	{
+		if (n < 1)
+			n = 1;
+		fluxLogKeyframeRate = n;
+	}
+
+	/**
+	 * @return the number of cycles between checkpoints, or 0 if none are written
+	 */
+	public int getCheckpointRate()
+	{
+		return checkpointRate;
+	}
+
+	public void setCheckpointRate(int n)
+	{
+		if (n < 0)
+			n = 0;
+		checkpointRate = n;
+	}
+
+	/**
+	 * @return the number of cycles in a row a stopping criterion must hold for before
+	 * the simulation ends
+	 * @see TerminationCheck
+	 */
+	public int getSteadyStateCycles()
+	{
+		return steadyStateCycles;
+	}
+
+	public void setSteadyStateCycles(int n)
+	{
+		if (n < 1)
+			n = 1;
+		steadyStateCycles = n;
+	}
+
+	/**
+	 * @return the relative change of each model's total biomass per cycle below which
+	 * the biomass counts as steady, or 0 if it isn't checked. Not checked while
+	 * periodic media, media refresh or dilution are configured.
+	 */
+	public double getStopBiomassChange()
+	{
+		return stopBiomassChange;
+	}
+
+	public void setStopBiomassChange(double d)
+	{
+		stopBiomassChange = Math.max(0, d);
+	}
+
+	/**
+	 * @return the relative change of the media per cycle below which they count as
+	 * steady, or 0 if it isn't checked. Not checked while periodic media, media
+	 * refresh or dilution are configured.
+	 */
+	public double getStopMediaChange()
+	{
+		return stopMediaChange;
+	}
+
+	public void setStopMediaChange(double d)
+	{
+		stopMediaChange = Math.max(0, d);
+	}
+
+	/**
+	 * @return true if the simulation ends once no model gets a usable FBA solution
+	 */
+	public boolean getStopWhenInfeasible()
+	{
+		return stopWhenInfeasible;
+	}
+
+	public void setStopWhenInfeasible(boolean b)
+	{
+		stopWhenInfeasible = b;
+	}
+
+	/**
+	 * @return true if a cell whose models neither grew nor exchanged anything is left
+	 * dormant, without running FBA, until its media change by more than the dormancy
+	 * tolerance or other species arrive
+	 */
+	public boolean getSkipDormantCells()
+	{
+		return skipDormantCells;
+	}
+
+	public void setSkipDormantCells(boolean b)
+	{
+		skipDormantCells = b;
+	}
+
+	/**
+	 * @return the change of a medium component, relative to its amount at the cell's
+	 * last solve, that wakes a dormant cell
+	 */
+	public double getDormancyTolerance()
+	{
+		return dormancyTolerance;
+	}
+
+	public void setDormancyTolerance(double d)
+	{
+		dormancyTolerance = Math.max(0, d);
+	}
+
+	/**
+	 * @return the name of the checkpoint file. Each checkpoint replaces the last one
+	 */
+	public String getCheckpointName()
+	{
+		return checkpointName;
+	}
+
+	/**
+	 * Sets the name of the checkpoint file. If there is no string (or an empty string),
+	 * nothing is changed.
+	 * @param name
+	 */
+	public void setCheckpointName(String name)
+	{
+		if (name != null && name.length() > 0)
+			checkpointName = name;
+	}
+
 	/**
 	 * Returns the seed of the random number generator.
 	 * @return
@@ -1524,11 +2082,11 @@ public class FBAParameters implements PackageParameters
 	 * 
 	 * @return
 	 */
-	public static double getMinConcentration() {
+	public double getMinConcentration() {
 		return minConcentration;
 	}
 
-	public static void setMinConcentration(double min) {
+	public void setMinConcentration(double min) {
 		minConcentration = min;
 	}
 
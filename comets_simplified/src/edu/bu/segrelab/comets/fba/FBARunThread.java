@@ -17,11 +17,15 @@
  * The major trade off is that each FBARunThread gets its own copy of each FBAModel in the
  * system. So if there's several genome-scale models and many threads running, the memory
  * footprint can grow pretty quickly. On the upside, this makes things process very, very fast.
+ * A copy's solver is only built the first time the thread runs that model, so models
+ * that never have biomass cost nothing here.
  * 
  * @author Bill Riehl briehl@bu.edu
  */
 package edu.bu.segrelab.comets.fba;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import edu.bu.segrelab.comets.CometsParameters;
 import edu.bu.segrelab.comets.Model;
 
@@ -31,6 +35,8 @@ public class FBARunThread extends Thread
 	private FBAModel[] models;		// Copies of the FBAModels[] kept by the thread - lost once
 									// the thread shuts down.
 	private boolean die = false;	
+	private int workerIndex;		// This thread's slot in the world's CycleStatistics
+	private AtomicReference<boolean[]> pendingRelease = new AtomicReference<boolean[]>();
 
 	/**
 	 * Constructor for the <code>FBARunThread</code>. This does the work of making
@@ -40,13 +46,15 @@ public class FBARunThread extends Thread
 	 * @param threadGroup
 	 * @param cParams
 	 * @param fbaModels
+	 * @param workerIndex
 	 */
 	public FBARunThread(FBAWorld world, ThreadGroup threadGroup, 
-						CometsParameters cParams, Model[] fbaModels)
+						CometsParameters cParams, Model[] fbaModels, int workerIndex)
 	{
 		super(threadGroup, "FBARunThread");
 		
 		this.world = world;
+		this.workerIndex = workerIndex;
 		// need to make COPIES here.
 		models = new FBAModel[fbaModels.length];
 		for (int i=0; i<models.length; i++)
@@ -64,6 +72,16 @@ public class FBARunThread extends Thread
 		die = true;
 	}
 	
+	/**
+	 * Asks this thread to free the solvers of its copies of the given models before it
+	 * runs any more cells. The solvers are freed by this thread, which built them.
+	 * @param idle true for each model whose solver should be freed
+	 */
+	public void releaseOptimizers(boolean[] idle)
+	{
+		pendingRelease.set(idle);
+	}
+
 	/**
 	 * Runs by waiting for a cell to run, fetching the <code>FBACell</code> from the
 	 * <code>FBAWorld</code>, running the FBA process using its data (e.g., using its copy
@@ -80,11 +98,30 @@ public class FBARunThread extends Thread
 			{
 //				System.out.println(getName() + " working on cell: " + cell.getID());
 
+				// a release asked for at the end of the last cycle comes before this one's cells
+				releasePendingOptimizers();
 				int ret = cell.run(models);
+				world.recordCellRun(workerIndex, cell, ret);
 				world.finishedRunningCell(cell, ret);
 				
 			}
 		}
 		//System.out.println(getName() + " finishing up");
 	}
+
+	/**
+	 * Frees the solvers asked for by the last call to <code>releaseOptimizers()</code>,
+	 * if any.
+	 */
+	private void releasePendingOptimizers()
+	{
+		boolean[] idle = pendingRelease.getAndSet(null);
+		if (idle == null || idle.length != models.length)
+			return;
+		for (int i = 0; i < idle.length; i++)
+		{
+			if (idle[i])
+				models[i].releaseOptimizer();
+		}
+	}
 }
@@ -10,19 +10,23 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
-import java.util.UUID;
-import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
@@ -30,7 +34,6 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 
-import org.apache.commons.lang3.ArrayUtils;
 
 import edu.bu.segrelab.comets.Cell;
 import edu.bu.segrelab.comets.Comets;
@@ -39,10 +42,12 @@ import edu.bu.segrelab.comets.Model;
 import edu.bu.segrelab.comets.PackageParameters;
 import edu.bu.segrelab.comets.World2D;
 import edu.bu.segrelab.comets.util.Circle;
+import edu.bu.segrelab.comets.util.TextLogBuffer;
 import edu.bu.segrelab.comets.util.Utility;
 
 import edu.bu.segrelab.comets.fba.FBAParameters;
 import edu.bu.segrelab.comets.reaction.RK4Runner;
+import edu.bu.segrelab.comets.reaction.ReactionModel;
 import edu.bu.segrelab.comets.CometsParameters;
 import edu.bu.segrelab.comets.IWorld;
 import edu.bu.segrelab.comets.fba.FBAPeriodicMedia;
@@ -74,6 +79,27 @@ public class FBAWorld extends World2D
 					  implements CometsConstants
 {
 	private static int THREAD_COUNT = 0;
+	private static final int MODEL_COMPACTION_RATIO = 4;	// compact models once 1/4 of them are extinct
+
+	// log writer lanes; everything written to one file goes through the same lane
+	private static final int LOG_LANE_FLUX = 0,
+							 LOG_LANE_MEDIA = 1,
+							 LOG_LANE_BIOMASS = 2,
+							 LOG_LANE_TOTAL_BIOMASS = 3,
+							 LOG_LANE_SPECIFIC_MEDIA = 4,
+							 LOG_LANE_MAT = 5;
+	private static final int[] LOG_LANES = { LOG_LANE_FLUX, LOG_LANE_MEDIA, LOG_LANE_BIOMASS,
+											 LOG_LANE_TOTAL_BIOMASS, LOG_LANE_SPECIFIC_MEDIA, LOG_LANE_MAT };
+
+	// the names of the logs' marks in a checkpoint
+	private static final String LOG_FLUX = "flux",
+								LOG_MEDIA = "media",
+								LOG_BIOMASS = "biomass",
+								LOG_TOTAL_BIOMASS = "totalbiomass",
+								LOG_SPECIFIC_MEDIA = "specificmedia",
+								LOG_VELOCITY = "velocity",
+								LOG_VELOCITY_MULTICONV = "velocitymulticonv",
+								LOG_EVOLUTION = "genotypes";
 
 	private double[] nutrientDiffConsts;		// The diffusion constants of all media
 	private boolean[][] dirichlet;				// If true, treat space [x][y] as a Dirichlet boundary for diffusion
@@ -83,6 +109,10 @@ public class FBAWorld extends World2D
 	private boolean[][][] diffuseMediaOut;
 	private double[][][] diffusionRHS1;
 	private double[][][] diffusionRHS2;
+	private double[][][] biomassField;			// biomass of each model, indexed [model][x][y]. 2D FBACells are views on it
+	private double[][][] deltaBiomassField;		// biomass grown by each model in the last FBA step, same layout
+	private double[][][] convectionRHS1Field;	// biomass convection history from the previous step, same layout
+	private double[][][] convectionRHS2Field;	// biomass convection history from two steps back, same layout
 	private int threadLock;						// while threaded FBA is running, this = number of cells remaining
 
 	private FBAParameters pParams;
@@ -102,6 +132,10 @@ public class FBAWorld extends World2D
 
 	private FBARunThread[] runThreads;			// array of run threads
 	private ThreadGroup threadGroup;			// thread group that they all belong to
+	private CycleStatistics cycleStats = new CycleStatistics();	// summary of the last cycle
+	private TerminationCheck terminationCheck;	// decides when the simulation has nothing left to do
+	private String stopReason;					// why it should end, once it should
+	private CycleProfiler profiler = new CycleProfiler(false, 1, null);	// times the phases of each cycle
 
 	private PrintWriter mediaLogWriter,	
 						fluxLogWriter,
@@ -111,8 +145,36 @@ public class FBAWorld extends World2D
 						velocityMultiConvLogWriter,
 						totalBiomassLogWriter,
 						specificMediaLogWriter;
+	private LogFile mediaLogFile,				// opens the text logs' writers, and the next part when logs are split
+					fluxLogFile,
+					biomassLogFile,
+					velocityLogFile,
+					velocityMultiConvLogFile,
+					totalBiomassLogFile,
+					specificMediaLogFile;
+	private TextLogBuffer fluxText = new TextLogBuffer(),	// one per log, since each log is formatted on its own writer thread
+					mediaText = new TextLogBuffer(),
+					specificMediaText = new TextLogBuffer(),
+					biomassText = new TextLogBuffer(),
+					velocityText = new TextLogBuffer(),
+					velocityMultiConvText = new TextLogBuffer(),
+					totalBiomassText = new TextLogBuffer();
+	private SparseFluxLogWriter sparseFluxLog;	// keeps the last written fluxes for LogFormat.SPARSE
+	private volatile BinaryLogWriter binaryMediaLog,	// used instead of the PrintWriters for LogFormat.BINARY
+							binaryFluxLog,
+							binaryBiomassLog;
+	
+	private LogPipeline logPipeline;			// writes the logs off the simulation thread
+	private LogSnapshot logSnapshot;			// the copy of this cycle's state that logs are written from
+	private Queue<LogSnapshot> snapshotPool = new ConcurrentLinkedQueue<LogSnapshot>();
 	
 	private MatFileIncrementalWriter matFileWriter;
+	private MatStreamWriter matStream;			// the .mat log's growing arrays, when pParams.getStreamMatFile() is set
+	private Map<String, Integer> matModelSlots;	// series name -> the model's number in the streamed .mat log
+	private Map<FBAModel, String> modelSeriesNames = new IdentityHashMap<FBAModel, String>();	// see seriesName()
+	private Set<String> usedSeriesNames = new HashSet<String>();
+	private String evolutionLogName;
+	private FBACheckpoint resumeFrom;			// set while initSimulation() reopens the logs from a checkpoint
 	//private MLStructure matWorldStructure;
 	
 	
@@ -325,18 +387,95 @@ public class FBAWorld extends World2D
 		//Intialize the random number generator. Two rnds are used. 
 		Utility.randomSetSeed(pParams.getRandomSeed());		
 		
+		terminationCheck = TerminationCheck.fromParameters(pParams);
+		String outsideChanges = outsideMediaChanges();
+		if (outsideChanges != null && terminationCheck.hasSteadyCriteria())
+		{
+			terminationCheck.suspendSteadyCriteria();
+			System.out.println("Not checking for steady biomass or media, because the " + outsideChanges + " change the media from outside");
+		}
+		stopReason = null;
+		
 		currentTimePoint = 0;
 		DateFormat df = new SimpleDateFormat("_yyyyMMddHHmmss");
 		String timeStamp = df.format(new Date()); 
 		
+		profiler.close(currentTimePoint);
+		profiler = CycleProfiler.open(pParams, adjustLogFileName(pParams.getMetricsLogName(), timeStamp));
+		
+		if (logPipeline != null)
+			logPipeline.drain();
+		logPipeline = new LogPipeline(pParams.getNumLogWriterThreads(), pParams.getLogQueueSize());
+		
+		// The sparse format is only for fluxes
+		if (pParams.getMediaLogFormat() == FBAParameters.LogFormat.SPARSE
+				|| pParams.getBiomassLogFormat() == FBAParameters.LogFormat.SPARSE)
+		{
+			System.out.println("The sparse log format is only available for the flux log. Writing the others in the COMETS format instead.");
+			if (pParams.getMediaLogFormat() == FBAParameters.LogFormat.SPARSE)
+				pParams.setMediaLogFormat(FBAParameters.LogFormat.COMETS);
+			if (pParams.getBiomassLogFormat() == FBAParameters.LogFormat.SPARSE)
+				pParams.setBiomassLogFormat(FBAParameters.LogFormat.COMETS);
+		}
+		sparseFluxLog = null;
+		
+		// Continue from a checkpoint given with -resume, reopening the logs where it left them
+		resumeFrom = null;
+		if (c.getResumeFileName() != null)
+		{
+			String checkpointName = c.getResumeFileName();
+			c.setResumeFileName(null);
+			try
+			{
+				FBACheckpoint checkpoint = FBACheckpoint.read(new File(checkpointName));
+				readCheckpointState(new DataInputStream(new ByteArrayInputStream(checkpoint.getState())));
+				resumeFrom = checkpoint;
+				System.out.println("Resuming from checkpoint '" + checkpointName + "' at cycle " + currentTimePoint);
+			}
+			catch (IOException e)
+			{
+				throw new Error("Unable to resume from checkpoint '" + checkpointName + "': " + e.getMessage());
+			}
+		}
+		// or start from a state taken in memory, with fresh logs
+		else if (c.getStartState() != null)
+		{
+			byte[] state = c.getStartState();
+			c.setStartState(null);
+			try
+			{
+				readCheckpointState(new DataInputStream(new ByteArrayInputStream(state)));
+				System.out.println("Starting from the shared state at cycle " + currentTimePoint);
+			}
+			catch (IOException e)
+			{
+				throw new Error("Unable to start from the shared state: " + e.getMessage());
+			}
+		}
+
+		// the first lines of the logs are written from the starting totals
+		cycleStats.collectBiomass(biomassField);
+		cycleStats.collectMedia(media);
+
 		// Init Flux log and write the first line
 		if (pParams.writeFluxLog())
 		{
 			String name = adjustLogFileName(pParams.getFluxLogName(), timeStamp);
 			try
 			{
-				fluxLogWriter = new PrintWriter(new FileWriter(new File(name)));
-				writeFluxLog();
+				if (pParams.getFluxLogFormat() == FBAParameters.LogFormat.BINARY)
+					binaryFluxLog = openBinaryLog(LOG_FLUX, name, BinaryLogWriter.KIND_FLUX);
+				else
+				{
+					fluxLogFile = new LogFile(name, pParams);
+					fluxLogWriter = openLogFile(fluxLogFile, LOG_FLUX);
+					name = fluxLogFile.getFileName();
+				}
+				// the sparse format's header is written with the first logged cycle
+				if (pParams.getFluxLogFormat() == FBAParameters.LogFormat.SPARSE)
+					sparseFluxLog = new SparseFluxLogWriter(pParams.getFluxLogDeltaThreshold(), pParams.getFluxLogKeyframeRate());
+				if (resumeFrom == null)
+					writeFluxLog();
 				//Write the file name in the manifest file.
 				try
 				{
@@ -362,19 +501,30 @@ public class FBAWorld extends World2D
 			String name = adjustLogFileName(pParams.getMediaLogName(), timeStamp);
 			try
 			{
-				mediaLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				if (pParams.getMediaLogFormat() == FBAParameters.LogFormat.BINARY)
+					binaryMediaLog = openBinaryLog(LOG_MEDIA, name, BinaryLogWriter.KIND_MEDIA);
+				else
+				{
+					mediaLogFile = new LogFile(name, pParams);
+					mediaLogWriter = openLogFile(mediaLogFile, LOG_MEDIA);
+					name = mediaLogFile.getFileName();
+				}
 				
 				// init the media log writer.
 				if (pParams.getMediaLogFormat().toString()=="Matlab")
 					{
-						mediaLogWriter.print("media_names = { '" + mediaNames[0] + "'");
+						String header = "media_names = { '" + mediaNames[0] + "'";
 						for (int i=1; i<mediaNames.length; i++)
 						{
-							mediaLogWriter.print(", '" + mediaNames[i] + "'");
+							header += ", '" + mediaNames[i] + "'";
 						}
-						mediaLogWriter.println("};");
+						header += "};";
+						mediaLogFile.setHeader(header);
+						if (resumeFrom == null)
+							mediaLogWriter.println(header);
 					}
-				writeMediaLog();
+				if (resumeFrom == null)
+					writeMediaLog();
 				//Write the file name in the manifest file.
 				try
 				{
@@ -443,9 +593,13 @@ public class FBAWorld extends World2D
 			
 			String name = adjustLogFileName(pParams.getSpecificMediaLogName(), timeStamp);
 			try{
-				specificMediaLogWriter = new PrintWriter(new FileWriter(new File(name)));
-				specificMediaLogWriter.println(print_string);
-				writeSpecificMediaLog();
+				specificMediaLogFile = new LogFile(name, pParams);
+				specificMediaLogWriter = openLogFile(specificMediaLogFile, LOG_SPECIFIC_MEDIA);
+				specificMediaLogFile.setHeader(print_string);
+				if (resumeFrom == null)
+					specificMediaLogWriter.println(print_string);
+				if (resumeFrom == null)
+					writeSpecificMediaLog();
 				
 			}catch (IOException e){
 				System.out.println("Unable to initialize specific media log file '" + name + "'\nContinuing without saving log.");
@@ -459,8 +613,16 @@ public class FBAWorld extends World2D
 			String name = adjustLogFileName(pParams.getBiomassLogName(), timeStamp);
 			try
 			{
-				biomassLogWriter = new PrintWriter(new FileWriter(new File(name)));
-				writeBiomassLog();
+				if (pParams.getBiomassLogFormat() == FBAParameters.LogFormat.BINARY)
+					binaryBiomassLog = openBinaryLog(LOG_BIOMASS, name, BinaryLogWriter.KIND_BIOMASS);
+				else
+				{
+					biomassLogFile = new LogFile(name, pParams);
+					biomassLogWriter = openLogFile(biomassLogFile, LOG_BIOMASS);
+					name = biomassLogFile.getFileName();
+				}
+				if (resumeFrom == null)
+					writeBiomassLog();
 				//Write the file name in the manifest file.
 				try
 				{
@@ -486,7 +648,16 @@ public class FBAWorld extends World2D
 			String name = adjustLogFileName("GENOTYPES_" + pParams.getBiomassLogName(), timeStamp);
 			try
 			{
-				evolutionLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				if (resumeFrom == null)
+					evolutionLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				else
+				{
+					FBACheckpoint.LogMark mark = resumeMark(LOG_EVOLUTION);
+					name = mark.file;
+					LogFile.truncate(new File(name), mark.offset);
+					evolutionLogWriter = new PrintWriter(new FileWriter(new File(name), true));
+				}
+				evolutionLogName = name;
 				//writeBiomassLog();
 				//Write the file name in the manifest file.
 				try
@@ -505,10 +676,13 @@ public class FBAWorld extends World2D
 				System.out.println("Unable to initialize biomass log file '" + name + "'\nContinuing without saving log.");
 				evolutionLogWriter = null;
 			}
-			for (int i = 0; i < models.length; i++) {
-				evolutionLogWriter.print(models[i].getAncestor() + " " 
-						+ models[i].getMutation() + " " + models[i].getModelID() + "\n");
-				evolutionLogWriter.flush();
+			if (resumeFrom == null)
+			{
+				for (int i = 0; i < models.length; i++) {
+					evolutionLogWriter.print(models[i].getAncestor() + " " 
+							+ models[i].getMutation() + " " + models[i].getModelID() + "\n");
+					evolutionLogWriter.flush();
+				}
 			}
 		}
 		
@@ -518,8 +692,11 @@ public class FBAWorld extends World2D
 			String name = adjustLogFileName(pParams.getVelocityLogName(), timeStamp);
 			try
 			{
-				velocityLogWriter = new PrintWriter(new FileWriter(new File(name)));
-				writeVelocityLog();
+				velocityLogFile = new LogFile(name, pParams);
+				velocityLogWriter = openLogFile(velocityLogFile, LOG_VELOCITY);
+				name = velocityLogFile.getFileName();
+				if (resumeFrom == null)
+					writeVelocityLog();
 				//Write the file name in the manifest file.
 				try
 				{
@@ -543,8 +720,10 @@ public class FBAWorld extends World2D
 		if (pParams.writeVelocityMultiConvLog()) {
 		      String name = adjustLogFileName(pParams.getVelocityMultiConvLogName(), timeStamp);
 		      try {
-		        velocityMultiConvLogWriter = new PrintWriter(new FileWriter(new File(name)));
-		        writeMultiModelConvVelocityLog();
+		        velocityMultiConvLogFile = new LogFile(name, pParams);
+		        velocityMultiConvLogWriter = openLogFile(velocityMultiConvLogFile, LOG_VELOCITY_MULTICONV);
+		        if (resumeFrom == null)
+		        	writeMultiModelConvVelocityLog();
 		        } 
 		      catch (IOException e) {
 		        System.out.println("Unable to initialize velocity log file '" + name + "'\nContinuing without saving log.");
@@ -558,8 +737,11 @@ public class FBAWorld extends World2D
 			String name = adjustLogFileName(pParams.getTotalBiomassLogName(), timeStamp);
 			try
 			{
-				totalBiomassLogWriter = new PrintWriter(new FileWriter(new File(name)));
-				writeTotalBiomassLog();
+				totalBiomassLogFile = new LogFile(name, pParams);
+				totalBiomassLogWriter = openLogFile(totalBiomassLogFile, LOG_TOTAL_BIOMASS);
+				name = totalBiomassLogFile.getFileName();
+				if (resumeFrom == null)
+					writeTotalBiomassLog();
 				//Write the file name in the manifest file.
 				try
 				{
@@ -583,6 +765,9 @@ public class FBAWorld extends World2D
 		if (pParams.writeMatFile())
 		{
 			String name = adjustLogFileName(pParams.getMatFileName(), timeStamp);
+			// a .mat file can't be cut back to a checkpoint, so a resumed run starts a new one
+			if (resumeFrom != null)
+				name = LogFile.insertBeforeExtension(name, "_from" + currentTimePoint);
 			try
 			{   
 				ArrayList list = new ArrayList();	
@@ -788,6 +973,14 @@ public class FBAWorld extends World2D
 				
 				matFileWriter = new MatFileIncrementalWriter(name);
 				matFileWriter.write(list);
+				if (pParams.getStreamMatFile())
+				{
+					// the parameters stay as written; the arrays are added to the end on close
+					matFileWriter.close();
+					matFileWriter = null;
+					matStream = new MatStreamWriter(new File(name), true);
+					matModelSlots = new HashMap<String, Integer>();
+				}
 			}
 			catch (IOException e)
 			{
@@ -795,7 +988,8 @@ public class FBAWorld extends World2D
 				totalBiomassLogWriter = null;
 			}
 		}
-	
+		resumeFrom = null;
+		releaseLogSnapshot();
 	}
 	
 	/**
@@ -803,6 +997,11 @@ public class FBAWorld extends World2D
 	 */
 	public void endSimulation()
 	{
+		// finish writing whatever is still queued before closing the files
+		releaseLogSnapshot();
+		profiler.close(currentTimePoint);
+		if (logPipeline != null)
+			logPipeline.drain();
 		if (fluxLogWriter != null)
 		{
 			fluxLogWriter.flush();
@@ -823,8 +1022,389 @@ public class FBAWorld extends World2D
 			velocityLogWriter.flush();
 			velocityLogWriter.close();
 		}
+		// compressed logs are only complete once they're closed
+		if (velocityMultiConvLogWriter != null)
+			velocityMultiConvLogWriter.close();
+		if (totalBiomassLogWriter != null)
+			totalBiomassLogWriter.close();
+		if (specificMediaLogWriter != null)
+			specificMediaLogWriter.close();
+		if (matStream != null)
+		{
+			try
+			{
+				matStream.close();
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to finish .mat file '" + pParams.getMatFileName() + "': " + e.getMessage());
+			}
+			matStream = null;
+		}
+		for (BinaryLogWriter log : new BinaryLogWriter[] { binaryFluxLog, binaryMediaLog, binaryBiomassLog })
+		{
+			if (log == null)
+				continue;
+			try
+			{
+				log.close();
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to close binary log file: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Opens a log in the binary format, with this world's dimensions. When resuming,
+	 * the log is reopened where the checkpoint left it instead.
+	 * @param log the name of the log's mark in a checkpoint
+	 * @param name the log file name
+	 * @param kind one of the BinaryLogWriter.KIND_ constants
+	 * @return the writer
+	 * @throws IOException
+	 */
+	private BinaryLogWriter openBinaryLog(String log, String name, byte kind) throws IOException
+	{
+		if (resumeFrom != null)
+			return BinaryLogWriter.resume(resumeMark(log));
+		return new BinaryLogWriter(new File(name), kind, pParams.getBinaryLogSinglePrecision(),
+				new int[] { numCols, numRows, 1 }, cParams.getTimeStep(), cParams.getSpaceWidth());
 	}
 	
+	/**
+	 * Opens a text log, or when resuming, reopens it where the checkpoint left it.
+	 * @param file
+	 * @param log the name of the log's mark in a checkpoint
+	 * @return the writer
+	 * @throws IOException
+	 */
+	private PrintWriter openLogFile(LogFile file, String log) throws IOException
+	{
+		if (resumeFrom == null)
+			return file.open();
+		return file.resume(resumeMark(log));
+	}
+
+	private FBACheckpoint.LogMark resumeMark(String log) throws IOException
+	{
+		FBACheckpoint.LogMark mark = resumeFrom.getMark(log);
+		if (mark == null)
+			throw new IOException("The checkpoint has no position for the " + log + " log");
+		return mark;
+	}
+
+	/**
+	 * @return the number of cycles run, counting those before the checkpoint the
+	 * simulation was resumed from
+	 */
+	public long getCurrentTimePoint()
+	{
+		return currentTimePoint;
+	}
+
+	/**
+	 * Takes the state a checkpoint would hold, in memory, so other simulations of the
+	 * same layout can start from it with <code>Comets.setStartState()</code>.
+	 * @return the serialized world
+	 * @throws IOException
+	 */
+	public byte[] snapshotState() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeCheckpointState(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a checkpoint of the world after the current cycle. The world is serialized
+	 * here, then each log writer thread adds its logs' positions once it has written
+	 * this cycle, and the last one to do so writes the file.
+	 */
+	private void writeCheckpoint()
+	{
+		final FBACheckpoint checkpoint;
+		try
+		{
+			checkpoint = new FBACheckpoint(currentTimePoint, snapshotState());
+
+			// these are written on the simulation thread
+			if (velocityLogFile != null)
+				checkpoint.putMark(LOG_VELOCITY, velocityLogFile.mark());
+			if (velocityMultiConvLogFile != null)
+				checkpoint.putMark(LOG_VELOCITY_MULTICONV, velocityMultiConvLogFile.mark());
+			if (evolutionLogWriter != null)
+			{
+				evolutionLogWriter.flush();
+				checkpoint.putMark(LOG_EVOLUTION, new FBACheckpoint.LogMark(evolutionLogName, evolutionLogName,
+						0, new File(evolutionLogName).length()));
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write checkpoint at cycle " + currentTimePoint + ": " + e.getMessage());
+			return;
+		}
+
+		if (logPipeline == null)
+			logPipeline = new LogPipeline(0, 1);
+		String checkpointName = LogFile.forSimulation(pParams.getCheckpointName(), cParams.getLogNameTag(), cParams.getLogDirectory());
+		final File file = new File(checkpointName);
+		final AtomicInteger pending = new AtomicInteger(LOG_LANES.length);
+		final AtomicInteger failed = new AtomicInteger();
+		for (final int lane : LOG_LANES)
+		{
+			logPipeline.submit(lane, new Runnable() {
+				public void run()
+				{
+					try
+					{
+						markLogs(lane, checkpoint);
+					}
+					catch (IOException e)
+					{
+						failed.incrementAndGet();
+						System.out.println("Unable to write checkpoint at cycle " + checkpoint.getCycle() + ": " + e.getMessage());
+					}
+					if (pending.decrementAndGet() == 0 && failed.get() == 0)
+					{
+						try
+						{
+							checkpoint.write(file);
+						}
+						catch (IOException e)
+						{
+							System.out.println("Unable to write checkpoint '" + file + "': " + e.getMessage());
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds the positions of the logs written on one lane to a checkpoint. Runs on that
+	 * lane's writer thread.
+	 */
+	private void markLogs(int lane, FBACheckpoint checkpoint) throws IOException
+	{
+		switch (lane)
+		{
+			case LOG_LANE_FLUX :
+				if (binaryFluxLog != null)
+					checkpoint.putMark(LOG_FLUX, binaryFluxLog.mark());
+				else if (fluxLogFile != null)
+					checkpoint.putMark(LOG_FLUX, fluxLogFile.mark());
+				break;
+			case LOG_LANE_MEDIA :
+				if (binaryMediaLog != null)
+					checkpoint.putMark(LOG_MEDIA, binaryMediaLog.mark());
+				else if (mediaLogFile != null)
+					checkpoint.putMark(LOG_MEDIA, mediaLogFile.mark());
+				break;
+			case LOG_LANE_BIOMASS :
+				if (binaryBiomassLog != null)
+					checkpoint.putMark(LOG_BIOMASS, binaryBiomassLog.mark());
+				else if (biomassLogFile != null)
+					checkpoint.putMark(LOG_BIOMASS, biomassLogFile.mark());
+				break;
+			case LOG_LANE_TOTAL_BIOMASS :
+				if (totalBiomassLogFile != null)
+					checkpoint.putMark(LOG_TOTAL_BIOMASS, totalBiomassLogFile.mark());
+				break;
+			case LOG_LANE_SPECIFIC_MEDIA :
+				if (specificMediaLogFile != null)
+					checkpoint.putMark(LOG_SPECIFIC_MEDIA, specificMediaLogFile.mark());
+				break;
+			default :
+				break;	// the .mat file is started over on resuming
+		}
+	}
+
+	/**
+	 * @return the configured ways the media are changed from outside the simulation,
+	 * e.g. "periodic media, media refresh", or null if there are none
+	 */
+	private String outsideMediaChanges()
+	{
+		List<String> changes = new ArrayList<String>();
+		if (periodicMedia.isSet)
+			changes.add("periodic media");
+		boolean refresh = false;
+		for (int k = 0; k < mediaRefresh.length; k++)
+			refresh |= mediaRefresh[k] != 0;
+		for (int i = 0; i < numCols && !refresh; i++)
+			for (int j = 0; j < numRows && !refresh; j++)
+				refresh = refreshPoints[i][j] != null;
+		if (refresh)
+			changes.add("media refresh");
+		if (cParams.getMetaboliteDilutionRate() > 0)
+			changes.add("metabolite dilution");
+		if (cParams.getBatchDilution())
+			changes.add("batch dilution");
+		if (changes.isEmpty())
+			return null;
+		StringBuilder sb = new StringBuilder(changes.get(0));
+		for (int i = 1; i < changes.size(); i++)
+			sb.append(", ").append(changes.get(i));
+		return sb.toString();
+	}
+
+	/**
+	 * Writes everything that carries over from one cycle to the next: the cycle (which
+	 * is also the periodic media's clock), the random number generator, the models
+	 * including any mutants, the media and biomass fields, the cells and the
+	 * termination check's counts.
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeCheckpointState(DataOutputStream out) throws IOException
+	{
+		out.writeLong(currentTimePoint);
+		byte[] rng = Utility.getRandomState();
+		out.writeInt(rng.length);
+		out.write(rng);
+
+		out.writeInt(models.length);
+		for (FBAModel model : models)
+		{
+			FBACheckpoint.writeString(out, model.getFileName());
+			FBACheckpoint.writeString(out, model.getModelID());
+			FBACheckpoint.writeString(out, model.getAncestor());
+			FBACheckpoint.writeString(out, model.getMutation());
+			out.writeBoolean(model.getActive());
+			FBACheckpoint.writeArray(out, model.getBaseLowerBounds());
+			FBACheckpoint.writeArray(out, model.getBaseUpperBounds());
+		}
+
+		out.writeInt(mediaNames.length);
+		for (String name : mediaNames)
+			out.writeUTF(name);
+
+		List<Cell> cells = c.getCells();
+		out.writeInt(cells.size());
+		for (Cell cell : cells)
+		{
+			out.writeInt(cell.getX());
+			out.writeInt(cell.getY());
+			((FBACell) cell).writeState(out);
+		}
+
+		FBACheckpoint.writeArray(out, media);
+		FBACheckpoint.writeArray(out, diffusionRHS1);
+		FBACheckpoint.writeArray(out, diffusionRHS2);
+		FBACheckpoint.writeArray(out, biomassField);
+		FBACheckpoint.writeArray(out, deltaBiomassField);
+		FBACheckpoint.writeArray(out, convectionRHS1Field);
+		FBACheckpoint.writeArray(out, convectionRHS2Field);
+		FBACheckpoint.writeArray(out, diffuseBiomassIn);
+		FBACheckpoint.writeArray(out, diffuseBiomassOut);
+		FBACheckpoint.writeArray(out, diffuseMediaIn);
+		FBACheckpoint.writeArray(out, diffuseMediaOut);
+		terminationCheck.writeState(out);
+	}
+
+	/**
+	 * Restores the state written by <code>writeCheckpointState()</code> into the world
+	 * loaded from the same layout. Models are matched to the layout's by ID, and
+	 * mutants are made again from the layout's model with the same file.
+	 * @param in
+	 * @throws IOException if the checkpoint doesn't fit this world
+	 */
+	private void readCheckpointState(DataInputStream in) throws IOException
+	{
+		long cycle = in.readLong();
+		byte[] rng = new byte[in.readInt()];
+		in.readFully(rng);
+
+		FBAModel[] restored = new FBAModel[in.readInt()];
+		for (int i = 0; i < restored.length; i++)
+		{
+			String fileName = FBACheckpoint.readString(in);
+			String id = FBACheckpoint.readString(in);
+			String ancestor = FBACheckpoint.readString(in);
+			String mutation = FBACheckpoint.readString(in);
+			boolean active = in.readBoolean();
+			double[] lb = FBACheckpoint.readDoubles(in);
+			double[] ub = FBACheckpoint.readDoubles(in);
+
+			FBAModel model = null;
+			FBAModel template = null;
+			for (FBAModel m : models)
+			{
+				if (id != null && id.equals(m.getModelID()))
+					model = m;
+				else if (template == null && fileName != null && fileName.equals(m.getFileName()))
+					template = m;
+			}
+			boolean mutant = model == null;
+			if (mutant)
+			{
+				if (template == null)
+					throw new IOException("No model in the layout matches model " + id);
+				model = template.createMutant();
+			}
+			if (model.setBaseLowerBounds(lb) != PARAMS_OK || model.setBaseUpperBounds(ub) != PARAMS_OK)
+				throw new IOException("Model " + id + " doesn't match the layout's");
+			if (mutant)		// as in addMutantsToWorld()
+				model.setGenomeCost(pParams.getCostlyGenome() ? pParams.getGeneFractionalCost() : 0);
+			model.setModelID(id);
+			model.setAncestor(ancestor);
+			model.setMutation(mutation);
+			model.setActive(active);
+			restored[i] = model;
+		}
+
+		// the cells are made again below, with the restored models
+		for (Cell cell : c.getCells())
+			removeCell(cell.getX(), cell.getY());
+		c.getCells().clear();
+		if (!Arrays.equals(models, restored))
+		{
+			changeModelsInWorld(models, restored);
+			setNumModels(restored.length);
+		}
+
+		String[] names = new String[in.readInt()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = in.readUTF();
+		if (!Arrays.equals(names, mediaNames))
+			throw new IOException("The checkpoint's media don't match the layout's");
+
+		int numCells = in.readInt();
+		for (int i = 0; i < numCells; i++)
+		{
+			int x = in.readInt();
+			int y = in.readInt();
+			FBACell cell = new FBACell(x, y, new double[numModels], this, models, cParams, pParams);
+			c.getCells().add(cell);
+			cell.readState(in);
+		}
+
+		// the fields go last, over whatever the new cells wrote into them
+		double[][][] newMedia = FBACheckpoint.readDoubles3D(in);
+		if (newMedia == null || newMedia.length != numCols || newMedia[0].length != numRows)
+			throw new IOException("The checkpoint's grid doesn't match the layout's");
+		media = newMedia;
+		diffusionRHS1 = FBACheckpoint.readDoubles3D(in);
+		diffusionRHS2 = FBACheckpoint.readDoubles3D(in);
+		biomassField = FBACheckpoint.readDoubles3D(in);
+		deltaBiomassField = FBACheckpoint.readDoubles3D(in);
+		convectionRHS1Field = FBACheckpoint.readDoubles3D(in);
+		convectionRHS2Field = FBACheckpoint.readDoubles3D(in);
+		diffuseBiomassIn = FBACheckpoint.readBooleans3D(in);
+		diffuseBiomassOut = FBACheckpoint.readBooleans3D(in);
+		diffuseMediaIn = FBACheckpoint.readBooleans3D(in);
+		diffuseMediaOut = FBACheckpoint.readBooleans3D(in);
+		terminationCheck.readState(in);
+
+		Utility.setRandomState(rng);
+		currentTimePoint = cycle;
+	}
+
 	/**
 	 * Adjusts the name of a log file to include a time stamp before the file 
 	 * extension.
@@ -840,13 +1420,9 @@ public class FBAWorld extends World2D
 			 * the time stamp should go between the name and the suffix.
 			 * e.g. "flux_log.txt" should become "flux_log_20100719125503.txt"
 			 */
-			int idx = name.lastIndexOf('.');
-			if (idx == -1)
-				name += timeStamp;
-			else
-				name = name.substring(0, idx) + timeStamp + name.substring(idx);
+			name = LogFile.insertBeforeExtension(name, timeStamp);
 		}
-		return name;
+		return LogFile.forSimulation(name, cParams.getLogNameTag(), cParams.getLogDirectory());
 	}
 
 	/**
@@ -867,7 +1443,7 @@ public class FBAWorld extends World2D
 			runThreads = new FBARunThread[pParams.getNumRunThreads()];
 			for (int i = 0; i < runThreads.length; i++)
 			{
-				runThreads[i] = new FBARunThread(this, threadGroup, cParams, models);
+				runThreads[i] = new FBARunThread(this, threadGroup, cParams, models, i);
 				runThreads[i].setName("FBARunThread-" + THREAD_COUNT++);
 			}
 			for (int i = 0; i < runThreads.length; i++)
@@ -942,12 +1518,12 @@ public class FBAWorld extends World2D
 		}
 		
 		//preserve metabolites which are involved in extracellular reactions
-		IWorld.reactionModel.setWorld(this);
-		IWorld.reactionModel.reset();
-		IWorld.reactionModel.setup();
+		IWorld.getReactionModel().setWorld(this);
+		IWorld.getReactionModel().reset();
+		IWorld.getReactionModel().setup();
 		//String[] exRxnMets = IWorld.reactionModel.getMediaNames();
 		//if (exRxnMets == null || exRxnMets.length < 1) exRxnMets = IWorld.reactionModel.getInitialMetNames();
-		String[] exRxnMets = IWorld.reactionModel.getInitialMetNames();
+		String[] exRxnMets = IWorld.getReactionModel().getInitialMetNames();
 		if (exRxnMets != null){
 			for (int i = 0; i < exRxnMets.length; i++){
 				if (!mediaNamesMap.keySet().contains(exRxnMets[i])){
@@ -1159,6 +1735,8 @@ public class FBAWorld extends World2D
 		{
 			models[i] = (FBAModel)newModels[i];
 		}
+		// removed models give up their series names' entries, but not the names
+		modelSeriesNames.keySet().retainAll(Arrays.asList(models));
 		mediaNames = newMetabNames;
 		media = newMedia;
 		isStatic = newIsStatic;
@@ -1168,6 +1746,10 @@ public class FBAWorld extends World2D
 		diffuseMediaOut = newDiffMediaOut;
 		diffuseBiomassIn = newDiffBiomassIn;
 		diffuseBiomassOut = newDiffBiomassOut;
+		biomassField = remapModelField(biomassField, oldModels, newModels);
+		deltaBiomassField = remapModelField(deltaBiomassField, oldModels, newModels);
+		convectionRHS1Field = remapModelField(convectionRHS1Field, oldModels, newModels);
+		convectionRHS2Field = remapModelField(convectionRHS2Field, oldModels, newModels);
 		numMedia = mediaNames.length;
 		numModels = newModels.length;
 		nutrientDiffConsts = newNutrientDiffConsts;
@@ -1175,6 +1757,208 @@ public class FBAWorld extends World2D
 		synchronizeWithModels();
 	}
 
+	/**
+	 * Reorders the per-model layers of a world-owned biomass field to follow a new
+	 * model array. Layers of models that are kept are moved over without copying,
+	 * and layers for new models start out empty.
+	 * @param field the current field, indexed [model][x][y], or null if not yet made
+	 * @param oldModels the array of models that is expiring
+	 * @param newModels the new array of models that's replacing them
+	 * @return the remapped field
+	 */
+	private double[][][] remapModelField(double[][][] field, Model[] oldModels, Model[] newModels)
+	{
+		double[][][] newField = new double[newModels.length][][];
+		boolean[] used = new boolean[oldModels.length];
+		for (int j = 0; j < newModels.length; j++)
+		{
+			for (int i = 0; field != null && i < oldModels.length && i < field.length; i++)
+			{
+				if (!used[i] && oldModels[i].equals(newModels[j]))
+				{
+					newField[j] = field[i];
+					used[i] = true;
+					break;
+				}
+			}
+			if (newField[j] == null)
+				newField[j] = new double[numCols][numRows];
+		}
+		return newField;
+	}
+
+	/**
+	 * Resizes the per-model layers of a world-owned biomass field to the current
+	 * grid dimensions, keeping whatever overlaps.
+	 * @param field the field to resize, indexed [model][x][y]
+	 * @return the resized field
+	 */
+	private double[][][] resizeModelField(double[][][] field)
+	{
+		double[][][] newField = new double[field.length][numCols][numRows];
+		for (int k = 0; k < field.length; k++)
+		{
+			int minCols = Math.min(numCols, field[k].length);
+			for (int i = 0; i < minCols; i++)
+			{
+				int minRows = Math.min(numRows, field[k][i].length);
+				System.arraycopy(field[k][i], 0, newField[k][i], 0, minRows);
+			}
+		}
+		return newField;
+	}
+
+	/**
+	 * @return the models in this world, including the mutants added since the 
+	 * simulation started
+	 */
+	public FBAModel[] getModels()
+	{
+		return models;
+	}
+
+	/**
+	 * @return the world-owned biomass field, indexed [model][x][y]. Every 2D 
+	 * <code>FBACell</code> reads and writes its biomass here, so this is the live
+	 * field, not a copy.
+	 */
+	public double[][][] getBiomassField()
+	{
+		return biomassField;
+	}
+
+	/**
+	 * @return the biomass grown by each model during its last FBA step, indexed 
+	 * [model][x][y]
+	 */
+	public double[][][] getDeltaBiomassField()
+	{
+		return deltaBiomassField;
+	}
+
+	/**
+	 * @return the biomass convection right-hand side from the previous step, 
+	 * indexed [model][x][y]
+	 */
+	public double[][][] getConvectionRHS1Field()
+	{
+		return convectionRHS1Field;
+	}
+
+	/**
+	 * @return the biomass convection right-hand side from two steps back, 
+	 * indexed [model][x][y]
+	 */
+	public double[][][] getConvectionRHS2Field()
+	{
+		return convectionRHS2Field;
+	}
+
+	/**
+	 * Zeroes the biomass, growth and convection history held by the world at (x, y).
+	 * @param x
+	 * @param y
+	 */
+	private void clearBiomassAt(int x, int y)
+	{
+		for (int k = 0; k < biomassField.length; k++)
+		{
+			biomassField[k][x][y] = 0;
+			deltaBiomassField[k][x][y] = 0;
+			convectionRHS1Field[k][x][y] = 0;
+			convectionRHS2Field[k][x][y] = 0;
+		}
+	}
+
+	@Override
+	/**
+	 * Sums each model's layer of the biomass field.
+	 * @return an array of biomasses - one for each <code>Model</code> loaded
+	 */
+	public double[] calculateTotalBiomass()
+	{
+		double[] totalBiomass = new double[numModels];
+		for (int k = 0; k < numModels; k++)
+		{
+			double[][] layer = biomassField[k];
+			double sum = 0;
+			for (int i = 0; i < numCols; i++)
+			{
+				double[] column = layer[i];
+				for (int j = 0; j < numRows; j++)
+					sum += column[j];
+			}
+			totalBiomass[k] = sum;
+		}
+		return totalBiomass;
+	}
+
+	@Override
+	public double[] calculateDeltaBiomass()
+	{
+		double[] deltaBiomass = new double[numModels];
+		for (int k = 0; k < numModels; k++)
+		{
+			double[][] layer = deltaBiomassField[k];
+			double sum = 0;
+			for (int i = 0; i < numCols; i++)
+			{
+				double[] column = layer[i];
+				for (int j = 0; j < numRows; j++)
+					sum += column[j];
+			}
+			deltaBiomass[k] = sum;
+		}
+		return deltaBiomass;
+	}
+
+	@Override
+	/**
+	 * Returns a 3D matrix with the levels of biomass in every spot, indexed [x][y][model],
+	 * read straight from the biomass field.
+	 * @return a 3D matrix
+	 */
+	public double[][][] getBiomass()
+	{
+		double[][][] biomass = new double[numCols][numRows][numModels];
+		for (int k = 0; k < numModels; k++)
+			for (int i = 0; i < numCols; i++)
+				for (int j = 0; j < numRows; j++)
+					biomass[i][j][k] = biomassField[k][i][j];
+		return biomass;
+	}
+
+	/**
+	 * Brings the cells in line with a biomass field that a motion routine has just
+	 * written. Occupied spaces re-apply their biomass rules, and any space that
+	 * received biomass without holding a cell gets a new <code>FBACell</code>.
+	 * @param withConvectionHistory if true, a space that only carries convection history
+	 * also gets a new cell, so that history is kept for the next step
+	 */
+	private void commitBiomassField(boolean withConvectionHistory)
+	{
+		for (int i=0; i<numCols; i++)
+		{
+			for (int j=0; j<numRows; j++)
+			{
+				boolean hasBiomass = false;
+				for (int k=0; k<numModels && !hasBiomass; k++)
+					hasBiomass = biomassField[k][i][j] != 0 ||
+							(withConvectionHistory && convectionRHS1Field[k][i][j] != 0);
+				if (isOccupied(i,j))
+					((FBACell)getCellAt(i,j)).refreshBiomass();
+				else if (hasBiomass)
+				{
+					double[] newBiomass = new double[numModels];
+					for (int k=0; k<numModels; k++)
+						newBiomass[k] = biomassField[k][i][j];
+					Cell cell = new FBACell(i, j, newBiomass, this, (FBAModel[])models, cParams, pParams);
+					c.getCells().add(cell);
+				}
+			}
+		}
+	}
+
 	private void synchronizeWithModels()
 	{
 		synchronizeWithModels(models);
@@ -1343,6 +2127,8 @@ public class FBAWorld extends World2D
 			diffuseBiomassIn[x][y][i] = true;
 			diffuseBiomassOut[x][y][i] = true;
 		}
+		if (rem != null)
+			clearBiomassAt(x, y);
 		return rem;
 	}
 
@@ -1712,6 +2498,10 @@ public class FBAWorld extends World2D
 			diffuseBiomassOut = newDiffuseBiomassOut;
 			diffuseMediaIn = newDiffuseMediaIn;
 			diffuseMediaOut = newDiffuseMediaOut;
+			biomassField = resizeModelField(biomassField);
+			deltaBiomassField = resizeModelField(deltaBiomassField);
+			convectionRHS1Field = resizeModelField(convectionRHS1Field);
+			convectionRHS2Field = resizeModelField(convectionRHS2Field);
 		}
 		if (infoPanel != null)
 		{
@@ -2276,27 +3066,25 @@ public class FBAWorld extends World2D
 		double[] totalBiomass = calculateTotalBiomass();
 		double[][][] biomassGrowthState = new double[numModels][numCols][numRows];
 		double[][][] biomassFlowState = new double[numModels][numCols][numRows];
-		Iterator<Cell> it = c.getCells().iterator();
 		
-		// capture the current biomass state
-		while (it.hasNext())
+		// split the current biomass field into what grew this step and what was already there
+		for (int k=0; k<numModels; k++)
 		{
-			FBACell cell = (FBACell)it.next();
-			double[] biomass = cell.getBiomass(); // total biomass
-			double[] deltaBiomass = cell.getDeltaBiomass(); // biomass produced this step
-			int x = cell.getX();
-			int y = cell.getY();
-			for (int k=0; k<numModels; k++)
+			for (int x=0; x<numCols; x++)
 			{
-				if (deltaBiomass[k] > 0)
-				{
-					biomassGrowthState[k][x][y] = deltaBiomass[k];
-					biomassFlowState[k][x][y] = biomass[k] - deltaBiomass[k];
-				}
-				else
+				double[] biomass = biomassField[k][x];
+				double[] deltaBiomass = deltaBiomassField[k][x];
+				for (int y=0; y<numRows; y++)
 				{
-					biomassGrowthState[k][x][y] = 0;
-					biomassFlowState[k][x][y] = biomass[k];
+					if (biomass[y] == 0)
+						continue;
+					if (deltaBiomass[y] > 0)
+					{
+						biomassGrowthState[k][x][y] = deltaBiomass[y];
+						biomassFlowState[k][x][y] = biomass[y] - deltaBiomass[y];
+					}
+					else
+						biomassFlowState[k][x][y] = biomass[y];
 				}
 			}
 		}
@@ -2401,31 +3189,18 @@ public class FBAWorld extends World2D
 			}
 		}
 		// update the world with the results.
-		
-		for (int i=0; i<numCols; i++)
+		for (int k=0; k<numModels; k++)
 		{
-			for (int j=0; j<numRows; j++)
+			for (int i=0; i<numCols; i++)
 			{
-				// if there's some value at biomassState[][i][j];
-				double[] newBiomass = new double[numModels];
-				for (int k=0; k<numModels; k++)
-					newBiomass[k] = biomassGrowthState[k][i][j] + biomassFlowState[k][i][j];
-				
-				if (Utility.hasNonzeroValue(newBiomass))
-				{
-					if (isOccupied(i,j))
-					{
-						Cell cell = (Cell)getCellAt(i,j);
-						cell.setBiomass(newBiomass);
-					}
-					else // make a new Cell here
-					{
-						Cell cell = new FBACell(i, j, newBiomass, this, (FBAModel[])models, cParams, pParams);
-						c.getCells().add(cell);
-					}
-				}
+				double[] biomass = biomassField[k][i];
+				double[] growth = biomassGrowthState[k][i];
+				double[] flow = biomassFlowState[k][i];
+				for (int j=0; j<numRows; j++)
+					biomass[j] = growth[j] + flow[j];
 			}
 		}
+		commitBiomassField(false);
 		double[] totalBiomassDiff = calculateTotalBiomass();
 		if (DEBUG)
 		{
@@ -2460,37 +3235,25 @@ public class FBAWorld extends World2D
 		 * to each calculation on each diffusion cycle.
 		 */
 		
-		double[][][] deltaDensity = new double[numModels][numCols][numRows];
-		double[][][] biomassDensity = new double[numModels][numCols][numRows];
+		// the world's fields are stepped in place
+		double[][][] deltaDensity = deltaBiomassField;
+		double[][][] biomassDensity = biomassField;
 		double[][] totalBiomassDensity = new double[numCols][numRows];
 		double[][][] biomassDensityIntermediate = new double[numModels][numCols][numRows];
 		double[][][] convectionRHS  = new double[numModels][numCols][numRows];
-		double[][][] convectionRHS1 = new double[numModels][numCols][numRows];
-		double[][][] convectionRHS2 = new double[numModels][numCols][numRows];
-		Iterator<Cell> it = c.getCells().iterator();
-		
+		double[][][] convectionRHS1 = convectionRHS1Field;
+		double[][][] convectionRHS2 = convectionRHS2Field;
 		
-		double dT = cParams.getTimeStep() * 3600; // time step is in hours, diffusion is in seconds
-		double dX = cParams.getSpaceWidth();
-		// capture the current biomass state
-		while (it.hasNext())
-		{
-			FBACell cell = (FBACell)it.next();
-			double[] biomass = cell.getBiomass();  // total biomass
-			double[] deltaBiomass = cell.getDeltaBiomass(); // biomass produced this step
-			//System.out.println(deltaBiomass[0]);
-			
-			int x = cell.getX();
-			int y = cell.getY();
-			totalBiomassDensity[x][y]=0.0;
-			for (int k=0; k<numModels; k++)
+		
+		double dT = cParams.getTimeStep() * 3600; // time step is in hours, diffusion is in seconds
+		double dX = cParams.getSpaceWidth();
+		// capture the current total biomass density
+		for (int k=0; k<numModels; k++)
+		{
+			for (int x=0; x<numCols; x++)
 			{
-				biomassDensity[k][x][y]=biomass[k];// - deltaBiomass[k];
-				totalBiomassDensity[x][y]+=biomassDensity[k][x][y];
-				deltaDensity[k][x][y]=deltaBiomass[k];
-				//growthRate[k][x][y]=deltaBiomass[k]/(dT*(biomass[k] - deltaBiomass[k]));
-				convectionRHS1[k][x][y]=cell.getConvectionRHS1()[k];
-				convectionRHS2[k][x][y]=cell.getConvectionRHS2()[k];
+				for (int y=0; y<numRows; y++)
+					totalBiomassDensity[x][y]+=biomassDensity[k][x][y];
 			}
 		}
 		
@@ -2694,47 +3457,7 @@ public class FBAWorld extends World2D
 			}
 		}
 		// update the world with the results.
-		
-		for (int i=0; i<numCols; i++)
-		{
-			for (int j=0; j<numRows; j++)
-			{
-				// if there's some value at biomassState[][i][j];
-				double[] newBiomass = new double[numModels];
-				double[] newConvectionRHS1=new double[numModels];
-				double[] newConvectionRHS2=new double[numModels];
-				
-				for (int k=0; k<numModels; k++)
-				{
-					newBiomass[k] = biomassDensity[k][i][j];
-					newConvectionRHS1[k]=convectionRHS1[k][i][j];
-					newConvectionRHS2[k]=convectionRHS2[k][i][j];
-					//System.out.println(i+","+j+"     "+biomassDensity[k][i][j]);
-				}
-			
-				if (Utility.hasNonzeroValue(newBiomass) || Utility.hasNonzeroValue(newConvectionRHS1) || Utility.hasNonzeroValue(newConvectionRHS1))
-				{
-					//System.out.println(i+"  "+j);
-					//System.out.println("OK");
-					if (isOccupied(i,j))
-					{
-						//System.out.println("OK1");
-						Cell cell = (Cell)getCellAt(i,j);
-						cell.setBiomass(newBiomass);
-						cell.setConvectionRHS1(newConvectionRHS1);
-						cell.setConvectionRHS2(newConvectionRHS2);
-					}
-					else // make a new Cell here
-					{   
-						//System.out.println("OK2");
-						Cell cell = new FBACell(i, j, newBiomass, this, (FBAModel[])models, cParams, pParams);
-						cell.setConvectionRHS1(newConvectionRHS1);
-						cell.setConvectionRHS2(newConvectionRHS2);
-						c.getCells().add(cell);
-					}
-				}
-			}
-		}
+		commitBiomassField(true);
 	}
 	
 	
@@ -3736,7 +4459,7 @@ public class FBAWorld extends World2D
 		 * The user will not be able to choose no overlap in the spatial cells.
 		 */
 		
-		double[][][] biomassOfModelsInCell = new double[numModels][numCols][numRows];
+		double[][][] biomassOfModelsInCell = biomassField; // stepped in place
 		double[][][][] fluxOfModelsInCell = new double[numModels][numCols][numRows][2];
 		double[][][] convectionRHS  = new double[numModels][numCols][numRows];
 		Iterator<Cell> it = c.getCells().iterator();
@@ -3745,16 +4468,15 @@ public class FBAWorld extends World2D
 		double dT = cParams.getTimeStep() * 3600; // time step is in hours, diffusion is in seconds
 		double dX = cParams.getSpaceWidth();
 		
-		// capture the current biomass state
+		// capture the current model fluxes
 		// The iterator goes over all spatial pixels 
 		// (unfortunately named cells, not biological, spatial cells)
-		// and checks if any biomass is present in them. 
+		// that hold biomass. 
 		// This way we don't waste time on empty cells.
 		
 		while (it.hasNext())
 		{
 			FBACell cell = (FBACell)it.next();
-			double[] biomass = cell.getBiomass();  // total local biomass from all models
 			double[][] flux = cell.getConvModelFluxes();
 			
 			int x = cell.getX();  //the spatial coordinates of the cell
@@ -3762,7 +4484,6 @@ public class FBAWorld extends World2D
 			
 			for (int k=0; k<numModels; k++)
 			{
-				biomassOfModelsInCell[k][x][y]=biomass[k]; //Global for all x and y filled up here
 				for(int l=0;l<2;l++)fluxOfModelsInCell[k][x][y][l]=flux[k][l];				
 			}
 		}
@@ -3844,39 +4565,9 @@ public class FBAWorld extends World2D
 				}
 			}
 			
-			// Update the world with the results.
-			for (int i=0; i<numCols; i++)
-			{
-				for (int j=0; j<numRows; j++)
-				{
-					double[] newBiomass = new double[numModels];
-					double[][] newFluxOfModelsInCell=new double[numModels][2];
-					
-					for (int k=0; k<numModels; k++)
-					{
-						newBiomass[k] = biomassOfModelsInCell[k][i][j];
-						for(int l=0;l<2;l++)newFluxOfModelsInCell[k][l]=fluxOfModelsInCell[k][i][j][l];
-					}
-					
-					if (Utility.hasNonzeroValue(newBiomass) || Utility.hasNonzeroValue(newFluxOfModelsInCell))
-					{
-						//Here we check if the cell in the grid has been created yet. 
-						//We don't create a cell until biomass or media gets into it. 
-						if (isOccupied(i,j))
-						{
-							Cell cell = (Cell)getCellAt(i,j);
-							cell.setBiomass(newBiomass);
-							cell.setConvModelFluxes(newFluxOfModelsInCell);
-						}
-						else // make a new Cell here
-						{   
-							Cell cell = new FBACell(i, j, newBiomass, this, (FBAModel[])models, cParams, pParams);
-							cell.setConvModelFluxes(newFluxOfModelsInCell);
-							c.getCells().add(cell);
-						}
-					}
-				}
-			}
+			// Update the world with the results. The model fluxes stay with their cells;
+			// new cells start with none.
+			commitBiomassField(false);
 		}
 		else // If the user input is no cell overlap in the parameters
 		{
@@ -4022,7 +4713,11 @@ public class FBAWorld extends World2D
 	{
 		int ret = PARAMS_OK;
 		if (pParams.getNumRunThreads() > 1)
+		{
+			profiler.begin(CycleProfiler.Phase.FBA, runThreads);
 			ret = runThreaded();
+			profiler.end();
+		}
 		else
 		{
 			if (DEBUG)
@@ -4039,19 +4734,21 @@ public class FBAWorld extends World2D
 			// 1. perform mutations
 			if (cParams.getEvolution())
 			{
+				profiler.begin(CycleProfiler.Phase.MUTATION);
 				if (cParams.getMutRate()>0)
 					mutateWorld(cParams.getMutRate(), cParams.getCellSize());
 				if (cParams.getAddRate()>0)
 					performAdditionsInWorld(cParams.getAddRate(), cParams.getCellSize());				
+				profiler.end();
 			}
 			
 			// 2. tell all the cells to run			
+			profiler.begin(CycleProfiler.Phase.FBA);
 			List<Cell> deadCells = new ArrayList<Cell>();
 			int[] randomCellOrder=new int[c.getCells().size()];
 			randomCellOrder=Utility.randomOrder(c.getCells().size());
 			
-			//Time the execution of the FBA algorithm
-			long t = System.currentTimeMillis();
+			cycleStats.reset(1, numModels);
 			for (int i = 0; i < c.getCells().size(); i++)
 			{
 				// System.out.println("running cell " + i + "...");
@@ -4060,12 +4757,13 @@ public class FBAWorld extends World2D
 				//System.out.println("Debug1");
 				int alive = cell.run();
 				//System.out.println("Debug2");
+				recordCellRun(0, (FBACell)cell, alive);
 				if (alive == Cell.CELL_DEAD)
 					deadCells.add(cell);
 				//System.out.println("running cell " + i + "...");
 				// println(" done!");
 			}
-			System.out.println("total_fba_time  " + (System.currentTimeMillis()-t));
+			cycleStats.combine();
 
 			// remove dead cells.
 			switch(pParams.getBiomassMotionStyle())
@@ -4085,52 +4783,57 @@ public class FBAWorld extends World2D
 					break;
 			}
 			deadCells.clear();
+			profiler.end();
 		}
+		profiler.addSolves(cycleStats.getNumSolves());
+		profiler.addDormantCells(cycleStats.getNumDormantCells(), cycleStats.getNumWokenCells());
 		
 		// 3. Run any extracellular reactions
 		//if (!reactionModel.isSetUp()) reactionModel.setup();
-		if (reactionModel.isSetUp()){
-			if (reactionModel.getWorld() != this) {
+		if (IWorld.getReactionModel().isSetUp()){
+			profiler.begin(CycleProfiler.Phase.REACTIONS, IWorld.getReactionModel().getPoolThreads());
+			if (IWorld.getReactionModel().getWorld() != this) {
 				//Replace the pointer for cases where old worlds are loaded, 
 				//or the initial world is not the one that is executing
-				reactionModel.reset();
-				reactionModel.setWorld(this);
-				reactionModel.setup();
+				IWorld.getReactionModel().reset();
+				IWorld.getReactionModel().setWorld(this);
+				IWorld.getReactionModel().setup();
+			}
+			if (pParams.getExRxnIntegrator() == FBAParameters.ExRxnIntegrator.CELL_RK4)
+				new RK4Runner(c).run();
+			else
+			{
+				ReactionModel reactions = IWorld.getReactionModel();
+				reactions.run();
+				profiler.addReactionSteps(reactions.getLastPointsRun(), reactions.getLastSteps(),
+						reactions.getLastRejections(), reactions.getLastStiffPoints(), reactions.getLastFailedPoints());
 			}
-			reactionModel.run();
+			profiler.end();
 		}
 		
 		// 4. diffuse media and biomass
 		//for (int i = 0; i < pParams.getNumDiffusionsPerStep(); i++)
 		//{
-		//Time the execution of the diffusion algorithms (biomass and media)
-		long time = System.currentTimeMillis();
+		profiler.begin(CycleProfiler.Phase.MEDIA_DIFFUSION);
 			if (diffuseContext)
 			{
 				if(pParams.getDefaultVelocityVector()[0]==0.0 && pParams.getDefaultVelocityVector()[1]==0.0)
 				{
-					System.out.println("Context");
-					System.out.println(pParams.getNumDiffusionsPerStep());
 					for(int i = 0; i< pParams.getNumDiffusionsPerStep(); i++)
 					{
 						diffuseMediaContext();
 					}		
-					System.out.println("Context");
 				}
 				else
 				{
-					System.out.println("Context");
-					System.out.println(pParams.getNumDiffusionsPerStep());
 					for(int i = 0; i< pParams.getNumDiffusionsPerStep(); i++)
 					{
 						diffuseMediaContext(pParams.getDefaultVelocityVector());
 					}		
-					System.out.println("Context");
 				}
 			}
 			else if(pParams.getDefaultVelocityVector()[0]!=0.0 || pParams.getDefaultVelocityVector()[1]!=0.0)
 			{
-				System.out.println("Flow.");
 				diffuseMediaFlow(pParams.getDefaultVelocityVector());
 			}
 			else
@@ -4143,7 +4846,9 @@ public class FBAWorld extends World2D
 				//	convectMedia(pParams.getDefaultVelocityVector());
 				//System.out.println("Fick");
 			}
+		profiler.end();
 			
+		profiler.begin(CycleProfiler.Phase.BIOMASS_MOTION);
 			switch (pParams.getBiomassMotionStyle())
 			{
 				case DIFFUSION_CN :
@@ -4168,11 +4873,12 @@ public class FBAWorld extends World2D
 					System.out.println("No biomass diffusion! Set the diffusion parameter to 'Diffusion 2D(Crank-Nicolson)', 'Diffusion 2D(Eight Point)' or 'Convection 2D'");
 					break;
 			}
-		System.out.println("total_diff_time  " + (System.currentTimeMillis()-time));	
+		profiler.end();
 			
 		//}
 
 		// 5. set static media
+		profiler.begin(CycleProfiler.Phase.BOUNDARY);
 		applyStaticMedia();
 		
 		// 6. apply metabolite dilution - this should go before media refresh, or else that will be diluted as well
@@ -4186,68 +4892,185 @@ public class FBAWorld extends World2D
 		{
 			applyPeriodicMedia(currentTimePoint*cParams.getTimeStep());
 		}
+		profiler.end();
 		
 		if (!cParams.isCommandLineOnly())
+		{
+			profiler.begin(CycleProfiler.Phase.UI);
 			updateInfoPanel();
+			profiler.end();
+		}
 
 				
 		
-		double[] totalBiomass = calculateTotalBiomass();
-		//int[] FBAstatus = getFBAstatus();
-		//TODO: Report if a model is infeasible
-		System.out.println ("Total biomass:");
+		// totals are taken once from the world's fields, after everything has moved
+		cycleStats.collectBiomass(biomassField);
+		cycleStats.collectMedia(media);
+		double[] totalBiomass = cycleStats.getTotalBiomass();
+		// with the profiler on, the totals go in its summary instead of a line per cycle
+		if (profiler.isEnabled())
+			profiler.setStatus(biomassSummary(totalBiomass));
+		else
+			System.out.println(biomassSummary(totalBiomass));
 		for (int i=0; i<totalBiomass.length; i++)
 		{
-			System.out.println("Model " + models[i].getModelID() + ": " + totalBiomass[i]);
-			//if (FBAstatus[i]==0)
-			//	System.out.println("   Model "+ i + " is infeasible");
+			int failed = cycleStats.getNumFailedRuns(i);
+			if (failed > 0)
+				System.out.println("   Model " + models[i].getModelID() + ": " + failed + " FBA runs without an optimal solution");
 		}
 
 		// 7. Remove models that have lower biomass than the minimal required
 		// (For now, do this only in simulations with evolution)
 		if (cParams.getEvolution())
 		{	
-			List<FBAModel> newModelsList = new ArrayList<FBAModel>();		
-			for (int i = 0; i < totalBiomass.length; i++)
-			{
-				if (totalBiomass[i] > cParams.getCellSize())					
-					newModelsList.add(models[i]);
-			}
-			
-			FBAModel[] newModels = new FBAModel[newModelsList.size()];
-			newModels = newModelsList.toArray(newModels);
-	
-			// now change models in cells as well as in world
-			for (Cell cell : c.getCells())
-			{
-				cell.changeModelsInCell(models, newModels);
-			}
-			
-			changeModelsInWorld(models, newModels);
-			setNumModels(newModels.length);
+			pruneModels(totalBiomass, cParams.getCellSize());
+			cycleStats.collectBiomass(biomassField);
 		}
+		if (pParams.getLazyOptimizers())
+			releaseExtinctOptimizers(cycleStats.getTotalBiomass());
+		if (terminationCheck != null && terminationCheck.isEnabled() && stopReason == null)
+			stopReason = terminationCheck.update(cycleStats.getTotalBiomass(), cycleStats.getTotalMedia(), cycleStats.allRunsFailed());
 		
 		
 		currentTimePoint++;
 		if (pParams.writeFluxLog() && currentTimePoint % pParams.getFluxLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_FLUX);
 			writeFluxLog();
+			profiler.end();
+		}
 		if (pParams.writeMediaLog() && currentTimePoint % pParams.getMediaLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_MEDIA);
 			writeMediaLog();
+			profiler.end();
+		}
 		if (pParams.writeBiomassLog() && currentTimePoint % pParams.getBiomassLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_BIOMASS);
 			writeBiomassLog();
+			profiler.end();
+		}
 		if (pParams.writeVelocityLog() && currentTimePoint % pParams.getVelocityLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_VELOCITY);
 			writeVelocityLog();
+			profiler.end();
+		}
 		if (pParams.writeVelocityMultiConvLog() && currentTimePoint % pParams.getVelocityMultiConvLogRate() == 0.0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_VELOCITY);
 		    writeMultiModelConvVelocityLog(); 
+			profiler.end();
+		}
 		if (pParams.writeTotalBiomassLog() && currentTimePoint % pParams.getTotalBiomassLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_TOTAL_BIOMASS);
 			writeTotalBiomassLog();
+			profiler.end();
+		}
 		if (pParams.writeSpecificMediaLog() && currentTimePoint % pParams.getSpecificMediaLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_SPECIFIC_MEDIA);
 			writeSpecificMediaLog();
+			profiler.end();
+		}
 		if (pParams.writeMatFile() && currentTimePoint % pParams.getMatFileRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_MAT);
 			writeMatFile();
+			profiler.end();
+		}
+		if (pParams.getCheckpointRate() > 0 && currentTimePoint % pParams.getCheckpointRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.CHECKPOINT);
+			writeCheckpoint();
+			profiler.end();
+		}
+		releaseLogSnapshot();
+		profiler.endCycle(currentTimePoint);
 		return ret;				
 	}
+
+	/**
+	 * @param totalBiomass the total biomass of each model
+	 * @return one line with the total biomass of each model, for the console
+	 */
+	private String biomassSummary(double[] totalBiomass)
+	{
+		StringBuilder line = new StringBuilder("Total biomass:");
+		for (int i=0; i<totalBiomass.length; i++)
+		{
+			line.append(i == 0 ? " " : ", ").append(models[i].getModelID()).append(' ').append(totalBiomass[i]);
+		}
+		return line.toString();
+	}
 	
+	/**
+	 * Removes the biomass of every model whose total is no more than minBiomass. The 
+	 * extinct models keep their place in the model array (cells skip models they have
+	 * no biomass of), and the array is only compacted once at least 
+	 * 1/MODEL_COMPACTION_RATIO of it is extinct. This way a cycle with a single 
+	 * extinction doesn't have to resize every cell and world field.
+	 * @param totalBiomass the total biomass of each model
+	 * @param minBiomass the biomass a model needs to survive
+	 */
+	public void pruneModels(double[] totalBiomass, double minBiomass)
+	{
+		List<FBAModel> newModelsList = new ArrayList<FBAModel>();
+		for (int i = 0; i < totalBiomass.length; i++)
+		{
+			if (totalBiomass[i] > minBiomass)
+				newModelsList.add(models[i]);
+			else if (totalBiomass[i] != 0)
+			{
+				for (double[] column : biomassField[i])
+					Arrays.fill(column, 0.0);
+			}
+		}
+		int numExtinct = models.length - newModelsList.size();
+		if (numExtinct == 0 || numExtinct * MODEL_COMPACTION_RATIO < models.length)
+			return;
+
+		FBAModel[] newModels = new FBAModel[newModelsList.size()];
+		newModels = newModelsList.toArray(newModels);
+
+		// now change models in cells as well as in world
+		for (Cell cell : c.getCells())
+		{
+			cell.changeModelsInCell(models, newModels);
+		}
+		
+		changeModelsInWorld(models, newModels);
+		setNumModels(newModels.length);
+	}
+
+	/**
+	 * Frees the solvers of models with no biomass left anywhere, in the world's models
+	 * and in each run thread's copies. A freed solver is built again if the model gets
+	 * biomass back, e.g. from a mutation or addition.
+	 * @param totalBiomass the total biomass of each model
+	 */
+	private void releaseExtinctOptimizers(double[] totalBiomass)
+	{
+		boolean[] extinct = new boolean[models.length];
+		boolean any = false;
+		for (int i = 0; i < models.length && i < totalBiomass.length; i++)
+		{
+			if (totalBiomass[i] == 0)
+			{
+				extinct[i] = true;
+				any = true;
+				models[i].releaseOptimizer();
+			}
+		}
+		if (any && runThreads != null)
+		{
+			for (FBARunThread thread : runThreads)
+				thread.releaseOptimizers(extinct);
+		}
+	}
+
 	public void applyPeriodicMedia(double time){
 		for (int k=0; k<numMedia; k++) {
 			if (this.periodicMedia.mediaIsSet[k]) {
@@ -4284,6 +5107,9 @@ public class FBAWorld extends World2D
 		 * runThreads[i].setName("FBARunThread-" + i); } for (int i=0;
 		 * i<runThreads.length; i++) { runThreads[i].start(); }
 		 */
+		// a worker that isn't waiting can take a cell as soon as it's added, so the
+		// statistics must be ready first
+		cycleStats.reset(runThreads.length, numModels);
 		int[] randomCellOrder=new int[c.getCells().size()];
 		randomCellOrder=Utility.randomOrder(c.getCells().size());
 		for(int i = 0; i < c.getCells().size(); i++)
@@ -4304,6 +5130,12 @@ public class FBAWorld extends World2D
 			// just a hack to make sure that the main thread
 			// doesn't jump ahead too far.
 		}
+		// every worker recorded its cells before calling finishedRunningCell(), which
+		// holds this lock, so taking it here makes all of their sums visible
+		synchronized (this)
+		{
+			cycleStats.combine();
+		}
 
 		// remove dead cells.
 		switch(pParams.getBiomassMotionStyle())
@@ -4326,6 +5158,59 @@ public class FBAWorld extends World2D
 		return 0;
 	}
 
+	/**
+	 * Adds a cell's FBA results to the given worker's share of this cycle's statistics.
+	 * Each worker only touches its own share, so this isn't synchronized.
+	 * @param worker the index of the calling worker (0 when running in the main thread)
+	 * @param cell the cell that just ran
+	 * @param returnCode the value returned by the cell's run()
+	 */
+	public void recordCellRun(int worker, FBACell cell, int returnCode)
+	{
+		boolean keepsDelta = returnCode != Cell.CELL_DEAD || 
+							 pParams.getBiomassMotionStyle() == FBAParameters.BiomassMotionStyle.CONVECTION_2D;
+		cycleStats.addCell(worker, cell, keepsDelta);
+	}
+
+	/**
+	 * @return why the simulation should end before maxCycles, or null if it has
+	 * something left to do
+	 * @see TerminationCheck
+	 */
+	public String getStopReason()
+	{
+		return stopReason;
+	}
+
+	/**
+	 * Writes why the simulation ended to the manifest file, if there is one.
+	 * @param reason
+	 */
+	public void recordStopReason(String reason)
+	{
+		File manifest = new File(pParams.getManifestFileName());
+		if (!manifest.exists())
+			return;
+		try
+		{
+			FileWriter manifestWriter = new FileWriter(manifest, true);
+			manifestWriter.write("StopReason: " + reason + System.getProperty("line.separator"));
+			manifestWriter.close();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write the stop reason to the manifest file.");
+		}
+	}
+
+	/**
+	 * @return the summary statistics of the most recent cycle
+	 */
+	public CycleStatistics getCycleStatistics()
+	{
+		return cycleStats;
+	}
+
 	/**
 	 * When an FBARunThread wants to signal that it's finished running a cell, it should call
 	 * this.
@@ -4373,12 +5258,36 @@ public class FBAWorld extends World2D
 	 */
 	private void writeFluxLog()
 	{
-		if (fluxLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getFluxLogRate() == 0)) // log writer is initialized
+		if ((fluxLogWriter != null || binaryFluxLog != null) && (currentTimePoint == 1 || currentTimePoint % pParams.getFluxLogRate() == 0)) // log writer is initialized
+		{
+			final LogSnapshot snapshot = takeLogSnapshot();
+			snapshot.takeCells(c.getCells(), models, seriesNames(), true);
+			submitLog(LOG_LANE_FLUX, snapshot, new Runnable() {
+				public void run()
+				{
+					formatFluxLog(snapshot);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Formats a snapshot into the flux log. Runs on a log writer thread.
+	 */
+	private void formatFluxLog(LogSnapshot s)
+	{
+		if (binaryFluxLog != null)
+			writeBinaryFluxLog(s);
+		boolean newPart = false;
+		if (fluxLogWriter != null)
+		{
+			String part = fluxLogFile.getFileName();
+			fluxLogWriter = fluxLogFile.writerFor(s.cycle);
+			newPart = !part.equals(fluxLogFile.getFileName());
+		}
+		if (fluxLogWriter != null)
 		{			
-			//NumberFormat nf = NumberFormat.getInstance();
-			//nf.setGroupingUsed(false);
-			//nf.setMaximumFractionDigits(4);
-			NumberFormat nf = new DecimalFormat("0.##########E0");
+			TextLogBuffer line = fluxText;
 
 			switch(pParams.getFluxLogFormat())
 			{
@@ -4388,11 +5297,9 @@ public class FBAWorld extends World2D
 					 * fluxes{time}{x}{y}{species} = [array];
 					 * so it'll be one bigass structure.
 					 */
-					Iterator<Cell> it = c.getCells().iterator();
-					while (it.hasNext())
+					for (int n = 0; n < s.numCells; n++)
 					{
-						FBACell cell = (FBACell)it.next();
-						double fluxes[][] = cell.getFluxes();
+						double fluxes[][] = s.fluxes[n];
 						if (fluxes == null)
 							continue; // fluxes uninitialized.
 						else
@@ -4401,12 +5308,12 @@ public class FBAWorld extends World2D
 							{
 								if (fluxes[i] != null)
 								{
-									fluxLogWriter.write("fluxes{" + (currentTimePoint) + "}{" + (cell.getX()+1) + "}{" + (cell.getY()+1) + "}{" + (i+1) + "} = [");
+									line.append("fluxes{").append(s.cycle).append("}{").append(s.cellX[n]+1).append("}{").append(s.cellY[n]+1).append("}{").append(i+1).append("} = [");
 									for (int j=0; j<fluxes[i].length; j++)
 									{
-										fluxLogWriter.write(nf.format(fluxes[i][j]) + " ");
+										line.appendScientific(fluxes[i][j]).append(' ');
 									}
-									fluxLogWriter.write("];\n");
+									line.append("];\n").writeTo(fluxLogWriter);
 								}
 							}
 						}
@@ -4419,24 +5326,54 @@ public class FBAWorld extends World2D
 					 * timepoint x y speciesNum1 flux1 flux2 ... fluxn\n
 					 * timepoint x y speciesNum2 flux1 flux2 ... fluxn\n
 					 */
-					it = c.getCells().iterator();
-					while (it.hasNext())
+					for (int n = 0; n < s.numCells; n++)
 					{
-						// blah print
-						FBACell cell = (FBACell)it.next();
-						double[][] fluxes = cell.getFluxes();
+						double[][] fluxes = s.fluxes[n];
+						if (fluxes == null)
+							continue;
 
 						for (int i=0; i<fluxes.length; i++) //fluxes[i][j] denotes flux j in species i
 						{
 							if (fluxes[i] == null) {
 								continue; // FBA hasn't run or model didn't grow
 							}
-							fluxLogWriter.print(currentTimePoint + " " + (cell.getX() +1) + " " + (cell.getY() + 1) + " " + (i + 1));
+							line.append(s.cycle).append(' ').append(s.cellX[n] + 1).append(' ').append(s.cellY[n] + 1).append(' ').append(i + 1);
 							for (int j=0; j<fluxes[i].length; j++)
 							{
-								fluxLogWriter.print(" " + nf.format(fluxes[i][j]));
+								line.append(' ').appendScientific(fluxes[i][j]);
 							}
-							fluxLogWriter.print("\n");
+							line.append('\n').writeTo(fluxLogWriter);
+						}
+					}
+					break;
+					
+				case SPARSE:
+					/* only the nonzero or changed fluxes from each cell, see SparseFluxLogWriter
+					 * format:
+					 * timepoint x y speciesNum K|D index:flux ...\n
+					 */
+					int[] numRxns = new int[s.reactionNames.length];
+					for (int k = 0; k < numRxns.length; k++)
+						numRxns[k] = s.reactionNames[k].length;
+					String header = sparseFluxLog.beginCycle(s.cycle, newPart, s.seriesNames, numRxns);
+					if (header != null)
+					{
+						// the models have changed: later parts of a split log start with the new header
+						fluxLogFile.setHeader(header);
+						fluxLogWriter.println(header);
+					}
+					for (int n = 0; n < s.numCells; n++)
+					{
+						double[][] fluxes = s.fluxes[n];
+						if (fluxes == null)
+							continue;
+
+						for (int i=0; i<fluxes.length; i++)
+						{
+							if (fluxes[i] == null)
+								continue; // FBA hasn't run or model didn't grow
+							sparseFluxLog.appendLine(line, s.cycle, s.cellX[n] + 1, s.cellY[n] + 1, i + 1, fluxes[i]);
+							line.writeTo(fluxLogWriter);
 						}
 					}
 					break;
@@ -4446,41 +5383,198 @@ public class FBAWorld extends World2D
 	}
 	
 	/**
-	 * Writes to the media log if it is the right time point. See documentation for the format.
+	 * Returns the name a model's data go under in the binary and streamed .mat logs. It's
+	 * the model's ID, unless another model has already taken that name, as when a layout
+	 * loads the same model file twice; then the first free "ID_2", "ID_3", ... is used.
+	 * A model keeps its name for the whole run, wherever it moves in the model array.
+	 * @param model
+	 * @return the model's series name
+	 */
+	private String seriesName(FBAModel model)
+	{
+		String name = modelSeriesNames.get(model);
+		if (name != null)
+			return name;
+		name = model.getModelID();
+		for (int n = 2; usedSeriesNames.contains(name); n++)
+			name = model.getModelID() + "_" + n;
+		usedSeriesNames.add(name);
+		modelSeriesNames.put(model, name);
+		return name;
+	}
+
+	/**
+	 * @return the series name of each model, in model order
+	 */
+	private String[] seriesNames()
+	{
+		String[] names = new String[models.length];
+		for (int k = 0; k < models.length; k++)
+			names[k] = seriesName(models[k]);
+		return names;
+	}
+
+	/**
+	 * Writes each model's fluxes at the cells where it ran as one series per model.
+	 */
+	private void writeBinaryFluxLog(LogSnapshot s)
+	{
+		try
+		{
+			int[] order = s.locationOrder(numRows);
+			binaryFluxLog.beginChunk((int) s.cycle);
+			for (int k = 0; k < s.modelIDs.length; k++)
+			{
+				String[] rxnNames = s.reactionNames[k];
+				int series = binaryFluxLog.series(s.seriesNames[k], "mmol/gDW/h", rxnNames);
+				BitSet present = new BitSet(numCols * numRows);
+				double[] values = new double[order.length * rxnNames.length];
+				int n = 0;
+				for (int cell : order)
+				{
+					double[][] fluxes = s.fluxes[cell];
+					if (fluxes == null || k >= fluxes.length || fluxes[k] == null)
+						continue; // FBA hasn't run or model didn't grow
+					present.set(s.cellX[cell] * numRows + s.cellY[cell]);
+					System.arraycopy(fluxes[k], 0, values, n, rxnNames.length);
+					n += rxnNames.length;
+				}
+				binaryFluxLog.writeSeries(series, present, values);
+			}
+			binaryFluxLog.endChunk();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write to the flux log: " + e.getMessage() + "\nContinuing without saving log.");
+			binaryFluxLog = null;
+		}
+	}
+	
+	/**
+	 * Writes each medium component's nonzero values as one series per component.
+	 */
+	private void writeBinaryMediaLog(LogSnapshot s)
+	{
+		try
+		{
+			binaryMediaLog.beginChunk((int) s.cycle);
+			double[] values = new double[numCols * numRows];
+			for (int k = 0; k < s.mediaNames.length; k++)
+			{
+				int series = binaryMediaLog.series(s.mediaNames[k], "mmol", new String[] { s.mediaNames[k] });
+				BitSet present = new BitSet(numCols * numRows);
+				int n = 0;
+				for (int i = 0; i < numCols; i++)
+				{
+					for (int j = 0; j < numRows; j++)
+					{
+						if (s.media[i][j][k] != 0)
+						{
+							present.set(i * numRows + j);
+							values[n++] = s.media[i][j][k];
+						}
+					}
+				}
+				binaryMediaLog.writeSeries(series, present, values);
+			}
+			binaryMediaLog.endChunk();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write to the media log: " + e.getMessage() + "\nContinuing without saving log.");
+			binaryMediaLog = null;
+		}
+	}
+	
+	/**
+	 * Writes each model's biomass at every cell as one series per model.
+	 */
+	private void writeBinaryBiomassLog(LogSnapshot s)
+	{
+		try
+		{
+			int[] order = s.locationOrder(numRows);
+			BitSet present = new BitSet(numCols * numRows);
+			for (int cell : order)
+				present.set(s.cellX[cell] * numRows + s.cellY[cell]);
+			binaryBiomassLog.beginChunk((int) s.cycle);
+			double[] values = new double[order.length];
+			for (int k = 0; k < s.modelIDs.length; k++)
+			{
+				int series = binaryBiomassLog.series(s.seriesNames[k], "g", new String[] { s.seriesNames[k] });
+				for (int n = 0; n < order.length; n++)
+					values[n] = s.biomass[k][s.cellX[order[n]]][s.cellY[order[n]]];
+				binaryBiomassLog.writeSeries(series, present, values);
+			}
+			binaryBiomassLog.endChunk();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write to the biomass log: " + e.getMessage() + "\nContinuing without saving log.");
+			binaryBiomassLog = null;
+		}
+	}
+	
+	/**
+	 * Writes to the media log if it is the right time point. See documentation for the format.
+	 */
+	private void writeMediaLog()
+	{
+		if ((mediaLogWriter != null || binaryMediaLog != null) && (currentTimePoint == 1 || currentTimePoint % pParams.getMediaLogRate() == 0))
+		{
+			final LogSnapshot snapshot = takeLogSnapshot();
+			snapshot.takeMedia(media, mediaNames);
+			submitLog(LOG_LANE_MEDIA, snapshot, new Runnable() {
+				public void run()
+				{
+					formatMediaLog(snapshot);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Formats a snapshot into the media log. Runs on a log writer thread.
 	 */
-	private void writeMediaLog()
+	private void formatMediaLog(LogSnapshot s)
 	{
-		if (mediaLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getMediaLogRate() == 0))
+		if (binaryMediaLog != null)
+			writeBinaryMediaLog(s);
+		if (mediaLogWriter != null)
+			mediaLogWriter = mediaLogFile.writerFor(s.cycle);
+		if (mediaLogWriter != null)
 		{
-			NumberFormat nf = new DecimalFormat("0.##########E0");
+			TextLogBuffer line = mediaText;
 
 			switch(pParams.getMediaLogFormat())
 			{
 				case MATLAB:
 				
-					for (int k=0; k<numMedia; k++)
+					for (int k=0; k<s.mediaNames.length; k++)
 					{
-						mediaLogWriter.println("media_" + currentTimePoint + "{" + (k+1) + "} = sparse(zeros(" + numCols + ", " + numRows + "));");
+						mediaLogWriter.println("media_" + s.cycle + "{" + (k+1) + "} = sparse(zeros(" + numCols + ", " + numRows + "));");
 						for (int i=0; i<numCols; i++)
 						{
 							for (int j=0; j<numRows; j++)
 							{
-								if (media[i][j][k] != 0)
-									mediaLogWriter.println("media_" + currentTimePoint + "{" + (k+1) + "}(" + (i+1) + ", " + (j+1) + ") = " + nf.format(media[i][j][k]) + ";");
+								if (s.media[i][j][k] != 0)
+									line.append("media_").append(s.cycle).append('{').append(k+1).append("}(").append(i+1).append(", ").append(j+1)
+											.append(") = ").appendScientific(s.media[i][j][k]).append(';').endLine().writeTo(mediaLogWriter);
 							}
 						}
 					}
 					break;
 					
 				case COMETS:
-					for (int k=0; k<numMedia; k++)
+					for (int k=0; k<s.mediaNames.length; k++)
 					{
 						for (int i=0; i<numCols; i++)
 						{
 							for (int j=0; j<numRows; j++)
 							{
-								if (media[i][j][k] != 0)
-									mediaLogWriter.println(mediaNames[k] + " " + (currentTimePoint) + " " + (i+1) + " " + (j+1) + " " + nf.format(media[i][j][k]));
+								if (s.media[i][j][k] != 0)
+									line.append(s.mediaNames[k]).append(' ').append(s.cycle).append(' ').append(i+1).append(' ').append(j+1)
+											.append(' ').appendScientific(s.media[i][j][k]).endLine().writeTo(mediaLogWriter);
 							}
 						}
 					}
@@ -4494,21 +5588,37 @@ public class FBAWorld extends World2D
 	 * writes the specific media log
 	 */
 	private void writeSpecificMediaLog(){
+		if (specificMediaLogWriter == null)
+			return;
+		final LogSnapshot snapshot = takeLogSnapshot();
+		snapshot.takeMedia(media, mediaNames);
+		submitLog(LOG_LANE_SPECIFIC_MEDIA, snapshot, new Runnable() {
+			public void run()
+			{
+				formatSpecificMediaLog(snapshot);
+			}
+		});
+	}
+	
+	/**
+	 * Formats a snapshot into the specific media log. Runs on a log writer thread.
+	 */
+	private void formatSpecificMediaLog(LogSnapshot s){
+		specificMediaLogWriter = specificMediaLogFile.writerFor(s.cycle);
+		if (specificMediaLogWriter == null)
+			return;
 		System.out.println("WRITING SPECIFIC MEDIA LOG");
-		String cycle = String.valueOf(currentTimePoint); 
-		
-		
-		NumberFormat nf = new DecimalFormat("0.##########E0");
+		TextLogBuffer line = specificMediaText;
 		// go through all media at all locations, print if desired
 		for (int i=0; i<numCols; i++)
 		{
 			for (int j=0; j<numRows; j++)
 			{
-				String print_line = cycle + "\t" + i + "\t" + j + "\t";
+				line.append(s.cycle).append('\t').append(i).append('\t').append(j).append('\t');
 				for (int k : specificMediaNums){
-					print_line = print_line + nf.format(media[i][j][k]) + "\t";
+					line.appendScientific(s.media[i][j][k]).append('\t');
 				}
-				specificMediaLogWriter.println(print_line);
+				line.endLine().writeTo(specificMediaLogWriter);
 			}
 		}
 		specificMediaLogWriter.flush();
@@ -4520,12 +5630,32 @@ public class FBAWorld extends World2D
 	 */
 	private void writeBiomassLog()
 	{
-		if (biomassLogWriter != null)// && (currentTimePoint == 1 || currentTimePoint % pParams.getBiomassLogRate() == 0))
+		if (biomassLogWriter != null || binaryBiomassLog != null)// && (currentTimePoint == 1 || currentTimePoint % pParams.getBiomassLogRate() == 0))
+		{
+			final LogSnapshot snapshot = takeLogSnapshot();
+			snapshot.takeBiomass(biomassField);
+			snapshot.takeCells(c.getCells(), models, seriesNames(), false);
+			submitLog(LOG_LANE_BIOMASS, snapshot, new Runnable() {
+				public void run()
+				{
+					formatBiomassLog(snapshot);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Formats a snapshot into the biomass log. Runs on a log writer thread.
+	 */
+	private void formatBiomassLog(LogSnapshot s)
+	{
+		if (binaryBiomassLog != null)
+			writeBinaryBiomassLog(s);
+		if (biomassLogWriter != null)
+			biomassLogWriter = biomassLogFile.writerFor(s.cycle);
+		if (biomassLogWriter != null)
 		{
-			//NumberFormat nf = NumberFormat.getInstance();
-			//nf.setGroupingUsed(false);
-			//nf.setMaximumFractionDigits(100);
-			NumberFormat nf = new DecimalFormat("0.##########E0");
+			TextLogBuffer line = biomassText;
 			
 			switch(pParams.getBiomassLogFormat())
 			{
@@ -4536,39 +5666,34 @@ public class FBAWorld extends World2D
 				 * and so on.
 				 */
 				case MATLAB:
-					for (int i=0; i<models.length; i++)
+					for (int i=0; i<s.modelIDs.length; i++)
 					{
-						String varName = "biomass_" + currentTimePoint + "_" + i;
+						String varName = "biomass_" + s.cycle + "_" + i;
 						biomassLogWriter.println(varName + " = sparse(" + numRows + ", " + numCols + ");");
-						Iterator<Cell> it = c.getCells().iterator();
-						while (it.hasNext())
+						double[][] biomass = s.biomass[i];
+						for (int n = 0; n < s.numCells; n++)
 						{
-							FBACell cell = (FBACell)it.next();
-							double[] biomass = cell.getBiomass();
-							biomassLogWriter.println(varName + "(" + (cell.getY()+1) + ", " + (cell.getX()+1) + ") = " + nf.format(biomass[i]) + ";");
+							line.append(varName).append('(').append(s.cellY[n]+1).append(", ").append(s.cellX[n]+1).append(") = ")
+									.appendScientific(biomass[s.cellX[n]][s.cellY[n]]).append(';').endLine().writeTo(biomassLogWriter);
 						}
 					}
 					break;
 					
 				case COMETS:
 
-					Iterator<Cell> it = c.getCells().iterator();					
-
 					/*
 					* Biomass log format for simulations with evolution:
 					* timepoint x y modelID biomass
 					* [One line written for each timepoint, cell and model]
 					*/
-					while (it.hasNext())
+					for (int n = 0; n < s.numCells; n++)
 					{
-						FBACell cell = (FBACell)it.next();
-						double[] biomass = cell.getBiomass();
-						String[] modelIDs = cell.getCellModelIDs();
-						for (int i=0; i<biomass.length; i++)
+						for (int i=0; i<s.modelIDs.length; i++)
 						{
-							biomassLogWriter.print(currentTimePoint + " " 
-									+ cell.getX() + " " + cell.getY() + " " 
-									+ modelIDs[i] + " " + nf.format(biomass[i]) + "\n");
+							line.append(s.cycle).append(' ')
+									.append(s.cellX[n]).append(' ').append(s.cellY[n]).append(' ')
+									.append(s.modelIDs[i]).append(' ').appendScientific(s.biomass[i][s.cellX[n]][s.cellY[n]]).append('\n')
+									.writeTo(biomassLogWriter);
 						}
 					}
 										
@@ -4585,16 +5710,15 @@ public class FBAWorld extends World2D
 	 */
 	private void writeVelocityLog()
 	{
+		if (velocityLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getVelocityLogRate() == 0))
+			velocityLogWriter = velocityLogFile.writerFor(currentTimePoint);
 		if (velocityLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getVelocityLogRate() == 0)) // log writer is initialized
 		{			
 			double velocities[][][][]=new double[numModels][numCols][numRows][2];
 			double[][][] biomassDensity = new double[numModels][numCols][numRows];
 			double[][] totalBiomassDensity = new double[numCols][numRows];
 			double[][][] frictionField = new double[numModels][numCols][numRows];
-			//NumberFormat nf = NumberFormat.getInstance();
-			//nf.setGroupingUsed(false);
-			//nf.setMaximumFractionDigits(4);
-			NumberFormat nf = new DecimalFormat("0.##########E0");
+			TextLogBuffer line = velocityText;
 			Iterator<Cell> it = c.getCells().iterator();
 			double dX = cParams.getSpaceWidth();
 			
@@ -4652,12 +5776,12 @@ public class FBAWorld extends World2D
 							{
 								if (velocities[k] != null && totalBiomassDensity[i][j] != 0.0)
 								{
-									velocityLogWriter.write("velocities{" + (currentTimePoint) + "}{" + (k+1) + "}{" + (i+1) + "}{" + (j+1) + "} = [");
+									line.append("velocities{").append(currentTimePoint).append("}{").append(k+1).append("}{").append(i+1).append("}{").append(j+1).append("} = [");
 									for (int l=0; l<2; l++)
 									{
-										velocityLogWriter.write(nf.format(velocities[k][i][j][l]) + " ");
+										line.appendScientific(velocities[k][i][j][l]).append(' ');
 									}
-									velocityLogWriter.write("];\n");
+									line.append("];\n").writeTo(velocityLogWriter);
 								}
 							}
 						}
@@ -4680,12 +5804,12 @@ public class FBAWorld extends World2D
 							{
 								if (velocities[k] != null && totalBiomassDensity[i][j] != 0.0)
 								{
-									velocityLogWriter.print((i +1) + " " + (j + 1) + " " + (k + 1));
+									line.append(i + 1).append(' ').append(j + 1).append(' ').append(k + 1);
 									for (int l=0; l<2; l++)
 									{
-										velocityLogWriter.print(" " + nf.format(velocities[k][i][j][l]));
+										line.append(' ').appendScientific(velocities[k][i][j][l]);
 									}
-									velocityLogWriter.print("\n");
+									line.append('\n').writeTo(velocityLogWriter);
 								}
 							}
 						}
@@ -4697,6 +5821,8 @@ public class FBAWorld extends World2D
 	}
 	
 	private void writeMultiModelConvVelocityLog() {
+	    if (this.velocityMultiConvLogWriter != null)
+	      this.velocityMultiConvLogWriter = this.velocityMultiConvLogFile.writerFor(this.currentTimePoint);
 	    if (this.velocityMultiConvLogWriter != null && (this.currentTimePoint == 1L || this.currentTimePoint % this.pParams.getVelocityMultiConvLogRate() == 0)) {
 	      double[][][][] velocities = new double[this.numModels][this.numCols][this.numRows][2];
 	      double[][][] biomassDensity = new double[this.numModels][this.numCols][this.numRows];
@@ -4706,7 +5832,7 @@ public class FBAWorld extends World2D
 	      double[] pressureKappa = new double[this.numModels];
 	      double[] pressureExponent = new double[this.numModels];
 	      double[] packBiomass = new double[this.numModels];
-	      NumberFormat nf = new DecimalFormat("0.##########E0");
+	      TextLogBuffer line = this.velocityMultiConvText;
 	      Iterator<Cell> it = this.c.getCells().iterator();
 	      double dX = this.cParams.getSpaceWidth();
 	      while (it.hasNext()) {
@@ -4736,10 +5862,10 @@ public class FBAWorld extends World2D
 	            for (int i = 0; i < this.numCols; i++) {
 	              for (int j = 0; j < this.numRows; j++) {
 	                if (velocities[k] != null && totalBiomassDensity[i][j] != 0.0D) {
-	                  this.velocityMultiConvLogWriter.write("velocities{" + this.currentTimePoint + "}{" + (k + 1) + "}{" + (i + 1) + "}{" + (j + 1) + "} = [");
+	                  line.append("velocities{").append(this.currentTimePoint).append("}{").append(k + 1).append("}{").append(i + 1).append("}{").append(j + 1).append("} = [");
 	                  for (int l = 0; l < 2; l++)
-	                    this.velocityMultiConvLogWriter.write(String.valueOf(nf.format(velocities[k][i][j][l])) + " "); 
-	                  this.velocityMultiConvLogWriter.write("];\n");
+	                    line.appendScientific(velocities[k][i][j][l]).append(' '); 
+	                  line.append("];\n").writeTo(this.velocityMultiConvLogWriter);
 	                } 
 	              } 
 	            } 
@@ -4750,10 +5876,10 @@ public class FBAWorld extends World2D
 	            for (int i = 0; i < this.numCols; i++) {
 	              for (int j = 0; j < this.numRows; j++) {
 	                if (velocities[k] != null && totalBiomassDensity[i][j] != 0.0D) {
-	                  this.velocityMultiConvLogWriter.write(String.valueOf(this.currentTimePoint) + " " + (k + 1) + " " + (i + 1) + " " + (j + 1) + " ");
+	                  line.append(this.currentTimePoint).append(' ').append(k + 1).append(' ').append(i + 1).append(' ').append(j + 1).append(' ');
 	                  for (int l = 0; l < 2; l++)
-	                    this.velocityMultiConvLogWriter.write(String.valueOf(nf.format(velocities[k][i][j][l])) + " "); 
-	                  this.velocityMultiConvLogWriter.write("\n");
+	                    line.appendScientific(velocities[k][i][j][l]).append(' '); 
+	                  line.append('\n').writeTo(this.velocityMultiConvLogWriter);
 	                } 
 	              } 
 	            } 
@@ -4774,22 +5900,37 @@ public class FBAWorld extends World2D
 	{
 		if (totalBiomassLogWriter != null)
 		{
-			//NumberFormat nf = NumberFormat.getInstance();
-			//nf.setGroupingUsed(false);
-			//nf.setMaximumFractionDigits(100);
-			NumberFormat nf = new DecimalFormat("0.##########E0");
-			
-			double[] curBiomass = calculateTotalBiomass();
-			
-			totalBiomassLogWriter.print(currentTimePoint);
-			for (int i=0; i<curBiomass.length; i++)
-			{
-				totalBiomassLogWriter.print("\t" + nf.format(curBiomass[i]));
-			}
-			totalBiomassLogWriter.println();
-			
-			totalBiomassLogWriter.flush();
+			final LogSnapshot snapshot = takeLogSnapshot();
+			snapshot.takeTotalBiomass(cycleStats.getTotalBiomass());
+			submitLog(LOG_LANE_TOTAL_BIOMASS, snapshot, new Runnable() {
+				public void run()
+				{
+					formatTotalBiomassLog(snapshot);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Formats a snapshot into the total biomass log. Runs on a log writer thread.
+	 */
+	private void formatTotalBiomassLog(LogSnapshot s)
+	{
+		totalBiomassLogWriter = totalBiomassLogFile.writerFor(s.cycle);
+		if (totalBiomassLogWriter == null)
+			return;
+		TextLogBuffer line = totalBiomassText;
+		
+		double[] curBiomass = s.totalBiomass;
+		
+		line.append(s.cycle);
+		for (int i=0; i<curBiomass.length; i++)
+		{
+			line.append('\t').appendScientific(curBiomass[i]);
 		}
+		line.endLine().writeTo(totalBiomassLogWriter);
+		
+		totalBiomassLogWriter.flush();
 	}
 
 	/**
@@ -4798,114 +5939,227 @@ public class FBAWorld extends World2D
 	 */
 	private void writeMatFile()
 	{
-		if (matFileWriter != null)
+		if (matFileWriter != null || matStream != null)
 		{
-			
-			for(int i=0; i<models.length; i++)
-			{   	
-				//First do the biomass
-				int[] dimsBiomass=new int[]{cParams.getNumRows(), cParams.getNumCols()};
-				String varNameBiomass="biomass_time_"+currentTimePoint+"_model_"+i;
-				MLDouble biomassML=new MLDouble(varNameBiomass,dimsBiomass);
-				
-				Iterator<Cell> it = c.getCells().iterator();
-				while (it.hasNext())
+			final LogSnapshot snapshot = takeLogSnapshot();
+			snapshot.takeBiomass(biomassField);
+			snapshot.takeCells(c.getCells(), models, seriesNames(), true);
+			snapshot.takeTotalBiomass(cycleStats.getTotalBiomass());
+			snapshot.takeMedia(media, mediaNames);
+			submitLog(LOG_LANE_MAT, snapshot, new Runnable() {
+				public void run()
 				{
-					FBACell cell = (FBACell)it.next();
-					double[] biomass = cell.getBiomass();
-					biomassML.set(biomass[i],cell.getX()+cell.getY()*dimsBiomass[1]);
-				}
-				try
-				{   
-					matFileWriter.write(biomassML);
+					if (matStream != null)
+						streamMatFile(snapshot);
+					else
+						formatMatFile(snapshot);
 				}
-				catch (IOException e)
+			});
+		}
+	}
+
+	/**
+	 * Adds a snapshot to the streamed .mat log's arrays. Runs on a log writer thread.
+	 * <p>
+	 * The arrays are cycles(t), total_biomass(model, t), media(x, y, medium, t), and for
+	 * each model biomass_model_n(x, y, t) and fluxes_model_n(x, y, reaction, t), where n
+	 * counts models in the order they first appear, from 0. The char arrays model_ids and
+	 * media_names give the model and medium of each row. An array that would pass the
+	 * 4 GB limit of the format goes on in fluxes_model_n_2 and so on, which hold the
+	 * cycles after it.
+	 */
+	private void streamMatFile(LogSnapshot s)
+	{
+		try
+		{
+			matStream.beginSlice();
+			matStream.variable("cycles", new int[] { 1 }).put(s.cycle);
+
+			// keep each model's number when models are added or removed
+			int[] slots = new int[s.seriesNames.length];
+			for (int i = 0; i < slots.length; i++)
+			{
+				Integer slot = matModelSlots.get(s.seriesNames[i]);
+				if (slot == null)
 				{
-					System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "'\nContinuing without saving log.");
-				}
-				
-				
-				// Do the fluxes	
-
-				FBACell zeroCell= (FBACell) c.getCells().get(0);
-				//System.out.println(zeroCell);
-				//System.out.println(zeroCell.getFluxes()[i].length);
-				int[] dimsFlux=new int[]{cParams.getNumCols(), cParams.getNumRows(),zeroCell.getFluxes()[i].length};
-				String varNameFlux="fluxes_time_"+currentTimePoint+"_model_"+i;
-				MLDouble fluxesML=new MLDouble(varNameFlux,dimsFlux);				
-				double[][] fluxes=new double[zeroCell.getBiomass().length][zeroCell.getFluxes()[i].length];
-				
-				for(int k=0;k<zeroCell.getFluxes()[i].length; k++)fluxes[i][k]=0.0;
-					
-				Iterator<Cell> itFluxes = c.getCells().iterator();
-			
-				while (itFluxes.hasNext())
+					slot = matModelSlots.size();
+					matModelSlots.put(s.seriesNames[i], slot);
+				}
+				slots[i] = slot;
+			}
+			double[] totalBiomass = new double[matModelSlots.size()];
+			for (int i = 0; i < slots.length; i++)
+				totalBiomass[slots[i]] = s.totalBiomass[i];
+			MatStreamWriter.Variable v = matStream.variable("total_biomass", null);
+			for (double b : totalBiomass)
+				v.put(b);
+
+			int numMedia = s.media[0][0].length;
+			v = matStream.variable("media", new int[] { numCols, numRows, numMedia });
+			for (int k = 0; k < numMedia; k++)
+				for (int y = 0; y < numRows; y++)
+					for (int x = 0; x < numCols; x++)
+						v.put(s.media[x][y][k]);
+
+			// which snapshot cell, if any, is at each location
+			int[][] cellAt = new int[numCols][numRows];
+			for (int[] column : cellAt)
+				Arrays.fill(column, -1);
+			for (int n = 0; n < s.numCells; n++)
+				cellAt[s.cellX[n]][s.cellY[n]] = n;
+
+			for (int i = 0; i < slots.length; i++)
+			{
+				v = matStream.variable("biomass_model_" + slots[i], new int[] { numCols, numRows });
+				for (int y = 0; y < numRows; y++)
+					for (int x = 0; x < numCols; x++)
+						v.put(s.biomass[i][x][y]);
+
+				int numRxns = s.reactionNames[i].length;
+				v = matStream.variable("fluxes_model_" + slots[i], new int[] { numCols, numRows, numRxns });
+				for (int j = 0; j < numRxns; j++)
 				{
-					FBACell cell = (FBACell)itFluxes.next();
-					if(cell.getFluxes()[0]!=null)
+					for (int y = 0; y < numRows; y++)
 					{
-						fluxes = cell.getFluxes();						
-						for(int j=0; j<cell.getFluxes()[i].length; j++)
+						for (int x = 0; x < numCols; x++)
 						{
-							fluxesML.set(fluxes[i][j],cell.getX()+cell.getY()*dimsFlux[0]+j*dimsFlux[0]*dimsFlux[1]);
+							int n = cellAt[x][y];
+							double[][] fluxes = n < 0 ? null : s.fluxes[n];
+							v.put(fluxes != null && fluxes[i] != null ? fluxes[i][j] : 0);
 						}
 					}
 				}
-			
-				try
-				{   	
-					matFileWriter.write(fluxesML);
-				}
-				catch (IOException e)
-				{
-					System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "'\nContinuing without saving log.");
-				}
-				
 			}
+
+			String[] ids = new String[matModelSlots.size()];
+			for (Map.Entry<String, Integer> entry : matModelSlots.entrySet())
+				ids[entry.getValue()] = entry.getKey();
+			matStream.setText("model_ids", ids);
+			matStream.setText("media_names", s.mediaNames);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "': " + e.getMessage() + "\nContinuing without saving log.");
+			try
+			{
+				// keep the cycles written so far
+				matStream.close();
+			}
+			catch (IOException closeError)
+			{
+				System.out.println("Unable to finish .mat file '" + pParams.getMatFileName() + "': " + closeError.getMessage());
+			}
+			matStream = null;
+		}
+	}
+	
+	/**
+	 * Writes a snapshot into the .mat file. Runs on a log writer thread.
+	 */
+	private void formatMatFile(LogSnapshot s)
+	{
+		for(int i=0; i<s.modelIDs.length; i++)
+		{   	
+			//First do the biomass
+			int[] dimsBiomass=new int[]{cParams.getNumRows(), cParams.getNumCols()};
+			String varNameBiomass="biomass_time_"+s.cycle+"_model_"+i;
+			MLDouble biomassML=new MLDouble(varNameBiomass,dimsBiomass);
 			
-			//Do the total biomass
-			//double[] curTotalBiomass = calculateTotalBiomass();
-			
-			//int[] dimsBiomass=new int[]{cParams.getNumRows(), cParams.getNumCols()};
-			String varNameTotalBiomass="total_biomass_time_"+currentTimePoint;
-			//System.out.print(models.length);
-			int[] dimsTotalBiomass=new int[]{models.length,1};
-			MLDouble totalBiomassML=new MLDouble(varNameTotalBiomass,dimsTotalBiomass);
-			double[] totalBiomass=new double[models.length];
-			totalBiomass = calculateTotalBiomass();
-			for(int i=0;i<models.length;i++)
+			double[][] biomass = s.biomass[i];
+			for (int x = 0; x < numCols; x++)
 			{
-				totalBiomassML.set(totalBiomass[i],i);
+				for (int y = 0; y < numRows; y++)
+				{
+					if (biomass[x][y] != 0)
+						biomassML.set(biomass[x][y], x+y*dimsBiomass[1]);
+				}
 			}
 			try
 			{   
-				matFileWriter.write(totalBiomassML);
+				matFileWriter.write(biomassML);
 			}
 			catch (IOException e)
 			{
 				System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "'\nContinuing without saving log.");
-			}	
+			}
+			
 			
-			//Do the media
-			int[] dimsMedia=new int[]{cParams.getNumCols(), cParams.getNumRows(),media[0][0].length};
-			String varNameMedia="media_time_"+currentTimePoint;
-			MLDouble mediaML=new MLDouble(varNameMedia,dimsMedia);								
+			// Do the fluxes	
+
+			double[][] zeroFluxes = s.fluxes[0];
+			//System.out.println(zeroCell);
+			//System.out.println(zeroFluxes[i].length);
+			int[] dimsFlux=new int[]{cParams.getNumCols(), cParams.getNumRows(),zeroFluxes[i].length};
+			String varNameFlux="fluxes_time_"+s.cycle+"_model_"+i;
+			MLDouble fluxesML=new MLDouble(varNameFlux,dimsFlux);				
+			double[][] fluxes=new double[s.modelIDs.length][zeroFluxes[i].length];
 			
-			for(int i=0; i<cParams.getNumCols();i++)
-				for(int j=0; j<cParams.getNumRows();j++)
-					for(int k=0; k<media[0][0].length; k++)
+			for(int k=0;k<zeroFluxes[i].length; k++)fluxes[i][k]=0.0;
+				
+			for (int n = 0; n < s.numCells; n++)
+			{
+				if(s.fluxes[n] != null && s.fluxes[n][0]!=null)
+				{
+					fluxes = s.fluxes[n];						
+					for(int j=0; j<fluxes[i].length; j++)
 					{
-						mediaML.set(media[i][j][k],i+j*cParams.getNumCols()+k*cParams.getNumCols()*cParams.getNumRows());
+						fluxesML.set(fluxes[i][j],s.cellX[n]+s.cellY[n]*dimsFlux[0]+j*dimsFlux[0]*dimsFlux[1]);
 					}
-			
+				}
+			}
+		
 			try
 			{   	
-				matFileWriter.write(mediaML);
+				matFileWriter.write(fluxesML);
 			}
 			catch (IOException e)
 			{
 				System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "'\nContinuing without saving log.");
 			}
+			
+		}
+		
+		//Do the total biomass
+		//double[] curTotalBiomass = calculateTotalBiomass();
+		
+		//int[] dimsBiomass=new int[]{cParams.getNumRows(), cParams.getNumCols()};
+		String varNameTotalBiomass="total_biomass_time_"+s.cycle;
+		//System.out.print(models.length);
+		int[] dimsTotalBiomass=new int[]{s.modelIDs.length,1};
+		MLDouble totalBiomassML=new MLDouble(varNameTotalBiomass,dimsTotalBiomass);
+		double[] totalBiomass = s.totalBiomass;
+		for(int i=0;i<s.modelIDs.length;i++)
+		{
+			totalBiomassML.set(totalBiomass[i],i);
+		}
+		try
+		{   
+			matFileWriter.write(totalBiomassML);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "'\nContinuing without saving log.");
+		}	
+		
+		//Do the media
+		int[] dimsMedia=new int[]{cParams.getNumCols(), cParams.getNumRows(),s.media[0][0].length};
+		String varNameMedia="media_time_"+s.cycle;
+		MLDouble mediaML=new MLDouble(varNameMedia,dimsMedia);								
+		
+		for(int i=0; i<cParams.getNumCols();i++)
+			for(int j=0; j<cParams.getNumRows();j++)
+				for(int k=0; k<s.media[0][0].length; k++)
+				{
+					mediaML.set(s.media[i][j][k],i+j*cParams.getNumCols()+k*cParams.getNumCols()*cParams.getNumRows());
+				}
+		
+		try
+		{   	
+			matFileWriter.write(mediaML);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write to .mat file '" + pParams.getMatFileName() + "'\nContinuing without saving log.");
 		}
 	}
 	
@@ -5748,10 +7002,9 @@ public class FBAWorld extends World2D
 				 * we approximate with a gaussian distribution with mean np and 
 				 * variance np(1-p)
 				 */
-				Random r = new Random();
 				double current_mean = (totalBiomass[i]/cellBiomass) * dilution;
 				double current_sd = Math.sqrt((totalBiomass[i]/cellBiomass) * dilution * (1-dilution));				
-				dilutedBiomass[i] = (r.nextGaussian()*current_sd+current_mean)*cellBiomass;
+				dilutedBiomass[i] = (Utility.randomGaussian()*current_sd+current_mean)*cellBiomass;
 			} else {
 				// biomass diluted by sampling from number of cells stochastically
 				dilutedBiomass[i] = samplePopulation((int)Math.round(totalBiomass[i]/cellBiomass), dilution)* cellBiomass; 	// DJORDJE version		
@@ -5875,6 +7128,7 @@ public class FBAWorld extends World2D
 
 		int[] nCells = new int[totalDeltaBiomass.length];
 		int[] nMut = new int[totalDeltaBiomass.length];
+		MutantBatch batch = new MutantBatch();
 
 		// Loop over all species 
 		for (int a=0; a<totalDeltaBiomass.length; a++)
@@ -5889,7 +7143,7 @@ public class FBAWorld extends World2D
 
 				nMut[a] = samplePopulation(nCells[a], currentDelRate);
 				
-				// 3. if any mutation in model a, clone models and perform mutations,
+				// 3. if any mutation in model a, make mutants and pick the cells they appear in
 				if (nMut[a]>0)
 				{
 					// determine where (in space) will mutations happen using a map to sample cells
@@ -5897,53 +7151,18 @@ public class FBAWorld extends World2D
 					for (Cell cell : c.getCells())
 					{
 						toMutate.add(cell.getBiomass()[a], cell);
-						break;
 					}
 
-					// perform mutations and place them in cells
 					for (int i=0; i<nMut[a]; i++)
 					{
-						FBAModel mutModel = ((FBAModel)models[a]).clone();
-						
-						// perform mutations and write new genotypes to log 
+						FBAModel mutModel = ((FBAModel)models[a]).createMutant();
 						mutModel.mutateModel();
-						// Jean added flag to check if genome costs are present
-						if  (pParams.getCostlyGenome())
-							mutModel.setGenomeCost(pParams.getGeneFractionalCost());
-						else
-							mutModel.setGenomeCost(0);
-						mutModel.setModelID(UUID.randomUUID().toString());
-						mutModel.setAncestor(models[a].getModelID());
-						evolutionLogWriter.print(mutModel.getAncestor() + " " 
-								+ mutModel.getMutation() + " " + mutModel.getModelID() 
-								+ "\n");
-						evolutionLogWriter.flush();
-												
-						Model[] newModels = (Model[])ArrayUtils.addAll(models, mutModel);
-						
-						// include the model in all cells, initially with biomass zero
-						for (Cell cell : c.getCells())
-						{
-							cell.changeModelsInCell(models, newModels);
-						}
-						
-						// find the cell where the mutation actually happens
-						Cell cellToMutate = toMutate.next();
-						double[] newValues = cellToMutate.getBiomass();
-						
-						newValues[a] = newValues[a] - cell_biomass;
-						newValues[newValues.length-1] = cell_biomass;
-						
-						// change the biomass
-						cellToMutate.setBiomass(newValues);
-
-						// update world		
-						changeModelsInWorld(models, newModels);
-						setNumModels(newModels.length);
+						batch.add(a, mutModel, toMutate.next());
 					}					
 				}
 			}
 		}
+		addMutantsToWorld(batch, cell_biomass);
 			
 		// System.out.println("INDS: " + Arrays.toString(nCells));
 		// System.out.println("MUTS: " + Arrays.toString(nMut));
@@ -5955,6 +7174,7 @@ public class FBAWorld extends World2D
 		double[] totalDeltaBiomass = calculateDeltaBiomass();	
 		int[] nCells = new int[totalDeltaBiomass.length];
 		int[] nMut = new int[totalDeltaBiomass.length];
+		MutantBatch batch = new MutantBatch();
 
 		// Loop over all species 
 		for (int a=0; a<totalDeltaBiomass.length; a++)
@@ -5970,7 +7190,7 @@ public class FBAWorld extends World2D
 				// 2. compute number of new cells and number of mutations in each species 
 				nMut[a] = samplePopulation(nCells[a], addition_rate);
 				
-				// 3. if any mutation in model a, clone models and perform mutations,
+				// 3. if any mutation in model a, make mutants and pick the cells they appear in
 				if (nMut[a]>0)
 				{
 					// determine where will mutations happen by building a map to sample cells
@@ -5980,53 +7200,324 @@ public class FBAWorld extends World2D
 						toMutate.add(cell.getBiomass()[a], cell);
 					}
 
-					// perform mutations and place them in cells
 					for (int i=0; i<nMut[a]; i++)
 					{
-						FBAModel mutModel = ((FBAModel)models[a]).clone();
-												
+						FBAModel mutModel = ((FBAModel)models[a]).createMutant();
 						mutModel.addReactionToModel();
-						// Jean added flag to check if genome costs are present
-						if  (pParams.getCostlyGenome())
-							mutModel.setGenomeCost(pParams.getGeneFractionalCost());
-						else
-							mutModel.setGenomeCost(0);
-						mutModel.setModelID(UUID.randomUUID().toString());
-						mutModel.setAncestor(models[a].getModelID());
-						evolutionLogWriter.print(mutModel.getAncestor() + " " 
-								+ mutModel.getMutation() + " " + mutModel.getModelID() 
-								+ "\n");
-						evolutionLogWriter.flush();
-						
-						Model[] newModels = (Model[])ArrayUtils.addAll(models, mutModel);
-						
-						// include the model in all cells, initially with biomass zero
-						for (Cell cell : c.getCells())
-						{
-							cell.changeModelsInCell(models, newModels);
-						}
-						
-						// find the cell where the mutation actually happens
-						Cell cellToMutate = toMutate.next();
-						double[] newValues = cellToMutate.getBiomass();
-						
-						newValues[a] = newValues[a] - cell_biomass;
-						newValues[newValues.length-1] = cell_biomass;
-						
-						// change the biomass
-						cellToMutate.setBiomass(newValues);
-
-						// update world
-						changeModelsInWorld(models, newModels);
-						setNumModels(newModels.length);
+						batch.add(a, mutModel, toMutate.next());
 					}					
 				}
 			}
 		}			
+		addMutantsToWorld(batch, cell_biomass);
 		// System.out.println("INDS: " + Arrays.toString(nCells));
 		// System.out.println("MUTS: " + Arrays.toString(nMut));
 	}
 
+	/**
+	 * A copy of the parts of the world that the logs of one cycle are written from, so
+	 * the log writer threads never read fields the next cycle is changing. Only the parts
+	 * some log asked for are copied. Snapshots go back to a pool once every log using
+	 * them is written, and their arrays are reused when the sizes still match.
+	 */
+	private static class LogSnapshot
+	{
+		private long cycle;
+		private AtomicInteger users = new AtomicInteger();
+		private double[][][] media;					// [x][y][medium]
+		private String[] mediaNames;
+		private double[][][] biomass;				// [model][x][y]
+		private int numCells;
+		private int[] cellX = new int[0],
+					  cellY = new int[0];
+		private double[][][] fluxes = new double[0][][];	// [cell][model][reaction], null where FBA hasn't run
+		private String[] modelIDs;
+		private String[] seriesNames;				// unique per model, unlike the IDs
+		private String[][] reactionNames;
+		private double[] totalBiomass;
+		private boolean hasMedia, hasBiomass, hasCells, hasFluxes;
+
+		/**
+		 * Starts a new cycle, with the caller holding the only reference.
+		 */
+		private void reset(long cycle)
+		{
+			this.cycle = cycle;
+			hasMedia = hasBiomass = hasCells = hasFluxes = false;
+			totalBiomass = null;
+			users.set(1);
+		}
+
+		private void retain()
+		{
+			users.incrementAndGet();
+		}
+
+		/**
+		 * @return true if that was the last reference, so the snapshot can be reused
+		 */
+		private boolean release()
+		{
+			return users.decrementAndGet() == 0;
+		}
+
+		private void takeMedia(double[][][] src, String[] names)
+		{
+			if (hasMedia)
+				return;
+			media = copy(src, media);
+			mediaNames = names.clone();
+			hasMedia = true;
+		}
+
+		private void takeBiomass(double[][][] src)
+		{
+			if (hasBiomass)
+				return;
+			biomass = copy(src, biomass);
+			hasBiomass = true;
+		}
+
+		private void takeTotalBiomass(double[] totals)
+		{
+			if (totalBiomass == null)
+				totalBiomass = totals.clone();
+		}
+
+		/**
+		 * Copies the cells' locations in list order, the model IDs and series names and,
+		 * if withFluxes is true, each cell's fluxes and the models' reaction names.
+		 */
+		private void takeCells(List<Cell> cells, Model[] models, String[] names, boolean withFluxes)
+		{
+			if (!hasCells)
+			{
+				numCells = cells.size();
+				if (cellX.length < numCells)
+				{
+					cellX = new int[numCells];
+					cellY = new int[numCells];
+				}
+				for (int n = 0; n < numCells; n++)
+				{
+					cellX[n] = cells.get(n).getX();
+					cellY[n] = cells.get(n).getY();
+				}
+				modelIDs = new String[models.length];
+				for (int k = 0; k < models.length; k++)
+					modelIDs[k] = ((FBAModel) models[k]).getModelID();
+				seriesNames = names;
+				hasCells = true;
+			}
+			if (withFluxes && !hasFluxes)
+			{
+				if (fluxes.length < numCells)
+					fluxes = Arrays.copyOf(fluxes, numCells);
+				for (int n = 0; n < numCells; n++)
+				{
+					double[][] src = ((FBACell) cells.get(n)).getFluxes();
+					if (src == null)
+					{
+						fluxes[n] = null;
+						continue;
+					}
+					if (fluxes[n] == null || fluxes[n].length != src.length)
+						fluxes[n] = new double[src.length][];
+					for (int k = 0; k < src.length; k++)
+					{
+						if (src[k] == null)
+							fluxes[n][k] = null;
+						else if (fluxes[n][k] != null && fluxes[n][k].length == src[k].length)
+							System.arraycopy(src[k], 0, fluxes[n][k], 0, src[k].length);
+						else
+							fluxes[n][k] = src[k].clone();
+					}
+				}
+				reactionNames = new String[models.length][];
+				for (int k = 0; k < models.length; k++)
+					reactionNames[k] = ((FBAModel) models[k]).getReactionNames();
+				hasFluxes = true;
+			}
+		}
+
+		/**
+		 * @return the cell indices sorted by location number, x*numRows + y, which is
+		 * the order binary logs store them in
+		 */
+		private int[] locationOrder(final int numRows)
+		{
+			Integer[] order = new Integer[numCells];
+			for (int n = 0; n < numCells; n++)
+				order[n] = n;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b)
+				{
+					return Integer.compare(cellX[a] * numRows + cellY[a], cellX[b] * numRows + cellY[b]);
+				}
+			});
+			int[] result = new int[numCells];
+			for (int n = 0; n < numCells; n++)
+				result[n] = order[n];
+			return result;
+		}
+
+		private static double[][][] copy(double[][][] src, double[][][] dst)
+		{
+			if (dst == null || dst.length != src.length)
+				dst = new double[src.length][][];
+			for (int i = 0; i < src.length; i++)
+			{
+				if (dst[i] == null || dst[i].length != src[i].length)
+					dst[i] = new double[src[i].length][];
+				for (int j = 0; j < src[i].length; j++)
+				{
+					if (dst[i][j] == null || dst[i][j].length != src[i][j].length)
+						dst[i][j] = src[i][j].clone();
+					else
+						System.arraycopy(src[i][j], 0, dst[i][j], 0, src[i][j].length);
+				}
+			}
+			return dst;
+		}
+	}
+
+	/**
+	 * @return the snapshot for the current cycle, starting a new one if needed
+	 */
+	private LogSnapshot takeLogSnapshot()
+	{
+		if (logSnapshot != null && logSnapshot.cycle == currentTimePoint)
+			return logSnapshot;
+		releaseLogSnapshot();
+		LogSnapshot snapshot = snapshotPool.poll();
+		if (snapshot == null)
+			snapshot = new LogSnapshot();
+		snapshot.reset(currentTimePoint);
+		logSnapshot = snapshot;
+		return snapshot;
+	}
+
+	/**
+	 * Drops the simulation's reference to the current snapshot. Call this once all of
+	 * a cycle's logs have been submitted.
+	 */
+	private void releaseLogSnapshot()
+	{
+		if (logSnapshot != null && logSnapshot.release())
+			snapshotPool.offer(logSnapshot);
+		logSnapshot = null;
+	}
+
+	/**
+	 * Hands a log writing task to the pipeline. The snapshot is kept out of the pool
+	 * until the task is done with it.
+	 * @param lane one of the LOG_LANE_ constants, so each file is written by one thread in order
+	 */
+	private void submitLog(int lane, final LogSnapshot snapshot, final Runnable task)
+	{
+		if (logPipeline == null)
+			logPipeline = new LogPipeline(0, 1);
+		snapshot.retain();
+		logPipeline.submit(lane, new Runnable() {
+			public void run()
+			{
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					if (snapshot.release())
+						snapshotPool.offer(snapshot);
+				}
+			}
+		});
+	}
+
+	/**
+	 * The mutants made during one call to mutateWorld() or performAdditionsInWorld(),
+	 * with the index of each one's ancestor and the cell it appears in.
+	 */
+	private static class MutantBatch
+	{
+		private List<Integer> ancestors = new ArrayList<Integer>();
+		private List<FBAModel> mutants = new ArrayList<FBAModel>();
+		private List<Cell> hosts = new ArrayList<Cell>();
+
+		private void add(int ancestor, FBAModel mutant, Cell host)
+		{
+			ancestors.add(ancestor);
+			mutants.add(mutant);
+			hosts.add(host);
+		}
+
+		private int size()
+		{
+			return mutants.size();
+		}
+	}
+
+	/**
+	 * Adds a batch of mutants to the world all at once: the model array grows once, each
+	 * cell and the world's fields are resized once, and the evolution log is written
+	 * in a single block. Each mutant then takes cell_biomass from its ancestor in its
+	 * host cell.
+	 * @param batch the mutants to add
+	 * @param cell_biomass the biomass of a single mutant cell
+	 */
+	private void addMutantsToWorld(MutantBatch batch, double cell_biomass)
+	{
+		if (batch.size() == 0)
+			return;
+
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < batch.size(); i++)
+		{
+			FBAModel mutModel = batch.mutants.get(i);
+			// Jean added flag to check if genome costs are present
+			if  (pParams.getCostlyGenome())
+				mutModel.setGenomeCost(pParams.getGeneFractionalCost());
+			else
+				mutModel.setGenomeCost(0);
+			mutModel.setModelID(Utility.randomUUID().toString());
+			mutModel.setAncestor(models[batch.ancestors.get(i)].getModelID());
+			log.append(mutModel.getAncestor() + " " 
+					+ mutModel.getMutation() + " " + mutModel.getModelID() 
+					+ "\n");
+		}
+		evolutionLogWriter.print(log);
+		evolutionLogWriter.flush();
+
+		int firstNew = models.length;
+		Model[] newModels = new Model[firstNew + batch.size()];
+		System.arraycopy(models, 0, newModels, 0, firstNew);
+		for (int i = 0; i < batch.size(); i++)
+			newModels[firstNew + i] = batch.mutants.get(i);
+
+		// include the models in all cells, initially with biomass zero
+		for (Cell cell : c.getCells())
+		{
+			cell.changeModelsInCell(models, newModels);
+		}
+
+		// update world (this also grows the biomass field the cells read from)
+		changeModelsInWorld(models, newModels);
+		setNumModels(newModels.length);
+
+		// move one cell's worth of biomass from each ancestor to its mutant
+		for (int i = 0; i < batch.size(); i++)
+		{
+			Cell cellToMutate = batch.hosts.get(i);
+			double[] newValues = cellToMutate.getBiomass();
+
+			newValues[batch.ancestors.get(i)] -= cell_biomass;
+			newValues[firstNew + i] = cell_biomass;
+
+			// change the biomass
+			cellToMutate.setBiomass(newValues);
+		}
+	}
+
 	@Override
 	public void setParameters(CometsParameters cParams) {
 		this.cParams = cParams;
@@ -10,7 +10,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.text.DateFormat;
-import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -39,10 +38,12 @@ import edu.bu.segrelab.comets.PackageParameters;
 import edu.bu.segrelab.comets.World2D;
 import edu.bu.segrelab.comets.World3D;
 import edu.bu.segrelab.comets.util.Circle;
+import edu.bu.segrelab.comets.util.TextLogBuffer;
 import edu.bu.segrelab.comets.util.Utility;
 
 import edu.bu.segrelab.comets.fba.FBAParameters;
 import edu.bu.segrelab.comets.reaction.RK4Runner;
+import edu.bu.segrelab.comets.reaction.ReactionModel;
 
 import java.io.*;
 
@@ -87,12 +88,18 @@ implements CometsConstants
 	// see the SpaceInfoPanel inner class below
 
 	private FBARunThread3D[] runThreads;			// array of run threads
+	private CycleProfiler profiler = new CycleProfiler(false, 1, null);	// times the phases of each cycle
 	private ThreadGroup threadGroup;			// thread group that they all belong to
 
 	private PrintWriter mediaLogWriter,	
 	fluxLogWriter,
 	biomassLogWriter,
 	totalBiomassLogWriter;
+	private LogFile mediaLogFile,				// open the writers above, compressed for names ending in .gz
+	fluxLogFile,
+	biomassLogFile,
+	totalBiomassLogFile;
+	private TextLogBuffer mediaText = new TextLogBuffer();
 
 	private Set<Circle> circleSet;
 
@@ -208,17 +215,48 @@ implements CometsConstants
 		//Intialize the random number generator. Two rnds are used. 
 		Utility.randomSetSeed(pParams.getRandomSeed());
 
+		if (c.getResumeFileName() != null || pParams.getCheckpointRate() > 0)
+		{
+			System.out.println("Checkpoints are only available for 2D worlds. Starting from the beginning without them.");
+			c.setResumeFileName(null);
+		}
+
 		currentTimePoint = 0;
 		DateFormat df = new SimpleDateFormat("_yyyyMMddHHmmss");
 		String timeStamp = df.format(new Date()); 
 
+		profiler.close(currentTimePoint);
+		profiler = CycleProfiler.open(pParams, adjustLogFileName(pParams.getMetricsLogName(), timeStamp));
+
+		// The binary and sparse log formats are only written by the 2D world so far
+		if (pParams.getFluxLogFormat() == FBAParameters.LogFormat.BINARY 
+				|| pParams.getFluxLogFormat() == FBAParameters.LogFormat.SPARSE 
+				|| pParams.getMediaLogFormat() == FBAParameters.LogFormat.BINARY
+				|| pParams.getMediaLogFormat() == FBAParameters.LogFormat.SPARSE
+				|| pParams.getBiomassLogFormat() == FBAParameters.LogFormat.BINARY
+				|| pParams.getBiomassLogFormat() == FBAParameters.LogFormat.SPARSE)
+		{
+			System.out.println("Binary and sparse logs are not available for 3D worlds. Writing them in the COMETS format instead.");
+			if (pParams.getFluxLogFormat() == FBAParameters.LogFormat.BINARY
+					|| pParams.getFluxLogFormat() == FBAParameters.LogFormat.SPARSE)
+				pParams.setFluxLogFormat(FBAParameters.LogFormat.COMETS);
+			if (pParams.getMediaLogFormat() == FBAParameters.LogFormat.BINARY
+					|| pParams.getMediaLogFormat() == FBAParameters.LogFormat.SPARSE)
+				pParams.setMediaLogFormat(FBAParameters.LogFormat.COMETS);
+			if (pParams.getBiomassLogFormat() == FBAParameters.LogFormat.BINARY
+					|| pParams.getBiomassLogFormat() == FBAParameters.LogFormat.SPARSE)
+				pParams.setBiomassLogFormat(FBAParameters.LogFormat.COMETS);
+		}
+
 		// Init Flux log and write the first line
 		if (pParams.writeFluxLog())
 		{
 			String name = adjustLogFileName(pParams.getFluxLogName(), timeStamp);
 			try
 			{
-				fluxLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				fluxLogFile = new LogFile(name, pParams);
+				fluxLogWriter = fluxLogFile.open();
+				name = fluxLogFile.getFileName();
 				writeFluxLog();
 				//Write the file name in the manifest file.
 				try
@@ -245,15 +283,19 @@ implements CometsConstants
 			String name = adjustLogFileName(pParams.getMediaLogName(), timeStamp);
 			try
 			{
-				mediaLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				mediaLogFile = new LogFile(name, pParams);
+				mediaLogWriter = mediaLogFile.open();
+				name = mediaLogFile.getFileName();
 
 				// init the media log writer.
-				mediaLogWriter.print("media_names = { '" + mediaNames[0] + "'");
+				String header = "media_names = { '" + mediaNames[0] + "'";
 				for (int i=1; i<mediaNames.length; i++)
 				{
-					mediaLogWriter.print(", '" + mediaNames[i] + "'");
+					header += ", '" + mediaNames[i] + "'";
 				}
-				mediaLogWriter.println("};");
+				header += "};";
+				mediaLogFile.setHeader(header);
+				mediaLogWriter.println(header);
 				writeMediaLog();
 				//Write the file name in the manifest file.
 				try
@@ -280,7 +322,9 @@ implements CometsConstants
 			String name = adjustLogFileName(pParams.getBiomassLogName(), timeStamp);
 			try
 			{
-				biomassLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				biomassLogFile = new LogFile(name, pParams);
+				biomassLogWriter = biomassLogFile.open();
+				name = biomassLogFile.getFileName();
 				writeBiomassLog();
 				//Write the file name in the manifest file.
 				try
@@ -307,7 +351,9 @@ implements CometsConstants
 			String name = adjustLogFileName(pParams.getTotalBiomassLogName(), timeStamp);
 			try
 			{
-				totalBiomassLogWriter = new PrintWriter(new FileWriter(new File(name)));
+				totalBiomassLogFile = new LogFile(name, pParams);
+				totalBiomassLogWriter = totalBiomassLogFile.open();
+				name = totalBiomassLogFile.getFileName();
 				writeTotalBiomassLog();
 				//Write the file name in the manifest file.
 				try
@@ -334,6 +380,7 @@ implements CometsConstants
 	 */
 	public void endSimulation()
 	{
+		profiler.close(currentTimePoint);
 		if (fluxLogWriter != null)
 		{
 			fluxLogWriter.flush();
@@ -349,6 +396,9 @@ implements CometsConstants
 			biomassLogWriter.flush();
 			biomassLogWriter.close();
 		}
+		// compressed logs are only complete once they're closed
+		if (totalBiomassLogWriter != null)
+			totalBiomassLogWriter.close();
 	}
 
 	/**
@@ -372,7 +422,7 @@ implements CometsConstants
 			else
 				name = name.substring(0, idx) + timeStamp + name.substring(idx);
 		}
-		return name;
+		return LogFile.forSimulation(name, cParams.getLogNameTag(), cParams.getLogDirectory());
 	}
 
 	/**
@@ -468,12 +518,12 @@ implements CometsConstants
 		}
 		
 		//preserve metabolites which are involved in extracellular reactions
-		IWorld.reactionModel.setWorld(this);
-		IWorld.reactionModel.reset();
-		IWorld.reactionModel.setup();
+		IWorld.getReactionModel().setWorld(this);
+		IWorld.getReactionModel().reset();
+		IWorld.getReactionModel().setup();
 		//String[] exRxnMets = IWorld.reactionModel.getMediaNames();
 		//if (exRxnMets == null || exRxnMets.length < 1) exRxnMets = IWorld.reactionModel.getInitialMetNames();
-		String[] exRxnMets = IWorld.reactionModel.getInitialMetNames();
+		String[] exRxnMets = IWorld.getReactionModel().getInitialMetNames();
 		if (exRxnMets != null){
 			for (int i = 0; i < exRxnMets.length; i++){
 				if (!mediaNamesMap.keySet().contains(exRxnMets[i])){
@@ -2140,7 +2190,9 @@ implements CometsConstants
 		int ret = PARAMS_OK;
 		if (pParams.getNumRunThreads() > 1)
 		{	
+			profiler.begin(CycleProfiler.Phase.FBA, runThreads);
 			ret = runThreaded();
+			profiler.end();
 		}
 		else
 		{
@@ -2156,6 +2208,7 @@ implements CometsConstants
 			// models = (FBAModel[])c.getModels();
 
 			// 2. tell all the cells to run
+			profiler.begin(CycleProfiler.Phase.FBA);
 			List<Cell> deadCells = new ArrayList<Cell>();
 			for (int i = 0; i < c.getCells().size(); i++)
 			{ 
@@ -2185,25 +2238,41 @@ implements CometsConstants
 				break;
 			}
 			deadCells.clear();
+			profiler.end();
 		}
+		if (profiler.isEnabled())
+			profiler.addSolves(countSolves());
 
 
 		// 3. Run any extracellular reactions
 		//if (!reactionModel.isSetUp()) reactionModel.setup();
-		if (reactionModel.isSetUp()){
-			if (reactionModel.getWorld() != this) {
+		if (IWorld.getReactionModel().isSetUp()){
+			profiler.begin(CycleProfiler.Phase.REACTIONS, IWorld.getReactionModel().getPoolThreads());
+			if (IWorld.getReactionModel().getWorld() != this) {
 				//Replace the pointer for cases where old worlds are loaded, 
 				//or the initial world is not the one that is executing
-				reactionModel.reset();
-				reactionModel.setWorld(this);
-				reactionModel.setup();
+				IWorld.getReactionModel().reset();
+				IWorld.getReactionModel().setWorld(this);
+				IWorld.getReactionModel().setup();
 			}
-			reactionModel.run();
+			if (pParams.getExRxnIntegrator() == FBAParameters.ExRxnIntegrator.CELL_RK4)
+				new RK4Runner(c).run();
+			else
+			{
+				ReactionModel reactions = IWorld.getReactionModel();
+				reactions.run();
+				profiler.addReactionSteps(reactions.getLastPointsRun(), reactions.getLastSteps(),
+						reactions.getLastRejections(), reactions.getLastStiffPoints(), reactions.getLastFailedPoints());
+			}
+			profiler.end();
 		}
 		
 		// 4. diffuse media and biomass
+		profiler.begin(CycleProfiler.Phase.MEDIA_DIFFUSION);
 		diffuseMediaFick();
+		profiler.end();
 		//diffuseBiomass(pParams.getBiomassMotionStyle());
+		profiler.begin(CycleProfiler.Phase.BIOMASS_MOTION);
 		switch (pParams.getBiomassMotionStyle())
 		{
 		case DIFFUSION_3D :
@@ -2221,32 +2290,73 @@ implements CometsConstants
 			//				    default :
 			//					    break;
 		}
+		profiler.end();
 
 		// 5. set static media
+		profiler.begin(CycleProfiler.Phase.BOUNDARY);
 		applyStaticMedia();
 
 		// 6. refresh media, if we're supposed to.
 		refreshMedia();
+		profiler.end();
 
 		double[] totalBiomass = calculateTotalBiomass();
-		System.out.println ("Total biomass:");
+		StringBuilder line = new StringBuilder("Total biomass:");
 		for (int i=0; i<totalBiomass.length; i++)
 		{
-			System.out.println("Model " + i + ": " + totalBiomass[i]);
+			line.append(i == 0 ? " " : ", ").append("Model ").append(i).append(' ').append(totalBiomass[i]);
 		}
+		System.out.println(line);
 
 		currentTimePoint++;
 		if (pParams.writeFluxLog() && currentTimePoint % pParams.getFluxLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_FLUX);
 			writeFluxLog();
+			profiler.end();
+		}
 		if (pParams.writeMediaLog() && currentTimePoint % pParams.getMediaLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_MEDIA);
 			writeMediaLog();
+			profiler.end();
+		}
 		if (pParams.writeBiomassLog() && currentTimePoint % pParams.getBiomassLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_BIOMASS);
 			writeBiomassLog();
+			profiler.end();
+		}
 		if (pParams.writeTotalBiomassLog() && currentTimePoint % pParams.getTotalBiomassLogRate() == 0)
+		{
+			profiler.begin(CycleProfiler.Phase.LOG_TOTAL_BIOMASS);
 			writeTotalBiomassLog();
+			profiler.end();
+		}
+		profiler.endCycle(currentTimePoint);
 		return ret;
 	}
 
+	/**
+	 * @return the number of FBA problems the cells solved in the last FBA step
+	 */
+	private int countSolves()
+	{
+		int n = 0;
+		for (Cell cell : c.getCells())
+		{
+			int[] status = ((FBACell) cell).getFBAstatus();
+			if (status == null || ((FBACell) cell).wasDormant())
+				continue;
+			for (int s : status)
+			{
+				if (s != FBACell.FBA_NOT_RUN)
+					n++;
+			}
+		}
+		return n;
+	}
+
 	/**
 	 * Performs the FBA phase of the simulation run using the <code>FBARunThread</code> group.
 	 * If there are no threads, it makes them first, then runs them. This also removes
@@ -2352,6 +2462,8 @@ implements CometsConstants
 	private void writeFluxLog()
 	{
 		if (fluxLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getFluxLogRate() == 0)) // log writer is initialized
+			fluxLogWriter = fluxLogFile.writerFor(currentTimePoint);
+		if (fluxLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getFluxLogRate() == 0))
 		{			
 			NumberFormat nf = NumberFormat.getInstance();
 			nf.setGroupingUsed(false);
@@ -2431,9 +2543,11 @@ implements CometsConstants
 	 */
 	private void writeMediaLog()
 	{
+		if (mediaLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getMediaLogRate() == 0))
+			mediaLogWriter = mediaLogFile.writerFor(currentTimePoint);
 		if (mediaLogWriter != null && (currentTimePoint == 1 || currentTimePoint % pParams.getMediaLogRate() == 0))
 		{
-			NumberFormat nf = new DecimalFormat("0.##########E0");
+			TextLogBuffer line = mediaText;
 
 			switch(pParams.getMediaLogFormat())
 			{
@@ -2449,7 +2563,8 @@ implements CometsConstants
 								for (int l = 0; l < numLayers; l++)
 								{
 									if (media[i][j][l][k] != 0)
-										mediaLogWriter.println("media_" + currentTimePoint + "{" + (k+1) + "}(" + (i+1) + ", " + (j+1) + ") = " + nf.format(media[i][j][k]) + ";");
+										line.append("media_").append(currentTimePoint).append('{').append(k+1).append("}(").append(i+1).append(", ").append(j+1)
+												.append(") = ").appendScientific(media[i][j][l][k]).append(';').endLine().writeTo(mediaLogWriter);
 								}
 							}
 						}
@@ -2466,7 +2581,8 @@ implements CometsConstants
 								for (int l = 0; l < numLayers; l++)
 								{
 									if (media[i][j][l][k] != 0)
-										mediaLogWriter.println(mediaNames[k] + " " + (currentTimePoint+1) + " " + (i+1) + " " + (j+1) + " " + nf.format(media[i][j][k]));
+										line.append(mediaNames[k]).append(' ').append(currentTimePoint+1).append(' ').append(i+1).append(' ').append(j+1)
+												.append(' ').appendScientific(media[i][j][l][k]).endLine().writeTo(mediaLogWriter);
 								}
 								
 							}
@@ -2484,6 +2600,8 @@ implements CometsConstants
 	 */
 	private void writeBiomassLog()
 	{
+		if (biomassLogWriter != null)
+			biomassLogWriter = biomassLogFile.writerFor(currentTimePoint);
 		if (biomassLogWriter != null)// && (currentTimePoint == 1 || currentTimePoint % pParams.getBiomassLogRate() == 0))
 		{
 			NumberFormat nf = NumberFormat.getInstance();
@@ -2545,6 +2663,8 @@ implements CometsConstants
 	 */
 	private void writeTotalBiomassLog()
 	{
+		if (totalBiomassLogWriter != null)
+			totalBiomassLogWriter = totalBiomassLogFile.writerFor(currentTimePoint);
 		if (totalBiomassLogWriter != null)
 		{
 			NumberFormat nf = NumberFormat.getInstance();
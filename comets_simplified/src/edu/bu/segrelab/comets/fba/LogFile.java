@@ -0,0 +1,237 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import edu.bu.segrelab.comets.util.BlockGzipOutputStream;
+
+/**
+ * LogFile
+ * -------
+ * Opens the PrintWriter for one of <code>FBAWorld</code>'s text logs.
+ * <p>
+ * A log whose name ends in ".gz" is gzip compressed, at the level given by
+ * logCompressionLevel. It's written in blocks of logCompressionBlockSize kB, each a
+ * complete gzip member, so a log from a job that was killed can still be read up to
+ * its last finished block.
+ * <p>
+ * If logSplitCycles is more than 0, a new file is started every logSplitCycles cycles.
+ * Each part has the cycles it holds in its name, so "flux_log.txt.gz" split every 100
+ * cycles is written as "flux_log_cycles0-99.txt.gz", "flux_log_cycles100-199.txt.gz"
+ * and so on. A header set with <code>setHeader()</code> is repeated at the top of
+ * every part after the first.
+ * <p>
+ * <code>mark()</code> gives the position reached by the log, which a checkpoint keeps,
+ * and <code>resume()</code> cuts the log back to that position and carries on from there.
+ */
+public class LogFile
+{
+	public static final String GZIP_SUFFIX = ".gz";
+
+	private String name;
+	private int compressionLevel;
+	private int blockSize;
+	private int splitCycles;
+	private String header;
+	private PrintWriter writer;
+	private BlockGzipOutputStream gzip;
+	private String partName;
+	private long partStart;
+
+	public LogFile(String name, FBAParameters pParams)
+	{
+		this.name = name;
+		compressionLevel = pParams.getLogCompressionLevel();
+		blockSize = pParams.getLogCompressionBlockSize() * 1024;
+		splitCycles = pParams.getLogSplitCycles();
+	}
+
+	/**
+	 * Opens the file that holds cycle 0.
+	 * @return the writer
+	 * @throws IOException
+	 */
+	public PrintWriter open() throws IOException
+	{
+		partStart = 0;
+		partName = partName(0);
+		writer = createWriter(partName, false);
+		return writer;
+	}
+
+	/**
+	 * Reopens the log where a checkpoint left it, dropping anything written after the
+	 * mark.
+	 * @param mark the log's mark from the checkpoint
+	 * @return the writer
+	 * @throws IOException if the part is missing or shorter than the mark
+	 */
+	public PrintWriter resume(FBACheckpoint.LogMark mark) throws IOException
+	{
+		truncate(new File(mark.file), mark.offset);
+		name = mark.name;
+		partStart = mark.partStart;
+		partName = mark.file;
+		writer = createWriter(partName, true);
+		return writer;
+	}
+
+	/**
+	 * Writes out everything written so far and returns the position reached. A
+	 * compressed log's current block is finished early, so the log can be cut here.
+	 * @return the mark, or null if the log isn't open
+	 * @throws IOException
+	 */
+	public FBACheckpoint.LogMark mark() throws IOException
+	{
+		if (writer == null)
+			return null;
+		writer.flush();
+		if (gzip != null)
+			gzip.finishBlock();
+		if (writer.checkError())
+			throw new IOException("Unable to write log file '" + partName + "'");
+		return new FBACheckpoint.LogMark(name, partName, partStart, new File(partName).length());
+	}
+
+	/**
+	 * Cuts a file back to a checkpoint's mark.
+	 * @param file
+	 * @param offset
+	 * @throws IOException if the file is missing or shorter than the mark
+	 */
+	static void truncate(File file, long offset) throws IOException
+	{
+		if (!file.isFile() || file.length() < offset)
+			throw new IOException("Log file '" + file + "' is missing or shorter than its checkpoint");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(offset);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the writer for the given cycle, moving on to the next part if the cycle
+	 * is past the end of the current one. Cycles must not go backwards.
+	 * @param cycle
+	 * @return the writer, or null if the next part couldn't be opened
+	 */
+	public PrintWriter writerFor(long cycle)
+	{
+		if (splitCycles <= 0 || writer == null || cycle < partStart + splitCycles)
+			return writer;
+
+		writer.close();
+		partStart = cycle - cycle % splitCycles;
+		partName = partName(partStart);
+		try
+		{
+			writer = createWriter(partName, false);
+			if (header != null)
+				writer.println(header);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to open log file '" + partName + "'\nContinuing without saving log.");
+			writer = null;
+		}
+		return writer;
+	}
+
+	/**
+	 * @param header a line to repeat at the top of each part after the first
+	 */
+	public void setHeader(String header)
+	{
+		this.header = header;
+	}
+
+	/**
+	 * @return the name of the file currently being written
+	 */
+	public String getFileName()
+	{
+		return partName;
+	}
+
+	/**
+	 * @return true if the log is gzip compressed
+	 */
+	public boolean isCompressed()
+	{
+		return name.endsWith(GZIP_SUFFIX);
+	}
+
+	private PrintWriter createWriter(String fileName, boolean append) throws IOException
+	{
+		gzip = null;
+		if (!isCompressed())
+			return new PrintWriter(new FileWriter(new File(fileName), append));
+		gzip = new BlockGzipOutputStream(
+				new BufferedOutputStream(new FileOutputStream(new File(fileName), append), 1 << 16),
+				compressionLevel, blockSize);
+		return new PrintWriter(new OutputStreamWriter(gzip, Charset.defaultCharset()));
+	}
+
+	/**
+	 * Puts the part's cycle range between the name and its extension, ignoring ".gz".
+	 */
+	private String partName(long start)
+	{
+		if (splitCycles <= 0)
+			return name;
+		String suffix = "_cycles" + start + "-" + (start + splitCycles - 1);
+		return insertBeforeExtension(name, suffix);
+	}
+
+	/**
+	 * Applies the log name tag and log directory of a simulation to a log file name.
+	 * The directory is only used for relative names.
+	 * @param name
+	 * @param tag inserted before the extension, or empty
+	 * @param dir the directory, or empty
+	 * @return the name to write the log to
+	 */
+	public static String forSimulation(String name, String tag, String dir)
+	{
+		if (tag.length() > 0)
+			name = insertBeforeExtension(name, tag);
+		if (dir.length() > 0 && !new File(name).isAbsolute())
+			name = new File(dir, name).getPath();
+		return name;
+	}
+
+	/**
+	 * Inserts text between a file name and its extension. A trailing ".gz" isn't
+	 * counted as the extension, so "flux.txt.gz" becomes "flux&lt;text&gt;.txt.gz".
+	 * @param name
+	 * @param text
+	 * @return the new name
+	 */
+	public static String insertBeforeExtension(String name, String text)
+	{
+		String base = name;
+		String gz = "";
+		if (base.endsWith(GZIP_SUFFIX))
+		{
+			base = base.substring(0, base.length() - GZIP_SUFFIX.length());
+			gz = GZIP_SUFFIX;
+		}
+		int idx = base.lastIndexOf('.');
+		if (idx <= base.lastIndexOf(File.separatorChar))
+			return base + text + gz;
+		return base.substring(0, idx) + text + base.substring(idx) + gz;
+	}
+}
@@ -0,0 +1,154 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * LogPipeline
+ * -----------
+ * Runs log writing tasks on dedicated writer threads, so formatting and disk I/O
+ * don't hold up the next cycle.
+ * <p>
+ * Tasks are submitted to a lane. Each lane has one thread and a bounded queue, and
+ * runs its tasks in the order they were submitted, so everything written to one file
+ * should always go to the same lane. When a lane's queue is full, <code>submit()</code>
+ * waits for room, which keeps a slow disk from piling up snapshots in memory.
+ * <p>
+ * With zero lanes, tasks run right away on the calling thread.
+ */
+public class LogPipeline
+{
+	private static final Runnable STOP = new Runnable() {
+		public void run() {}
+	};
+
+	private List<BlockingQueue<Runnable>> queues;
+	private Thread[] writers;
+
+	/**
+	 * @param numLanes the number of writer threads. If less than 1, tasks are run
+	 * synchronously by <code>submit()</code>
+	 * @param capacity the number of tasks each lane can hold before <code>submit()</code> blocks
+	 */
+	public LogPipeline(int numLanes, int capacity)
+	{
+		if (numLanes < 0)
+			numLanes = 0;
+		queues = new ArrayList<BlockingQueue<Runnable>>(numLanes);
+		writers = new Thread[numLanes];
+		for (int i = 0; i < numLanes; i++)
+		{
+			final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(Math.max(1, capacity));
+			queues.add(queue);
+			writers[i] = new Thread("LogWriterThread-" + i) {
+				public void run()
+				{
+					while (true)
+					{
+						Runnable task;
+						try
+						{
+							task = queue.take();
+						}
+						catch (InterruptedException e)
+						{
+							return;
+						}
+						if (task == STOP)
+							return;
+						runTask(task);
+					}
+				}
+			};
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+	}
+
+	/**
+	 * Queues a task on a lane, waiting for room if the lane is full. An interrupt
+	 * doesn't stop the wait, since the task can't be dropped or run out of turn; the
+	 * thread's interrupted status is set again once the task is queued.
+	 * @param lane any number; it is wrapped to the available lanes
+	 * @param task
+	 */
+	public void submit(int lane, Runnable task)
+	{
+		if (queues.isEmpty())
+		{
+			runTask(task);
+			return;
+		}
+		BlockingQueue<Runnable> queue = queues.get(lane % queues.size());
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				queue.put(task);
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Runs every task that has been submitted, then stops the writer threads. Tasks
+	 * submitted afterwards run on the calling thread.
+	 */
+	public void drain()
+	{
+		for (BlockingQueue<Runnable> queue : queues)
+		{
+			try
+			{
+				queue.put(STOP);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Thread writer : writers)
+		{
+			try
+			{
+				writer.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		queues = new ArrayList<BlockingQueue<Runnable>>();
+		writers = new Thread[0];
+	}
+
+	/**
+	 * @return the number of writer threads
+	 */
+	public int getNumLanes()
+	{
+		return writers.length;
+	}
+
+	private static void runTask(Runnable task)
+	{
+		try
+		{
+			task.run();
+		}
+		catch (RuntimeException e)
+		{
+			System.out.println("Error while writing logs: " + e);
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MatStreamWriter
+ * ---------------
+ * Writes the streamed .mat log: a MATLAB level 5 MAT-file where each quantity is one
+ * double array that grows by a slice every logged cycle, so the whole run loads as
+ * e.g. <code>biomass_model_0(x, y, t)</code> instead of one variable per cycle.
+ * <p>
+ * Time is the last dimension, since MATLAB arrays are stored column-major and that
+ * makes each cycle's slice one contiguous block. A level 5 variable has to be written
+ * in one piece with its final size at the front, so the slices are written to a
+ * ".part" file next to the log as they come in, with only their positions kept in
+ * memory, and are copied into place when the writer is closed. A variable that is
+ * first written after some cycles, or skips a cycle, gets zeros for those cycles.
+ * <p>
+ * Each variable must be under 4 GB, the limit of the level 5 format. The size is
+ * checked as slices come in, and a variable that would pass the limit is continued in
+ * another one named with a suffix, e.g. <code>fluxes_model_0_2</code>, which holds the
+ * cycles from where the first one stopped. In MATLAB,
+ * <code>cat(ndims(v), v, v_2, ...)</code> puts them back together. If the .mat file
+ * can't be written on close, the .part file is kept.
+ */
+public class MatStreamWriter
+{
+	private static final int miINT8 = 1,
+							 miUINT16 = 4,
+							 miINT32 = 5,
+							 miUINT32 = 6,
+							 miDOUBLE = 9,
+							 miMATRIX = 14;
+	private static final int mxCHAR_CLASS = 4,
+							 mxDOUBLE_CLASS = 6;
+	private static final long MAX_ELEMENT_BYTES = 0xFFFFFFFFL;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * One growing array. Write a slice by calling <code>put()</code> once for each of
+	 * its values, in column-major order.
+	 */
+	public class Variable
+	{
+		private final String name;
+		private final int[] sliceDims;		// null for a vector that can get longer
+		private int sliceLength;
+		private long[] offsets = new long[16];	// where each slice starts in the .part file, or -1
+		private int[] lengths = new int[16];
+		private int numSlices;
+		private int[] partStarts = new int[] { 0 };	// the first slice of each part
+		private int[] partLengths = new int[1];		// the slice length of each part
+
+		private Variable(String name, int[] sliceDims)
+		{
+			this.name = name;
+			this.sliceDims = sliceDims;
+			if (sliceDims != null)
+			{
+				sliceLength = 1;
+				for (int d : sliceDims)
+					sliceLength *= d;
+			}
+		}
+
+		/**
+		 * Adds the next value of the current cycle's slice.
+		 * @param v
+		 * @throws IOException
+		 */
+		public void put(double v) throws IOException
+		{
+			if (current != this)
+				startSegment(this);
+			if (buffer.remaining() < 8)
+				flush();
+			buffer.putDouble(v);
+			lengths[numSlices - 1]++;
+		}
+
+		private void endSegment()
+		{
+			int length = lengths[numSlices - 1];
+			if (sliceDims != null && length != sliceLength)
+				throw new IllegalStateException("Expected " + sliceLength + " values for " + name + " but got " + length);
+			int slice = numSlices - 1;
+			int start = partStarts[partStarts.length - 1];
+			int newLength = Math.max(sliceLength, length);
+			if (size(partStarts.length - 1, newLength, slice + 1 - start) <= maxVariableBytes)
+				sliceLength = newLength;
+			else if (slice == start)
+				throw new IllegalStateException("A single slice of " + name + " is over the size limit of a variable");
+			else
+			{
+				// the slices so far stay where they are, and this one starts the next part
+				splitBefore(slice);
+				addPart(slice);
+				sliceLength = length;
+			}
+		}
+
+		private void addPart(int start)
+		{
+			partLengths[partLengths.length - 1] = sliceLength;
+			partStarts = Arrays.copyOf(partStarts, partStarts.length + 1);
+			partStarts[partStarts.length - 1] = start;
+			partLengths = Arrays.copyOf(partLengths, partLengths.length + 1);
+		}
+
+		/**
+		 * Splits the last part where the slices this variable wasn't written in, which are
+		 * filled with zeros, would take the slices before <code>end</code> over the limit.
+		 */
+		private void splitBefore(int end)
+		{
+			int start = partStarts[partStarts.length - 1];
+			while (size(partStarts.length - 1, sliceLength, end - start) > maxVariableBytes)
+			{
+				long fit = (maxVariableBytes - size(partStarts.length - 1, sliceLength, 0)) / (8L * Math.max(1, sliceLength));
+				start += (int) Math.max(1, fit);
+				addPart(start);
+			}
+		}
+
+		private void finishParts()
+		{
+			splitBefore(MatStreamWriter.this.numSlices);
+			partLengths[partLengths.length - 1] = sliceLength;
+		}
+
+		private String partName(int part)
+		{
+			return part == 0 ? name : name + "_" + (part + 1);
+		}
+
+		private int[] partDims(int part, int slices)
+		{
+			int[] dims = sliceDims == null ? new int[] { partLengths[part] } : sliceDims;
+			dims = Arrays.copyOf(dims, dims.length + 1);
+			dims[dims.length - 1] = slices;
+			return dims;
+		}
+
+		/**
+		 * @return the bytes of the given part, if it had the given slice length and number
+		 * of slices
+		 */
+		private long size(int part, int length, int slices)
+		{
+			int[] dims = sliceDims == null ? new int[] { length } : sliceDims;
+			dims = Arrays.copyOf(dims, dims.length + 1);
+			dims[dims.length - 1] = slices;
+			return arrayHeaderSize(dims, partName(part)) + 8 + 8L * length * slices;
+		}
+	}
+
+	private File file;
+	private boolean append;
+	private long maxVariableBytes;
+	private File partFile;
+	private RandomAccessFile part;
+	private FileChannel partChannel;
+	private ByteBuffer buffer;
+	private FileChannel target;			// where the buffer is flushed to: the .part file, then the .mat file
+	private int numSlices;
+	private Variable current;
+	private Map<String, Variable> variables = new LinkedHashMap<String, Variable>();
+	private Map<String, String[]> texts = new LinkedHashMap<String, String[]>();
+
+	/**
+	 * @param file the .mat file
+	 * @param append if true, the variables are added to the end of an existing MAT-file
+	 * when the writer is closed; otherwise a new file is written
+	 * @throws IOException if the .part file can't be made
+	 */
+	public MatStreamWriter(File file, boolean append) throws IOException
+	{
+		this(file, append, MAX_ELEMENT_BYTES);
+	}
+
+	/**
+	 * @param file the .mat file
+	 * @param append if true, the variables are added to the end of an existing MAT-file
+	 * when the writer is closed; otherwise a new file is written
+	 * @param maxVariableBytes the size past which a variable is continued in another,
+	 * at most the 4 GB limit of the format
+	 * @throws IOException if the .part file can't be made
+	 */
+	public MatStreamWriter(File file, boolean append, long maxVariableBytes) throws IOException
+	{
+		this.file = file;
+		this.append = append;
+		this.maxVariableBytes = Math.min(maxVariableBytes, MAX_ELEMENT_BYTES);
+		partFile = new File(file.getPath() + ".part");
+		part = new RandomAccessFile(partFile, "rw");
+		part.setLength(0);
+		partChannel = part.getChannel();
+		target = partChannel;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Starts the slice for the next logged cycle.
+	 */
+	public void beginSlice()
+	{
+		endSegment();
+		numSlices++;
+	}
+
+	/**
+	 * Returns the variable with the given name, making it if it's new.
+	 * @param name
+	 * @param sliceDims the dimensions of one slice, or null for a vector whose length can
+	 * differ between slices; shorter slices are padded with zeros
+	 * @return the variable
+	 */
+	public Variable variable(String name, int[] sliceDims)
+	{
+		Variable v = variables.get(name);
+		if (v == null)
+		{
+			v = new Variable(name, sliceDims == null ? null : sliceDims.clone());
+			variables.put(name, v);
+		}
+		return v;
+	}
+
+	/**
+	 * Sets a char matrix written with the arrays, one row per string.
+	 * @param name
+	 * @param rows
+	 */
+	public void setText(String name, String[] rows)
+	{
+		texts.put(name, rows.clone());
+	}
+
+	/**
+	 * @return the number of slices started so far
+	 */
+	public int getNumSlices()
+	{
+		return numSlices;
+	}
+
+	private void startSegment(Variable v) throws IOException
+	{
+		if (numSlices == 0)
+			throw new IllegalStateException("beginSlice() must be called before writing " + v.name);
+		endSegment();
+		if (v.numSlices == numSlices)
+			throw new IllegalStateException(v.name + " has already been written in this slice");
+		if (v.sliceDims != null && v.size(0, v.sliceLength, 1) > maxVariableBytes)
+		{
+			variables.remove(v.name);
+			throw new IOException("A single slice of " + v.name + " is over the size limit of a variable");
+		}
+		if (v.offsets.length < numSlices)
+		{
+			int n = Math.max(numSlices, v.offsets.length * 2);
+			v.offsets = Arrays.copyOf(v.offsets, n);
+			v.lengths = Arrays.copyOf(v.lengths, n);
+		}
+		// the slices this variable missed
+		Arrays.fill(v.offsets, v.numSlices, numSlices - 1, -1L);
+		Arrays.fill(v.lengths, v.numSlices, numSlices - 1, 0);
+		v.offsets[numSlices - 1] = partChannel.position() + buffer.position();
+		v.lengths[numSlices - 1] = 0;
+		v.numSlices = numSlices;
+		current = v;
+	}
+
+	private void endSegment()
+	{
+		if (current != null)
+			current.endSegment();
+		current = null;
+	}
+
+	/**
+	 * Writes the variables into the .mat file and deletes the .part file. If they
+	 * can't be written, the .part file is kept.
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		endSegment();
+		flush();
+		boolean written = false;
+		FileOutputStream stream = new FileOutputStream(file, append);
+		target = stream.getChannel();
+		try
+		{
+			if (!append)
+				writeHeader();
+			for (Variable v : variables.values())
+				writeVariable(v);
+			for (Map.Entry<String, String[]> text : texts.entrySet())
+				writeText(text.getKey(), text.getValue());
+			flush();
+			written = true;
+		}
+		finally
+		{
+			stream.close();
+			part.close();
+			if (written)
+				partFile.delete();
+			else
+				System.out.println("The slices of .mat file '" + file + "' are kept in '" + partFile + "'");
+		}
+	}
+
+	private void writeHeader()
+	{
+		byte[] text = new byte[116];
+		Arrays.fill(text, (byte) ' ');
+		byte[] description = ("MATLAB 5.0 MAT-file, Platform: " + System.getProperty("os.name")
+				+ ", Created on: " + new Date()).getBytes(ASCII);
+		System.arraycopy(description, 0, text, 0, Math.min(description.length, text.length));
+		buffer.put(text);
+		buffer.putLong(0);					// no subsystem data
+		buffer.putShort((short) 0x0100);	// version
+		buffer.put((byte) 'I');				// endian indicator, read as "IM" on a little-endian machine
+		buffer.put((byte) 'M');
+	}
+
+	private void writeVariable(Variable v) throws IOException
+	{
+		v.finishParts();
+		for (int p = 0; p < v.partStarts.length; p++)
+		{
+			int start = v.partStarts[p];
+			int end = p + 1 < v.partStarts.length ? v.partStarts[p + 1] : numSlices;
+			int sliceLength = v.partLengths[p];
+			int[] dims = v.partDims(p, end - start);
+			long dataBytes = 8L * sliceLength * (end - start);
+			writeArrayHeader(v.size(p, sliceLength, end - start), mxDOUBLE_CLASS, dims, v.partName(p));
+			putTag(miDOUBLE, dataBytes);
+			for (int t = start; t < end; t++)
+			{
+				long length = 0;
+				if (t < v.numSlices && v.offsets[t] >= 0)
+				{
+					length = v.lengths[t];
+					flush();
+					long position = v.offsets[t];
+					long stop = position + 8 * length;
+					while (position < stop)
+						position += partChannel.transferTo(position, stop - position, target);
+				}
+				putZeros(8 * (sliceLength - length));
+			}
+		}
+	}
+
+	private void writeText(String name, String[] rows) throws IOException
+	{
+		int width = 0;
+		for (String row : rows)
+			width = Math.max(width, row.length());
+		int[] dims = new int[] { rows.length, width };
+		long dataBytes = 2L * rows.length * width;
+		long size = arrayHeaderSize(dims, name) + 8 + pad(dataBytes);
+		writeArrayHeader(size, mxCHAR_CLASS, dims, name);
+		putTag(miUINT16, dataBytes);
+		for (int c = 0; c < width; c++)
+		{
+			for (String row : rows)
+			{
+				ensure(2);
+				buffer.putChar(c < row.length() ? row.charAt(c) : ' ');
+			}
+		}
+		putZeros(pad(dataBytes) - dataBytes);
+	}
+
+	/**
+	 * @return the bytes of an array's flags, dimensions and name elements
+	 */
+	private static long arrayHeaderSize(int[] dims, String name)
+	{
+		return 16 + 8 + pad(4L * dims.length) + 8 + pad(name.length());
+	}
+
+	private void writeArrayHeader(long size, int mxClass, int[] dims, String name) throws IOException
+	{
+		putTag(miMATRIX, size);
+		putTag(miUINT32, 8);
+		ensure(8);
+		buffer.putInt(mxClass);
+		buffer.putInt(0);
+		putTag(miINT32, 4L * dims.length);
+		for (int d : dims)
+		{
+			ensure(4);
+			buffer.putInt(d);
+		}
+		putZeros(pad(4L * dims.length) - 4L * dims.length);
+		byte[] bytes = name.getBytes(ASCII);
+		putTag(miINT8, bytes.length);
+		ensure(bytes.length);
+		buffer.put(bytes);
+		putZeros(pad(bytes.length) - bytes.length);
+	}
+
+	private void putTag(int type, long bytes) throws IOException
+	{
+		ensure(8);
+		buffer.putInt(type);
+		buffer.putInt((int) bytes);
+	}
+
+	private void putZeros(long bytes) throws IOException
+	{
+		while (bytes > 0)
+		{
+			ensure(1);
+			int n = (int) Math.min(bytes, buffer.remaining());
+			for (int i = 0; i < n; i++)
+				buffer.put((byte) 0);
+			bytes -= n;
+		}
+	}
+
+	private static long pad(long bytes)
+	{
+		return (bytes + 7) & ~7L;
+	}
+
+	private void ensure(int bytes) throws IOException
+	{
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+			target.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,320 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * ModelFileTokenizer
+ * ------------------
+ * Reads a model file one line at a time and splits each line on whitespace, without
+ * a regular expression and without making a <code>String</code> per token. Numbers are
+ * parsed straight from the line's characters, so the large numeric blocks (SMATRIX,
+ * BOUNDS, EXCHANGE_REACTIONS) are read without any garbage per line.
+ * <p>
+ * Either call <code>next()</code> and look at the tokens, or call
+ * <code>readLine()</code> for the whole line as a string, as with a
+ * <code>BufferedReader</code>.
+ */
+public class ModelFileTokenizer
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_EXACT_DIGITS = 15;		// any 15 digit integer is an exact double
+	private static final double[] POWERS_OF_TEN = new double[23];	// exact doubles, 1e0 to 1e22
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private Reader in;
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int bufferPos, bufferEnd;
+	private boolean skipLF;					// the last line ended with '\r'
+
+	private char[] line = new char[256];
+	private int lineLength;
+	private int[] tokenStart = new int[16],
+				  tokenEnd = new int[16];
+	private int numTokens;
+
+	private long numLines, numChars;
+
+	public ModelFileTokenizer(Reader in)
+	{
+		this.in = in;
+	}
+
+	/**
+	 * Reads the next line and splits it into tokens.
+	 * @return false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException
+	{
+		if (!fillLine())
+			return false;
+		numTokens = 0;
+		int i = 0;
+		while (true)
+		{
+			while (i < lineLength && isSpace(line[i]))
+				i++;
+			if (i == lineLength)
+				break;
+			if (numTokens == tokenStart.length)
+			{
+				tokenStart = Arrays.copyOf(tokenStart, numTokens * 2);
+				tokenEnd = Arrays.copyOf(tokenEnd, numTokens * 2);
+			}
+			tokenStart[numTokens] = i;
+			while (i < lineLength && !isSpace(line[i]))
+				i++;
+			tokenEnd[numTokens++] = i;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next line of a data block.
+	 * @return false if the line is the block's closing "//"
+	 * @throws IOException if the file ends before the block does
+	 */
+	public boolean nextInBlock() throws IOException
+	{
+		if (!next())
+			throw new IOException("Each data block is expected to end with '//' on a single line.");
+		return !isBlockEnd();
+	}
+
+	/**
+	 * Reads the next line.
+	 * @return the line, without its line terminator, or null at the end of the file
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException
+	{
+		if (!next())
+			return null;
+		return new String(line, 0, lineLength);
+	}
+
+	/**
+	 * @return the current line, trimmed
+	 */
+	public String line()
+	{
+		if (numTokens == 0)
+			return "";
+		return new String(line, tokenStart[0], tokenEnd[numTokens - 1] - tokenStart[0]);
+	}
+
+	/**
+	 * @return the tokens of the current line, like <code>line().split("\\s+")</code>
+	 * except that a blank line has none
+	 */
+	public String[] tokens()
+	{
+		String[] tokens = new String[numTokens];
+		for (int i = 0; i < numTokens; i++)
+			tokens[i] = token(i);
+		return tokens;
+	}
+
+	public int numTokens()
+	{
+		return numTokens;
+	}
+
+	public String token(int i)
+	{
+		return new String(line, tokenStart[i], tokenEnd[i] - tokenStart[i]);
+	}
+
+	/**
+	 * @return true if the current line is a block's closing "//"
+	 */
+	public boolean isBlockEnd()
+	{
+		return numTokens == 1 && tokenEnd[0] - tokenStart[0] == 2
+				&& line[tokenStart[0]] == '/' && line[tokenStart[0] + 1] == '/';
+	}
+
+	/**
+	 * Parses token i as an int.
+	 * @throws NumberFormatException
+	 */
+	public int parseInt(int i)
+	{
+		int pos = tokenStart[i], end = tokenEnd[i];
+		boolean negative = false;
+		if (pos < end && (line[pos] == '-' || line[pos] == '+'))
+			negative = line[pos++] == '-';
+		if (pos == end || end - pos > 9)
+			return Integer.parseInt(token(i));	// empty, or may overflow
+		int value = 0;
+		for (; pos < end; pos++)
+		{
+			int digit = line[pos] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("For input string: \"" + token(i) + "\"");
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses token i as a double. Plain decimals with up to 15 significant digits and
+	 * small exponents, which is nearly everything in a model file, are converted here
+	 * exactly; anything else goes to <code>Double.parseDouble()</code>.
+	 * @throws NumberFormatException
+	 */
+	public double parseDouble(int i)
+	{
+		int pos = tokenStart[i], end = tokenEnd[i];
+		boolean negative = false;
+		if (pos < end && (line[pos] == '-' || line[pos] == '+'))
+			negative = line[pos++] == '-';
+		long mantissa = 0;
+		int numDigits = 0, exponent = 0;
+		boolean anyDigits = false, point = false;
+		for (; pos < end; pos++)
+		{
+			char c = line[pos];
+			if (c >= '0' && c <= '9')
+			{
+				anyDigits = true;
+				if (mantissa == 0 && c == '0')
+				{
+					// leading zeros don't count towards the exact digits
+					if (point)
+						exponent--;
+					continue;
+				}
+				if (++numDigits > MAX_EXACT_DIGITS)
+					return Double.parseDouble(token(i));
+				mantissa = mantissa * 10 + (c - '0');
+				if (point)
+					exponent--;
+			}
+			else if (c == '.' && !point)
+				point = true;
+			else
+				break;
+		}
+		if (!anyDigits)
+			return Double.parseDouble(token(i));
+		if (pos < end)
+		{
+			char c = line[pos++];
+			if (c != 'e' && c != 'E' || pos == end)
+				return Double.parseDouble(token(i));
+			boolean negativeExp = false;
+			if (line[pos] == '-' || line[pos] == '+')
+				negativeExp = line[pos++] == '-';
+			if (pos == end || end - pos > 4)
+				return Double.parseDouble(token(i));
+			int exp = 0;
+			for (; pos < end; pos++)
+			{
+				int digit = line[pos] - '0';
+				if (digit < 0 || digit > 9)
+					return Double.parseDouble(token(i));
+				exp = exp * 10 + digit;
+			}
+			exponent += negativeExp ? -exp : exp;
+		}
+		double value = mantissa;
+		if (mantissa != 0)
+		{
+			// one correctly rounded operation on exact values gives the correctly rounded result
+			if (exponent < -22 || exponent > 22)
+				return Double.parseDouble(token(i));
+			value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the number of lines read so far
+	 */
+	public long getNumLines()
+	{
+		return numLines;
+	}
+
+	/**
+	 * @return the number of characters read so far, including line terminators
+	 */
+	public long getNumChars()
+	{
+		return numChars;
+	}
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	private static boolean isSpace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\f' || c == '\u000B' || c == '\r' || c == '\n';
+	}
+
+	/**
+	 * Copies the next line into the line buffer.
+	 * @return false at the end of the file
+	 */
+	private boolean fillLine() throws IOException
+	{
+		lineLength = 0;
+		numTokens = 0;
+		boolean any = false;
+		while (true)
+		{
+			if (bufferPos == bufferEnd)
+			{
+				int n = in.read(buffer, 0, buffer.length);
+				if (n <= 0)
+				{
+					if (any)
+						numLines++;
+					return any;
+				}
+				bufferPos = 0;
+				bufferEnd = n;
+				numChars += n;
+			}
+			if (skipLF)
+			{
+				skipLF = false;
+				if (buffer[bufferPos] == '\n')
+				{
+					bufferPos++;
+					continue;
+				}
+			}
+			any = true;
+			int start = bufferPos;
+			while (bufferPos < bufferEnd && buffer[bufferPos] != '\n' && buffer[bufferPos] != '\r')
+				bufferPos++;
+			append(start, bufferPos);
+			if (bufferPos < bufferEnd)
+			{
+				skipLF = buffer[bufferPos++] == '\r';
+				numLines++;
+				return true;
+			}
+		}
+	}
+
+	private void append(int start, int end)
+	{
+		int n = end - start;
+		if (lineLength + n > line.length)
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + n));
+		System.arraycopy(buffer, start, line, lineLength, n);
+		lineLength += n;
+	}
+}
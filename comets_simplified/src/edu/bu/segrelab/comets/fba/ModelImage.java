@@ -0,0 +1,492 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.bu.segrelab.comets.exception.ModelFileException;
+
+/**
+ * ModelImage
+ * ----------
+ * Everything read from a model file, before it's built into an <code>FBAModel</code>.
+ * <p>
+ * An image can also be saved as a binary model cache next to the model file, so later
+ * runs skip parsing the text. The cache file, named after the model with ".cache"
+ * added, holds
+ * <pre>
+ *   magic    8 bytes    "COMETSMC"
+ *   version  int32      1
+ *   hash     32 bytes   SHA-256 of the model file the cache was made from
+ *   model    the fields of the image, in the order written by write()
+ * </pre>
+ * All numbers are big-endian. Arrays are an int32 length, or -1 for null, then their
+ * elements, and strings are an int32 byte count, or -1, then UTF-8. The S-matrix is
+ * kept as row, column and value arrays in the order of the model file, so a model
+ * built from the cache sets up its optimizer exactly as one built from the text.
+ * <p>
+ * A cache is only used if its hash matches the model file, so editing the model
+ * replaces it. Caches are read through a memory-mapped buffer.
+ */
+public class ModelImage implements Cloneable
+{
+	public static final byte[] MAGIC = "COMETSMC".getBytes(Charset.forName("US-ASCII"));
+	public static final int VERSION = 1;
+	public static final String CACHE_SUFFIX = ".cache";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	double[][] S;
+	double[] lb, ub;
+	int[] objs;
+	boolean[] objMax;
+	int bio, objSt, optim;
+	int[] exchRxns;
+	double[] diffConsts, exchKm, exchVmax, exchHillCoeff, exchAlpha, exchW;
+	double[][] lightAbsorption;
+	String[] metNames, rxnNames;
+	double defaultAlpha, defaultW, defaultHill, defaultKm, defaultVmax, defaultLB, defaultUB, defaultDiff;
+	double elasticModulusConst, frictionConst, convDiffConst, convNonlinDiffZero, convNonlinDiffN,
+		   convNonlinDiffHillK, convNonlinDiffHillN, convNonlinDiffExponent, packDensity, noiseVariance;
+	List<Signal> signals;
+	boolean neutralDrift;
+	double neutralDriftSigma, pressureKappa, pressureExponent, packBiomass, maxPressure;
+
+	/**
+	 * Builds the model. Its optimizer is set up when first needed.
+	 * @param filename the model file, recorded in the model
+	 * @return the model
+	 */
+	public FBAModel build(String filename)
+	{
+		System.out.println("optim= "+optim);
+		FBAModel model = new FBAModel(S, lb, ub, objs, objMax, bio, exchRxns, diffConsts, exchKm, exchVmax, exchHillCoeff, exchAlpha, exchW, lightAbsorption, metNames, rxnNames, objSt, optim);
+		model.setDefaultAlpha(defaultAlpha);
+		model.setDefaultW(defaultW);
+		model.setDefaultHill(defaultHill);
+		model.setDefaultKm(defaultKm);
+		model.setDefaultVmax(defaultVmax);
+		model.setDefaultLB(defaultLB);
+		model.setDefaultUB(defaultUB);
+		model.setDefaultMetabDiffConst(defaultDiff);
+		model.setElasticModulusConstant(elasticModulusConst);
+		model.setFrictionConstant(frictionConst);
+		model.setConvDiffConstant(convDiffConst);
+		model.setConvNonlinDiffZero(convNonlinDiffZero);
+		model.setConvNonlinDiffN(convNonlinDiffN);
+		model.setConvNonlinDiffHillK(convNonlinDiffHillK);
+		model.setConvNonlinDiffHillN(convNonlinDiffHillN);
+		model.setConvNonlinDiffExponent(convNonlinDiffExponent);
+		model.setPackedDensity(packDensity);
+		model.setNoiseVariance(noiseVariance);
+		model.setSignals(signals);
+		model.setNeutralDrift(neutralDrift);
+		model.setNeutralDriftSigma(neutralDriftSigma);
+		model.setPressureKappa(pressureKappa);
+		model.setPressureExponent(pressureExponent);
+		model.setPackBiomass(packBiomass);
+		model.setMaxPressure(maxPressure);
+
+		model.setFileName(filename);
+		return model;
+	}
+
+	/**
+	 * Copies the image, so more than one model can be built from it. The arrays a model
+	 * may change are copied; the S-matrix and the names are shared.
+	 * @return the copy
+	 */
+	public ModelImage copy()
+	{
+		ModelImage copy;
+		try
+		{
+			copy = (ModelImage)super.clone();
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new AssertionError(e);
+		}
+		copy.lb = clone(lb);
+		copy.ub = clone(ub);
+		copy.objs = objs == null ? null : objs.clone();
+		copy.objMax = objMax == null ? null : objMax.clone();
+		copy.exchRxns = exchRxns == null ? null : exchRxns.clone();
+		copy.diffConsts = clone(diffConsts);
+		copy.exchKm = clone(exchKm);
+		copy.exchVmax = clone(exchVmax);
+		copy.exchHillCoeff = clone(exchHillCoeff);
+		copy.exchAlpha = clone(exchAlpha);
+		copy.exchW = clone(exchW);
+		if (lightAbsorption != null)
+		{
+			copy.lightAbsorption = new double[lightAbsorption.length][];
+			for (int i = 0; i < lightAbsorption.length; i++)
+				copy.lightAbsorption[i] = clone(lightAbsorption[i]);
+		}
+		if (signals != null)
+			copy.signals = new ArrayList<Signal>(signals);
+		return copy;
+	}
+
+	private static double[] clone(double[] a)
+	{
+		return a == null ? null : a.clone();
+	}
+
+	/**
+	 * @return the optimizer the model will use, one of the FBAModel optimizer constants
+	 */
+	public int getOptimizer()
+	{
+		return optim;
+	}
+
+	/**
+	 * Loads a model through its cache: from the cache if it's up to date, otherwise
+	 * from the text, saving a new cache. A cache that can't be written is skipped.
+	 * @param filename the model file
+	 * @return the model
+	 * @throws ModelFileException
+	 */
+	public static FBAModel loadCached(String filename) throws ModelFileException
+	{
+		return readCached(filename).build(filename);
+	}
+
+	/**
+	 * Reads a model file through its cache, like loadCached(), without building the model.
+	 * @param filename the model file
+	 * @return the parsed model
+	 * @throws ModelFileException
+	 */
+	public static ModelImage readCached(String filename) throws ModelFileException
+	{
+		File file = new File(filename);
+		File cache = new File(filename + CACHE_SUFFIX);
+		byte[] hash;
+		try
+		{
+			hash = hash(file);
+		}
+		catch (IOException e)
+		{
+			throw new ModelFileException(ModelFileException.IO_ERROR, "I/O error in model file '" + filename + "': " + e);
+		}
+
+		if (cache.isFile())
+		{
+			try
+			{
+				ModelImage image = read(cache, hash);
+				if (image != null)
+				{
+					System.out.println("Loaded '" + filename + "' from its cache");
+					return image;
+				}
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to read model cache '" + cache + "', reading the model file instead: " + e.getMessage());
+			}
+			catch (RuntimeException e)
+			{
+				System.out.println("Model cache '" + cache + "' is damaged, reading the model file instead");
+			}
+		}
+
+		ModelImage image = FBAModel.parseModelFile(filename);
+		try
+		{
+			image.write(cache, hash);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to write model cache '" + cache + "': " + e.getMessage());
+		}
+		return image;
+	}
+
+	/**
+	 * @return the SHA-256 hash of a file
+	 */
+	public static byte[] hash(File file) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException("SHA-256 is not available", e);
+		}
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			for (long pos = 0; pos < size; pos += Integer.MAX_VALUE)
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, size - pos)));
+		}
+		finally
+		{
+			in.close();
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Saves the image as a cache for the model file with the given hash. The cache is
+	 * written to a temporary file and renamed, so other runs never see half of one.
+	 * @param file
+	 * @param hash
+	 * @throws IOException
+	 */
+	public void write(File file, byte[] hash) throws IOException
+	{
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try
+		{
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.write(hash);
+
+			int[] rows = new int[S.length],
+				  cols = new int[S.length];
+			double[] values = new double[S.length];
+			for (int i = 0; i < S.length; i++)
+			{
+				rows[i] = (int) S[i][0];
+				cols[i] = (int) S[i][1];
+				values[i] = S[i][2];
+			}
+			FBACheckpoint.writeArray(out, rows);
+			FBACheckpoint.writeArray(out, cols);
+			FBACheckpoint.writeArray(out, values);
+			FBACheckpoint.writeArray(out, lb);
+			FBACheckpoint.writeArray(out, ub);
+			FBACheckpoint.writeArray(out, objs);
+			out.writeInt(objMax.length);
+			for (boolean b : objMax)
+				out.writeBoolean(b);
+			out.writeInt(bio);
+			out.writeInt(objSt);
+			out.writeInt(optim);
+			FBACheckpoint.writeArray(out, exchRxns);
+			for (double[] a : new double[][] { diffConsts, exchKm, exchVmax, exchHillCoeff, exchAlpha, exchW })
+				FBACheckpoint.writeArray(out, a);
+			FBACheckpoint.writeArray(out, lightAbsorption);
+			writeStrings(out, metNames);
+			writeStrings(out, rxnNames);
+			for (double d : new double[] { defaultAlpha, defaultW, defaultHill, defaultKm, defaultVmax, defaultLB, defaultUB, defaultDiff,
+					elasticModulusConst, frictionConst, convDiffConst, convNonlinDiffZero, convNonlinDiffN, convNonlinDiffHillK,
+					convNonlinDiffHillN, convNonlinDiffExponent, packDensity, noiseVariance, neutralDriftSigma, pressureKappa,
+					pressureExponent, packBiomass, maxPressure })
+				out.writeDouble(d);
+			out.writeBoolean(neutralDrift);
+			out.writeInt(signals.size());
+			for (Signal signal : signals)
+				signal.write(out);
+		}
+		catch (IOException e)
+		{
+			out.close();
+			temp.delete();
+			throw e;
+		}
+		out.close();
+		try
+		{
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			temp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a cache.
+	 * @param file
+	 * @param hash the hash of the model file, or null to read the cache whatever it was made from
+	 * @return the image, or null if the cache is from another model file or version
+	 * @throws IOException
+	 */
+	public static ModelImage read(File file, byte[] hash) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer in;
+		try
+		{
+			in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally
+		{
+			raf.close();	// the mapping stays valid
+		}
+
+		byte[] magic = new byte[MAGIC.length];
+		byte[] cacheHash = new byte[32];
+		if (in.remaining() < magic.length + 4 + cacheHash.length)
+			return null;
+		in.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION)
+			return null;
+		in.get(cacheHash);
+		if (hash != null && !Arrays.equals(hash, cacheHash))
+			return null;
+
+		ModelImage image = new ModelImage();
+		int[] rows = readInts(in),
+			  cols = readInts(in);
+		double[] values = readDoubles(in);
+		image.S = new double[rows.length][3];
+		for (int i = 0; i < rows.length; i++)
+		{
+			image.S[i][0] = rows[i];
+			image.S[i][1] = cols[i];
+			image.S[i][2] = values[i];
+		}
+		image.lb = readDoubles(in);
+		image.ub = readDoubles(in);
+		image.objs = readInts(in);
+		image.objMax = new boolean[in.getInt()];
+		for (int i = 0; i < image.objMax.length; i++)
+			image.objMax[i] = in.get() != 0;
+		image.bio = in.getInt();
+		image.objSt = in.getInt();
+		image.optim = in.getInt();
+		image.exchRxns = readInts(in);
+		image.diffConsts = readDoubles(in);
+		image.exchKm = readDoubles(in);
+		image.exchVmax = readDoubles(in);
+		image.exchHillCoeff = readDoubles(in);
+		image.exchAlpha = readDoubles(in);
+		image.exchW = readDoubles(in);
+		image.lightAbsorption = readDoubles2D(in);
+		image.metNames = readStrings(in);
+		image.rxnNames = readStrings(in);
+		image.defaultAlpha = in.getDouble();
+		image.defaultW = in.getDouble();
+		image.defaultHill = in.getDouble();
+		image.defaultKm = in.getDouble();
+		image.defaultVmax = in.getDouble();
+		image.defaultLB = in.getDouble();
+		image.defaultUB = in.getDouble();
+		image.defaultDiff = in.getDouble();
+		image.elasticModulusConst = in.getDouble();
+		image.frictionConst = in.getDouble();
+		image.convDiffConst = in.getDouble();
+		image.convNonlinDiffZero = in.getDouble();
+		image.convNonlinDiffN = in.getDouble();
+		image.convNonlinDiffHillK = in.getDouble();
+		image.convNonlinDiffHillN = in.getDouble();
+		image.convNonlinDiffExponent = in.getDouble();
+		image.packDensity = in.getDouble();
+		image.noiseVariance = in.getDouble();
+		image.neutralDriftSigma = in.getDouble();
+		image.pressureKappa = in.getDouble();
+		image.pressureExponent = in.getDouble();
+		image.packBiomass = in.getDouble();
+		image.maxPressure = in.getDouble();
+		image.neutralDrift = in.get() != 0;
+		int numSignals = in.getInt();
+		image.signals = new ArrayList<Signal>(numSignals);
+		for (int i = 0; i < numSignals; i++)
+			image.signals.add(Signal.read(in));
+		return image;
+	}
+
+	/*
+	 * Readers for the arrays written by FBACheckpoint.writeArray(), and strings.
+	 */
+
+	static int[] readInts(ByteBuffer in)
+	{
+		int n = in.getInt();
+		if (n < 0)
+			return null;
+		int[] values = new int[n];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * n);
+		return values;
+	}
+
+	static double[] readDoubles(ByteBuffer in)
+	{
+		int n = in.getInt();
+		if (n < 0)
+			return null;
+		double[] values = new double[n];
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + 8 * n);
+		return values;
+	}
+
+	static double[][] readDoubles2D(ByteBuffer in)
+	{
+		int n = in.getInt();
+		if (n < 0)
+			return null;
+		double[][] values = new double[n][];
+		for (int i = 0; i < n; i++)
+			values[i] = readDoubles(in);
+		return values;
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		if (s == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in)
+	{
+		int n = in.getInt();
+		if (n < 0)
+			return null;
+		byte[] bytes = new byte[n];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] strings) throws IOException
+	{
+		out.writeInt(strings == null ? -1 : strings.length);
+		for (int i = 0; strings != null && i < strings.length; i++)
+			writeString(out, strings[i]);
+	}
+
+	private static String[] readStrings(ByteBuffer in)
+	{
+		int n = in.getInt();
+		if (n < 0)
+			return null;
+		String[] strings = new String[n];
+		for (int i = 0; i < n; i++)
+			strings[i] = readString(in);
+		return strings;
+	}
+}
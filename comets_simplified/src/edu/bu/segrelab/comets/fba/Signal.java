@@ -1,6 +1,9 @@
 package edu.bu.segrelab.comets.fba;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.Math;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -255,6 +258,53 @@ public class Signal {
 	public boolean isMultiToxin() {
 		return this.is_multitoxin;
 	}
+	
+	private Signal(){
+	}
+	
+	/**Writes the signal into a ModelImage. The indices are written as they're
+	 * stored, from 0.
+	 */
+	void write(DataOutputStream out) throws IOException{
+		out.writeBoolean(lb);
+		out.writeBoolean(ub);
+		out.writeBoolean(consume_met);
+		out.writeInt(reaction);
+		out.writeInt(exch_met);
+		ModelImage.writeString(out, function);
+		double[] p = null;
+		if (parameters != null){
+			p = new double[parameters.size()];
+			for (int i = 0; i < p.length; i++)
+				p[i] = parameters.get(i);
+		}
+		FBACheckpoint.writeArray(out, p);
+		out.writeBoolean(is_multitoxin);
+		FBACheckpoint.writeArray(out, exch_mets);
+		FBACheckpoint.writeArray(out, multiToxinParms);
+	}
+	
+	/**Reads a signal written by write()
+	 */
+	static Signal read(ByteBuffer in){
+		Signal signal = new Signal();
+		signal.lb = in.get() != 0;
+		signal.ub = in.get() != 0;
+		signal.consume_met = in.get() != 0;
+		signal.reaction = in.getInt();
+		signal.exch_met = in.getInt();
+		signal.function = ModelImage.readString(in);
+		double[] p = ModelImage.readDoubles(in);
+		if (p != null){
+			signal.parameters = new ArrayList<>();
+			for (double v : p)
+				signal.parameters.add(v);
+		}
+		signal.is_multitoxin = in.get() != 0;
+		signal.exch_mets = ModelImage.readInts(in);
+		signal.multiToxinParms = ModelImage.readDoubles2D(in);
+		return signal;
+	}
 		
 
 }
\ No newline at end of file
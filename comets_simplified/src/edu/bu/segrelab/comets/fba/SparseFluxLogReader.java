@@ -0,0 +1,228 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import edu.bu.segrelab.comets.util.TextLogBuffer;
+
+/**
+ * SparseFluxLogReader
+ * -------------------
+ * Reads a flux log written in the sparse format (see <code>SparseFluxLogWriter</code>)
+ * and rebuilds the full flux vector of each line. Logs ending in ".gz" are decompressed.
+ * <p>
+ * Delta lines for a location and model are skipped until a keyframe for them has been
+ * read, so a split log's parts can each be read on their own. A header in the middle of
+ * the log, written when the models changed, replaces the one before it.
+ * <p>
+ * From the command line:
+ * <pre>
+ * java edu.bu.segrelab.comets.fba.SparseFluxLogReader sparseLog [textLog]
+ * </pre>
+ * writes the log in the COMETS flux log format to textLog, or to standard output.
+ */
+public class SparseFluxLogReader
+{
+	private BufferedReader in;
+	private int[] numRxns;
+	private Map<Long, double[]> fluxes = new HashMap<Long, double[]>();
+
+	private long cycle;
+	private int x, y, model;
+	private boolean keyframe;
+	private double[] current;
+
+	/**
+	 * Reads the header from in.
+	 * @param in
+	 * @throws IOException if it isn't a sparse flux log
+	 */
+	public SparseFluxLogReader(Reader in) throws IOException
+	{
+		this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		String header = this.in.readLine();
+		if (header == null || !header.trim().startsWith(SparseFluxLogWriter.HEADER))
+		{
+			this.in.close();
+			throw new IOException("Not a sparse flux log");
+		}
+		readHeader(header.trim());
+	}
+
+	/**
+	 * Takes the number of reactions in each model from a header line. The models may
+	 * have been renumbered, so the fluxes read so far are dropped.
+	 */
+	private void readHeader(String header) throws IOException
+	{
+		String[] tokens = header.split("\\s+");
+		if (!tokens[0].equals(SparseFluxLogWriter.HEADER))
+			throw new IOException("Malformed sparse flux log header: " + header);
+		try
+		{
+			numRxns = new int[tokens.length - 1];
+			for (int i = 0; i < numRxns.length; i++)
+				numRxns[i] = Integer.parseInt(tokens[i + 1]);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Malformed sparse flux log header: " + header);
+		}
+		fluxes.clear();
+	}
+
+	/**
+	 * Opens a sparse flux log file.
+	 * @param file
+	 * @return the reader
+	 * @throws IOException
+	 */
+	public static SparseFluxLogReader open(File file) throws IOException
+	{
+		InputStream stream = new FileInputStream(file);
+		if (file.getName().endsWith(LogFile.GZIP_SUFFIX))
+			stream = new GZIPInputStream(stream, 1 << 16);
+		return new SparseFluxLogReader(new InputStreamReader(stream));
+	}
+
+	/**
+	 * Reads the next line that can be rebuilt.
+	 * @return false at the end of the log
+	 * @throws IOException if a line is malformed
+	 */
+	public boolean next() throws IOException
+	{
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			line = line.trim();
+			if (line.length() == 0)
+				continue;
+			if (line.startsWith(SparseFluxLogWriter.HEADER))
+			{
+				// the models changed, or a split log's parts were concatenated
+				readHeader(line);
+				continue;
+			}
+			if (parse(line))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean parse(String line) throws IOException
+	{
+		String[] tokens = line.split("\\s+");
+		if (tokens.length < 5 || tokens[4].length() != 1)
+			throw new IOException("Malformed sparse flux log line: " + line);
+		try
+		{
+			cycle = Long.parseLong(tokens[0]);
+			x = Integer.parseInt(tokens[1]);
+			y = Integer.parseInt(tokens[2]);
+			model = Integer.parseInt(tokens[3]);
+			keyframe = tokens[4].charAt(0) == SparseFluxLogWriter.KEYFRAME;
+			if (model < 1 || model > numRxns.length)
+				throw new IOException("Unknown model " + model + " in sparse flux log line: " + line);
+
+			long key = ((long) x << 42) | ((long) y << 21) | model;
+			double[] values = fluxes.get(key);
+			if (keyframe)
+			{
+				if (values == null)
+				{
+					values = new double[numRxns[model - 1]];
+					fluxes.put(key, values);
+				}
+				else
+					Arrays.fill(values, 0);
+			}
+			else if (values == null)
+				return false; // no keyframe for this location yet
+
+			for (int t = 5; t < tokens.length; t++)
+			{
+				int colon = tokens[t].indexOf(':');
+				values[Integer.parseInt(tokens[t].substring(0, colon)) - 1] = Double.parseDouble(tokens[t].substring(colon + 1));
+			}
+			current = values;
+			return true;
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("Malformed sparse flux log line: " + line);
+		}
+	}
+
+	/** @return the cycle of the current line */
+	public long getCycle() { return cycle; }
+
+	/** @return the x coordinate of the current line, from 1 */
+	public int getX() { return x; }
+
+	/** @return the y coordinate of the current line, from 1 */
+	public int getY() { return y; }
+
+	/** @return the model number of the current line, from 1 */
+	public int getModel() { return model; }
+
+	/** @return true if the current line is a keyframe */
+	public boolean isKeyframe() { return keyframe; }
+
+	/**
+	 * @return every flux of the current line's model at its location. The array is
+	 * updated by later lines for the same location and model, so copy it to keep it
+	 */
+	public double[] getFluxes() { return current; }
+
+	/** @return the number of reactions in each model */
+	public int[] getNumRxns() { return numRxns; }
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage: java edu.bu.segrelab.comets.fba.SparseFluxLogReader sparseLog [textLog]");
+			return;
+		}
+		try
+		{
+			SparseFluxLogReader reader = open(new File(args[0]));
+			PrintWriter out = args.length > 1 ? new PrintWriter(new FileWriter(new File(args[1])))
+					: new PrintWriter(System.out);
+			TextLogBuffer line = new TextLogBuffer();
+			while (reader.next())
+			{
+				line.append(reader.getCycle()).append(' ').append(reader.getX()).append(' ')
+						.append(reader.getY()).append(' ').append(reader.getModel());
+				for (double flux : reader.getFluxes())
+					line.append(' ').appendScientific(flux);
+				line.append('\n').writeTo(out);
+			}
+			out.flush();
+			if (args.length > 1)
+				out.close();
+			reader.close();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to convert sparse flux log '" + args[0] + "': " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.bu.segrelab.comets.util.TextLogBuffer;
+
+/**
+ * SparseFluxLogWriter
+ * -------------------
+ * Builds the lines of a flux log in the sparse format selected by
+ * <code>LogFormat.SPARSE</code>. The log starts with a header giving the number of
+ * reactions in each model,
+ * <pre>
+ * SPARSE_FLUX_LOG n1 n2 ... nk
+ * </pre>
+ * followed by one line for each model at each occupied location at each logged cycle,
+ * <pre>
+ * cycle x y model K i:flux i:flux ...
+ * cycle x y model D i:flux i:flux ...
+ * </pre>
+ * with x, y, the model and the reaction indices i counting from 1, as in the COMETS format.
+ * When the models change, as when evolution adds mutants or extinct models are pruned and
+ * the rest renumbered, a new header is written and the lines after it use its numbering.
+ * <p>
+ * A K (keyframe) line lists every nonzero flux; the others are zero. A D (delta) line
+ * lists only the fluxes that changed by more than the threshold since the value last
+ * written for them, and the others keep that value. Since the comparison is against the
+ * last written value rather than the last cycle's, a reconstructed flux is never off by
+ * more than the threshold.
+ * <p>
+ * With a negative threshold, every line is a keyframe. Otherwise keyframes are written
+ * every keyframeRate cycles, for a location the log hasn't seen yet, after each header,
+ * and at the start of each part of a split log, so reading can begin at any keyframe. See
+ * <code>SparseFluxLogReader</code>.
+ */
+public class SparseFluxLogWriter
+{
+	public static final String HEADER = "SPARSE_FLUX_LOG";
+	public static final char KEYFRAME = 'K';
+	public static final char DELTA = 'D';
+
+	private double threshold;
+	private int keyframeRate;
+	private long lastKeyframe = -1;
+	private boolean keyframe;
+	private String[] models;		// the models in the last header
+	private int[] numRxns;
+	private Map<Long, double[]> written = new HashMap<Long, double[]>();
+
+	/**
+	 * @param threshold the smallest change written in a delta line, or a negative number
+	 * to write only keyframes
+	 * @param keyframeRate the number of cycles between keyframes
+	 */
+	public SparseFluxLogWriter(double threshold, int keyframeRate)
+	{
+		this.threshold = threshold;
+		this.keyframeRate = Math.max(1, keyframeRate);
+	}
+
+	/**
+	 * @param numRxns the number of reactions in each model
+	 * @return the header line, without a line separator
+	 */
+	public static String header(int[] numRxns)
+	{
+		StringBuilder header = new StringBuilder(HEADER);
+		for (int n : numRxns)
+			header.append(' ').append(n);
+		return header.toString();
+	}
+
+	/**
+	 * Starts a logged cycle, deciding whether its lines are keyframes. If the models
+	 * aren't the ones in the last header, or there hasn't been one, the cycle starts with
+	 * a new header, and all its lines are keyframes.
+	 * @param cycle
+	 * @param newPart true if the log has just moved on to a new file
+	 * @param models a name for each model, different for every model in the run
+	 * @param numRxns the number of reactions in each model
+	 * @return the new header line, without a line separator, or null if the models
+	 * haven't changed
+	 */
+	public String beginCycle(long cycle, boolean newPart, String[] models, int[] numRxns)
+	{
+		String header = null;
+		if (!Arrays.equals(models, this.models) || !Arrays.equals(numRxns, this.numRxns))
+		{
+			this.models = models.clone();
+			this.numRxns = numRxns.clone();
+			header = header(numRxns);
+		}
+		keyframe = threshold < 0 || newPart || header != null || lastKeyframe < 0 || cycle - lastKeyframe >= keyframeRate;
+		if (keyframe)
+		{
+			lastKeyframe = cycle;
+			written.clear();
+		}
+		return header;
+	}
+
+	/**
+	 * Appends the line for one model at one location to line.
+	 * @param line
+	 * @param cycle
+	 * @param x from 1
+	 * @param y from 1
+	 * @param model from 1
+	 * @param fluxes
+	 */
+	public void appendLine(TextLogBuffer line, long cycle, int x, int y, int model, double[] fluxes)
+	{
+		line.append(cycle).append(' ').append(x).append(' ').append(y).append(' ').append(model);
+
+		long key = ((long) x << 42) | ((long) y << 21) | model;
+		double[] last = keyframe ? null : written.get(key);
+		if (last == null || last.length != fluxes.length)
+		{
+			line.append(' ').append(KEYFRAME);
+			for (int i = 0; i < fluxes.length; i++)
+			{
+				if (fluxes[i] != 0)
+					line.append(' ').append(i + 1).append(':').appendScientific(fluxes[i]);
+			}
+			if (threshold >= 0)
+				written.put(key, fluxes.clone());
+		}
+		else
+		{
+			line.append(' ').append(DELTA);
+			for (int i = 0; i < fluxes.length; i++)
+			{
+				if (Math.abs(fluxes[i] - last[i]) > threshold)
+				{
+					line.append(' ').append(i + 1).append(':').appendScientific(fluxes[i]);
+					last[i] = fluxes[i];
+				}
+			}
+		}
+		line.append('\n');
+	}
+}
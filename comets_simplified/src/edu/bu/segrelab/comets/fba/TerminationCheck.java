@@ -0,0 +1,201 @@
+package edu.bu.segrelab.comets.fba;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * TerminationCheck
+ * ----------------
+ * Decides from the totals of each cycle whether a simulation has nothing left to do,
+ * so it can end before maxCycles. There are three criteria, each off by default:
+ * <ul>
+ * <li>steady biomass: every model's total biomass changed by less than
+ * stopBiomassChange, relative to the cycle before
+ * <li>steady media: the summed absolute change of the media totals was less than
+ * stopMediaChange, relative to their sum the cycle before
+ * <li>infeasible: FBA was run, and no run of any model gave a usable solution
+ * </ul>
+ * The simulation ends once any of them has held for steadyStateCycles cycles in a
+ * row. Only the totals of the last cycle are kept, so each check costs a pass over the
+ * models and media.
+ * <p>
+ * Periodic media, media refresh and dilution change the media from outside, so a
+ * world that has any of them configured can look steady between two changes, or never
+ * look steady at all. The world suspends the steady biomass and media criteria while
+ * they're configured; the infeasible criterion still applies. The counts and last
+ * totals are kept in checkpoints, so a resumed run carries on counting.
+ */
+public class TerminationCheck
+{
+	private double biomassThreshold;
+	private double mediaThreshold;
+	private boolean checkInfeasible;
+	private int cyclesNeeded;
+
+	private boolean steadySuspended;
+
+	private double[] lastBiomass;
+	private double[] lastMedia;
+	private int steadyBiomassCycles, steadyMediaCycles, infeasibleCycles;
+
+	/**
+	 * @param biomassThreshold the relative biomass change, or 0 not to check it
+	 * @param mediaThreshold the relative media change, or 0 not to check it
+	 * @param checkInfeasible true to stop when no FBA run has a usable solution
+	 * @param cyclesNeeded the number of cycles in a row a criterion must hold for
+	 */
+	public TerminationCheck(double biomassThreshold, double mediaThreshold, boolean checkInfeasible, int cyclesNeeded)
+	{
+		this.biomassThreshold = biomassThreshold;
+		this.mediaThreshold = mediaThreshold;
+		this.checkInfeasible = checkInfeasible;
+		this.cyclesNeeded = Math.max(1, cyclesNeeded);
+	}
+
+	/**
+	 * @param pParams
+	 * @return a check set up from the package parameters
+	 */
+	public static TerminationCheck fromParameters(FBAParameters pParams)
+	{
+		return new TerminationCheck(pParams.getStopBiomassChange(), pParams.getStopMediaChange(),
+				pParams.getStopWhenInfeasible(), pParams.getSteadyStateCycles());
+	}
+
+	/**
+	 * @return true if any criterion is switched on
+	 */
+	public boolean isEnabled()
+	{
+		return hasSteadyCriteria() || checkInfeasible;
+	}
+
+	/**
+	 * @return true if the steady biomass or steady media criterion is switched on and
+	 * not suspended
+	 */
+	public boolean hasSteadyCriteria()
+	{
+		return !steadySuspended && (biomassThreshold > 0 || mediaThreshold > 0);
+	}
+
+	/**
+	 * Stops checking for steady biomass and media, e.g. because the media are changed
+	 * from outside the simulation.
+	 */
+	public void suspendSteadyCriteria()
+	{
+		steadySuspended = true;
+		steadyBiomassCycles = 0;
+		steadyMediaCycles = 0;
+	}
+
+	/**
+	 * Takes the totals at the end of a cycle.
+	 * @param totalBiomass each model's total biomass
+	 * @param totalMedia each medium component's total amount
+	 * @param allInfeasible true if FBA was run and none of the runs had a usable solution
+	 * @return why the simulation should end, or null if it should carry on
+	 */
+	public String update(double[] totalBiomass, double[] totalMedia, boolean allInfeasible)
+	{
+		if (biomassThreshold > 0 && !steadySuspended)
+		{
+			if (lastBiomass != null && lastBiomass.length == totalBiomass.length
+					&& maxRelativeChange(lastBiomass, totalBiomass) < biomassThreshold)
+				steadyBiomassCycles++;
+			else
+				steadyBiomassCycles = 0;
+			lastBiomass = totalBiomass.clone();
+		}
+		if (mediaThreshold > 0 && !steadySuspended)
+		{
+			if (lastMedia != null && lastMedia.length == totalMedia.length
+					&& totalRelativeChange(lastMedia, totalMedia) < mediaThreshold)
+				steadyMediaCycles++;
+			else
+				steadyMediaCycles = 0;
+			lastMedia = totalMedia.clone();
+		}
+		if (checkInfeasible)
+			infeasibleCycles = allInfeasible ? infeasibleCycles + 1 : 0;
+
+		if (steadyBiomassCycles >= cyclesNeeded)
+			return "biomass steady (relative change < " + biomassThreshold + ") for " + steadyBiomassCycles + " cycles";
+		if (steadyMediaCycles >= cyclesNeeded)
+			return "media steady (relative change < " + mediaThreshold + ") for " + steadyMediaCycles + " cycles";
+		if (infeasibleCycles >= cyclesNeeded)
+			return "no usable FBA solution for " + infeasibleCycles + " cycles";
+		return null;
+	}
+
+	/**
+	 * Writes the counts and the last totals, for a checkpoint.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeState(DataOutputStream out) throws IOException
+	{
+		out.writeInt(steadyBiomassCycles);
+		out.writeInt(steadyMediaCycles);
+		out.writeInt(infeasibleCycles);
+		FBACheckpoint.writeArray(out, lastBiomass);
+		FBACheckpoint.writeArray(out, lastMedia);
+	}
+
+	/**
+	 * Restores the state written by <code>writeState()</code>. The criteria themselves
+	 * come from the parameters, not the checkpoint.
+	 * @param in
+	 * @throws IOException
+	 */
+	public void readState(DataInputStream in) throws IOException
+	{
+		steadyBiomassCycles = in.readInt();
+		steadyMediaCycles = in.readInt();
+		infeasibleCycles = in.readInt();
+		lastBiomass = FBACheckpoint.readDoubles(in);
+		lastMedia = FBACheckpoint.readDoubles(in);
+		if (steadySuspended)
+		{
+			steadyBiomassCycles = 0;
+			steadyMediaCycles = 0;
+		}
+	}
+
+	/**
+	 * @return the largest change of any element relative to its old value. An element
+	 * that was 0 counts as unchanged only if it still is.
+	 */
+	private static double maxRelativeChange(double[] before, double[] after)
+	{
+		double max = 0;
+		for (int i = 0; i < before.length; i++)
+		{
+			double change = Math.abs(after[i] - before[i]);
+			if (change == 0)
+				continue;
+			if (before[i] == 0)
+				return Double.POSITIVE_INFINITY;
+			max = Math.max(max, change / Math.abs(before[i]));
+		}
+		return max;
+	}
+
+	/**
+	 * @return the summed absolute change relative to the summed old values
+	 */
+	private static double totalRelativeChange(double[] before, double[] after)
+	{
+		double change = 0, total = 0;
+		for (int i = 0; i < before.length; i++)
+		{
+			change += Math.abs(after[i] - before[i]);
+			total += Math.abs(before[i]);
+		}
+		if (change == 0)
+			return 0;
+		return total == 0 ? Double.POSITIVE_INFINITY : change / total;
+	}
+}
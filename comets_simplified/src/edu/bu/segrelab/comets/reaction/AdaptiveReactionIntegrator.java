@@ -0,0 +1,313 @@
+package edu.bu.segrelab.comets.reaction;
+
+/**An adaptive integrator for the extracellular reactions at a single grid point.
+ *
+ * It takes Dormand-Prince 5(4) steps, sized so that the local error stays within the
+ * given tolerances, so points with slow kinetics cross the whole timestep in one or two
+ * steps. If the problem turns out to be stiff (detected as in Hairer and Wanner, Solving
+ * ODEs II, section IV.2) or the step size collapses, the rest of the interval is handed
+ * to a linearly implicit two-stage Rosenbrock method (ROS2, Verwer et al. 1999) that uses
+ * a finite difference Jacobian.
+ *
+ * An instance keeps its work arrays between calls and is not thread safe, so each worker
+ * should have its own. Accepted and rejected steps, and integrations that failed to reach
+ * the end of the interval, are counted until resetCounts() is called.
+ *
+ */
+public class AdaptiveReactionIntegrator {
+
+	//Dormand-Prince 5(4) tableau
+	private static final double A21 = 1.0/5.0;
+	private static final double A31 = 3.0/40.0, A32 = 9.0/40.0;
+	private static final double A41 = 44.0/45.0, A42 = -56.0/15.0, A43 = 32.0/9.0;
+	private static final double A51 = 19372.0/6561.0, A52 = -25360.0/2187.0, A53 = 64448.0/6561.0, A54 = -212.0/729.0;
+	private static final double A61 = 9017.0/3168.0, A62 = -355.0/33.0, A63 = 46732.0/5247.0, A64 = 49.0/176.0,
+			A65 = -5103.0/18656.0;
+	private static final double B1 = 35.0/384.0, B3 = 500.0/1113.0, B4 = 125.0/192.0, B5 = -2187.0/6784.0, B6 = 11.0/84.0;
+	private static final double E1 = 71.0/57600.0, E3 = -71.0/16695.0, E4 = 71.0/1920.0, E5 = -17253.0/339200.0,
+			E6 = 22.0/525.0, E7 = -1.0/40.0;
+
+	//ROS2 parameter
+	private static final double GAMMA = 1.0 + 1.0/Math.sqrt(2.0);
+
+	private static final double SAFETY = 0.9;
+	private static final double MIN_SCALE = 0.2;
+	private static final double MAX_SCALE = 5.0;
+	private static final double STIFF_LIMIT = 3.25; //h*lambda beyond which DP5 is limited by stability
+	private static final int STIFF_STEPS = 15; //limited steps before switching
+	private static final int NONSTIFF_STEPS = 6; //unlimited steps in a row that clear the count
+	private static final int MAX_EXPLICIT_STEPS = 1000;
+	private static final int MAX_EXPLICIT_REJECTIONS = 50; //stability limits show up as repeated rejections too
+
+	private double relTol;
+	private double absTol;
+
+	private int n = -1;
+	private double[] k1, k2, k3, k4, k5, k6, k7, yStage, yNew, err;
+	private double[][] jacobian;
+	private int[] pivots;
+
+	private int steps, rejections, stiffPoints, failedPoints;
+
+	public AdaptiveReactionIntegrator(double relTol, double absTol) {
+		setTolerances(relTol, absTol);
+	}
+
+	public void setTolerances(double relTol, double absTol) {
+		this.relTol = relTol;
+		this.absTol = absTol;
+	}
+
+	/**Integrate the ODE from 0 to duration, replacing y with the result.
+	 *
+	 * @param ode
+	 * @param y the concentrations at the start, overwritten by those at the end
+	 * @param duration length of the interval, in seconds
+	 * @return false if the integration failed partway: the implicit method's step size
+	 * collapsed, its iteration matrix stayed singular or the error estimate wasn't a number.
+	 * y is then left at the last accepted time, and the failure is counted in getFailedPoints().
+	 */
+	public boolean integrate(ReactionODE ode, double[] y, double duration) {
+		allocate(y.length);
+		double t = 0.0;
+		double h = duration;
+		double minStep = duration * 1e-12;
+		int explicitSteps = 0;
+		int explicitRejections = 0;
+		int limitedSteps = 0;
+		int freeSteps = 0;
+
+		ode.computeDerivatives(t, y, k1);
+		while (t < duration) {
+			h = Math.min(h, duration - t);
+
+			//the stages
+			for (int i = 0; i < n; i++) yStage[i] = y[i] + h * A21 * k1[i];
+			ode.computeDerivatives(t, yStage, k2);
+			for (int i = 0; i < n; i++) yStage[i] = y[i] + h * (A31 * k1[i] + A32 * k2[i]);
+			ode.computeDerivatives(t, yStage, k3);
+			for (int i = 0; i < n; i++) yStage[i] = y[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+			ode.computeDerivatives(t, yStage, k4);
+			for (int i = 0; i < n; i++) yStage[i] = y[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+			ode.computeDerivatives(t, yStage, k5);
+			for (int i = 0; i < n; i++) yStage[i] = y[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i]
+					+ A65 * k5[i]);
+			ode.computeDerivatives(t, yStage, k6);
+			for (int i = 0; i < n; i++) yNew[i] = y[i] + h * (B1 * k1[i] + B3 * k3[i] + B4 * k4[i] + B5 * k5[i] + B6 * k6[i]);
+			ode.computeDerivatives(t, yNew, k7);
+
+			for (int i = 0; i < n; i++) err[i] = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i]
+					+ E7 * k7[i]);
+			double errNorm = errorNorm(y, yNew, err);
+
+			if (errNorm <= 1.0) {
+				//accept
+				steps++;
+				explicitSteps++;
+
+				//estimate h*lambda from the last two stages, which share the same time
+				double num = 0.0, den = 0.0;
+				for (int i = 0; i < n; i++) {
+					num += (k7[i] - k6[i]) * (k7[i] - k6[i]);
+					den += (yNew[i] - yStage[i]) * (yNew[i] - yStage[i]);
+				}
+				if (den > 0 && h * Math.sqrt(num / den) > STIFF_LIMIT) {
+					limitedSteps++;
+					freeSteps = 0;
+				}
+				else if (++freeSteps >= NONSTIFF_STEPS) limitedSteps = 0;
+
+				t += h;
+				System.arraycopy(yNew, 0, y, 0, n);
+				System.arraycopy(k7, 0, k1, 0, n); //first same as last
+				h *= scale(errNorm, 5.0);
+
+				if (t < duration && (limitedSteps >= STIFF_STEPS || explicitSteps >= MAX_EXPLICIT_STEPS)) {
+					stiffPoints++;
+					return integrateImplicit(ode, y, t, duration, h);
+				}
+			}
+			else {
+				rejections++;
+				explicitRejections++;
+				h *= rejectionScale(errNorm, 5.0);
+				if (h < minStep || Double.isNaN(errNorm) || explicitRejections >= MAX_EXPLICIT_REJECTIONS) {
+					stiffPoints++;
+					return integrateImplicit(ode, y, t, duration, Math.max(h, minStep));
+				}
+			}
+		}
+		return true;
+	}
+
+	/**Continue with ROS2 steps from t to duration.
+	 * @return false, counting a failed point, if the step size falls below the minimum
+	 */
+	private boolean integrateImplicit(ReactionODE ode, double[] y, double t, double duration, double h) {
+		double minStep = duration * 1e-15;
+		while (t < duration) {
+			h = Math.min(h, duration - t);
+
+			//(I - gamma*h*J) k1 = f(y)
+			ode.computeDerivatives(t, y, k3);
+			buildIterationMatrix(ode, y, k3, t, h);
+			if (!decompose()) {
+				//singular, so try a smaller step
+				h *= MIN_SCALE;
+				rejections++;
+				if (h < minStep) return fail();
+				continue;
+			}
+			System.arraycopy(k3, 0, k1, 0, n);
+			solve(k1);
+
+			//(I - gamma*h*J) k2 = f(y + h*k1) - 2*k1
+			for (int i = 0; i < n; i++) yStage[i] = y[i] + h * k1[i];
+			ode.computeDerivatives(t + h, yStage, k2);
+			for (int i = 0; i < n; i++) k2[i] -= 2.0 * k1[i];
+			solve(k2);
+
+			for (int i = 0; i < n; i++) {
+				yNew[i] = y[i] + h * (1.5 * k1[i] + 0.5 * k2[i]);
+				err[i] = h * 0.5 * (k1[i] + k2[i]); //against the first order solution y + h*k1
+			}
+			double errNorm = errorNorm(y, yNew, err);
+			if (errNorm <= 1.0) {
+				steps++;
+				t += h;
+				System.arraycopy(yNew, 0, y, 0, n);
+				h *= scale(errNorm, 2.0);
+			}
+			else {
+				rejections++;
+				h *= rejectionScale(errNorm, 2.0);
+				if (h < minStep) return fail();
+			}
+		}
+		return true;
+	}
+
+	private boolean fail() {
+		failedPoints++;
+		return false;
+	}
+
+	/**Fill jacobian with I - gamma*h*J, where J is a forward difference estimate of df/dy at y.
+	 */
+	private void buildIterationMatrix(ReactionODE ode, double[] y, double[] f, double t, double h) {
+		for (int j = 0; j < n; j++) {
+			double yj = y[j];
+			double delta = 1.5e-8 * Math.max(Math.abs(yj), absTol);
+			y[j] = yj + delta;
+			ode.computeDerivatives(t, y, k4);
+			y[j] = yj;
+			for (int i = 0; i < n; i++) {
+				jacobian[i][j] = -GAMMA * h * (k4[i] - f[i]) / delta;
+			}
+			jacobian[j][j] += 1.0;
+		}
+	}
+
+	/**LU decomposition of jacobian in place, with partial pivoting.
+	 * @return false if the matrix is singular
+	 */
+	private boolean decompose() {
+		for (int c = 0; c < n; c++) {
+			int p = c;
+			for (int r = c + 1; r < n; r++) {
+				if (Math.abs(jacobian[r][c]) > Math.abs(jacobian[p][c])) p = r;
+			}
+			pivots[c] = p;
+			if (jacobian[p][c] == 0.0 || Double.isNaN(jacobian[p][c])) return false;
+			if (p != c) {
+				double[] tmp = jacobian[p];
+				jacobian[p] = jacobian[c];
+				jacobian[c] = tmp;
+			}
+			for (int r = c + 1; r < n; r++) {
+				double f = jacobian[r][c] / jacobian[c][c];
+				jacobian[r][c] = f;
+				for (int k = c + 1; k < n; k++) jacobian[r][k] -= f * jacobian[c][k];
+			}
+		}
+		return true;
+	}
+
+	/**Solve with the decomposed matrix, replacing b with the solution.
+	 */
+	private void solve(double[] b) {
+		for (int c = 0; c < n; c++) {
+			int p = pivots[c];
+			if (p != c) {
+				double tmp = b[p];
+				b[p] = b[c];
+				b[c] = tmp;
+			}
+			for (int r = c + 1; r < n; r++) b[r] -= jacobian[r][c] * b[c];
+		}
+		for (int r = n - 1; r >= 0; r--) {
+			double sum = b[r];
+			for (int k = r + 1; k < n; k++) sum -= jacobian[r][k] * b[k];
+			b[r] = sum / jacobian[r][r];
+		}
+	}
+
+	private double errorNorm(double[] y, double[] yNew, double[] err) {
+		double sum = 0.0;
+		for (int i = 0; i < n; i++) {
+			double sc = absTol + relTol * Math.max(Math.abs(y[i]), Math.abs(yNew[i]));
+			double e = err[i] / sc;
+			sum += e * e;
+		}
+		return n > 0 ? Math.sqrt(sum / n) : 0.0;
+	}
+
+	private static double scale(double errNorm, double order) {
+		if (errNorm == 0.0) return MAX_SCALE;
+		return Math.min(MAX_SCALE, Math.max(MIN_SCALE, SAFETY * Math.pow(errNorm, -1.0/order)));
+	}
+
+	/**The step size factor after a rejection. An error estimate that isn't a number
+	 * shrinks the step as much as allowed, rather than making it NaN too.
+	 */
+	private static double rejectionScale(double errNorm, double order) {
+		if (Double.isNaN(errNorm)) return MIN_SCALE;
+		return Math.max(MIN_SCALE, SAFETY * Math.pow(errNorm, -1.0/order));
+	}
+
+	private void allocate(int dim) {
+		if (dim == n) return;
+		n = dim;
+		k1 = new double[n];
+		k2 = new double[n];
+		k3 = new double[n];
+		k4 = new double[n];
+		k5 = new double[n];
+		k6 = new double[n];
+		k7 = new double[n];
+		yStage = new double[n];
+		yNew = new double[n];
+		err = new double[n];
+		jacobian = new double[n][n];
+		pivots = new int[n];
+	}
+
+	/**@return the number of accepted steps since the last resetCounts() */
+	public int getSteps() {return steps;}
+
+	/**@return the number of rejected steps since the last resetCounts() */
+	public int getRejections() {return rejections;}
+
+	/**@return the number of integrations that switched to the implicit method since the last resetCounts() */
+	public int getStiffPoints() {return stiffPoints;}
+
+	/**@return the number of integrations that failed to reach the end of their interval since the last resetCounts() */
+	public int getFailedPoints() {return failedPoints;}
+
+	public void resetCounts() {
+		steps = 0;
+		rejections = 0;
+		stiffPoints = 0;
+		failedPoints = 0;
+	}
+}
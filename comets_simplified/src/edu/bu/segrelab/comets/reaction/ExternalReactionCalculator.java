@@ -19,7 +19,7 @@ public class ExternalReactionCalculator{
 	double[][] params; //either the Michaelis constant or the reaction order
 	double timestep; //in *SECONDS*, whereas Comets stores the timestep in hours
 	
-	double errorThreshold = FBAParameters.getMinConcentration(); //in millimolar units 
+	double errorThreshold = 1e-26; //in millimolar units, see setErrorThreshold() 
 	
 	protected enum CalcStatus{
 		PENDING, //is in process or hasn't run yet
@@ -51,10 +51,10 @@ public class ExternalReactionCalculator{
 		
 		if(cell.getCometsParameters().getNumLayers() == 1){ //2d World
 			FBAWorld world = (FBAWorld) cell.getComets().getWorld();
-			exRxnEnzymes = IWorld.reactionModel.getExRxnEnzymes();
-			exRxnRateConstants = IWorld.reactionModel.getExRxnRateConstants();
-			stoich = IWorld.reactionModel.getExRxnStoich();
-			params = IWorld.reactionModel.getExRxnParams();
+			exRxnEnzymes = IWorld.getReactionModel().getExRxnEnzymes();
+			exRxnRateConstants = IWorld.getReactionModel().getExRxnRateConstants();
+			stoich = IWorld.getReactionModel().getExRxnStoich();
+			params = IWorld.getReactionModel().getExRxnParams();
 		}
 		else if (cell.getCometsParameters().getNumLayers() > 1){ //3D world
 			FBAWorld3D world = (FBAWorld3D) cell.getComets().getWorld3D();
@@ -63,7 +63,9 @@ public class ExternalReactionCalculator{
 			stoich = world.getExRxnStoich();
 			params = world.getExRxnParams();
 		}
-		return new ExternalReactionCalculator(concentrations, exRxnEnzymes, exRxnRateConstants, stoich, params, timestep_seconds);
+		ExternalReactionCalculator calc = new ExternalReactionCalculator(concentrations, exRxnEnzymes, exRxnRateConstants, stoich, params, timestep_seconds);
+		calc.setErrorThreshold(((FBAParameters) cell.getComets().getPackageParameters()).getMinConcentration());
+		return calc;
 	}
 	
 	//Get the rate according to Michaelis-Menten kinetics
@@ -323,4 +325,9 @@ public class ExternalReactionCalculator{
 	}*/
 
 	public CalcStatus getStatus() {return status;}
+
+	/**Sets the concentration below which a result counts as depleted. It should be the
+	 * simulation's minConcentration; until it's set, the parameter's default is used.
+	 */
+	public void setErrorThreshold(double minConcentration) {errorThreshold = minConcentration;}
 }
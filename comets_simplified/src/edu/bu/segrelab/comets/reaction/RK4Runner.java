@@ -1,112 +1,134 @@
 package edu.bu.segrelab.comets.reaction;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.bu.segrelab.comets.Cell;
 import edu.bu.segrelab.comets.Comets;
+import edu.bu.segrelab.comets.IWorld;
 import edu.bu.segrelab.comets.fba.FBACell;
 import edu.bu.segrelab.comets.fba.FBAParameters;
-import edu.bu.segrelab.comets.fba.FBAWorld;
-import edu.bu.segrelab.comets.fba.FBAWorld3D;
 
 /**A class to execute external reaction using the Runge-Kutta algorithm in a multithreaded
  * environment
- * 
+ *
+ * The cells are split into tiles which are run on the pool shared with the ReactionModel.
+ * The pool always has numRunThreads threads, so it's kept from cycle to cycle; only the
+ * number of workers is limited by the number of cells. Each cell's result goes into its own slot of the
+ * result array, so the workers never need a lock, and the media are written back to the
+ * world once every tile is finished.
+ *
  * @author mquintin
  * @date 4/21/2017
  */
 public class RK4Runner {
 
-	private Stack<FBACell> cellsToRun;
-	public boolean done = false;
-	public double[][][][] result;
-	private int liveThreads;
+	protected static final int TILES_PER_WORKER = 4;
+
+	private FBACell[] cells;
+	private int poolThreads;
 	private int maxThreads;
-	private RK4Calc[] threads;
+	private ReactionModel reactionModel;
+	private double timestep_seconds;
+	private double minConcentration;
+	public double[][] result; //the reaction media at each cell after the run, in the same order as the cells
 
 	public RK4Runner(Comets c){
-		cellsToRun = new Stack<FBACell>(); 
 		List<Cell> fbacells = c.getCells();
-		for (Cell cell : fbacells){ 
-			cellsToRun.add((FBACell) cell);
-			//TODO: Find a way to future proof this instead of casting? 
-			//For now we're assuming this class will only ever be invoked 
+		cells = new FBACell[fbacells.size()];
+		for (int i = 0; i < cells.length; i++){
+			cells[i] = (FBACell) fbacells.get(i);
+			//TODO: Find a way to future proof this instead of casting?
+			//For now we're assuming this class will only ever be invoked
 			//by an FBAWorld or an FBAWorld3D
 			}
 		FBAParameters pParams = (FBAParameters) c.getPackageParameters();
-		maxThreads = Math.min(pParams.getNumRunThreads(), cellsToRun.size());
+		poolThreads = Math.max(1, pParams.getNumRunThreads());
+		maxThreads = Math.min(poolThreads, Math.max(1, cells.length));
+		reactionModel = IWorld.getReactionModel();
+		timestep_seconds = c.getParameters().getTimeStep() * 60 * 60;
+		minConcentration = pParams.getMinConcentration();
 	}
-	
-	public void run(){
-		//create threads
-		threads = new RK4Calc[maxThreads];
-		for (int i = 0; i < maxThreads; i++){
-			threads[i] = new RK4Calc(this);
+
+	/**Run the reactions at every cell's location and update the world's media.
+	 * @return 1 if the reactions were run, 0 if there weren't any to run or the run was interrupted
+	 */
+	public int run(){
+		if (!reactionModel.isSetUp() || cells.length == 0) return 0;
+
+		final int[] worldIdxs = reactionModel.getMediaIdxs();
+		final IWorld world = reactionModel.getWorld();
+		final int numCells = cells.length;
+		result = new double[numCells][];
+
+		if (maxThreads == 1){
+			runCells(world, worldIdxs, 0, numCells);
 		}
-		//Kick off the threads
-		for (int i = 0; i < maxThreads; i++){
-			threads[i].run();
+		else {
+			final int numTiles = Math.min(numCells, maxThreads * TILES_PER_WORKER);
+			ExecutorService executor = reactionModel.getExecutor(poolThreads);
+			List<Future<?>> tiles = new ArrayList<Future<?>>(maxThreads);
+			final AtomicInteger nextTile = new AtomicInteger();
+			for (int w = 0; w < maxThreads; w++){
+				tiles.add(executor.submit(new Runnable(){
+					@Override
+					public void run() {
+						int tile;
+						while ((tile = nextTile.getAndIncrement()) < numTiles){
+							runCells(world, worldIdxs, (int)((long) tile * numCells / numTiles),
+									(int)((long) (tile + 1) * numCells / numTiles));
+						}
+					}
+				}));
+			}
+			for (Future<?> tile : tiles){
+				try {
+					tile.get();
+				}
+				catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					return 0;
+				}
+				catch (ExecutionException e){
+					throw new RuntimeException("Error while running extracellular reactions", e.getCause());
+				}
+			}
 		}
-		//loop until the threads are done. This is probably not how you're supposed to do this...
-		while (!done){ }
-	}
-	
-	//count the number of active threads so we'll know we're not done
-	public synchronized void registerLiveThread(){
-		liveThreads += 1;
-		done = false;
-	}
-	
-	//count the number of completed threads so we'll know when we're done
-	public synchronized void registerFinishedThread(){
-		liveThreads -= 1;
-		if (liveThreads == 0) done = true;
-	}
-	
-	public synchronized boolean processAndResetCalc(RK4Calc calc){
-		//add the result to the matrix
-		if (calc.result != null) this.result[calc.x][calc.y][calc.z] = calc.result;
-		//reload the calculator
-		boolean resume = !cellsToRun.isEmpty();
-		if (resume){
-			FBACell fbacell = cellsToRun.pop();
-			calc.setFBACell(fbacell);
+
+		//write the results back to the world
+		for (int i = 0; i < numCells; i++){
+			if (result[i] == null) continue;
+			FBACell cell = cells[i];
+			double[] worldMedia = world.getMediaAt(cell.getX(), cell.getY(), cell.getZ());
+			for (int j = 0; j < worldIdxs.length; j++){
+				worldMedia[worldIdxs[j]] = result[i][j];
+			}
+			world.setMedia(cell.getX(), cell.getY(), cell.getZ(), worldMedia);
 		}
-		//tell the thread whether it should continue
-		return resume;
+		return 1;
 	}
-	
-	//Runnable wrapper for the ExternalReactionCalculator that does the math
-	protected class RK4Calc extends Thread{
-		private RK4Runner runner; //the RK4Runner that holds this thread
-		private ExternalReactionCalculator calc;
-		public double[] result;
-		public boolean done = false;
-		public int x,y,z; //coordinates of the FBAcell in the world
-		
-		public RK4Calc(RK4Runner runner){
-			this.runner = runner;
-		}
 
-		public void setFBACell(FBACell fbacell){
-			x = fbacell.getX();
-			y = fbacell.getY();
-			z = fbacell.getZ(); //always 0 for 2D cells
-			calc = ExternalReactionCalculator.createCalculator(fbacell);
-			result = null;
-			done = false;
-		}
-		
-		@Override
-		public void run() {
-			runner.registerLiveThread();
-			while (runner.processAndResetCalc(this)){
-				result = calc.rk4();
+	/**Run the cells from index start (inclusive) to end (exclusive), storing each cell's result
+	 * in its own slot. Nothing is written to the world here.
+	 */
+	private void runCells(IWorld world, int[] worldIdxs, int start, int end){
+		for (int i = start; i < end; i++){
+			FBACell cell = cells[i];
+			//z is always 0 for 2D cells
+			double[] worldMedia = world.getMediaAt(cell.getX(), cell.getY(), cell.getZ());
+			double[] rxnMedia = new double[worldIdxs.length];
+			for (int j = 0; j < worldIdxs.length; j++){
+				rxnMedia[j] = worldMedia[worldIdxs[j]];
 			}
-			done = true;
-			runner.registerFinishedThread();
+			ExternalReactionCalculator calc = new ExternalReactionCalculator(rxnMedia,
+					reactionModel.getExRxnEnzymes(), reactionModel.getExRxnRateConstants(),
+					reactionModel.getExRxnStoich(), reactionModel.getExRxnParams(), timestep_seconds);
+			calc.setErrorThreshold(minConcentration);
+			result[i] = calc.rk4();
 		}
 	}
 }
-
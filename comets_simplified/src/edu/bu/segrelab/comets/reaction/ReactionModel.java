@@ -1,7 +1,14 @@
 package edu.bu.segrelab.comets.reaction;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JComponent;
 
@@ -41,6 +48,13 @@ public class ReactionModel extends Model implements CometsConstants {
 	protected String[] initialMetNames;
 
 	protected IWorld world;
+	
+	protected static final int TILES_PER_WORKER = 4;
+	protected PointIntegrator[] workers; //one per thread, kept between cycles
+	private ExecutorService executor;
+	private int executorThreads;
+	private final List<Thread> poolThreads = new ArrayList<Thread>(); //the executor's threads, for profiling
+	private int lastPointsRun, lastSteps, lastRejections, lastStiffPoints, lastFailedPoints;
 	//protected boolean worldIs3D = false;
 	//protected int x,y,z;
 	
@@ -307,40 +321,212 @@ public class ReactionModel extends Model implements CometsConstants {
 		int[] worldIdxs = getMediaIdxs(); //locations of the media in the world's lists
 		int[] dims = world.getDims();
 		double timestep_seconds = world.getComets().getParameters().getTimeStep() * 60 * 60;
-		int maxIterations = ((FBAParameters) world.getComets().getPackageParameters()).getNumExRxnSubsteps();
-		//loop over all cells
-		for (int x = 0; x < dims[0]; x++){
-			for (int y = 0; y < dims[1]; y++){
-				for (int z = 0; z < dims[2]; z++){
-					//pull the concentrations of the media involved in the reactions
-					double[] worldMedia = world.getMediaAt(x, y, z);
-					double[] rxnMedia = new double[worldIdxs.length];
-					
-					for (int i = 0; i < worldIdxs.length; i++){
-						rxnMedia[i] = worldMedia[worldIdxs[i]];
-					}
-					
-					//do the math
-					//deprecated version: //double[] result = runAsSingleStep(rxnMedia, exRxnEnzymes, exRxnRateConstants, exRxnStoich, exRxnParams, timestep_seconds, 0, maxIterations);
-					double[] result = executeODE(rxnMedia, timestep_seconds, maxIterations); 
-					
-					if (DEBUG){
-								String resStr = "";
-						for (double d : result) resStr = resStr + " " + String.valueOf(d);
-						System.out.println("Extracellular reaction results: " + resStr);
+		FBAParameters pParams = (FBAParameters) world.getComets().getPackageParameters();
+		int maxIterations = pParams.getNumExRxnSubsteps();
+		final int numPoints = dims[0] * dims[1] * dims[2];
+		int numWorkers = Math.max(1, Math.min(pParams.getNumRunThreads(), numPoints));
+		
+		if (workers == null || workers.length != numWorkers)
+			workers = new PointIntegrator[numWorkers];
+		for (int w = 0; w < numWorkers; w++){
+			if (workers[w] == null) workers[w] = new PointIntegrator();
+			workers[w].prepare(worldIdxs, dims, timestep_seconds, maxIterations, pParams);
+		}
+		
+		if (numWorkers == 1){
+			workers[0].integrate(0, numPoints);
+			countSteps(numWorkers);
+			return 1;
+		}
+		
+		//split the grid into tiles of consecutive points, several per worker so that
+		//tiles with lots of reacting points don't hold everybody else up
+		final int numTiles = Math.min(numPoints, numWorkers * TILES_PER_WORKER);
+		ExecutorService executor = getExecutor(Math.max(1, pParams.getNumRunThreads()));
+		List<Future<?>> tiles = new ArrayList<Future<?>>(numTiles);
+		final AtomicInteger nextTile = new AtomicInteger();
+		for (int w = 0; w < numWorkers; w++){
+			final PointIntegrator worker = workers[w];
+			tiles.add(executor.submit(new Runnable(){
+				@Override
+				public void run() {
+					int tile;
+					while ((tile = nextTile.getAndIncrement()) < numTiles){
+						worker.integrate((int)((long) tile * numPoints / numTiles), 
+								(int)((long) (tile + 1) * numPoints / numTiles));
 					}
-					
-					//apply the changed media to the appropriate position in the full media list
-					for (int i = 0; i < worldIdxs.length; i++){
-						worldMedia[worldIdxs[i]] = result[i];
-					}					
-					world.setMedia(x, y, z, worldMedia); //update the World.media
 				}
+			}));
+		}
+		for (Future<?> tile : tiles){
+			try {
+				tile.get();
+			}
+			catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				return 0;
+			}
+			catch (ExecutionException e){
+				throw new RuntimeException("Error while running extracellular reactions", e.getCause());
 			}
 		}
+		countSteps(numWorkers);
 		return 1;
 	}
 	
+	/**Add up the workers' counts from the last run. The world passes them on to its profiler;
+	 * points where the adaptive integrator failed are also reported here.
+	 */
+	private void countSteps(int numWorkers){
+		lastPointsRun = 0;
+		lastSteps = 0;
+		lastRejections = 0;
+		lastStiffPoints = 0;
+		lastFailedPoints = 0;
+		for (int w = 0; w < numWorkers; w++){
+			lastPointsRun += workers[w].pointsRun;
+			if (workers[w].adaptive != null){
+				lastSteps += workers[w].adaptive.getSteps();
+				lastRejections += workers[w].adaptive.getRejections();
+				lastStiffPoints += workers[w].adaptive.getStiffPoints();
+				lastFailedPoints += workers[w].adaptive.getFailedPoints();
+			}
+		}
+		if (lastFailedPoints > 0){
+			System.out.println("Extracellular reactions: the adaptive integrator failed at " + lastFailedPoints 
+					+ " points, whose media were only integrated partway through the timestep");
+		}
+	}
+	
+	/**@return the number of grid points where reactions were integrated during the last run */
+	public int getLastPointsRun() {return lastPointsRun;}
+	
+	/**@return the number of accepted adaptive steps taken during the last run */
+	public int getLastSteps() {return lastSteps;}
+	
+	/**@return the number of rejected adaptive steps during the last run */
+	public int getLastRejections() {return lastRejections;}
+	
+	/**@return the number of points where the adaptive integrator switched to its implicit method during the last run */
+	public int getLastStiffPoints() {return lastStiffPoints;}
+	
+	/**@return the number of points where the adaptive integrator failed to reach the end of the timestep during the last run */
+	public int getLastFailedPoints() {return lastFailedPoints;}
+	
+	/**Return the pool used to integrate tiles of the grid, building it if it doesn't have numThreads threads.
+	 * Callers size it by numRunThreads, not by how much work there is, so it isn't rebuilt when the
+	 * number of points or cells changes. The threads are daemons, so an idle pool doesn't keep COMETS
+	 * from exiting. The RK4Runner shares it.
+	 */
+	ExecutorService getExecutor(int numThreads){
+		if (executor == null || executorThreads != numThreads){
+			shutdownExecutor();
+			executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ReactionThread-" + count++);
+					t.setDaemon(true);
+					synchronized (poolThreads) {
+						poolThreads.add(t);
+					}
+					return t;
+				}
+			});
+			executorThreads = numThreads;
+		}
+		return executor;
+	}
+	
+	/**@return the threads the pool has started so far, so the profiler can count their work along
+	 * with the simulation thread's, or null if there's no pool. They're started as tiles are handed
+	 * out, so the first cycle run on the pool isn't counted in full.
+	 */
+	public Thread[] getPoolThreads(){
+		synchronized (poolThreads) {
+			return poolThreads.isEmpty() ? null : poolThreads.toArray(new Thread[poolThreads.size()]);
+		}
+	}
+	
+	private void shutdownExecutor(){
+		if (executor != null) executor.shutdown();
+		synchronized (poolThreads) {
+			poolThreads.clear();
+		}
+	}
+	
+	/**Integrates the reactions over a range of grid points. Each worker keeps its own integrator and
+	 * concentration buffer between points and between cycles, so nothing is allocated per point.
+	 */
+	protected class PointIntegrator {
+		private int[] worldIdxs;
+		private int dimY, dimZ;
+		private double timestep_seconds;
+		private double[] rxnMedia;
+		private ClassicalRungeKuttaIntegrator integrator;
+		private double stepsize;
+		private AdaptiveReactionIntegrator adaptive; //null unless the adaptive integrator is selected
+		private int pointsRun;
+		
+		private void prepare(int[] worldIdxs, int[] dims, double timestep_seconds, int maxIterations, 
+				FBAParameters pParams){
+			this.worldIdxs = worldIdxs;
+			this.dimY = dims[1];
+			this.dimZ = dims[2];
+			this.timestep_seconds = timestep_seconds;
+			pointsRun = 0;
+			if (rxnMedia == null || rxnMedia.length != worldIdxs.length) rxnMedia = new double[worldIdxs.length];
+			if (pParams.getExRxnIntegrator() == FBAParameters.ExRxnIntegrator.ADAPTIVE){
+				if (adaptive == null) adaptive = new AdaptiveReactionIntegrator(pParams.getExRxnRelTol(), pParams.getExRxnAbsTol());
+				else adaptive.setTolerances(pParams.getExRxnRelTol(), pParams.getExRxnAbsTol());
+				adaptive.resetCounts();
+				return;
+			}
+			adaptive = null;
+			double newStepsize = timestep_seconds / (double) maxIterations;
+			if (integrator == null || newStepsize != stepsize){
+				integrator = new ClassicalRungeKuttaIntegrator(newStepsize);
+				stepsize = newStepsize;
+			}
+		}
+		
+		/**Run the points from index start (inclusive) to end (exclusive), where points are numbered
+		 * by z, then y, then x.
+		 */
+		private void integrate(int start, int end){
+			for (int p = start; p < end; p++){
+				int x = p / (dimY * dimZ);
+				int y = (p / dimZ) % dimY;
+				int z = p % dimZ;
+				//pull the concentrations of the media involved in the reactions
+				double[] worldMedia = world.getMediaAt(x, y, z);
+				for (int i = 0; i < worldIdxs.length; i++){
+					rxnMedia[i] = worldMedia[worldIdxs[i]];
+				}
+				
+				//nothing can react here, so the media wouldn't change
+				if (reactionODE.isIdle(rxnMedia)) continue;
+				
+				//do the math. The integrators are allowed to write the result over their input
+				if (adaptive != null) adaptive.integrate(reactionODE, rxnMedia, timestep_seconds);
+				else integrator.integrate(reactionODE, 0.0, rxnMedia, timestep_seconds, rxnMedia);
+				pointsRun++;
+				
+				if (DEBUG){
+					String resStr = "";
+					for (double d : rxnMedia) resStr = resStr + " " + String.valueOf(d);
+					System.out.println("Extracellular reaction results: " + resStr);
+				}
+				
+				//apply the changed media to the appropriate position in the full media list
+				for (int i = 0; i < worldIdxs.length; i++){
+					worldMedia[worldIdxs[i]] = rxnMedia[i];
+				}					
+				world.setMedia(x, y, z, worldMedia); //update the World.media
+			}
+		}
+	}
+	
 	/**Create an instance of {@link FirstOrderDifferentialEquations} to be solved with your preferred {@link FirstOrderIntegrator#integrate} method
 	 * 
 	 * @return array of concentrations for the reaction media after execution
@@ -349,6 +535,17 @@ public class ReactionModel extends Model implements CometsConstants {
 		double stepsize = timestep_seconds / (double) maxIterations;
 		double[] media = new double[rxnMedia.length];
 		
+		if (world != null && ((FBAParameters) world.getComets().getPackageParameters()).getExRxnIntegrator() 
+				== FBAParameters.ExRxnIntegrator.ADAPTIVE){
+			FBAParameters pParams = (FBAParameters) world.getComets().getPackageParameters();
+			System.arraycopy(rxnMedia, 0, media, 0, rxnMedia.length);
+			if (!new AdaptiveReactionIntegrator(pParams.getExRxnRelTol(), pParams.getExRxnAbsTol())
+					.integrate(reactionODE, media, timestep_seconds)){
+				System.out.println("Extracellular reactions: the adaptive integrator failed, so the media were only integrated partway through the timestep");
+			}
+			return media;
+		}
+		
 		ClassicalRungeKuttaIntegrator crk = new ClassicalRungeKuttaIntegrator(stepsize);
 		crk.integrate(reactionODE, 0.0, rxnMedia, timestep_seconds, media);
 		
@@ -373,6 +570,8 @@ public class ReactionModel extends Model implements CometsConstants {
 			double[][] exRxnStoich, double[][] exRxnParams, double timestep_seconds, int iteration, int maxIterations) {
 		ExternalReactionCalculator calc = 
 				new ExternalReactionCalculator(rxnMedia,exRxnEnzymes,exRxnRateConstants,exRxnStoich,exRxnParams,timestep_seconds);
+		double minConcentration = ((FBAParameters) world.getComets().getPackageParameters()).getMinConcentration();
+		calc.setErrorThreshold(minConcentration);
 		CalcStatus status = calc.getStatus();
 		double[] result = new double[rxnMedia.length];
 
@@ -401,7 +600,6 @@ public class ReactionModel extends Model implements CometsConstants {
 			}
 		}
 		//set any negative or very low concentrations to 0
-		double minConcentration = ((FBAParameters) world.getComets().getPackageParameters()).getMinConcentration();
 		for (int i = 0; i < result.length; i++){
 			if (result[i] < minConcentration || Double.isNaN(result[i])){
 				result[i] = 0.0;
@@ -451,6 +649,10 @@ public class ReactionModel extends Model implements CometsConstants {
 		initialMetNames = null;
 		world = null;		
 		isSetUp = false;
+		workers = null;
+		shutdownExecutor();
+		executor = null;
+		executorThreads = 0;
 	}
 	
 }
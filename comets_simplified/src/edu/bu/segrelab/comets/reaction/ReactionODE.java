@@ -1,5 +1,7 @@
 package edu.bu.segrelab.comets.reaction;
 
+import java.util.Arrays;
+
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.exception.MaxCountExceededException;
 import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
@@ -13,12 +15,148 @@ public class ReactionODE implements FirstOrderDifferentialEquations {
 	protected double[] exRxnRateConstants; //Kcat for enzymatic reactions, or the forward reaction rate for simple reactions
 	protected int[] exRxnEnzymes; //index of the corresponding reaction's enzyme in the World Media list. Non-enzymatic reactions have -1 here
 	protected double[][] exRxnParams; //same dims as exRxnStoich. Stores either the Michaelis constant or reaction order
+	
+	/* The reaction set compiled into flat sparse arrays, so that evaluating the derivatives
+	 * doesn't allocate and only visits nonzero entries. Entries for reaction i are found
+	 * between xxxStart[i] and xxxStart[i+1].
+	 */
+	protected int[] stoichStart, stoichMets; //every reactant and product
+	protected double[] stoichCoefs;
+	protected int[] kmSubstrate; //enzymatic reactions: the metabolite with a Michaelis constant, or -1
+	protected double[] km;
+	protected int[] capStart, capMets; //enzymatic reactions: consumed metabolites that cap the rate
+	protected double[] capCoefs; //the amount of each one consumed, as a positive number
+	protected int[] orderStart, orderMets; //simple reactions: metabolites in the rate law
+	protected double[] orders;
+	protected int[][] blockingMets; //for each reaction, the metabolites whose absence stops it. Null if nothing does
 
 	public ReactionODE(double[][] exRxnStoich, double[] exRxnRateConstants, int[] exRxnEnzymes, double[][] exRxnParams) {
 		this.exRxnStoich = exRxnStoich;
 		this.exRxnRateConstants = exRxnRateConstants;
 		this.exRxnEnzymes = exRxnEnzymes;
 		this.exRxnParams = exRxnParams;
+		compile();
+		findBlockingMets();
+	}
+	
+	/**Build the sparse arrays from the dense stoichiometry and parameter tables.
+	 * 
+	 * An enzymatic reaction uses the first metabolite with a nonzero parameter as its substrate, and its rate
+	 * is capped by each consumed metabolite with a nonzero parameter. If there is no such parameter (the km = 0
+	 * hack), the rate is capped by every consumed metabolite instead. A simple reaction's rate is the product
+	 * of each metabolite with a nonzero parameter raised to that order.
+	 */
+	private void compile() {
+		int nreactions = exRxnStoich.length;
+		stoichStart = new int[nreactions + 1];
+		capStart = new int[nreactions + 1];
+		orderStart = new int[nreactions + 1];
+		kmSubstrate = new int[nreactions];
+		km = new double[nreactions];
+		
+		int nStoich = 0, nCap = 0, nOrder = 0;
+		for (int i = 0; i < nreactions; i++) {
+			int[] params = Utility.findNonzeroValues(exRxnParams[i]);
+			for (int j = 0; j < exRxnStoich[i].length; j++) {
+				if (exRxnStoich[i][j] != 0) nStoich++;
+			}
+			if (exRxnEnzymes[i] >= 0) {
+				int[] capped = params.length > 0 ? params : Utility.findNonzeroValues(exRxnStoich[i]);
+				for (int j : capped) {
+					if (exRxnStoich[i][j] < 0) nCap++;
+				}
+			}
+			else nOrder += params.length;
+		}
+		stoichMets = new int[nStoich];
+		stoichCoefs = new double[nStoich];
+		capMets = new int[nCap];
+		capCoefs = new double[nCap];
+		orderMets = new int[nOrder];
+		orders = new double[nOrder];
+		
+		nStoich = 0; nCap = 0; nOrder = 0;
+		for (int i = 0; i < nreactions; i++) {
+			stoichStart[i] = nStoich;
+			capStart[i] = nCap;
+			orderStart[i] = nOrder;
+			for (int j = 0; j < exRxnStoich[i].length; j++) {
+				if (exRxnStoich[i][j] != 0) {
+					stoichMets[nStoich] = j;
+					stoichCoefs[nStoich++] = exRxnStoich[i][j];
+				}
+			}
+			int[] params = Utility.findNonzeroValues(exRxnParams[i]);
+			kmSubstrate[i] = -1;
+			if (exRxnEnzymes[i] >= 0) {
+				if (params.length > 0) {
+					kmSubstrate[i] = params[0]; //should only be one
+					km[i] = exRxnParams[i][params[0]];
+				}
+				int[] capped = params.length > 0 ? params : Utility.findNonzeroValues(exRxnStoich[i]);
+				for (int j : capped) {
+					if (exRxnStoich[i][j] < 0) {
+						capMets[nCap] = j;
+						capCoefs[nCap++] = -exRxnStoich[i][j];
+					}
+				}
+			}
+			else {
+				for (int j : params) {
+					orderMets[nOrder] = j;
+					orders[nOrder++] = exRxnParams[i][j];
+				}
+			}
+		}
+		stoichStart[nreactions] = nStoich;
+		capStart[nreactions] = nCap;
+		orderStart[nreactions] = nOrder;
+	}
+	
+	/**For each reaction, find the metabolites that bring its rate to zero when their concentration is zero.
+	 * An enzymatic reaction stops without its enzyme, its substrate or a metabolite that caps it, and a simple
+	 * reaction stops without any metabolite that appears with a positive order. A simple reaction with no 
+	 * such metabolite runs at a constant rate, so it never stops.
+	 */
+	private void findBlockingMets() {
+		int nreactions = exRxnStoich.length;
+		blockingMets = new int[nreactions][];
+		for (int i = 0; i < nreactions; i++) {
+			int[] mets = new int[capStart[i+1] - capStart[i] + orderStart[i+1] - orderStart[i] + 2];
+			int count = 0;
+			if (exRxnEnzymes[i] >= 0) {
+				mets[count++] = exRxnEnzymes[i];
+				if (kmSubstrate[i] >= 0 && km[i] > 0) mets[count++] = kmSubstrate[i];
+				for (int k = capStart[i]; k < capStart[i+1]; k++) mets[count++] = capMets[k];
+			}
+			else {
+				for (int k = orderStart[i]; k < orderStart[i+1]; k++) {
+					if (orders[k] > 0) mets[count++] = orderMets[k];
+				}
+			}
+			blockingMets[i] = count > 0 ? Arrays.copyOf(mets, count) : null;
+		}
+	}
+	
+	/**Check if no reaction can proceed at the given concentrations. In that case every derivative is zero,
+	 * so the concentrations stay as they are and there's no need to integrate.
+	 * 
+	 * @param concentrations
+	 * @return true if every reaction is missing at least one metabolite it needs
+	 */
+	public boolean isIdle(double[] concentrations) {
+		for (int[] mets : blockingMets) {
+			if (mets == null) return false;
+			boolean blocked = false;
+			for (int j : mets) {
+				if (concentrations[j] == 0.0) {
+					blocked = true;
+					break;
+				}
+			}
+			if (!blocked) return false;
+		}
+		return true;
 	}
 	
 	@Override
@@ -34,16 +172,12 @@ public class ReactionODE implements FirstOrderDifferentialEquations {
 		for (int i = 0; i < yDot.length; i++) {yDot[i] = 0.0;}
 
 		int nreactions = exRxnStoich.length;
-		int nmets = exRxnStoich[0].length;
-		
 		for (int i = 0; i<nreactions; i++) {
 			//calculate the instantaneous rate of each reaction
 			double rate = calcRxnRate(i,y);
 			//for each reactant and product in reaction, update yDot with the derivative over time
-			double[] stoich = exRxnStoich[i];
-			for (int j = 0; j < nmets; j++) {
-				double delta = stoich[j] * rate;
-				yDot[j] = yDot[j] + delta;
+			for (int k = stoichStart[i]; k < stoichStart[i+1]; k++) {
+				yDot[stoichMets[k]] += stoichCoefs[k] * rate;
 			}		
 		}
 	}
@@ -65,56 +199,42 @@ public class ReactionODE implements FirstOrderDifferentialEquations {
 	public double calcRxnRate(int rxnIdx, double[] concentrations){
 		double rate = 0.0;
 		
-		boolean hasEnz = exRxnEnzymes[rxnIdx] >= 0;
-		if (hasEnz){ //enzymatic reaction
-			int eIdx = exRxnEnzymes[rxnIdx]; //enzyme index
+		int eIdx = exRxnEnzymes[rxnIdx]; //enzyme index
+		if (eIdx >= 0){ //enzymatic reaction
 			double eCon = concentrations[eIdx];
 			double kcat = exRxnRateConstants[rxnIdx];
 
 			//these parameters are used if km==0, then the substrate concentration doesn't matter
 			//and v = kcat*eCon
 			double subCon = 1.0;
-			double km = 0.0;
+			double rxnKm = 0.0;
 			
-			int[] subIdxArr = Utility.findNonzeroValues(exRxnParams[rxnIdx]);
-			if (subIdxArr.length > 0){
-				int subIdx = subIdxArr[0]; //should only be one
+			int subIdx = kmSubstrate[rxnIdx];
+			if (subIdx >= 0){
 				subCon = concentrations[subIdx];
-				km = exRxnParams[rxnIdx][subIdx];
+				rxnKm = km[rxnIdx];
 			}
 			
-			double denom = km + subCon;
+			double denom = rxnKm + subCon;
 			if (denom == 0.0){ rate = kcat * eCon;}
 			else{
-				rate = (kcat * eCon * subCon) / (km + subCon); //Michaelis-Menten rate
+				rate = (kcat * eCon * subCon) / denom; //Michaelis-Menten rate
 			}
 
-			if (subIdxArr.length == 0){ //for the edge case/hack where km = 0
-				//find the substrate by the stoichiometry table instead
-				subIdxArr = Utility.findNonzeroValues(exRxnStoich[rxnIdx]);
-			}
-			if (subIdxArr.length > 0){
-				for (int i = 0; i < subIdxArr.length; i++){
-					//one of these will be the substrate. The rest are products
-					int idx = subIdxArr[i];
-					double s = exRxnStoich[rxnIdx][idx];
-					if (s < 0){
-						subCon = concentrations[idx];
-						double v = subCon / -s;
-						rate = Math.min(rate, v);
-						rate = Math.max(rate, 0); //TODO: Fix the calculation so we can remove this line
-					}
-				}
+			//the rate can't use up more of a substrate than there is
+			for (int k = capStart[rxnIdx]; k < capStart[rxnIdx+1]; k++){
+				double v = concentrations[capMets[k]] / capCoefs[k];
+				rate = Math.min(rate, v);
+				rate = Math.max(rate, 0); //TODO: Fix the calculation so we can remove this line
 			}
 			
 		}
 		else { //Simple reaction. r = k * [A]^a * [B]^b ...
-			int[] subIdxs = Utility.findNonzeroValues(exRxnParams[rxnIdx]);
 			double k = exRxnRateConstants[rxnIdx];
 			rate = k;
 			double maxrate = -1;
-			for (int i = 0; i < subIdxs.length; i ++){
-				double irate = Math.pow(concentrations[subIdxs[i]], exRxnParams[rxnIdx][subIdxs[i]]);
+			for (int m = orderStart[rxnIdx]; m < orderStart[rxnIdx+1]; m++){
+				double irate = Math.pow(concentrations[orderMets[m]], orders[m]);
 				rate *= irate;
 				if (maxrate<0 || irate < maxrate) maxrate = irate;
 			}
@@ -4,20 +4,45 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import edu.bu.segrelab.comets.test.integration.IntTestBinaryLogSeries;
+import edu.bu.segrelab.comets.test.integration.IntTestBiomassField;
+import edu.bu.segrelab.comets.test.integration.IntTestDormantCells;
 import edu.bu.segrelab.comets.test.integration.IntTestExternalReactions;
 import edu.bu.segrelab.comets.test.integration.IntTestFBAModelOptimization;
+import edu.bu.segrelab.comets.test.integration.IntTestLazyOptimizers;
+import edu.bu.segrelab.comets.test.integration.IntTestMutantBatch;
+import edu.bu.segrelab.comets.test.integration.IntTestParallelParameters;
+import edu.bu.segrelab.comets.test.integration.IntTestParameterSweep;
+import edu.bu.segrelab.comets.test.integration.IntTestReplicateEnsemble;
+import edu.bu.segrelab.comets.test.integration.IntTestReproducibleRuns;
 import edu.bu.segrelab.comets.test.integration.IntTestRunningLayouts;
 import edu.bu.segrelab.comets.test.integration.TestGurobi;
 import edu.bu.segrelab.comets.test.integration.TestGurobiObjectiveFunctions;
 import edu.bu.segrelab.comets.test.integration.TestParametersIntegration;
+import edu.bu.segrelab.comets.test.unit.fba.TestBinaryLog;
 import edu.bu.segrelab.comets.test.unit.fba.TestBiomassMotionStyle;
+import edu.bu.segrelab.comets.test.unit.fba.TestCheckpoint;
 import edu.bu.segrelab.comets.test.unit.fba.TestFBACometsLoader;
 import edu.bu.segrelab.comets.test.unit.fba.TestFBAOptimizerGurobi;
 import edu.bu.segrelab.comets.test.unit.fba.TestFBAParameters;
 import edu.bu.segrelab.comets.test.unit.fba.TestFBACell;
+import edu.bu.segrelab.comets.test.unit.fba.TestLogFile;
+import edu.bu.segrelab.comets.test.unit.fba.TestLogPipeline;
+import edu.bu.segrelab.comets.test.unit.fba.TestMatStreamWriter;
+import edu.bu.segrelab.comets.test.unit.fba.TestModelImage;
+import edu.bu.segrelab.comets.test.unit.fba.TestModelFileTokenizer;
+import edu.bu.segrelab.comets.test.unit.fba.TestSparseFluxLog;
+import edu.bu.segrelab.comets.test.unit.fba.TestTextLogBuffer;
+import edu.bu.segrelab.comets.test.unit.fba.TestThreadOutputCapture;
+import edu.bu.segrelab.comets.test.unit.fba.TestTerminationCheck;
+import edu.bu.segrelab.comets.test.unit.fba.TestCycleProfiler;
+import edu.bu.segrelab.comets.test.unit.fba.TestCycleStatistics;
+import edu.bu.segrelab.comets.test.unit.reaction.TestAdaptiveReactionIntegrator;
 import edu.bu.segrelab.comets.test.unit.reaction.TestExternalReactionCalculator;
 import edu.bu.segrelab.comets.test.unit.reaction.TestReactionModel;
 import edu.bu.segrelab.comets.test.unit.reaction.TestReactionODE;
+import edu.bu.segrelab.comets.test.unit.reaction.TestRK4Runner;
+import edu.bu.segrelab.comets.test.unit.util.TestUtilityRandomState;
 
 @RunWith(Suite.class)
 @SuiteClasses({
@@ -28,15 +53,41 @@ import edu.bu.segrelab.comets.test.unit.reaction.TestReactionODE;
 	TestFBAOptimizerGurobi.class, 
 	TestFBAParameters.class,
 	TestFBACell.class,
+	TestBinaryLog.class,
+	TestLogPipeline.class,
+	TestLogFile.class,
+	TestTextLogBuffer.class,
+	TestSparseFluxLog.class,
+	TestCheckpoint.class,
+	TestMatStreamWriter.class,
+	TestModelFileTokenizer.class,
+	TestModelImage.class,
+	TestThreadOutputCapture.class,
+	TestTerminationCheck.class,
+	TestCycleProfiler.class,
+	TestCycleStatistics.class,
 	//Extracellular Reactions
 	TestExternalReactionCalculator.class,
 	TestReactionModel.class,
 	TestReactionODE.class,
+	TestAdaptiveReactionIntegrator.class,
+	TestRK4Runner.class,
+	//Utilities
+	TestUtilityRandomState.class,
 	
 	//Integration
 	IntTestExternalReactions.class,
 	IntTestFBAModelOptimization.class,
 	IntTestRunningLayouts.class,
+	IntTestBiomassField.class,
+	IntTestMutantBatch.class,
+	IntTestBinaryLogSeries.class,
+	IntTestParallelParameters.class,
+	IntTestReproducibleRuns.class,
+	IntTestLazyOptimizers.class,
+	IntTestDormantCells.class,
+	IntTestReplicateEnsemble.class,
+	IntTestParameterSweep.class,
 	TestGurobi.class,
 	TestGurobiObjectiveFunctions.class,
 	TestParametersIntegration.class
@@ -0,0 +1,75 @@
+package edu.bu.segrelab.comets.test.etc;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Random;
+
+import edu.bu.segrelab.comets.util.TextLogBuffer;
+
+/**Compares the throughput of the old DecimalFormat log formatting with
+ * TextLogBuffer. Run main, optionally with the number of values per round.
+ * 
+ * Each round formats the same values into a flux-log-like line, and the
+ * first rounds are for warming up the JIT.
+ */
+public class BenchmarkLogFormat {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		double[] values = new double[n];
+		Random rand = new Random(0);
+		for (int i = 0; i < n; i++){
+			//roughly the spread of values in a flux log
+			values[i] = (rand.nextBoolean() ? -1 : 1) * rand.nextDouble() * Math.pow(10, rand.nextInt(16) - 10);
+		}
+
+		long sink = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++){
+			long start = System.nanoTime();
+			sink += decimalFormat(values);
+			long mid = System.nanoTime();
+			sink += textLogBuffer(values);
+			long end = System.nanoTime();
+			if (round >= WARMUP_ROUNDS){
+				System.out.println("Round " + (round - WARMUP_ROUNDS + 1)
+						+ ": DecimalFormat " + rate(n, mid - start) + " values/s, TextLogBuffer "
+						+ rate(n, end - mid) + " values/s");
+			}
+		}
+		System.out.println("(" + sink + " characters)");
+	}
+
+	private static long decimalFormat(double[] values){
+		long chars = 0;
+		NumberFormat nf = new DecimalFormat("0.##########E0");
+		String line = "";
+		for (int i = 0; i < values.length; i++){
+			line = line + " " + nf.format(values[i]);
+			if (i % 20 == 19){
+				chars += line.length();
+				line = "";
+			}
+		}
+		return chars;
+	}
+
+	private static long textLogBuffer(double[] values){
+		long chars = 0;
+		TextLogBuffer line = new TextLogBuffer();
+		for (int i = 0; i < values.length; i++){
+			line.append(' ').appendScientific(values[i]);
+			if (i % 20 == 19){
+				chars += line.length();
+				line.clear();
+			}
+		}
+		return chars;
+	}
+
+	private static String rate(int n, long nanos){
+		return String.format("%.3g", n * 1e9 / nanos);
+	}
+}
@@ -0,0 +1,76 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.fba.BinaryLogReader;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Binary biomass logs of a world whose two models are loaded from the same file, and
+ * so share a model ID. Each model still needs a series of its own.
+ *
+ */
+public class IntTestBinaryLogSeries {
+
+	private static final String BIOMASS_LOG = "binary_series_biomass.bin";
+
+	TComets comets;
+	FBAWorld world;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_biomass_field.txt"));
+		world = (FBAWorld) comets.getWorld();
+
+		FBAParameters pParams = (FBAParameters) comets.getPackageParameters();
+		pParams.useLogNameTimeStamp(false);
+		pParams.writeBiomassLog(true);
+		pParams.setBiomassLogFormat(FBAParameters.LogFormat.BINARY);
+		pParams.setBiomassLogName(BIOMASS_LOG);
+		pParams.setBiomassLogRate(1);
+		pParams.setBinaryLogSinglePrecision(false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+		new File(BIOMASS_LOG).delete();
+	}
+
+	@Test
+	public void testSameIDsGetSeparateSeries() throws IOException {
+		String id = world.getModels()[0].getModelID();
+		assertEquals(id, world.getModels()[1].getModelID());
+		comets.doCommandLineRunWithoutLoading();
+
+		BinaryLogReader reader = new BinaryLogReader(new File(BIOMASS_LOG));
+		double[] logged = null;
+		while (reader.nextChunk())
+		{
+			logged = new double[reader.getNumSeries()];
+			for (BinaryLogReader.SeriesData data : reader.getData())
+				for (double v : data.values)
+					logged[data.series] += v;
+		}
+		assertEquals(2, reader.getNumSeries());
+		assertEquals(id, reader.getSeriesName(0));
+		assertEquals(id + "_2", reader.getSeriesName(1));
+		reader.close();
+
+		// the last chunk holds each model's own biomass
+		double[] total = world.calculateTotalBiomass();
+		assertEquals(total[0], logged[0], total[0] * 1e-12);
+		assertEquals(total[1], logged[1], total[1] * 1e-12);
+		assertTrue(logged[0] != logged[1]);
+	}
+}
@@ -0,0 +1,119 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.Cell;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.Model;
+import edu.bu.segrelab.comets.fba.FBACell;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**The world-owned biomass fields of a 2D FBAWorld, and the cells that read and
+ * write through them. The layout has two models on a 3x3 grid, model 0 starting
+ * at (0,0) and model 1 at (2,2).
+ *
+ */
+public class IntTestBiomassField {
+
+	private static final double BIOMASS_0 = 1e-9, BIOMASS_1 = 2e-9;
+
+	TComets comets;
+	FBAWorld world;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_biomass_field.txt"));
+		world = (FBAWorld) comets.getWorld();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+	}
+
+	/**Growth and Crank-Nicolson diffusion over a few cycles. Every space with a cell
+	 * must show the cell's biomass in the field, diffusion must have spread both
+	 * models, and each model's total must have grown.
+	 */
+	@Test
+	public void testGrowthAndDiffusion(){
+		comets.doCommandLineRunWithoutLoading();
+
+		checkCellsMatchField();
+		double[] total = world.calculateTotalBiomass();
+		assertTrue(total[0] > BIOMASS_0);
+		assertTrue(total[1] > BIOMASS_1);
+		assertTrue(world.getBiomassAt(1, 0)[0] > 0);
+		assertTrue(world.getBiomassAt(1, 2)[1] > 0);
+	}
+
+	/**Without media there's no growth, so diffusion alone has to conserve each
+	 * model's total, as it did when cells held their own biomass.
+	 */
+	@Test
+	public void testDiffusionConservesBiomass(){
+		for (int x = 0; x < world.getNumCols(); x++)
+			for (int y = 0; y < world.getNumRows(); y++)
+				world.setMedia(x, y, new double[world.getNumMedia()]);
+		comets.doCommandLineRunWithoutLoading();
+
+		checkCellsMatchField();
+		double[] total = world.calculateTotalBiomass();
+		assertEquals(BIOMASS_0, total[0], BIOMASS_0 * 1e-9);
+		assertEquals(BIOMASS_1, total[1], BIOMASS_1 * 1e-9);
+		assertTrue(world.getBiomassAt(1, 1)[0] > 0);
+		assertTrue(world.getBiomassAt(1, 1)[1] > 0);
+	}
+
+	/**Swapping the models moves their layers of the field along with them, and
+	 * removing a model drops its layer.
+	 */
+	@Test
+	public void testRemapFollowsModels(){
+		Model[] models = comets.getModels();
+		Model[] swapped = new Model[] { models[1], models[0] };
+		changeModels(models, swapped);
+		assertEquals(2, world.getNumModels());
+		assertArrayEquals(new double[] { 0, BIOMASS_0 }, world.getBiomassAt(0, 0), 0);
+		assertArrayEquals(new double[] { BIOMASS_1, 0 }, world.getBiomassAt(2, 2), 0);
+		checkCellsMatchField();
+
+		Model[] removed = new Model[] { models[1] };
+		changeModels(swapped, removed);
+		assertEquals(1, world.getNumModels());
+		assertArrayEquals(new double[] { 0 }, world.getBiomassAt(0, 0), 0);
+		assertArrayEquals(new double[] { BIOMASS_1 }, world.getBiomassAt(2, 2), 0);
+
+		//a model that comes back starts with an empty layer
+		changeModels(removed, swapped);
+		assertArrayEquals(new double[] { BIOMASS_1, 0 }, world.getBiomassAt(2, 2), 0);
+		assertArrayEquals(new double[] { 0, 0 }, world.getBiomassAt(0, 0), 0);
+		checkCellsMatchField();
+	}
+
+	private void changeModels(Model[] oldModels, Model[] newModels){
+		for (Cell cell : comets.getCells())
+			cell.changeModelsInCell(oldModels, newModels);
+		world.changeModelsInWorld(oldModels, newModels);
+	}
+
+	private void checkCellsMatchField(){
+		double[][][] field = world.getBiomassField();
+		for (Cell cell : comets.getCells())
+		{
+			double[] biomass = ((FBACell) cell).getBiomass();
+			assertEquals(field.length, biomass.length);
+			for (int k = 0; k < field.length; k++)
+				assertEquals(field[k][cell.getX()][cell.getY()], biomass[k], 0);
+			assertArrayEquals(biomass, world.getBiomassAt(cell.getX(), cell.getY()), 0);
+		}
+	}
+}
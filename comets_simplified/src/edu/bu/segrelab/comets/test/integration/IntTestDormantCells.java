@@ -0,0 +1,79 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.fba.FBACell;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Cells that are left dormant while nothing can grow. The layout has two models on
+ * a 3x3 grid, model 0 starting at (0,0) and model 1 at (2,2). The media are emptied,
+ * so the cells go dormant, and refreshed later on.
+ *
+ */
+public class IntTestDormantCells {
+
+	private static final int MAX_CYCLES = 5;
+
+	TComets comets;
+	FBAWorld world;
+	double[] layoutMedia;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_biomass_field.txt"));
+		world = (FBAWorld) comets.getWorld();
+		comets.getParameters().setCommandLineOnly(true);
+		FBAParameters pParams = (FBAParameters) comets.getPackageParameters();
+		pParams.setSkipDormantCells(true);
+
+		layoutMedia = world.getMediaAt(0, 0).clone();
+		for (int x = 0; x < world.getNumCols(); x++)
+			for (int y = 0; y < world.getNumRows(); y++)
+				world.setMedia(x, y, new double[world.getNumMedia()]);
+		world.initSimulation();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		world.endSimulation();
+		IWorld.getReactionModel().clear();
+	}
+
+	/**A dormant cell stays dormant while its media don't change, and is solved again
+	 * once they're refreshed.
+	 */
+	@Test
+	public void testRefreshWakesDormantCell() {
+		FBACell cell = (FBACell) world.getCellAt(0, 0);
+		int cycles = 0;
+		while (!cell.wasDormant() && cycles < MAX_CYCLES)
+		{
+			world.run();
+			cycles++;
+		}
+		assertTrue(cell.wasDormant());
+		double biomass = world.calculateTotalBiomass()[0];
+
+		//nothing has changed, so it sleeps on
+		world.run();
+		assertTrue(cell.wasDormant());
+		assertFalse(cell.wokeUp());
+		assertEquals(biomass, world.calculateTotalBiomass()[0], biomass * 1e-9);
+
+		world.refreshMedia(layoutMedia);
+		world.run();
+		assertFalse(cell.wasDormant());
+		assertTrue(cell.wokeUp());
+		assertTrue(world.calculateTotalBiomass()[0] > biomass);
+	}
+}
@@ -125,6 +125,29 @@ public class IntTestFBAModelOptimization {
 		assertEquals(5,resDeclared);
 	}
 
+	/**
+	 * Test method for {@link edu.bu.segrelab.comets.fba.FBAModel#releaseOptimizer()}.
+	 * A released solver is built again on the next run, and gives the same solution
+	 */
+	@Test
+	public void testReleaseOptimizer() throws ModelFileException {
+		URL url = IntTestFBAModelOptimization.class.getResource("../resources/model_CSP.txt");
+		FBAModel model = FBAModel.loadModelFromFile(url.getPath());
+		assertEquals(5, model.run());
+		assertTrue(model.hasOptimizer());
+		double[] fluxes = model.getFluxes();
+		double biomass = model.getBiomassFluxSolution();
+
+		model.releaseOptimizer();
+		assertFalse(model.hasOptimizer());
+		model.releaseOptimizer(); //a second release does nothing
+
+		assertEquals(5, model.run());
+		assertTrue(model.hasOptimizer());
+		assertEquals(biomass, model.getBiomassFluxSolution(), 1e-9);
+		assertArrayEquals(fluxes, model.getFluxes(), 1e-9);
+	}
+
 	/**Test files with multiple objective functions.
 	 * For now, spot check that these get a different result.
 	 */
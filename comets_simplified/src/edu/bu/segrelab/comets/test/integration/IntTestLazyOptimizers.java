@@ -0,0 +1,98 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.CometsParameters;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Freeing the solvers of extinct models. The layout has two models on a 3x3 grid,
+ * model 0 starting at (0,0) and model 1 at (2,2). Model 1 is wiped out after the
+ * first cycle and put back a cycle later, so its solvers are freed in the world and
+ * in each run thread, then built again.
+ *
+ */
+public class IntTestLazyOptimizers {
+
+	private static final double BIOMASS_1 = 2e-9;
+	private static final int CYCLES = 5;
+
+	FBAWorld world;
+
+	@After
+	public void tearDown() throws Exception {
+		if (world != null)
+			world.destroy();
+		IWorld.getReactionModel().clear();
+	}
+
+	/**A model that goes extinct and comes back has to grow just as it would have
+	 * with its solvers kept.
+	 */
+	@Test
+	public void testExtinctModelSolvesAgain() throws IOException {
+		double[][] kept = run(false);
+		double[][] released = run(true);
+
+		assertEquals(0, released[1][1], 0); //extinct after the second cycle
+		assertTrue(released[CYCLES - 1][1] > BIOMASS_1); //and growing again
+		for (int cycle = 0; cycle < CYCLES; cycle++)
+			for (int k = 0; k < 2; k++)
+				assertEquals(kept[cycle][k], released[cycle][k], kept[cycle][k] * 1e-9);
+	}
+
+	/**Runs the layout on two run threads, with model 1 wiped out for the second cycle.
+	 * @return the total biomass of each model after each cycle
+	 */
+	private double[][] run(boolean lazyOptimizers) throws IOException {
+		IWorld.getReactionModel().clear();
+		TComets comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_biomass_field.txt"));
+		world = (FBAWorld) comets.getWorld();
+
+		CometsParameters cParams = comets.getParameters();
+		cParams.setCommandLineOnly(true);
+		FBAParameters pParams = (FBAParameters) comets.getPackageParameters();
+		pParams.setNumRunThreads(2);
+		pParams.setRandomOrder(false);
+		pParams.setLazyOptimizers(lazyOptimizers);
+
+		double[][] totals = new double[CYCLES][];
+		world.initSimulation();
+		for (int cycle = 0; cycle < CYCLES; cycle++)
+		{
+			if (cycle == 1)
+				setModel1(0);
+			else if (cycle == 2)
+			{
+				assertEquals(!lazyOptimizers, world.getModels()[1].hasOptimizer());
+				setModel1(BIOMASS_1);
+			}
+			world.run();
+			totals[cycle] = world.calculateTotalBiomass();
+		}
+		world.endSimulation();
+		return totals;
+	}
+
+	/**Sets model 1's biomass to the given amount at (2,2) and to zero everywhere else.
+	 */
+	private void setModel1(double amount) {
+		for (int x = 0; x < world.getNumCols(); x++)
+		{
+			for (int y = 0; y < world.getNumRows(); y++)
+			{
+				double[] biomass = world.getBiomassAt(x, y);
+				biomass[1] = (x == 2 && y == 2) ? amount : 0;
+				world.setBiomass(x, y, biomass);
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.Cell;
+import edu.bu.segrelab.comets.CometsParameters;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.fba.FBACell;
+import edu.bu.segrelab.comets.fba.FBAModel;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Adding a cycle's mutants to the world as one batch, and pruning extinct models.
+ * The layout has two copies of the same model on a 3x3 grid; it's run for a few
+ * cycles with evolution on but no mutations, then mutateWorld() is called with a
+ * rate high enough that both models get mutants.
+ *
+ */
+public class IntTestMutantBatch {
+
+	private static final String BIOMASS_LOG = "mutant_batch_biomass.m";
+	private static final String GENOTYPES_LOG = "GENOTYPES_" + BIOMASS_LOG;
+
+	TComets comets;
+	FBAWorld world;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_biomass_field.txt"));
+		world = (FBAWorld) comets.getWorld();
+
+		CometsParameters cParams = comets.getParameters();
+		cParams.setEvolution(true);
+		cParams.setMutRate(0);
+		cParams.setAddRate(0);
+		((FBAParameters) comets.getPackageParameters()).setBiomassLogName(BIOMASS_LOG);
+		comets.doCommandLineRunWithoutLoading();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+		new File(GENOTYPES_LOG).delete();
+	}
+
+	@Test
+	public void testMutantsAddedAsBatch() throws IOException {
+		FBAModel[] ancestors = world.getModels().clone();
+		assertEquals(2, ancestors.length);
+		// both are loaded from the same file, so tell them apart for the test
+		ancestors[0].setModelID("ancestor_0");
+		ancestors[1].setModelID("ancestor_1");
+		double[] before = world.calculateTotalBiomass();
+
+		double cellBiomass = mutate();
+
+		FBAModel[] models = world.getModels();
+		int numMutants = models.length - ancestors.length;
+		assertTrue(numMutants > 0);
+		assertEquals(models.length, world.getNumModels());
+		assertSame(ancestors[0], models[0]);
+		assertSame(ancestors[1], models[1]);
+
+		// every cell and the field have a layer for each mutant
+		checkCellsMatchField();
+
+		// each mutant holds one cell's worth of biomass in a single cell, taken
+		// from its ancestor, and hasn't built a solver
+		double[] after = world.calculateTotalBiomass();
+		double[] taken = new double[ancestors.length];
+		Set<String> ids = new HashSet<String>();
+		for (int m = ancestors.length; m < models.length; m++)
+		{
+			FBAModel mutant = models[m];
+			assertFalse(mutant.hasOptimizer());
+			assertTrue(ids.add(mutant.getModelID()));
+			int a = mutant.getAncestor().equals("ancestor_0") ? 0 : 1;
+			assertEquals("ancestor_" + a, mutant.getAncestor());
+			assertEquals(cellBiomass, after[m], 0);
+
+			int hosts = 0;
+			for (Cell cell : comets.getCells())
+			{
+				double b = cell.getBiomass()[m];
+				if (b == 0)
+					continue;
+				hosts++;
+				assertEquals(cellBiomass, b, 0);
+			}
+			assertEquals(1, hosts);
+			taken[a] += cellBiomass;
+		}
+		for (int a = 0; a < ancestors.length; a++)
+			assertEquals(before[a] - taken[a], after[a], before[a] * 1e-9);
+
+		// the evolution log gets one line per mutant after the two ancestors
+		assertEquals(models.length, countLines(GENOTYPES_LOG));
+	}
+
+	/**Models at or below the minimum biomass lose their biomass right away, but
+	 * the model array is only compacted once a quarter of it is extinct.
+	 */
+	@Test
+	public void testPruneModelsCompacts() {
+		double cellBiomass = mutate();
+		FBAModel[] models = world.getModels();
+		int n = models.length;
+		assertTrue(n >= 5);
+		double minBiomass = cellBiomass / 2;
+
+		// one extinct mutant: its biomass goes, but it keeps its place
+		double[] total = world.calculateTotalBiomass();
+		total[2] = minBiomass / 2;
+		world.pruneModels(total, minBiomass);
+		assertSame(models, world.getModels());
+		assertEquals(0, world.calculateTotalBiomass()[2], 0);
+		checkCellsMatchField();
+
+		// a quarter extinct, counting the first: the array is compacted
+		total = world.calculateTotalBiomass();
+		int numExtinct = (n + 3) / 4;
+		for (int m = 3; m < 2 + numExtinct; m++)
+			total[m] = minBiomass / 2;
+		List<FBAModel> survivors = new ArrayList<FBAModel>();
+		List<Double> survivorBiomass = new ArrayList<Double>();
+		for (int m = 0; m < n; m++)
+		{
+			if (total[m] > minBiomass)
+			{
+				survivors.add(models[m]);
+				survivorBiomass.add(total[m]);
+			}
+		}
+		assertEquals(n - numExtinct, survivors.size());
+		world.pruneModels(total, minBiomass);
+
+		FBAModel[] compacted = world.getModels();
+		assertEquals(survivors.size(), compacted.length);
+		assertEquals(compacted.length, world.getNumModels());
+		double[] after = world.calculateTotalBiomass();
+		for (int m = 0; m < compacted.length; m++)
+		{
+			assertSame(survivors.get(m), compacted[m]);
+			assertEquals(survivorBiomass.get(m), after[m], 0);
+		}
+		checkCellsMatchField();
+
+		// a cell run after compaction sizes its results to the new model count
+		FBACell cell = (FBACell) comets.getCells().get(0);
+		cell.run(compacted);
+		assertEquals(compacted.length, cell.getFBAstatus().length);
+		assertEquals(compacted.length, cell.getDeltaBiomass().length);
+		assertEquals(compacted.length, cell.getGrowthRates().length);
+	}
+
+	/**Makes about ten mutants of each model, each taking a twentieth of its
+	 * ancestor's growth in the last cycle.
+	 * @return the biomass of each mutant
+	 */
+	private double mutate() {
+		double[] delta = world.calculateDeltaBiomass();
+		assertTrue(delta[0] > 0 && delta[1] > 0);
+		double cellBiomass = Math.min(delta[0], delta[1]) / 20;
+		double rate = 0.5 / world.getModels()[0].getTotalRxns();
+		world.mutateWorld(rate, cellBiomass);
+		return cellBiomass;
+	}
+
+	private void checkCellsMatchField() {
+		double[][][] field = world.getBiomassField();
+		assertEquals(world.getNumModels(), field.length);
+		for (Cell cell : comets.getCells())
+		{
+			double[] biomass = ((FBACell) cell).getBiomass();
+			assertEquals(field.length, biomass.length);
+			for (int k = 0; k < field.length; k++)
+				assertEquals(field[k][cell.getX()][cell.getY()], biomass[k], 0);
+		}
+	}
+
+	private static int countLines(String fileName) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		int n = 0;
+		while (reader.readLine() != null)
+			n++;
+		reader.close();
+		return n;
+	}
+}
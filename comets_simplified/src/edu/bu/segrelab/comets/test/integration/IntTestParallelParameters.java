@@ -0,0 +1,150 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.Comets;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.ParallelSimulations;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Two simulations of the same layout run side by side with different uptake and
+ * concentration parameters. Each has to keep its own values, and grow as it would
+ * have on its own.
+ *
+ */
+public class IntTestParallelParameters {
+
+	private static final String LAYOUT = "comets_layout_biomass_field.txt";
+	private static final double[] KM = { 0.01, 0.5 },
+			VMAX = { 10, 2 },
+			MIN_CONCENTRATION = { 1e-26, 1e-20 },
+			GENE_COST = { 0, 0.01 };
+
+	TComets comets;
+	List<File> outputs = new ArrayList<File>();
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout(LAYOUT));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+		for (File f : outputs)
+			f.delete();
+	}
+
+	@Test
+	public void testSetsKeepTheirOwnValues() throws InterruptedException {
+		Sets alone = new Sets(false);
+		alone.runEachAlone();
+		Sets together = new Sets(true);
+		together.run(2);
+
+		for (int n = 0; n < 2; n++)
+		{
+			assertArrayEquals(new double[] { KM[n], VMAX[n], MIN_CONCENTRATION[n], GENE_COST[n] },
+					together.seen[n], 0);
+			assertNotNull(together.biomass[n]);
+			assertArrayEquals(alone.biomass[n], together.biomass[n], 0);
+		}
+		// the values matter, so matching the sets run alone means each used its own
+		assertTrue(together.biomass[0][0] != together.biomass[1][0]);
+	}
+
+	/**The two parameter sets. When run together, neither starts until both have set
+	 * their parameters.
+	 */
+	private class Sets extends ParallelSimulations {
+
+		private CyclicBarrier configured;
+		double[][] seen = new double[2][];
+		double[][] biomass = new double[2][];
+
+		Sets(boolean together) {
+			super(comets, loadCommands());
+			configured = together ? new CyclicBarrier(2) : null;
+		}
+
+		void runEachAlone() {
+			for (int n = 0; n < size(); n++)
+				runAlone(n);
+		}
+
+		@Override
+		public int size() {
+			return 2;
+		}
+
+		@Override
+		protected String describe(int n) {
+			return "Parameter set " + (n + 1);
+		}
+
+		@Override
+		protected File outputFile(int n) throws IOException {
+			File f = File.createTempFile("parallel_parameters_set" + (n + 1), ".out");
+			outputs.add(f);
+			return f;
+		}
+
+		@Override
+		protected Random newRandom(int n) {
+			return new Random(n);
+		}
+
+		@Override
+		protected void configure(int n, Comets member) {
+			FBAParameters pParams = (FBAParameters) member.getPackageParameters();
+			pParams.setDefaultKm(KM[n]);
+			pParams.setDefaultVmax(VMAX[n]);
+			pParams.setMinConcentration(MIN_CONCENTRATION[n]);
+			pParams.setGeneFractionalCost(GENE_COST[n]);
+			if (configured == null)
+				return;
+			try
+			{
+				configured.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (BrokenBarrierException e)
+			{
+				fail("the other set didn't start");
+			}
+		}
+
+		@Override
+		protected void finished(int n, Comets member, long millis) {
+			FBAParameters pParams = (FBAParameters) member.getPackageParameters();
+			seen[n] = new double[] { pParams.getDefaultKm(), pParams.getDefaultVmax(),
+					pParams.getMinConcentration(), pParams.getGeneFractionalCost() };
+			biomass[n] = ((FBAWorld) member.getWorld()).calculateTotalBiomass();
+		}
+	}
+
+	private static List<String[]> loadCommands() {
+		List<String[]> commands = new ArrayList<String[]>();
+		String layout = IntTestParallelParameters.class.getResource("../resources/" + LAYOUT).getPath();
+		commands.add(new String[] { "load_layout", layout });
+		return commands;
+	}
+}
@@ -0,0 +1,185 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.Comets;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.ParameterBatchSet;
+import edu.bu.segrelab.comets.ParameterSweep;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Parameter sets that branch off a shared prefix of cycles. The layout has two models
+ * on a 3x3 grid and runs for 5 cycles; the sets run for 4 and 5 cycles, which only
+ * makes a difference after the second, so branching at cycle 2 must end in the same
+ * world as running each set from the start.
+ *
+ */
+public class IntTestParameterSweep {
+
+	private static final String LAYOUT = "comets_layout_biomass_field.txt";
+	private static final int BRANCH_CYCLE = 2;
+
+	TComets comets;
+	File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout(LAYOUT));
+		dir = Files.createTempDirectory("sweep").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+		comets.getParameters().setBranchCycle(0);
+		comets.getParameters().setNumLayers(1);
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testBranchedSetsMatchFullRuns() throws Exception {
+		Sweep full = runFromStart();
+
+		comets.getParameters().setBranchCycle(BRANCH_CYCLE);
+		Sweep branched = new Sweep("branched");
+		branched.run(2);
+
+		assertTrue(branched.prefixRun);
+		for (int n = 0; n < 2; n++)
+		{
+			assertNotNull(branched.state[n]);
+			assertArrayEquals(full.state[n], branched.state[n], 0);
+		}
+		// the sets differ, so matching the full runs means each went on with its own
+		assertFalse(branched.state[0][0] == branched.state[1][0]);
+	}
+
+	/**A branch cycle at or past the end of the run leaves nothing to share.
+	 */
+	@Test
+	public void testBranchCycleAtEnd() throws Exception {
+		Sweep full = runFromStart();
+
+		comets.getParameters().setBranchCycle(comets.getParameters().getMaxCycles());
+		Sweep sweep = new Sweep("at_end");
+		sweep.run(2);
+
+		assertFalse(sweep.prefixRun);
+		for (int n = 0; n < 2; n++)
+			assertArrayEquals(full.state[n], sweep.state[n], 0);
+	}
+
+	/**Only 2D worlds can be taken at the branch cycle, so other sets run from the start.
+	 */
+	@Test
+	public void testNon2DWorldRunsFromStart() throws Exception {
+		Sweep full = runFromStart();
+
+		comets.getParameters().setBranchCycle(BRANCH_CYCLE);
+		comets.getParameters().setNumLayers(2);
+		Sweep sweep = new Sweep("layers");
+		// the members load the layout again, so they're 2D themselves
+		comets.getParameters().setNumLayers(1);
+		sweep.run(2);
+
+		assertFalse(sweep.prefixRun);
+		for (int n = 0; n < 2; n++)
+			assertArrayEquals(full.state[n], sweep.state[n], 0);
+	}
+
+	private Sweep runFromStart() throws Exception {
+		comets.getParameters().setBranchCycle(0);
+		Sweep full = new Sweep("full");
+		full.run(2);
+		assertFalse(full.prefixRun);
+		return full;
+	}
+
+	/**The two sets, each starting from the same random number generator and with the
+	 * cells run in order, and a record of each one's final world.
+	 */
+	private class Sweep extends ParameterSweep {
+
+		boolean prefixRun;
+		double[][] state = new double[2][];
+
+		Sweep(String name) throws Exception {
+			super(comets, loadCommands(), batchSet(), new File(dir, name + ".txt").getPath());
+		}
+
+		@Override
+		protected Random newRandom(int n) {
+			return new Random(7);
+		}
+
+		@Override
+		protected void configure(int n, Comets member) {
+			super.configure(n, member);
+			((FBAParameters) member.getPackageParameters()).setRandomOrder(false);
+		}
+
+		@Override
+		protected void finished(int n, Comets member, long millis) {
+			super.finished(n, member, millis);
+			if (n < 0)
+				prefixRun = true;
+			else
+				state[n] = worldState((FBAWorld) member.getWorld());
+		}
+	}
+
+	/**@return the total biomass of each model, then the biomass and media at each place
+	 */
+	private static double[] worldState(FBAWorld world) {
+		List<Double> values = new ArrayList<Double>();
+		for (double b : world.calculateTotalBiomass())
+			values.add(b);
+		for (int x = 0; x < world.getNumCols(); x++)
+		{
+			for (int y = 0; y < world.getNumRows(); y++)
+			{
+				for (double b : world.getBiomassAt(x, y))
+					values.add(b);
+				for (double m : world.getMediaAt(x, y))
+					values.add(m);
+			}
+		}
+		double[] state = new double[values.size()];
+		for (int i = 0; i < state.length; i++)
+			state[i] = values.get(i);
+		return state;
+	}
+
+	private ParameterBatchSet batchSet() throws Exception {
+		Set<String[]> parameters = new HashSet<String[]>();
+		parameters.add(new String[] { "maxcycles", "4", "1", "5" });
+		return new ParameterBatchSet(comets, parameters);
+	}
+
+	private static List<String[]> loadCommands() {
+		List<String[]> commands = new ArrayList<String[]>();
+		String layout = IntTestParameterSweep.class.getResource("../resources/" + LAYOUT).getPath();
+		commands.add(new String[] { "load_layout", layout });
+		return commands;
+	}
+}
@@ -0,0 +1,165 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.Comets;
+import edu.bu.segrelab.comets.CometsParameters;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.ReplicateEnsemble;
+import edu.bu.segrelab.comets.fba.FBAModel;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Replicates of a layout run with evolution on. The layout has two copies of the same
+ * model on a 3x3 grid, so the summary names them by model ID, the second with "_2".
+ *
+ */
+public class IntTestReplicateEnsemble {
+
+	private static final String LAYOUT = "comets_layout_biomass_field.txt";
+	private static final int REPLICATES = 2;
+	private static final long MASTER_SEED = 42;
+
+	TComets comets;
+	File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout(LAYOUT));
+		comets.getParameters().setReplicates(REPLICATES);
+		comets.getParameters().setReplicateSeed(MASTER_SEED);
+		dir = Files.createTempDirectory("replicates").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+		delete(dir);
+	}
+
+	@Test
+	public void testReplicateSeed() {
+		assertEquals(ReplicateEnsemble.replicateSeed(MASTER_SEED, 3), ReplicateEnsemble.replicateSeed(MASTER_SEED, 3));
+		Set<Long> seeds = new HashSet<Long>();
+		for (long master = 0; master < 10; master++)
+		{
+			for (int k = 1; k <= 100; k++)
+			{
+				long seed = ReplicateEnsemble.replicateSeed(master, k);
+				assertTrue(seed != 0);
+				assertTrue(seeds.add(seed));
+			}
+		}
+	}
+
+	/**Each layout model's final biomass goes in its own column, wherever it ended up
+	 * in the model array, and the mutants' in the last.
+	 */
+	@Test
+	public void testSummaryByModel() throws Exception {
+		Ensemble ensemble = new Ensemble();
+		ensemble.run(REPLICATES);
+
+		List<String[]> lines = readSummary(new File(dir, "replicates_summary.txt"));
+		String id = ensemble.layout[0][0].getModelID();
+		assertArrayEquals(new String[] { "replicate", "seed", "cycles", "time_s", id, id + "_2", "mutants" },
+				lines.get(0));
+		for (int n = 0; n < REPLICATES; n++)
+		{
+			String[] row = lines.get(1 + n);
+			assertEquals(String.valueOf(n + 1), row[0]);
+			assertEquals(String.valueOf(ReplicateEnsemble.replicateSeed(MASTER_SEED, n + 1)), row[1]);
+			assertTrue(ensemble.models[n].length > 2);
+
+			double[] expected = new double[3];
+			for (int k = 0; k < ensemble.models[n].length; k++)
+			{
+				int col = 2;
+				for (int i = 0; i < 2; i++)
+				{
+					if (ensemble.models[n][k] == ensemble.layout[n][i])
+						col = i;
+				}
+				expected[col] += ensemble.biomass[n][k];
+			}
+			assertTrue(expected[2] > 0);
+			for (int i = 0; i < 3; i++)
+				assertEquals(expected[i], Double.parseDouble(row[4 + i]), 0);
+		}
+		assertEquals("mean", lines.get(1 + REPLICATES)[0]);
+		assertEquals("sd", lines.get(2 + REPLICATES)[0]);
+	}
+
+	/**The replicates, with mutations on and a record of each one's final models and
+	 * biomass.
+	 */
+	private class Ensemble extends ReplicateEnsemble {
+
+		FBAModel[][] layout = new FBAModel[REPLICATES][];
+		FBAModel[][] models = new FBAModel[REPLICATES][];
+		double[][] biomass = new double[REPLICATES][];
+
+		Ensemble() {
+			super(comets, loadCommands(), new File(dir, "replicates.txt").getPath());
+		}
+
+		@Override
+		protected void configure(int n, Comets member) {
+			super.configure(n, member);
+			FBAWorld world = (FBAWorld) member.getWorld();
+			layout[n] = world.getModels().clone();
+			CometsParameters cParams = member.getParameters();
+			cParams.setEvolution(true);
+			cParams.setMutRate(0.1 / layout[n][0].getTotalRxns());
+			cParams.setCellSize(1e-12);
+		}
+
+		@Override
+		protected void finished(int n, Comets member, long millis) {
+			super.finished(n, member, millis);
+			FBAWorld world = (FBAWorld) member.getWorld();
+			models[n] = world.getModels().clone();
+			biomass[n] = world.calculateTotalBiomass();
+		}
+	}
+
+	private static List<String[]> loadCommands() {
+		List<String[]> commands = new ArrayList<String[]>();
+		String layout = IntTestReplicateEnsemble.class.getResource("../resources/" + LAYOUT).getPath();
+		commands.add(new String[] { "load_layout", layout });
+		return commands;
+	}
+
+	private static List<String[]> readSummary(File file) throws IOException {
+		List<String[]> lines = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null)
+			lines.add(line.split("\t", -1));
+		reader.close();
+		return lines;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
@@ -0,0 +1,81 @@
+package edu.bu.segrelab.comets.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.CometsParameters;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.fba.FBAModel;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Runs with every random draw turned on: cells run in random order, models activate
+ * at random, and evolution picks the number of mutants, their reactions, IDs and
+ * cells at random. Two runs with the same seed have to end the same way.
+ *
+ */
+public class IntTestReproducibleRuns {
+
+	private static final long SEED = 1234;
+	private static final String BIOMASS_LOG = "reproducible_biomass.m";
+	private static final String GENOTYPES_LOG = "GENOTYPES_" + BIOMASS_LOG;
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+		new File(GENOTYPES_LOG).delete();
+	}
+
+	@Test
+	public void testSameSeedSameRun() throws IOException {
+		Result first = run(SEED);
+		Result second = run(SEED);
+
+		assertTrue(first.modelIDs.size() > 2); // there were mutants
+		assertEquals(first.modelIDs, second.modelIDs);
+		assertEquals(first.mutations, second.mutations);
+		assertArrayEquals(first.totalBiomass, second.totalBiomass, 0);
+	}
+
+	private static class Result {
+		List<String> modelIDs = new ArrayList<String>();
+		List<String> mutations = new ArrayList<String>();
+		double[] totalBiomass;
+	}
+
+	private Result run(long seed) throws IOException {
+		IWorld.getReactionModel().clear();
+		TComets comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_biomass_field.txt"));
+		FBAWorld world = (FBAWorld) comets.getWorld();
+
+		CometsParameters cParams = comets.getParameters();
+		cParams.setSimulateActivation(true);
+		cParams.setActivateRate(0.5);
+		cParams.setEvolution(true);
+		cParams.setCellSize(1e-12);
+		cParams.setMutRate(1e-3);
+		cParams.setAddRate(0);
+		FBAParameters pParams = (FBAParameters) comets.getPackageParameters();
+		pParams.setRandomSeed(seed);
+		pParams.setBiomassLogName(BIOMASS_LOG);
+		comets.doCommandLineRunWithoutLoading();
+
+		Result result = new Result();
+		for (FBAModel model : world.getModels())
+		{
+			result.modelIDs.add(model.getModelID());
+			result.mutations.add(model.getMutation());
+		}
+		result.totalBiomass = world.calculateTotalBiomass();
+		return result;
+	}
+}
@@ -0,0 +1,79 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.BinaryLogReader;
+import edu.bu.segrelab.comets.fba.BinaryLogWriter;
+
+/**Round trips through the binary log format
+ *
+ */
+public class TestBinaryLog {
+
+	@Test
+	public void testFluxRoundTrip() throws IOException{
+		File f = File.createTempFile("fluxlog", ".bin");
+		f.deleteOnExit();
+		BinaryLogWriter writer = new BinaryLogWriter(f, BinaryLogWriter.KIND_FLUX, false,
+				new int[]{3, 2, 1}, 0.1, 0.01);
+		writer.beginChunk(1);
+		int s0 = writer.series("model1", "mmol/gDW/h", new String[]{"rxn1", "rxn2"});
+		BitSet present = new BitSet();
+		present.set(1); //x=0, y=1
+		present.set(4); //x=2, y=0
+		writer.writeSeries(s0, present, new double[]{1.5, 2, 3, 4.25});
+		int s1 = writer.series("model2", "mmol/gDW/h", new String[]{"rxn1"});
+		writer.writeSeries(s1, new BitSet(), new double[0]);
+		writer.endChunk();
+		writer.close();
+
+		BinaryLogReader reader = new BinaryLogReader(f);
+		assertEquals(BinaryLogWriter.KIND_FLUX, reader.getKind());
+		assertArrayEquals(new int[]{3, 2, 1}, reader.getDims());
+		assertEquals(0.1, reader.getTimeStep(), 0.0);
+		assertTrue(reader.nextChunk());
+		assertEquals(1, reader.getCycle());
+		assertEquals("model2", reader.getSeriesName(1));
+		assertArrayEquals(new String[]{"rxn1", "rxn2"}, reader.getSeriesLabels(0));
+
+		StringWriter text = new StringWriter();
+		reader.writeText(new PrintWriter(text, true));
+		String expected = "1 1 2 1 1.5E0 2E0\n" + "1 3 1 1 3E0 4.25E0\n";
+		assertEquals(expected, text.toString());
+		assertFalse(reader.nextChunk());
+		reader.close();
+	}
+
+	@Test
+	public void testDenseMediaInFloats() throws IOException{
+		File f = File.createTempFile("medialog", ".bin");
+		f.deleteOnExit();
+		BinaryLogWriter writer = new BinaryLogWriter(f, BinaryLogWriter.KIND_MEDIA, true,
+				new int[]{2, 1, 1}, 1.0, 1.0);
+		for (int cycle = 1; cycle <= 2; cycle++){
+			writer.beginChunk(cycle);
+			int s = writer.series("glc", "mmol", new String[]{"glc"});
+			writer.writeSeries(s, null, new double[]{0.5 * cycle, 0.25});
+			writer.endChunk();
+		}
+		writer.close();
+
+		BinaryLogReader reader = new BinaryLogReader(f);
+		assertTrue(reader.nextChunk());
+		assertTrue(reader.nextChunk());
+		assertEquals(2, reader.getCycle());
+		BinaryLogReader.SeriesData data = reader.getData().get(0);
+		assertNull(data.present);
+		assertArrayEquals(new double[]{1.0, 0.25}, data.values, 0.0);
+		assertFalse(reader.nextChunk());
+		reader.close();
+	}
+}
@@ -0,0 +1,136 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.BinaryLogReader;
+import edu.bu.segrelab.comets.fba.BinaryLogWriter;
+import edu.bu.segrelab.comets.fba.FBACheckpoint;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.LogFile;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**Checkpoint files, and cutting logs back to a checkpoint's marks
+ *
+ */
+public class TestCheckpoint {
+
+	@Test
+	public void testCheckpointRoundTrip() throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FBACheckpoint.writeArray(out, new double[][] { { 1.5, -2 }, null });
+		FBACheckpoint.writeArray(out, (int[]) null);
+		FBACheckpoint.writeArray(out, new boolean[][][] { { { true, false } } });
+		FBACheckpoint.writeString(out, null);
+		FBACheckpoint.writeString(out, "model_1");
+		out.close();
+
+		File file = File.createTempFile("checkpoint", ".bin");
+		file.deleteOnExit();
+		FBACheckpoint checkpoint = new FBACheckpoint(42, bytes.toByteArray());
+		checkpoint.putMark("flux", new FBACheckpoint.LogMark("flux.txt", "flux_cycles0-99.txt", 0, 1234));
+		checkpoint.putMark("media", null);
+		checkpoint.write(file);
+
+		FBACheckpoint read = FBACheckpoint.read(file);
+		assertEquals(42, read.getCycle());
+		assertNull(read.getMark("media"));
+		FBACheckpoint.LogMark mark = read.getMark("flux");
+		assertEquals("flux.txt", mark.name);
+		assertEquals("flux_cycles0-99.txt", mark.file);
+		assertEquals(1234, mark.offset);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(read.getState()));
+		double[][] values = FBACheckpoint.readDoubles2D(in);
+		assertArrayEquals(new double[] { 1.5, -2 }, values[0], 0);
+		assertNull(values[1]);
+		assertNull(FBACheckpoint.readInts(in));
+		assertFalse(FBACheckpoint.readBooleans3D(in)[0][0][1]);
+		assertNull(FBACheckpoint.readString(in));
+		assertEquals("model_1", FBACheckpoint.readString(in));
+	}
+
+	@Test
+	public void testTextLogResume() throws IOException{
+		checkTextLogResume(".txt");
+		checkTextLogResume(".txt.gz");
+	}
+
+	private void checkTextLogResume(String suffix) throws IOException{
+		File file = File.createTempFile("log", suffix);
+		file.deleteOnExit();
+		FBAParameters pParams = new FBAParameters(new TComets());
+
+		LogFile log = new LogFile(file.getPath(), pParams);
+		PrintWriter writer = log.open();
+		writer.println("cycle 1");
+		FBACheckpoint.LogMark mark = log.mark();
+		writer.println("cycle 2");
+		writer.close();
+
+		LogFile resumed = new LogFile("ignored" + suffix, pParams);
+		writer = resumed.resume(mark);
+		assertEquals(file.getPath(), resumed.getFileName());
+		writer.println("cycle 2 again");
+		writer.close();
+
+		InputStream stream = new FileInputStream(file);
+		if (suffix.endsWith(LogFile.GZIP_SUFFIX))
+			stream = new GZIPInputStream(stream);
+		BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+		assertEquals("cycle 1", in.readLine());
+		assertEquals("cycle 2 again", in.readLine());
+		assertNull(in.readLine());
+		in.close();
+	}
+
+	@Test
+	public void testBinaryLogResume() throws IOException{
+		File file = File.createTempFile("log", ".bin");
+		file.deleteOnExit();
+		BinaryLogWriter log = new BinaryLogWriter(file, BinaryLogWriter.KIND_MEDIA, false,
+				new int[] { 1, 1, 1 }, 0.1, 0.01);
+		log.beginChunk(1);
+		log.writeSeries(log.series("glc", "mmol", new String[] { "glc" }), null, new double[] { 10 });
+		log.endChunk();
+		FBACheckpoint.LogMark mark = log.mark();
+		log.beginChunk(2);
+		log.writeSeries(log.series("ac", "mmol", new String[] { "ac" }), null, new double[] { 1 });
+		log.endChunk();
+		log.close();
+
+		//glc keeps its index, and the series cut off with cycle 2 is forgotten
+		log = BinaryLogWriter.resume(mark);
+		log.beginChunk(2);
+		assertEquals(0, log.series("glc", "mmol", new String[] { "glc" }));
+		log.writeSeries(log.series("lac", "mmol", new String[] { "lac" }), new BitSet(), new double[0]);
+		log.endChunk();
+		log.close();
+
+		BinaryLogReader in = new BinaryLogReader(file);
+		assertTrue(in.nextChunk());
+		assertEquals(1, in.getCycle());
+		assertTrue(in.nextChunk());
+		assertEquals(2, in.getCycle());
+		assertEquals(2, in.getNumSeries());
+		assertEquals("lac", in.getSeriesName(1));
+		assertFalse(in.nextChunk());
+		in.close();
+	}
+}
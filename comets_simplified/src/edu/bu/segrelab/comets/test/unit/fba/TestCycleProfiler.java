@@ -0,0 +1,122 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.CycleProfiler;
+import edu.bu.segrelab.comets.fba.CycleProfiler.Phase;
+
+/**Timing the phases of each cycle into the metrics log
+ *
+ */
+public class TestCycleProfiler {
+
+	@Test
+	public void testDisabled(){
+		StringWriter out = new StringWriter();
+		CycleProfiler profiler = new CycleProfiler(false, 1, new PrintWriter(out));
+		assertFalse(profiler.isEnabled());
+		profiler.begin(Phase.FBA);
+		profiler.end();
+		profiler.endCycle(1);
+		profiler.close(1);
+		assertEquals("", out.toString());
+	}
+
+	@Test
+	public void testWindow(){
+		StringWriter out = new StringWriter();
+		CycleProfiler profiler = new CycleProfiler(true, 2, new PrintWriter(out));
+		for (int cycle = 1; cycle <= 2; cycle++)
+		{
+			profiler.begin(Phase.FBA);
+			profiler.end();
+			profiler.addSolves(3);
+			profiler.begin(Phase.MEDIA_DIFFUSION);
+			profiler.end();
+			profiler.endCycle(cycle);
+		}
+		String[] lines = out.toString().trim().split("\\r?\\n");
+		assertEquals(CycleProfiler.HEADER, lines[0]);
+		//one line per phase that ran, in the phases' order
+		assertEquals(3, lines.length);
+		String[] fba = lines[1].split("\t");
+		assertEquals("2", fba[0]);
+		assertEquals("2", fba[1]);
+		assertEquals("fba", fba[2]);
+		assertEquals("2", fba[3]);
+		assertEquals("6", fba[7]);
+		String[] diffusion = lines[2].split("\t");
+		assertEquals("media_diffusion", diffusion[2]);
+		assertEquals("0", diffusion[7]);
+	}
+
+	@Test
+	public void testReactionSteps(){
+		StringWriter out = new StringWriter();
+		CycleProfiler profiler = new CycleProfiler(true, 1, new PrintWriter(out));
+		profiler.begin(Phase.FBA);
+		profiler.end();
+		profiler.begin(Phase.REACTIONS);
+		profiler.end();
+		profiler.addReactionSteps(4, 10, 2, 1, 0);
+		profiler.addReactionSteps(4, 6, 0, 0, 1);
+		profiler.endCycle(1);
+		String[] lines = out.toString().trim().split("\\r?\\n");
+		assertEquals(3, lines.length);
+		//the reaction counts only go on the reactions line
+		String[] fba = lines[1].split("\t");
+		assertEquals(15, fba.length);
+		for (int i = 8; i < 15; i++)
+			assertEquals("0", fba[i]);
+		String[] reactions = lines[2].split("\t");
+		assertEquals("reactions", reactions[2]);
+		assertEquals("8", reactions[8]);
+		assertEquals("16", reactions[9]);
+		assertEquals("2", reactions[10]);
+		assertEquals("1", reactions[11]);
+		assertEquals("1", reactions[12]);
+	}
+
+	@Test
+	public void testDormantCells(){
+		StringWriter out = new StringWriter();
+		CycleProfiler profiler = new CycleProfiler(true, 2, new PrintWriter(out));
+		for (int cycle = 1; cycle <= 2; cycle++)
+		{
+			profiler.begin(Phase.FBA);
+			profiler.end();
+			profiler.addDormantCells(5, cycle);
+			profiler.begin(Phase.MEDIA_DIFFUSION);
+			profiler.end();
+			profiler.endCycle(cycle);
+		}
+		String[] lines = out.toString().trim().split("\\r?\\n");
+		//the counts go on the fba line, summed over the window
+		String[] fba = lines[1].split("\t");
+		assertEquals("10", fba[13]);
+		assertEquals("3", fba[14]);
+		String[] diffusion = lines[2].split("\t");
+		assertEquals("0", diffusion[13]);
+		assertEquals("0", diffusion[14]);
+	}
+
+	@Test
+	public void testCloseWritesPartialWindow(){
+		StringWriter out = new StringWriter();
+		CycleProfiler profiler = new CycleProfiler(true, 10, new PrintWriter(out));
+		profiler.begin(Phase.UI);
+		profiler.end();
+		profiler.endCycle(1);
+		assertEquals(1, out.toString().trim().split("\\r?\\n").length);
+		profiler.close(1);
+		String[] lines = out.toString().trim().split("\\r?\\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1].startsWith("1\t1\tui\t1\t"));
+		assertFalse(profiler.isEnabled());
+	}
+}
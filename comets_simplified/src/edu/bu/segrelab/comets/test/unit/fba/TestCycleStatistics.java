@@ -0,0 +1,87 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.CycleStatistics;
+import edu.bu.segrelab.comets.fba.FBACell;
+
+/**Summing a cycle's FBA results per worker, and the world's totals
+ *
+ */
+public class TestCycleStatistics {
+
+	private static final int OPTIMAL = 5, INFEASIBLE = 110;
+	private static final int NOT_RUN = FBACell.FBA_NOT_RUN;
+
+	@Test
+	public void testCombineWorkers(){
+		CycleStatistics stats = new CycleStatistics();
+		stats.reset(2, 2);
+		stats.addRun(0, new double[] {1, 0}, new double[] {0.5, 0}, new double[] {2, 0},
+				new int[] {OPTIMAL, NOT_RUN}, false, false, true);
+		stats.addRun(1, new double[] {3, 4}, new double[] {1.0, 0.2}, new double[] {2, 5},
+				new int[] {OPTIMAL, INFEASIBLE}, false, true, true);
+		//a cell about to be removed doesn't add its growth
+		stats.addRun(1, new double[] {10, 10}, null, new double[] {0, 0},
+				new int[] {OPTIMAL, OPTIMAL}, false, false, false);
+		//nor does a dormant cell count as solved
+		stats.addRun(0, new double[] {0, 0}, null, new double[] {1, 1},
+				new int[] {OPTIMAL, OPTIMAL}, true, false, true);
+		stats.combine();
+
+		assertArrayEquals(new double[] {4, 4}, stats.getDeltaBiomass(), 0);
+		//biomass-weighted: (0.5*2 + 1.0*2) / 4, and 0.2*5 / 5
+		assertArrayEquals(new double[] {0.75, 0.2}, stats.getMeanGrowthRate(), 1e-12);
+		assertArrayEquals(new int[] {4, 2}, stats.getStatusCounts().get(OPTIMAL));
+		assertEquals(0, stats.getNumFailedRuns(0));
+		assertEquals(1, stats.getNumFailedRuns(1));
+		assertFalse(stats.allRunsFailed());
+		assertEquals(4, stats.getNumCellsRun());
+		assertEquals(1, stats.getNumDormantCells());
+		assertEquals(1, stats.getNumWokenCells());
+		assertEquals(5, stats.getNumSolves());
+	}
+
+	@Test
+	public void testResetClears(){
+		CycleStatistics stats = new CycleStatistics();
+		stats.reset(1, 1);
+		stats.addRun(0, new double[] {1}, null, new double[] {1}, new int[] {OPTIMAL}, false, false, true);
+		stats.combine();
+		stats.reset(3, 2);
+		stats.combine();
+		assertArrayEquals(new double[] {0, 0}, stats.getDeltaBiomass(), 0);
+		assertTrue(stats.getStatusCounts().isEmpty());
+		assertEquals(0, stats.getNumCellsRun());
+		assertEquals(0, stats.getNumSolves());
+	}
+
+	@Test
+	public void testAllRunsFailed(){
+		CycleStatistics stats = new CycleStatistics();
+		stats.reset(1, 2);
+		stats.combine();
+		//nothing was run, so nothing failed
+		assertFalse(stats.allRunsFailed());
+		stats.reset(1, 2);
+		stats.addRun(0, new double[] {0, 0}, null, new double[] {1, 1},
+				new int[] {INFEASIBLE, NOT_RUN}, false, false, true);
+		stats.combine();
+		assertTrue(stats.allRunsFailed());
+	}
+
+	@Test
+	public void testTotals(){
+		CycleStatistics stats = new CycleStatistics();
+		assertEquals(0, stats.getTotalBiomass().length);
+		stats.collectBiomass(new double[][][] { { {1, 2}, {3, 4} }, { {0, 0}, {0, 0.5} } });
+		assertArrayEquals(new double[] {10, 0.5}, stats.getTotalBiomass(), 0);
+		//media are indexed [x][y][medium]
+		stats.collectMedia(new double[][][] { { {1, 10}, {2, 20} } });
+		assertArrayEquals(new double[] {3, 30}, stats.getTotalMedia(), 0);
+		stats.collectMedia(new double[0][][]);
+		assertEquals(0, stats.getTotalMedia().length);
+	}
+}
@@ -98,6 +98,17 @@ public class TestFBAParameters{
 		
 	}
 
+	/**
+	 * Logs are written on the simulation thread unless writer threads are asked for.
+	 */
+	@Test
+	public void testLogWritersDefaultToSynchronous() {
+		assertEquals(0, pParams.getNumLogWriterThreads());
+		pParams.setParameter("numlogwriterthreads", "2");
+		pParams.loadParameterState();
+		assertEquals(2, pParams.getNumLogWriterThreads());
+	}
+
 	private static String parametersFileBlock = "	maxCycles = 200\r\n" + 
 			"	pixelScale = 5\r\n" + 
 			"	saveslideshow = false\r\n" + 
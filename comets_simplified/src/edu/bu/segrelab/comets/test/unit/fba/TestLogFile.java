@@ -0,0 +1,63 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.LogFile;
+import edu.bu.segrelab.comets.util.BlockGzipOutputStream;
+
+/**Compressed log blocks and split log names
+ *
+ */
+public class TestLogFile {
+
+	@Test
+	public void testInsertBeforeExtension(){
+		assertEquals("flux_cycles0-99.txt", LogFile.insertBeforeExtension("flux.txt", "_cycles0-99"));
+		assertEquals("flux_cycles0-99.txt.gz", LogFile.insertBeforeExtension("flux.txt.gz", "_cycles0-99"));
+		assertEquals("flux_1.gz", LogFile.insertBeforeExtension("flux.gz", "_1"));
+		assertEquals("flux_1", LogFile.insertBeforeExtension("flux", "_1"));
+	}
+
+	@Test
+	public void testForSimulation(){
+		assertEquals("flux.txt", LogFile.forSimulation("flux.txt", "", ""));
+		assertEquals("flux_set2.txt.gz", LogFile.forSimulation("flux.txt.gz", "_set2", ""));
+		assertEquals("run_rep3" + File.separator + "flux.txt", LogFile.forSimulation("flux.txt", "", "run_rep3"));
+		String absolute = new File("flux.txt").getAbsolutePath();
+		assertEquals(absolute, LogFile.forSimulation(absolute, "", "run_rep3"));
+	}
+
+	@Test
+	public void testBlocksAreReadableBeforeClose() throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BlockGzipOutputStream gz = new BlockGzipOutputStream(bytes, 6, 16);
+		gz.write("line one\nline 2\n".getBytes("US-ASCII"));
+		gz.flush();
+		//the first 16 bytes make up a finished member, even though the stream is still open
+		BufferedReader partial = readLines(bytes.toByteArray());
+		assertEquals("line one", partial.readLine());
+		assertEquals("line 2", partial.readLine());
+
+		gz.write("line three\n".getBytes("US-ASCII"));
+		gz.close();
+		BufferedReader in = readLines(bytes.toByteArray());
+		assertEquals("line one", in.readLine());
+		assertEquals("line 2", in.readLine());
+		assertEquals("line three", in.readLine());
+		assertNull(in.readLine());
+	}
+
+	private BufferedReader readLines(byte[] data) throws IOException{
+		return new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(data)), "US-ASCII"));
+	}
+}
@@ -0,0 +1,102 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.LogPipeline;
+
+/**A test case for the LogPipeline which writes logs off the simulation thread
+ *
+ */
+public class TestLogPipeline {
+
+	/**Tasks on one lane must run in the order they were submitted, even when the
+	 * queue is small enough that submit() has to wait, and drain() must not return
+	 * before all of them have run.
+	 */
+	@Test
+	public void testLaneOrderAndDrain(){
+		final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+		LogPipeline pipeline = new LogPipeline(2, 1);
+		for (int i = 0; i < 50; i++){
+			final int value = i;
+			pipeline.submit(0, new Runnable(){
+				public void run(){
+					written.add(value);
+				}
+			});
+		}
+		pipeline.drain();
+		assertEquals(50, written.size());
+		for (int i = 0; i < 50; i++){
+			assertEquals(i, written.get(i).intValue());
+		}
+	}
+
+	/**An interrupt while submit() waits for room must neither drop a task nor run it
+	 * ahead of the ones queued before it, and must still be seen by the caller.
+	 */
+	@Test
+	public void testInterruptKeepsLaneOrder() throws InterruptedException{
+		final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch release = new CountDownLatch(1);
+		LogPipeline pipeline = new LogPipeline(1, 1);
+		pipeline.submit(0, new Runnable(){
+			public void run(){
+				try {
+					release.await();
+				}
+				catch (InterruptedException e){
+				}
+				written.add(0);
+			}
+		});
+		submitValue(pipeline, written, 1);
+		// the writer is held up and the queue is full, so the next submit has to wait
+		new Thread(){
+			public void run(){
+				try {
+					Thread.sleep(100);
+				}
+				catch (InterruptedException e){
+				}
+				release.countDown();
+			}
+		}.start();
+		Thread.currentThread().interrupt();
+		submitValue(pipeline, written, 2);
+		assertTrue(Thread.interrupted());
+		pipeline.drain();
+		assertEquals(3, written.size());
+		for (int i = 0; i < 3; i++){
+			assertEquals(i, written.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testSynchronousWithoutLanes(){
+		final List<Integer> written = new ArrayList<Integer>();
+		LogPipeline pipeline = new LogPipeline(0, 1);
+		pipeline.submit(3, new Runnable(){
+			public void run(){
+				written.add(1);
+			}
+		});
+		assertEquals(1, written.size());
+		assertEquals(0, pipeline.getNumLanes());
+	}
+
+	private static void submitValue(LogPipeline pipeline, final List<Integer> written, final int value){
+		pipeline.submit(0, new Runnable(){
+			public void run(){
+				written.add(value);
+			}
+		});
+	}
+}
@@ -0,0 +1,196 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.MatStreamWriter;
+
+/**The streamed .mat log's growing arrays
+ *
+ */
+public class TestMatStreamWriter {
+
+	/**A parsed array: its dimensions, and its data as doubles or chars*/
+	private static class Array {
+		int[] dims;
+		double[] values;
+		char[] chars;
+	}
+
+	@Test
+	public void testGrowingArrays() throws IOException{
+		File file = File.createTempFile("log", ".mat");
+		file.deleteOnExit();
+		MatStreamWriter writer = new MatStreamWriter(file, false);
+
+		writer.beginSlice();
+		MatStreamWriter.Variable grid = writer.variable("grid", new int[] { 2, 1 });
+		grid.put(1);
+		grid.put(2);
+		writer.variable("total", null).put(5);
+		//a variable that starts late, like a mutant's biomass
+		writer.beginSlice();
+		writer.variable("late", new int[] { 1 }).put(7);
+		grid.put(3);
+		grid.put(4);
+		MatStreamWriter.Variable total = writer.variable("total", null);
+		total.put(6);
+		total.put(8);
+		writer.setText("names", new String[] { "ab", "c" });
+		writer.close();
+		assertFalse(new File(file.getPath() + ".part").exists());
+
+		Map<String, Array> arrays = read(file);
+		assertArrayEquals(new int[] { 2, 1, 2 }, arrays.get("grid").dims);
+		assertArrayEquals(new double[] { 1, 2, 3, 4 }, arrays.get("grid").values, 0);
+		//the first slice is padded to the longest
+		assertArrayEquals(new int[] { 2, 2 }, arrays.get("total").dims);
+		assertArrayEquals(new double[] { 5, 0, 6, 8 }, arrays.get("total").values, 0);
+		assertArrayEquals(new double[] { 0, 7 }, arrays.get("late").values, 0);
+		assertArrayEquals(new int[] { 2, 2 }, arrays.get("names").dims);
+		assertEquals("acb ", new String(arrays.get("names").chars));
+	}
+
+	@Test
+	public void testShortSlice() throws IOException{
+		File file = File.createTempFile("log", ".mat");
+		file.deleteOnExit();
+		MatStreamWriter writer = new MatStreamWriter(file, false);
+		writer.beginSlice();
+		writer.variable("grid", new int[] { 2 }).put(1);
+		try {
+			writer.beginSlice();
+			fail("a short slice should be rejected");
+		}
+		catch (IllegalStateException e){
+			assertTrue(e.getMessage().contains("grid"));
+		}
+	}
+
+	/**Variables that would pass the size limit are continued in others*/
+	@Test
+	public void testContinuedVariables() throws IOException{
+		File file = File.createTempFile("log", ".mat");
+		file.deleteOnExit();
+		//room for two slices of grid or total, one of late
+		MatStreamWriter writer = new MatStreamWriter(file, false, 100);
+		for (int t = 1; t <= 5; t++){
+			writer.beginSlice();
+			MatStreamWriter.Variable grid = writer.variable("grid", new int[] { 2, 1 });
+			grid.put(2 * t - 1);
+			grid.put(2 * t);
+			MatStreamWriter.Variable total = writer.variable("total", null);
+			total.put(t);
+			total.put(10 * t);
+			if (t >= 3){
+				MatStreamWriter.Variable late = writer.variable("late", new int[] { 3 });
+				late.put(t);
+				late.put(0);
+				late.put(0);
+			}
+		}
+		writer.close();
+
+		Map<String, Array> arrays = read(file);
+		assertArrayEquals(new int[] { 2, 1, 2 }, arrays.get("grid").dims);
+		assertArrayEquals(new double[] { 1, 2, 3, 4 }, arrays.get("grid").values, 0);
+		assertArrayEquals(new int[] { 2, 1, 2 }, arrays.get("grid_2").dims);
+		assertArrayEquals(new double[] { 5, 6, 7, 8 }, arrays.get("grid_2").values, 0);
+		assertArrayEquals(new int[] { 2, 1, 1 }, arrays.get("grid_3").dims);
+		assertArrayEquals(new double[] { 9, 10 }, arrays.get("grid_3").values, 0);
+		assertFalse(arrays.containsKey("grid_4"));
+		assertArrayEquals(new int[] { 2, 2 }, arrays.get("total").dims);
+		assertArrayEquals(new double[] { 5, 50 }, arrays.get("total_3").values, 0);
+		//the slices before late started are filled with zeros, and split up too
+		assertArrayEquals(new int[] { 3, 1 }, arrays.get("late").dims);
+		assertArrayEquals(new double[] { 0, 0, 0 }, arrays.get("late_2").values, 0);
+		assertArrayEquals(new double[] { 3, 0, 0 }, arrays.get("late_3").values, 0);
+		assertArrayEquals(new double[] { 5, 0, 0 }, arrays.get("late_5").values, 0);
+	}
+
+	@Test
+	public void testOversizedSlice() throws IOException{
+		File file = File.createTempFile("log", ".mat");
+		file.deleteOnExit();
+		MatStreamWriter writer = new MatStreamWriter(file, false, 100);
+		writer.beginSlice();
+		try {
+			writer.variable("big", new int[] { 10 }).put(1);
+			fail("a slice over the limit should be rejected when it's written");
+		}
+		catch (IOException e){
+			assertTrue(e.getMessage().contains("big"));
+		}
+		writer.close();
+		assertFalse(read(file).containsKey("big"));
+	}
+
+	/**The slices written so far are kept if the .mat file can't be written*/
+	@Test
+	public void testPartKeptOnFailure() throws IOException{
+		File dir = Files.createTempDirectory("log").toFile();
+		dir.deleteOnExit();
+		File partFile = new File(dir.getPath() + ".part");
+		partFile.deleteOnExit();
+		MatStreamWriter writer = new MatStreamWriter(dir, false);
+		writer.beginSlice();
+		writer.variable("total", null).put(5);
+		try {
+			writer.close();
+			fail("a directory can't be written as a .mat file");
+		}
+		catch (IOException e){
+		}
+		assertTrue(partFile.length() > 0);
+	}
+
+	/**Reads the uncompressed arrays of a level 5 MAT-file*/
+	private static Map<String, Array> read(File file) throws IOException{
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(0x0100, in.getShort(124));
+		assertEquals('I', in.get(126));
+		assertEquals('M', in.get(127));
+		in.position(128);
+		Map<String, Array> arrays = new HashMap<String, Array>();
+		while (in.hasRemaining()){
+			assertEquals(14, in.getInt());
+			int end = in.getInt() + in.position();
+			in.position(in.position() + 16); //array flags
+			Array array = new Array();
+			assertEquals(5, in.getInt());
+			array.dims = new int[in.getInt() / 4];
+			for (int i = 0; i < array.dims.length; i++)
+				array.dims[i] = in.getInt();
+			in.position((in.position() + 7) & ~7);
+			assertEquals(1, in.getInt());
+			byte[] name = new byte[in.getInt()];
+			in.get(name);
+			in.position((in.position() + 7) & ~7);
+			int type = in.getInt();
+			int n = in.getInt();
+			if (type == 9){
+				array.values = new double[n / 8];
+				for (int i = 0; i < array.values.length; i++)
+					array.values[i] = in.getDouble();
+			}
+			else {
+				assertEquals(4, type);
+				array.chars = new char[n / 2];
+				for (int i = 0; i < array.chars.length; i++)
+					array.chars[i] = in.getChar();
+			}
+			arrays.put(new String(name, "US-ASCII"), array);
+			in.position(end);
+		}
+		return arrays;
+	}
+}
@@ -0,0 +1,88 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.ModelFileTokenizer;
+
+/**Splitting and number parsing for model files
+ *
+ */
+public class TestModelFileTokenizer {
+
+	@Test
+	public void testLines() throws IOException{
+		ModelFileTokenizer reader = new ModelFileTokenizer(new StringReader(
+				"SMATRIX  2 3\r\n\t1 2   -1.5\r\n\n//\rlast name"));
+		assertTrue(reader.next());
+		assertEquals(3, reader.numTokens());
+		assertEquals("SMATRIX", reader.token(0));
+		assertEquals(3, reader.parseInt(2));
+		assertTrue(reader.nextInBlock());
+		assertEquals("1 2   -1.5", reader.line());
+		assertEquals(-1.5, reader.parseDouble(2), 0);
+		assertTrue(reader.nextInBlock());
+		assertEquals(0, reader.numTokens());
+		assertFalse(reader.nextInBlock());
+		assertEquals("last name", reader.readLine());
+		assertNull(reader.readLine());
+		assertEquals(5, reader.getNumLines());
+	}
+
+	@Test
+	public void testUnterminatedBlock() throws IOException{
+		ModelFileTokenizer reader = new ModelFileTokenizer(new StringReader("BOUNDS -1000 1000\n1 0 1\n"));
+		reader.next();
+		assertTrue(reader.nextInBlock());
+		try {
+			reader.nextInBlock();
+			fail("a block without '//' should be an error");
+		}
+		catch (IOException e){
+		}
+	}
+
+	@Test
+	public void testNumbersMatchJava() throws IOException{
+		String[] fixed = { "0", "-0", "+7", "0.1", "1e-6", "1E+3", "-2.5e-300", "123456789012345678",
+				"0.0000000000000000000000000001", "1.7976931348623157e308", "Infinity", "NaN", "0x1p3", "4d", ".5", "5." };
+		StringBuilder text = new StringBuilder();
+		for (String s : fixed)
+			text.append(s).append(' ');
+		Random random = new Random(1);
+		for (int i = 0; i < 5000; i++){
+			double v = random.nextDouble() * Math.pow(10, random.nextInt(30) - 15);
+			text.append(random.nextBoolean() ? Double.toString(v) : String.format("%.6f", v)).append(' ');
+		}
+		ModelFileTokenizer reader = new ModelFileTokenizer(new StringReader(text.toString()));
+		assertTrue(reader.next());
+		for (int i = 0; i < reader.numTokens(); i++){
+			String token = reader.token(i);
+			assertEquals(token, Double.doubleToLongBits(Double.parseDouble(token)),
+					Double.doubleToLongBits(reader.parseDouble(i)));
+		}
+	}
+
+	@Test
+	public void testBadNumber() throws IOException{
+		ModelFileTokenizer reader = new ModelFileTokenizer(new StringReader("1x 2.5"));
+		reader.next();
+		try {
+			reader.parseInt(0);
+			fail("1x isn't an int");
+		}
+		catch (NumberFormatException e){
+		}
+		try {
+			reader.parseInt(1);
+			fail("2.5 isn't an int");
+		}
+		catch (NumberFormatException e){
+		}
+	}
+}
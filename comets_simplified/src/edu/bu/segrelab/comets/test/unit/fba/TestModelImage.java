@@ -0,0 +1,92 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.exception.ModelFileException;
+import edu.bu.segrelab.comets.fba.FBAModel;
+import edu.bu.segrelab.comets.fba.ModelImage;
+
+/**Saving parsed models as binary caches
+ *
+ */
+public class TestModelImage {
+
+	private static final String MODEL = 
+			"SMATRIX 2 3\n" +
+			"	1 1 -1\n" +
+			"	1 2 1\n" +
+			"\n" +
+			"	2 2 -0.5\n" +
+			"	2 3 1\n" +
+			"//\n" +
+			"BOUNDS -1000 1000\n" +
+			"	1 -10 1000\n" +
+			"	3 0 1e3\n" +
+			"//\n" +
+			"OBJECTIVE\n" +
+			"	3\n" +
+			"//\n" +
+			"METABOLITE_NAMES\n" +
+			"	glc_e\n" +
+			"	glc_c\n" +
+			"//\n" +
+			"REACTION_NAMES\n" +
+			"	EX_glc\n" +
+			"	GLCt\n" +
+			"	biomass\n" +
+			"//\n" +
+			"EXCHANGE_REACTIONS\n" +
+			"	1\n" +
+			"//\n" +
+			"MET_REACTION_SIGNAL\n" +
+			"	2 1 ub linear 0.5 1\n" +
+			"	multitoxin 3 1 lb 10 1 2\n" +
+			"//\n";
+
+	@Test
+	public void testCacheRoundTrip() throws IOException, ModelFileException{
+		File model = writeModel(MODEL);
+		ModelImage image = FBAModel.parseModelFile(model.getPath());
+		byte[] hash = ModelImage.hash(model);
+
+		File cache = File.createTempFile("model", ModelImage.CACHE_SUFFIX);
+		cache.deleteOnExit();
+		image.write(cache, hash);
+		ModelImage read = ModelImage.read(cache, hash);
+		assertNotNull(read);
+
+		//everything written is read back
+		File again = File.createTempFile("model", ModelImage.CACHE_SUFFIX);
+		again.deleteOnExit();
+		read.write(again, hash);
+		assertArrayEquals(Files.readAllBytes(cache.toPath()), Files.readAllBytes(again.toPath()));
+	}
+
+	@Test
+	public void testStaleCache() throws IOException, ModelFileException{
+		File model = writeModel(MODEL);
+		File cache = File.createTempFile("model", ModelImage.CACHE_SUFFIX);
+		cache.deleteOnExit();
+		FBAModel.parseModelFile(model.getPath()).write(cache, ModelImage.hash(model));
+
+		File edited = writeModel(MODEL.replace("1 -10 1000", "1 -5 1000"));
+		assertNull(ModelImage.read(cache, ModelImage.hash(edited)));
+	}
+
+	private static File writeModel(String text) throws IOException{
+		File file = File.createTempFile("model", ".txt");
+		file.deleteOnExit();
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		out.print(text);
+		out.close();
+		return file;
+	}
+}
@@ -0,0 +1,131 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.SparseFluxLogReader;
+import edu.bu.segrelab.comets.fba.SparseFluxLogWriter;
+import edu.bu.segrelab.comets.util.TextLogBuffer;
+
+/**Writing and rebuilding sparse flux logs
+ *
+ */
+public class TestSparseFluxLog {
+
+	private static final double[][] FLUXES = {
+		{0, 1.5, 0, -2},
+		{0, 1.5, 0.25, -2},
+		{0, 1.50001, 0.25, 0},
+		{1, 1.5, 0.25, 0},
+	};
+
+	private String writeLog(SparseFluxLogWriter writer){
+		TextLogBuffer line = new TextLogBuffer();
+		for (int cycle = 0; cycle < FLUXES.length; cycle++){
+			String header = writer.beginCycle(cycle, false, new String[]{"model"}, new int[]{4});
+			if (header != null)
+				line.append(header).append('\n');
+			writer.appendLine(line, cycle, 2, 3, 1, FLUXES[cycle]);
+		}
+		return line.toString();
+	}
+
+	@Test
+	public void testHeaderOnlyAtStart(){
+		String[] lines = writeLog(new SparseFluxLogWriter(0, 10)).split("\n");
+		assertEquals(SparseFluxLogWriter.header(new int[]{4}), lines[0]);
+		assertEquals(FLUXES.length + 1, lines.length);
+	}
+
+	/**Evolution adds a mutant, then the ancestor goes extinct and the models after it
+	 * are renumbered. Each change gets a new header and keyframes, so a model number
+	 * always means the model of the header above it.
+	 */
+	@Test
+	public void testModelsChange() throws IOException{
+		SparseFluxLogWriter writer = new SparseFluxLogWriter(0, 10);
+		double[] a = {1, 0}, b = {0, 2, 3}, mutant = {4, 5, 0, 6};
+		TextLogBuffer line = new TextLogBuffer();
+
+		line.append(writer.beginCycle(0, false, new String[]{"a", "b"}, new int[]{2, 3})).append('\n');
+		writer.appendLine(line, 0, 1, 1, 1, a);
+		writer.appendLine(line, 0, 1, 1, 2, b);
+		assertNull(writer.beginCycle(1, false, new String[]{"a", "b"}, new int[]{2, 3}));
+		writer.appendLine(line, 1, 1, 1, 2, b);
+
+		String header = writer.beginCycle(2, false, new String[]{"a", "b", "b_mut"}, new int[]{2, 3, 4});
+		assertEquals(SparseFluxLogWriter.header(new int[]{2, 3, 4}), header);
+		line.append(header).append('\n');
+		writer.appendLine(line, 2, 1, 1, 2, b);
+		writer.appendLine(line, 2, 1, 1, 3, mutant);
+
+		// "a" is pruned, so "b" becomes model 1 and the mutant model 2
+		header = writer.beginCycle(3, false, new String[]{"b", "b_mut"}, new int[]{3, 4});
+		line.append(header).append('\n');
+		writer.appendLine(line, 3, 1, 1, 1, b);
+		writer.appendLine(line, 3, 1, 1, 2, mutant);
+		String log = line.toString();
+		assertTrue(log.contains("3 1 1 1 K 2:2E0 3:3E0\n"));
+
+		SparseFluxLogReader reader = new SparseFluxLogReader(new StringReader(log));
+		double[][] expected = {a, b, b, b, mutant, b, mutant};
+		int[] expectedModel = {1, 2, 2, 2, 3, 1, 2};
+		for (int n = 0; n < expected.length; n++){
+			assertTrue(reader.next());
+			assertEquals(expectedModel[n], reader.getModel());
+			assertArrayEquals(expected[n], reader.getFluxes(), 0.0);
+		}
+		assertArrayEquals(new int[]{3, 4}, reader.getNumRxns());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testKeyframesOnly() throws IOException{
+		String log = writeLog(new SparseFluxLogWriter(-1, 10));
+		assertTrue(log.contains("0 2 3 1 K 2:1.5E0 4:-2E0\n"));
+		SparseFluxLogReader reader = new SparseFluxLogReader(new StringReader(log));
+		for (int cycle = 0; cycle < FLUXES.length; cycle++){
+			assertTrue(reader.next());
+			assertTrue(reader.isKeyframe());
+			assertEquals(cycle, reader.getCycle());
+			assertArrayEquals(FLUXES[cycle], reader.getFluxes(), 0.0);
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testDeltas() throws IOException{
+		String log = writeLog(new SparseFluxLogWriter(1e-3, 3));
+		String[] lines = log.split("\n");
+		assertEquals("1 2 3 1 D 3:2.5E-1", lines[2]);
+		assertEquals("2 2 3 1 D 4:0E0", lines[3]); //the small change in flux 2 is left out
+		assertEquals("3 2 3 1 K 1:1E0 2:1.5E0 3:2.5E-1", lines[4]);
+
+		SparseFluxLogReader reader = new SparseFluxLogReader(new StringReader(log));
+		for (int cycle = 0; cycle < FLUXES.length; cycle++){
+			assertTrue(reader.next());
+			assertEquals(cycle, reader.getCycle());
+			assertEquals(2, reader.getX());
+			assertEquals(3, reader.getY());
+			assertArrayEquals(FLUXES[cycle], reader.getFluxes(), 1e-3);
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testStartAfterKeyframe() throws IOException{
+		String log = writeLog(new SparseFluxLogWriter(0, 3));
+		String[] lines = log.split("\n");
+		//drop the first keyframe, so reading starts with deltas
+		String part = lines[0] + "\n" + lines[2] + "\n" + lines[3] + "\n" + lines[4] + "\n";
+		SparseFluxLogReader reader = new SparseFluxLogReader(new StringReader(part));
+		assertTrue(reader.next());
+		assertEquals(3, reader.getCycle());
+		assertArrayEquals(FLUXES[3], reader.getFluxes(), 0.0);
+		assertFalse(reader.next());
+	}
+}
@@ -0,0 +1,114 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.fba.TerminationCheck;
+
+/**Stopping a simulation early once it has nothing left to do
+ *
+ */
+public class TestTerminationCheck {
+
+	private static final double[] NO_MEDIA = new double[0];
+
+	@Test
+	public void testDisabledByDefault(){
+		TerminationCheck check = new TerminationCheck(0, 0, false, 3);
+		assertFalse(check.isEnabled());
+		for (int i = 0; i < 10; i++)
+			assertNull(check.update(new double[] {1.0}, new double[] {5.0}, true));
+	}
+
+	@Test
+	public void testSteadyBiomass(){
+		TerminationCheck check = new TerminationCheck(1e-3, 0, false, 3);
+		assertNull(check.update(new double[] {1.0, 2.0}, NO_MEDIA, false));
+		assertNull(check.update(new double[] {1.5, 2.0}, NO_MEDIA, false));
+		assertNull(check.update(new double[] {1.5, 2.0}, NO_MEDIA, false));
+		assertNull(check.update(new double[] {1.5, 2.0001}, NO_MEDIA, false));
+		//a model starting to grow again resets the count
+		assertNull(check.update(new double[] {1.6, 2.0001}, NO_MEDIA, false));
+		assertNull(check.update(new double[] {1.6, 2.0001}, NO_MEDIA, false));
+		assertNull(check.update(new double[] {1.6, 2.0001}, NO_MEDIA, false));
+		assertNotNull(check.update(new double[] {1.6, 2.0001}, NO_MEDIA, false));
+	}
+
+	@Test
+	public void testBiomassFromZero(){
+		TerminationCheck check = new TerminationCheck(1e-3, 0, false, 1);
+		assertNull(check.update(new double[] {0.0}, NO_MEDIA, false));
+		assertNull(check.update(new double[] {1e-9}, NO_MEDIA, false));
+		assertNotNull(check.update(new double[] {1e-9}, NO_MEDIA, false));
+	}
+
+	@Test
+	public void testSteadyMedia(){
+		TerminationCheck check = new TerminationCheck(0, 1e-2, false, 2);
+		double[] biomass = {1.0};
+		assertNull(check.update(biomass, new double[] {10.0, 0.0}, false));
+		assertNull(check.update(biomass, new double[] {9.0, 1.0}, false));
+		assertNull(check.update(biomass, new double[] {9.0, 1.05}, false));
+		String reason = check.update(biomass, new double[] {9.0, 1.05}, false);
+		assertNotNull(reason);
+		assertTrue(reason.startsWith("media"));
+	}
+
+	@Test
+	public void testInfeasible(){
+		TerminationCheck check = new TerminationCheck(0, 0, true, 2);
+		assertTrue(check.isEnabled());
+		double[] biomass = {1.0};
+		assertNull(check.update(biomass, NO_MEDIA, true));
+		assertNull(check.update(biomass, NO_MEDIA, false));
+		assertNull(check.update(biomass, NO_MEDIA, true));
+		assertNotNull(check.update(biomass, NO_MEDIA, true));
+	}
+
+	/**With the media changed from outside, only the infeasible criterion is checked
+	 */
+	@Test
+	public void testSuspendedSteadyCriteria(){
+		TerminationCheck check = new TerminationCheck(1e-3, 1e-2, true, 2);
+		check.suspendSteadyCriteria();
+		assertFalse(check.hasSteadyCriteria());
+		assertTrue(check.isEnabled());
+		double[] biomass = {1.0};
+		double[] media = {5.0};
+		for (int i = 0; i < 5; i++)
+			assertNull(check.update(biomass, media, false));
+		assertNull(check.update(biomass, media, true));
+		String reason = check.update(biomass, media, true);
+		assertNotNull(reason);
+		assertTrue(reason.startsWith("no usable"));
+
+		check = new TerminationCheck(1e-3, 0, false, 2);
+		check.suspendSteadyCriteria();
+		assertFalse(check.isEnabled());
+	}
+
+	/**A check restored from a checkpoint carries on counting where it left off
+	 */
+	@Test
+	public void testStateCarriesOver() throws IOException{
+		TerminationCheck check = new TerminationCheck(1e-3, 0, false, 3);
+		double[] biomass = {1.0, 2.0};
+		assertNull(check.update(biomass, NO_MEDIA, false));
+		assertNull(check.update(biomass, NO_MEDIA, false));
+		assertNull(check.update(biomass, NO_MEDIA, false));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		check.writeState(new DataOutputStream(bytes));
+		TerminationCheck resumed = new TerminationCheck(1e-3, 0, false, 3);
+		resumed.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertNotNull(resumed.update(biomass, NO_MEDIA, false));
+		assertNotNull(check.update(biomass, NO_MEDIA, false));
+	}
+}
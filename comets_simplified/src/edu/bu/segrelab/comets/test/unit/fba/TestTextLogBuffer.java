@@ -0,0 +1,56 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.util.TextLogBuffer;
+
+/**The log number format has to stay the same as DecimalFormat("0.##########E0")
+ *
+ */
+public class TestTextLogBuffer {
+
+	private NumberFormat nf = new DecimalFormat("0.##########E0");
+
+	@Test
+	public void testSpecialValues(){
+		double[] values = {0.0, -0.0, 1, -1, 0.1, 1.5, 1e-300, 1e300, Double.MIN_VALUE, Double.MIN_NORMAL,
+				Double.MAX_VALUE, 100000000000.5, 100000000001.5, 99999999999.5, 9.99999999995,
+				1.00000000005, 123456789012345.0, 1.0 / 3, -7.25e100, Double.NaN,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		TextLogBuffer buf = new TextLogBuffer();
+		for (double v : values){
+			buf.clear();
+			assertEquals(String.valueOf(v), nf.format(v), buf.appendScientific(v).toString());
+		}
+	}
+
+	@Test
+	public void testMatchesDecimalFormat(){
+		Random rand = new Random(1234);
+		TextLogBuffer buf = new TextLogBuffer();
+		for (int i = 0; i < 200000; i++){
+			double v;
+			if (i % 3 == 0)
+				v = Double.longBitsToDouble(rand.nextLong());
+			else if (i % 3 == 1)
+				v = rand.nextDouble() * Math.pow(10, rand.nextInt(40) - 20);
+			else
+				v = (rand.nextLong() % 100000000000000L) * 0.5; //lots of exact ties
+			buf.clear();
+			assertEquals(String.valueOf(v), nf.format(v), buf.appendScientific(v).toString());
+		}
+	}
+
+	@Test
+	public void testLine(){
+		TextLogBuffer buf = new TextLogBuffer(16);
+		buf.append(12L).append(' ').append(-3).append('\t').append("glc").append(' ').appendScientific(2.5e-3);
+		assertEquals("12 -3\tglc 2.5E-3", buf.toString());
+	}
+}
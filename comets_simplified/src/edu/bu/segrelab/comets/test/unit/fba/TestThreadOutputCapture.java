@@ -0,0 +1,102 @@
+package edu.bu.segrelab.comets.test.unit.fba;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.util.ThreadOutputCapture;
+
+/**Holding back what the model loading threads print
+ *
+ */
+public class TestThreadOutputCapture {
+
+	@Test
+	public void testCapture() throws InterruptedException{
+		PrintStream original = System.out;
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(console, true));
+		try {
+			final ThreadOutputCapture capture = ThreadOutputCapture.install();
+			final String[] held = new String[2];
+			Thread[] threads = new Thread[2];
+			for (int i = 0; i < threads.length; i++){
+				final int n = i;
+				threads[i] = new Thread(new Runnable(){
+					public void run() {
+						capture.begin();
+						System.out.print("model ");
+						System.out.println(n);
+						held[n] = capture.end();
+						System.out.println("after " + n);
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread t : threads)
+				t.join();
+			System.out.println("main");
+			capture.uninstall();
+
+			assertEquals("model 0" + System.lineSeparator(), held[0]);
+			assertEquals("model 1" + System.lineSeparator(), held[1]);
+			String printed = console.toString();
+			assertFalse(printed.contains("model"));
+			assertTrue(printed.contains("after 0") && printed.contains("after 1") && printed.contains("main"));
+		}
+		finally {
+			System.setOut(original);
+		}
+	}
+
+	@Test
+	public void testRedirect() throws InterruptedException{
+		PrintStream original = System.out;
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(console, true));
+		try {
+			ThreadOutputCapture capture = ThreadOutputCapture.install();
+			final ByteArrayOutputStream file = new ByteArrayOutputStream();
+			final ThreadOutputCapture inner = ThreadOutputCapture.install();
+			assertSame(capture, inner);
+			Thread t = new Thread(new Runnable(){
+				public void run() {
+					inner.redirect(file);
+					System.out.println("set");
+					Thread child = new Thread(new Runnable(){
+						public void run() {
+							System.out.println("child");
+						}
+					});
+					child.start();
+					try {
+						child.join();
+					}
+					catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+					inner.redirect(null);
+					System.out.println("done");
+				}
+			});
+			t.start();
+			t.join();
+			inner.uninstall();
+			assertNotSame(original, System.out);
+			System.out.println("main");
+			capture.uninstall();
+
+			String redirected = file.toString();
+			assertTrue(redirected.contains("set") && redirected.contains("child"));
+			String printed = console.toString();
+			assertFalse(printed.contains("set") || printed.contains("child"));
+			assertTrue(printed.contains("done") && printed.contains("main"));
+		}
+		finally {
+			System.setOut(original);
+		}
+	}
+}
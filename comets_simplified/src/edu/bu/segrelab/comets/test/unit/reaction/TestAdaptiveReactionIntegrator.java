@@ -0,0 +1,78 @@
+package edu.bu.segrelab.comets.test.unit.reaction;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.reaction.AdaptiveReactionIntegrator;
+import edu.bu.segrelab.comets.reaction.ReactionODE;
+
+/**The adaptive integrator against first order reactions with known solutions
+ *
+ */
+public class TestAdaptiveReactionIntegrator {
+
+	private static final double A0 = 1.0;
+
+	/**A -> B at rate k*[A], over ten seconds. The explicit method handles it alone.
+	 */
+	@Test
+	public void testNonstiffDecay(){
+		double k = 0.5, duration = 10.0;
+		ReactionODE ode = new ReactionODE(new double[][] {{-1, 1}}, new double[] {k}, new int[] {-1},
+				new double[][] {{1, 0}});
+		AdaptiveReactionIntegrator integrator = new AdaptiveReactionIntegrator(1e-8, 1e-12);
+		double[] y = new double[] {A0, 0};
+		assertTrue(integrator.integrate(ode, y, duration));
+
+		double a = A0 * Math.exp(-k * duration);
+		assertEquals(a, y[0], 1e-6 * A0);
+		assertEquals(A0 - a, y[1], 1e-6 * A0);
+		assertEquals(0, integrator.getStiffPoints());
+		assertEquals(0, integrator.getFailedPoints());
+		assertTrue(integrator.getSteps() > 1);
+	}
+
+	/**A -> B -> C, with A gone within seconds and B decaying over an hour. Once A is
+	 * gone the explicit steps are held back by its timescale, so the integrator has to
+	 * switch to its implicit method to cross the hour.
+	 */
+	@Test
+	public void testStiffChain(){
+		double k1 = 1.0, k2 = 1e-3, duration = 3600.0;
+		ReactionODE ode = new ReactionODE(new double[][] {{-1, 1, 0}, {0, -1, 1}}, new double[] {k1, k2},
+				new int[] {-1, -1}, new double[][] {{1, 0, 0}, {0, 1, 0}});
+		AdaptiveReactionIntegrator integrator = new AdaptiveReactionIntegrator(1e-6, 1e-12);
+		double[] y = new double[] {A0, 0, 0};
+		assertTrue(integrator.integrate(ode, y, duration));
+
+		double a = A0 * Math.exp(-k1 * duration);
+		double b = A0 * k1 / (k2 - k1) * (Math.exp(-k1 * duration) - Math.exp(-k2 * duration));
+		assertEquals(a, y[0], 1e-6 * A0);
+		assertEquals(b, y[1], 1e-4 * b);
+		assertEquals(A0 - a - b, y[2], 1e-4 * A0);
+		assertEquals(1, integrator.getStiffPoints());
+		assertEquals(0, integrator.getFailedPoints());
+	}
+
+	/**Derivatives that aren't numbers can't be integrated. The failure is reported and
+	 * counted, and the concentrations are left as they were.
+	 */
+	@Test
+	public void testFailureIsCounted(){
+		ReactionODE ode = new ReactionODE(new double[0][0], new double[0], new int[0], new double[0][0]){
+			@Override
+			public void computeDerivatives(double t, double[] y, double[] yDot){
+				for (int i = 0; i < yDot.length; i++) yDot[i] = Double.NaN;
+			}
+		};
+		AdaptiveReactionIntegrator integrator = new AdaptiveReactionIntegrator(1e-6, 1e-12);
+		double[] y = new double[] {A0, 0};
+		assertFalse(integrator.integrate(ode, y, 1.0));
+		assertArrayEquals(new double[] {A0, 0}, y, 0);
+		assertEquals(1, integrator.getFailedPoints());
+
+		integrator.resetCounts();
+		assertEquals(0, integrator.getFailedPoints());
+	}
+}
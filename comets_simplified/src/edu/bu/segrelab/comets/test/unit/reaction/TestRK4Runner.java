@@ -0,0 +1,143 @@
+package edu.bu.segrelab.comets.test.unit.reaction;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.Cell;
+import edu.bu.segrelab.comets.IWorld;
+import edu.bu.segrelab.comets.fba.FBAParameters;
+import edu.bu.segrelab.comets.fba.FBAWorld;
+import edu.bu.segrelab.comets.reaction.ExternalReactionCalculator;
+import edu.bu.segrelab.comets.reaction.RK4Runner;
+import edu.bu.segrelab.comets.reaction.ReactionModel;
+import edu.bu.segrelab.comets.test.classes.TComets;
+
+/**The CELL_RK4 extracellular reactions, run at each cell's location. The layout has a
+ * cell in every space of a 3x3 grid and a single decay reaction; each space starts with
+ * a different amount of the metabolite.
+ *
+ */
+public class TestRK4Runner {
+
+	TComets comets;
+	FBAWorld world;
+	FBAParameters pParams;
+	ReactionModel reactionModel;
+
+	@Before
+	public void setUp() throws IOException {
+		comets = new TComets();
+		comets.loadScript(comets.createScriptForLayout("comets_layout_cell_rk4.txt"));
+		world = (FBAWorld) comets.getWorld();
+		pParams = (FBAParameters) comets.getPackageParameters();
+		reactionModel = IWorld.getReactionModel();
+		if (reactionModel.getWorld() != world) {
+			reactionModel.reset();
+			reactionModel.setWorld(world);
+			reactionModel.setup();
+		}
+		resetMedia();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IWorld.getReactionModel().clear();
+	}
+
+	/**Each cell's media are what the calculator gives for that cell alone.
+	 */
+	@Test
+	public void testMatchesCalculator() {
+		pParams.setNumRunThreads(1);
+		assertEquals(1, new RK4Runner(comets).run());
+
+		double timestep = comets.getParameters().getTimeStep() * 60 * 60;
+		for (Cell cell : comets.getCells())
+		{
+			double[] start = new double[] { startingAmount(cell.getX(), cell.getY()) };
+			double[] expected = new ExternalReactionCalculator(start, reactionModel.getExRxnEnzymes(),
+					reactionModel.getExRxnRateConstants(), reactionModel.getExRxnStoich(),
+					reactionModel.getExRxnParams(), timestep).rk4();
+			assertArrayEquals(expected, world.getMediaAt(cell.getX(), cell.getY()), 0);
+			assertTrue(expected[0] < start[0]);
+		}
+	}
+
+	/**Splitting the cells between threads doesn't change the result.
+	 */
+	@Test
+	public void testThreadsMatchSingleThread() {
+		pParams.setNumRunThreads(1);
+		new RK4Runner(comets).run();
+		double[][] single = currentMedia();
+
+		resetMedia();
+		pParams.setNumRunThreads(4);
+		new RK4Runner(comets).run();
+		double[][] threaded = currentMedia();
+		for (int i = 0; i < single.length; i++)
+			assertArrayEquals(single[i], threaded[i], 0);
+	}
+
+	/**The pool has numRunThreads threads however many cells there are, so a run with
+	 * fewer cells than threads doesn't replace it.
+	 */
+	@Test
+	public void testPoolKeptWithFewCells() {
+		pParams.setNumRunThreads(4);
+		new RK4Runner(comets).run();
+		Set<Thread> pool = reactionThreads();
+		assertFalse(pool.isEmpty());
+
+		List<Cell> cells = comets.getCells();
+		List<Cell> removed = new ArrayList<Cell>(cells.subList(2, cells.size()));
+		cells.removeAll(removed);
+		try {
+			resetMedia();
+			assertEquals(1, new RK4Runner(comets).run());
+			assertTrue(pool.containsAll(reactionThreads()));
+			for (Cell cell : removed)
+				assertEquals(startingAmount(cell.getX(), cell.getY()), world.getMediaAt(cell.getX(), cell.getY())[0], 0);
+		}
+		finally {
+			cells.addAll(removed);
+		}
+	}
+
+	private static double startingAmount(int x, int y) {
+		return 1.0 + x + 3 * y;
+	}
+
+	private void resetMedia() {
+		for (int x = 0; x < world.getNumCols(); x++)
+			for (int y = 0; y < world.getNumRows(); y++)
+				world.setMedia(x, y, new double[] { startingAmount(x, y) });
+	}
+
+	private double[][] currentMedia() {
+		List<Cell> cells = comets.getCells();
+		double[][] media = new double[cells.size()][];
+		for (int i = 0; i < media.length; i++)
+			media[i] = world.getMediaAt(cells.get(i).getX(), cells.get(i).getY()).clone();
+		return media;
+	}
+
+	private static Set<Thread> reactionThreads() {
+		Set<Thread> threads = new HashSet<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread.isAlive() && thread.getName().startsWith("ReactionThread-"))
+				threads.add(thread);
+		}
+		return threads;
+	}
+}
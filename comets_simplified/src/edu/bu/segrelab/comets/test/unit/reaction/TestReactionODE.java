@@ -71,6 +71,26 @@ public class TestReactionODE {
 		//fail("Not yet implemented");
 	}
 
+	@Test
+	public void testIsIdle() {
+		//A -> B catalyzed by E (Km on A), and a first-order decay of B
+		double[][] stoich = {{-1, 1, 0}, {0, -1, 0}};
+		double[] rateConstants = {1.0, 0.1};
+		int[] enzymes = {2, -1};
+		double[][] params = {{0.5, 0, 0}, {0, 1, 0}};
+		ReactionODE ode = new ReactionODE(stoich, rateConstants, enzymes, params);
+		
+		assertTrue(ode.isIdle(new double[]{0, 0, 0}));
+		assertTrue(ode.isIdle(new double[]{5, 0, 0})); //no enzyme, and nothing to decay
+		assertTrue(ode.isIdle(new double[]{0, 0, 1})); //enzyme but no substrate
+		assertFalse(ode.isIdle(new double[]{5, 0, 1}));
+		assertFalse(ode.isIdle(new double[]{0, 2, 0})); //B decays on its own
+		
+		//a zero-order reaction always runs
+		ReactionODE constant = new ReactionODE(new double[][]{{1}}, new double[]{1.0}, new int[]{-1}, new double[][]{{0}});
+		assertFalse(constant.isIdle(new double[]{0}));
+	}
+
 	@Test
 	public void testGetDimension() {
 		//the standard template should have dimensionality of 7
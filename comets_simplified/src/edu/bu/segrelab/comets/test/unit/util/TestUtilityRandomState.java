@@ -0,0 +1,92 @@
+package edu.bu.segrelab.comets.test.unit.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.bu.segrelab.comets.util.Utility;
+
+/**Saving and restoring Utility's random number generator, as checkpoints do
+ *
+ */
+public class TestUtilityRandomState {
+
+	@After
+	public void tearDown() {
+		Utility.useLocalRandom(null);
+	}
+
+	/**A restored state carries on the stream from where it was saved.
+	 */
+	@Test
+	public void testRestoreRepeatsDraws() throws IOException {
+		Utility.useLocalRandom(new Random(7));
+		byte[] state = Utility.getRandomState();
+		double[] expected = draw(5);
+		Utility.setRandomState(state);
+		assertArrayEquals(expected, draw(5), 0);
+	}
+
+	/**A run thread started before the restore, e.g. an FBARunThread, draws from the
+	 * restored generator too.
+	 */
+	@Test
+	public void testRestoreReachesRunningThreads() throws Exception {
+		Utility.useLocalRandom(new Random(7));
+		byte[] state = Utility.getRandomState();
+		double[] expected = draw(5);
+
+		final CountDownLatch restored = new CountDownLatch(1);
+		final double[][] drawn = new double[1][];
+		Thread runThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					restored.await();
+					drawn[0] = draw(5);
+				}
+				catch (InterruptedException e) {
+				}
+			}
+		};
+		runThread.start();
+		Utility.setRandomState(state);
+		restored.countDown();
+		runThread.join();
+		assertArrayEquals(expected, drawn[0], 0);
+	}
+
+	/**Simulations with their own generators don't draw from each other's.
+	 */
+	@Test
+	public void testLocalGeneratorsAreSeparate() throws Exception {
+		Utility.useLocalRandom(new Random(7));
+		double[] expected = draw(5);
+
+		Utility.useLocalRandom(new Random(7));
+		final double[][] other = new double[1][];
+		Thread otherSimulation = new Thread() {
+			@Override
+			public void run() {
+				Utility.useLocalRandom(new Random(11));
+				other[0] = draw(5);
+			}
+		};
+		otherSimulation.start();
+		otherSimulation.join();
+		assertArrayEquals(expected, draw(5), 0);
+		assertFalse(expected[0] == other[0][0]);
+	}
+
+	private static double[] draw(int n) {
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++)
+			values[i] = Utility.randomDouble();
+		return values;
+	}
+}
@@ -0,0 +1,119 @@
+package edu.bu.segrelab.comets.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip data as a series of complete gzip members, starting a new one after each
+ * block of uncompressed bytes. Concatenated members are a valid gzip file, so if the
+ * program is killed, everything up to the last finished block can still be read with
+ * gunzip or GZIPInputStream. Larger blocks compress slightly better.
+ */
+public class BlockGzipOutputStream extends OutputStream
+{
+	private OutputStream out;
+	private int level;
+	private long blockSize;
+	private GZIPOutputStream member;
+	private long pending; //uncompressed bytes in the current member
+
+	/**
+	 * @param out the stream to write the compressed data to
+	 * @param level the Deflater compression level, 1 (fastest) to 9 (smallest)
+	 * @param blockSize the number of uncompressed bytes in each gzip member
+	 */
+	public BlockGzipOutputStream(OutputStream out, int level, long blockSize)
+	{
+		this.out = out;
+		this.level = Math.max(1, Math.min(9, level));
+		this.blockSize = Math.max(1, blockSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		startMember();
+		member.write(b);
+		if (++pending >= blockSize)
+			endMember();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			startMember();
+			int n = (int) Math.min(len, blockSize - pending);
+			member.write(b, off, n);
+			pending += n;
+			off += n;
+			len -= n;
+			if (pending >= blockSize)
+				endMember();
+		}
+	}
+
+	/**
+	 * Flushes the finished blocks. Data in the current block stays in the compressor
+	 * until the block fills up or the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	/**
+	 * Ends the current block early and flushes it, so everything written so far can be
+	 * read back. The next write starts a new block.
+	 * @throws IOException
+	 */
+	public void finishBlock() throws IOException
+	{
+		endMember();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		endMember();
+		out.close();
+	}
+
+	private void startMember() throws IOException
+	{
+		if (member != null)
+			return;
+		//the member must not close the underlying stream when it's finished
+		member = new GZIPOutputStream(new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() {}
+		}, 1 << 16)
+		{
+			{
+				def.setLevel(level);
+			}
+		};
+		pending = 0;
+	}
+
+	private void endMember() throws IOException
+	{
+		if (member == null)
+			return;
+		//closing finishes the member and frees its Deflater; the stream under it stays open
+		member.close();
+		member = null;
+		out.flush();
+	}
+}
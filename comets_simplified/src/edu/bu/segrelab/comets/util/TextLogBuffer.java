@@ -0,0 +1,267 @@
+package edu.bu.segrelab.comets.util;
+
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * A reusable character buffer for building lines of the text logs.
+ * <p>
+ * <code>appendScientific()</code> writes a double exactly as
+ * <code>new DecimalFormat("0.##########E0")</code> would in the default locale, which is
+ * the format the logs have always used: up to 11 significant digits, rounded half-even,
+ * with trailing zeros dropped, e.g. "1.5E0", "-2.25E-3" or "0E0". DecimalFormat rounds
+ * the shortest decimal that reads back as the same double. Unless the value is within
+ * a rounding error of a tie, that gives the same digits as rounding the value itself,
+ * which is done here with double and long arithmetic straight into the buffer, without
+ * making any objects. The rare values near a tie, and subnormal values, whose shortest
+ * decimal can be far from the value's 11 digits, are handed to a DecimalFormat.
+ * <p>
+ * A TextLogBuffer isn't thread safe, so each log writer thread needs its own.
+ */
+public class TextLogBuffer
+{
+	public static final int SIGNIFICANT_DIGITS = 11;
+
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	private static final double MIN_MANTISSA = 1e10;	// 10^(SIGNIFICANT_DIGITS-1)
+	private static final double MAX_MANTISSA = 1e11;	// 10^SIGNIFICANT_DIGITS
+	// the scaled value's worst error is about 2e-4, so anything nearer a tie than this goes to the DecimalFormat
+	private static final double TIE_MARGIN = 1e-3;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private final char zero;
+	private final char minus;
+	private final char decimalSeparator;
+	private final String exponentSeparator;
+	private final String nan;
+	private final String infinity;
+	private NumberFormat fallback;
+
+	private char[] buf;
+	private int len;
+	private char[] digits = new char[20];
+
+	public TextLogBuffer()
+	{
+		this(256);
+	}
+
+	/**
+	 * @param capacity the starting size of the buffer; it grows as needed
+	 */
+	public TextLogBuffer(int capacity)
+	{
+		buf = new char[Math.max(16, capacity)];
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+		zero = symbols.getZeroDigit();
+		minus = symbols.getMinusSign();
+		decimalSeparator = symbols.getDecimalSeparator();
+		exponentSeparator = symbols.getExponentSeparator();
+		nan = symbols.getNaN();
+		infinity = symbols.getInfinity();
+	}
+
+	public TextLogBuffer append(char c)
+	{
+		ensure(1);
+		buf[len++] = c;
+		return this;
+	}
+
+	public TextLogBuffer append(String s)
+	{
+		int n = s.length();
+		ensure(n);
+		s.getChars(0, n, buf, len);
+		len += n;
+		return this;
+	}
+
+	/**
+	 * Appends a long the same way String.valueOf does.
+	 */
+	public TextLogBuffer append(long v)
+	{
+		if (v == Long.MIN_VALUE)
+			return append(String.valueOf(v));
+		if (v < 0)
+		{
+			append('-');
+			v = -v;
+		}
+		int n = 0;
+		do
+		{
+			digits[n++] = (char) ('0' + v % 10);
+			v /= 10;
+		} while (v != 0);
+		ensure(n);
+		while (n > 0)
+			buf[len++] = digits[--n];
+		return this;
+	}
+
+	/**
+	 * Appends the line separator, as PrintWriter.println would.
+	 */
+	public TextLogBuffer endLine()
+	{
+		return append(LINE_SEPARATOR);
+	}
+
+	/**
+	 * Appends v in the logs' scientific notation, "0.##########E0".
+	 */
+	public TextLogBuffer appendScientific(double v)
+	{
+		if (Double.isNaN(v))
+			return append(nan);
+		if (v < 0 || (v == 0 && 1 / v < 0))
+		{
+			append(minus);
+			v = -v;
+		}
+		if (Double.isInfinite(v))
+			return append(infinity);
+		if (v == 0)
+		{
+			ensure(exponentSeparator.length() + 2);
+			buf[len++] = zero;
+			append(exponentSeparator);
+			buf[len++] = zero;
+			return this;
+		}
+
+		if (v < Double.MIN_NORMAL)
+			return appendFallback(v);
+
+		int exp = (int) Math.floor(Math.log10(v));
+		double m = scale(v, SIGNIFICANT_DIGITS - 1 - exp);
+		if (m < MIN_MANTISSA)
+			m = scale(v, SIGNIFICANT_DIGITS - 1 - (--exp));
+		else if (m >= MAX_MANTISSA)
+			m = scale(v, SIGNIFICANT_DIGITS - 1 - (++exp));
+
+		double floor = Math.floor(m);
+		if (Math.abs(m - floor - 0.5) < TIE_MARGIN)
+			return appendFallback(v);
+		long mantissa = (long) (m - floor > 0.5 ? floor + 1 : floor);
+		if (mantissa >= (long) MAX_MANTISSA)
+		{
+			mantissa /= 10;
+			exp++;
+		}
+		appendDigits(mantissa, exp);
+		return this;
+	}
+
+	private TextLogBuffer appendFallback(double v)
+	{
+		if (fallback == null)
+			fallback = new DecimalFormat("0.##########E0");
+		return append(fallback.format(v));
+	}
+
+	/**
+	 * Returns v * 10^p, scaling by exact powers of ten.
+	 */
+	private static double scale(double v, int p)
+	{
+		while (p > 22)
+		{
+			v *= POW10[22];
+			p -= 22;
+		}
+		while (p < -22)
+		{
+			v /= POW10[22];
+			p += 22;
+		}
+		return p >= 0 ? v * POW10[p] : v / POW10[-p];
+	}
+
+	/**
+	 * Writes d.ddddE[-]x, where d.dddd are the digits of mantissa without trailing zeros.
+	 */
+	private void appendDigits(long mantissa, int exp)
+	{
+		while (mantissa % 10 == 0 && mantissa != 0)
+			mantissa /= 10;
+		int n = 0;
+		do
+		{
+			digits[n++] = (char) (zero + mantissa % 10);
+			mantissa /= 10;
+		} while (mantissa != 0);
+
+		ensure(n + 1 + exponentSeparator.length() + 5);
+		buf[len++] = digits[--n];
+		if (n > 0)
+		{
+			buf[len++] = decimalSeparator;
+			while (n > 0)
+				buf[len++] = digits[--n];
+		}
+		append(exponentSeparator);
+		if (exp < 0)
+		{
+			buf[len++] = minus;
+			exp = -exp;
+		}
+		do
+		{
+			digits[n++] = (char) (zero + exp % 10);
+			exp /= 10;
+		} while (exp != 0);
+		while (n > 0)
+			buf[len++] = digits[--n];
+	}
+
+	/**
+	 * Writes the buffer to out and empties it.
+	 */
+	public void writeTo(PrintWriter out)
+	{
+		out.write(buf, 0, len);
+		len = 0;
+	}
+
+	public void clear()
+	{
+		len = 0;
+	}
+
+	public int length()
+	{
+		return len;
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(buf, 0, len);
+	}
+
+	/**
+	 * Formats one value in the logs' scientific notation. This makes a new buffer, so
+	 * prefer <code>appendScientific()</code> when writing many values.
+	 */
+	public static String formatScientific(double v)
+	{
+		return new TextLogBuffer(32).appendScientific(v).toString();
+	}
+
+	private void ensure(int n)
+	{
+		if (len + n <= buf.length)
+			return;
+		char[] bigger = new char[Math.max(buf.length * 2, len + n)];
+		System.arraycopy(buf, 0, bigger, 0, len);
+		buf = bigger;
+	}
+}
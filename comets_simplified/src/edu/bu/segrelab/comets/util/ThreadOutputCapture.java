@@ -0,0 +1,135 @@
+package edu.bu.segrelab.comets.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Holds back what worker threads print, so work done in parallel can report in a
+ * fixed order.
+ * <p>
+ * While installed, this replaces <code>System.out</code>. A thread that has called
+ * <code>begin()</code> prints into its own buffer until it calls <code>end()</code>,
+ * which returns the text. A thread can also be sent somewhere else for good with
+ * <code>redirect()</code>, along with the threads it starts afterwards. Other threads
+ * still print straight through.
+ * <p>
+ * Installing again while installed shares the same capture, so independent users can
+ * overlap; <code>uninstall()</code> puts the original stream back once the last of
+ * them is done.
+ */
+public class ThreadOutputCapture extends OutputStream
+{
+	private static ThreadOutputCapture installed;
+
+	private final PrintStream original;
+	private final PrintStream replacement;
+	private int users;
+	private final ThreadLocal<ByteArrayOutputStream> buffer = new ThreadLocal<ByteArrayOutputStream>();
+	private final InheritableThreadLocal<OutputStream> target = new InheritableThreadLocal<OutputStream>();
+
+	private ThreadOutputCapture(PrintStream original)
+	{
+		this.original = original;
+		replacement = new PrintStream(this, true);
+	}
+
+	/**
+	 * Replaces System.out with a capturing stream, or joins the one already there.
+	 * @return the capture, to uninstall when done
+	 */
+	public static synchronized ThreadOutputCapture install()
+	{
+		if (installed == null || System.out != installed.replacement)
+		{
+			installed = new ThreadOutputCapture(System.out);
+			System.setOut(installed.replacement);
+		}
+		installed.users++;
+		return installed;
+	}
+
+	/**
+	 * Puts back the System.out from before install(), once every user of this
+	 * capture has uninstalled it.
+	 */
+	public void uninstall()
+	{
+		synchronized (ThreadOutputCapture.class)
+		{
+			replacement.flush();
+			if (--users > 0)
+				return;
+			if (System.out == replacement)
+				System.setOut(original);
+			if (installed == this)
+				installed = null;
+		}
+	}
+
+	/**
+	 * Starts holding back what the calling thread prints.
+	 */
+	public void begin()
+	{
+		buffer.set(new ByteArrayOutputStream());
+	}
+
+	/**
+	 * Stops holding back what the calling thread prints.
+	 * @return what it printed since begin()
+	 */
+	public String end()
+	{
+		replacement.flush();
+		ByteArrayOutputStream held = buffer.get();
+		buffer.remove();
+		return held == null ? "" : held.toString();
+	}
+
+	/**
+	 * Sends what the calling thread prints, and what threads it starts from now on
+	 * print, to out instead of the original stream.
+	 * @param out the stream, or null to print straight through again
+	 */
+	public void redirect(OutputStream out)
+	{
+		replacement.flush();
+		if (out == null)
+			target.remove();
+		else
+			target.set(out);
+	}
+
+	/**
+	 * @return where the calling thread's output goes
+	 */
+	private OutputStream destination()
+	{
+		ByteArrayOutputStream held = buffer.get();
+		if (held != null)
+			return held;
+		OutputStream out = target.get();
+		return out != null ? out : original;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		destination().write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		destination().write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		if (buffer.get() == null)
+			destination().flush();
+	}
+}
@@ -2,9 +2,16 @@ package edu.bu.segrelab.comets.util;
 
 //import java.text.NumberFormat;
 import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import edu.bu.segrelab.comets.CometsConstants;
 import edu.bu.segrelab.comets.CometsParameters;
@@ -19,13 +26,17 @@ import java.lang.Math;
  * <p>
  * I guess you could use your own random number generator, but the RNG used here is static,
  * so it's the only one used in any given instance of the program, thus it's more likely
- * to have values coming from a random stream.
+ * to have values coming from a random stream. A thread running its own simulation (e.g. 
+ * in a parameter sweep) can give itself and the threads it starts a separate one with
+ * <code>useLocalRandom()</code>.
  * @author Bill Riehl briehl@bu.edu
  * 
  */
 public class Utility implements CometsConstants
 {
-	private static Random rand = new Random();
+	private static volatile Random rand = new Random();
+	// a thread and the threads it starts share one holder, so a restored state reaches them all
+	private static final InheritableThreadLocal<AtomicReference<Random>> localRand = new InheritableThreadLocal<AtomicReference<Random>>();
 	private static final int X_DIM = 1;
 	private static final int Y_DIM = 2;
 	private static final int Z_DIM = 3;
@@ -122,7 +133,7 @@ public class Utility implements CometsConstants
 
 		for (int i = 0; i < n; i++)
 		{
-			int randomPos = rand.nextInt(n);
+			int randomPos = rand().nextInt(n);
 			int temp = order[i];
 			order[i] = order[randomPos];
 			order[randomPos] = temp;
@@ -139,7 +150,15 @@ public class Utility implements CometsConstants
 	 */
 	public static int randomInt(int n)
 	{
-		return rand.nextInt(n);
+		return rand().nextInt(n);
+	}
+
+	/**
+	 * @return a random integer from the whole int range
+	 */
+	public static int randomInt()
+	{
+		return rand().nextInt();
 	}
 
 	/**
@@ -150,7 +169,7 @@ public class Utility implements CometsConstants
 	 */
 	public static double randomDouble()
 	{
-		return rand.nextDouble();
+		return rand().nextDouble();
 	}
 
 	/**
@@ -161,7 +180,27 @@ public class Utility implements CometsConstants
 	 */
 	public static float randomFloat()
 	{
-		return rand.nextFloat();
+		return rand().nextFloat();
+	}
+
+	/**
+	 * @return a random value from the standard normal distribution
+	 */
+	public static double randomGaussian()
+	{
+		return rand().nextGaussian();
+	}
+
+	/**
+	 * Makes a random (version 4) UUID from the generator, so a run with the same seed
+	 * makes the same ones.
+	 * @return the UUID
+	 */
+	public static UUID randomUUID()
+	{
+		long msb = (rand().nextLong() & ~0xf000L) | 0x4000L;
+		long lsb = (rand().nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
 	}
 	
     /**
@@ -170,7 +209,80 @@ public class Utility implements CometsConstants
      */
 	public static void randomSetSeed(long seed)
 	{
-		rand.setSeed(seed);
+		rand().setSeed(seed);
+	}
+
+	/**
+	 * Gives the calling thread, and the threads it starts from now on, their own random
+	 * number generator instead of the shared one.
+	 * @param r the generator, or null to go back to the shared one
+	 */
+	public static void useLocalRandom(Random r)
+	{
+		if (r == null)
+			localRand.remove();
+		else
+			localRand.set(new AtomicReference<Random>(r));
+	}
+
+	/**
+	 * @return the calling thread's random number generator
+	 */
+	private static Random rand()
+	{
+		AtomicReference<Random> local = localRand.get();
+		return local != null ? local.get() : rand;
+	}
+
+	/**
+	 * Returns the state of the random number generator, so a checkpointed run can
+	 * carry on with the same random stream.
+	 * @return the serialized generator
+	 */
+	public static byte[] getRandomState()
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(rand());
+			out.close();
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Unable to save the random number generator", e);
+		}
+	}
+
+	/**
+	 * Restores a state returned by <code>getRandomState()</code>, for the calling thread
+	 * and every thread that shares its generator, including run threads that were
+	 * started before the restore.
+	 * @param state
+	 * @throws IOException if the state can't be read
+	 */
+	public static void setRandomState(byte[] state) throws IOException
+	{
+		try
+		{
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state));
+			Random restored = (Random) in.readObject();
+			AtomicReference<Random> local = localRand.get();
+			if (local != null)
+				local.set(restored);
+			else
+				rand = restored;
+			in.close();
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new IOException("Unknown random number generator in checkpoint", e);
+		}
+		catch (ClassCastException e)
+		{
+			throw new IOException("Unknown random number generator in checkpoint", e);
+		}
 	}
 	
 	/**
@@ -1356,8 +1468,8 @@ public class Utility implements CometsConstants
 		}
 		else
 		{	
-			rand1=rand.nextDouble();
-			rand2=rand.nextDouble();
+			rand1=rand().nextDouble();
+			rand2=rand().nextDouble();
 		}
 		
 		if(rand1==0.0)
@@ -0,0 +1,19 @@
+package edu.bu.segrelab.comets.util;
+
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * A colt <code>RandomEngine</code> that draws from <code>Utility</code>'s random number
+ * generator, so colt distributions follow the run's random seed, and in a parameter
+ * sweep or replicate ensemble, the simulation's own generator.
+ */
+public class UtilityRandomEngine extends RandomEngine
+{
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public int nextInt()
+	{
+		return Utility.randomInt();
+	}
+}
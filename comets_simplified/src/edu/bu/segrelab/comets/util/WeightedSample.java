@@ -1,19 +1,19 @@
 package edu.bu.segrelab.comets.util;
 
-import cern.jet.random.engine.DRand;
+import cern.jet.random.engine.RandomEngine;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 
 public class WeightedSample<E> {
 	private final NavigableMap<Double, E> map = new TreeMap<Double, E>();
-	private final DRand random;
+	private final RandomEngine random;
 	private double total = 0;
 	
 	public WeightedSample() {
-		this(new DRand(new java.util.Date()));
+		this(new UtilityRandomEngine());
 	}
 	
-	public WeightedSample(DRand random) {
+	public WeightedSample(RandomEngine random) {
          this.random = random;
 	}
 